@@ -0,0 +1,90 @@
+package deerBase;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha). T1 holds pages seen once
+ * recently, T2 pages seen at least twice; the ghost lists B1 and B2 remember
+ * the ids evicted from them. A miss that hits a ghost list moves the target
+ * size p of T1 towards the list that would have kept the page, so the policy
+ * tunes itself between recency (scans) and frequency (hot sets).
+ */
+public class ARCPolicy extends EvictionPolicy {
+
+	private final LinkedHashMap<PageId, Frame> t1 = new LinkedHashMap<>();
+	private final LinkedHashMap<PageId, Frame> t2;
+	private final LinkedHashSet<PageId> b1 = new LinkedHashSet<>();
+	private final LinkedHashSet<PageId> b2 = new LinkedHashSet<>();
+	/** target size of T1 */
+	private int p = 0;
+
+	public ARCPolicy(int capacity) {
+		super(capacity);
+		this.t2 = new LinkedHashMap<>(capacity * 4 / 3 + 1, 0.75f, true);
+	}
+
+	@Override
+	public synchronized void onAccess(Frame frame) {
+		// a lookup may race an evict and re-insert of the page, only promote
+		// the frame that is still listed
+		if (t1.remove(frame.pid, frame)) {
+			t2.put(frame.pid, frame);
+		} else {
+			t2.get(frame.pid);
+		}
+	}
+
+	@Override
+	public synchronized void onInsert(Frame frame) {
+		if (b1.remove(frame.pid)) {
+			p = Math.min(capacity, p + Math.max(1, b2.size() / Math.max(1, b1.size())));
+			t2.put(frame.pid, frame);
+		} else if (b2.remove(frame.pid)) {
+			p = Math.max(0, p - Math.max(1, b1.size() / Math.max(1, b2.size())));
+			t2.put(frame.pid, frame);
+		} else {
+			t1.put(frame.pid, frame);
+		}
+		// trim only after the lookup, see TwoQPolicy.onInsert
+		// |T1| + |B1| <= c and |T1| + |T2| + |B1| + |B2| <= 2c
+		trim(b1, capacity - t1.size());
+		trim(b2, 2 * capacity - t1.size() - t2.size() - b1.size());
+	}
+
+	@Override
+	public synchronized void onRemove(Frame frame, boolean evicted) {
+		if (t1.remove(frame.pid) != null) {
+			if (evicted) {
+				b1.add(frame.pid);
+			}
+		} else if (t2.remove(frame.pid) != null && evicted) {
+			b2.add(frame.pid);
+		}
+	}
+
+	private static void trim(LinkedHashSet<PageId> ghosts, int maxSize) {
+		Iterator<PageId> eldest = ghosts.iterator();
+		while (ghosts.size() > Math.max(0, maxSize)) {
+			eldest.next();
+			eldest.remove();
+		}
+	}
+
+	@Override
+	public synchronized Frame chooseVictim(Predicate<Frame> evictable) {
+		boolean fromT1 = !t1.isEmpty() && t1.size() >= Math.max(1, p);
+		Frame victim = LRUPolicy.firstEvictable(fromT1 ? t1 : t2, evictable);
+		if (victim == null) {
+			victim = LRUPolicy.firstEvictable(fromT1 ? t2 : t1, evictable);
+		}
+		return victim;
+	}
+
+	@Override
+	public Kind getKind() {
+		return Kind.ARC;
+	}
+}
@@ -1,5 +1,6 @@
 package deerBase;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -11,11 +12,17 @@ public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private DbIterator child;
+    private int afield;
+    private int gfield;
+    private Aggregator.Op aop;
+    private DbIterator results;
+
     /**
      * Constructor.
      * 
      * Implementation hint: depending on the type of afield, you will want to
-     * construct an {@link IntAggregator} or {@link StringAggregator} to help
+     * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
      * you with your implementation of readNext().
      * 
      * 
@@ -30,7 +37,14 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
-	// some code goes here
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        if (child.getTupleDesc().getFieldType(afield) != Type.INT_TYPE
+                && aop != Aggregator.Op.COUNT) {
+            throw new IllegalArgumentException("can only count strings, not " + aop);
+        }
     }
 
     /**
@@ -39,8 +53,7 @@ public class Aggregate extends Operator {
      *         {@link simpledb.Aggregator#NO_GROUPING}
      * */
     public int groupField() {
-	// some code goes here
-	return -1;
+        return gfield;
     }
 
     /**
@@ -49,16 +62,17 @@ public class Aggregate extends Operator {
      *         null;
      * */
     public String groupFieldName() {
-	// some code goes here
-	return null;
+        if (gfield == Aggregator.NO_GROUPING) {
+            return null;
+        }
+        return getTupleDesc().getFieldName(0);
     }
 
     /**
      * @return the aggregate field
      * */
     public int aggregateField() {
-	// some code goes here
-	return -1;
+        return afield;
     }
 
     /**
@@ -66,16 +80,15 @@ public class Aggregate extends Operator {
      *         tuples
      * */
     public String aggregateFieldName() {
-	// some code goes here
-	return null;
+        TupleDesc td = getTupleDesc();
+        return td.getFieldName(td.numFields() - 1);
     }
 
     /**
      * @return return the aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
-	// some code goes here
-	return null;
+        return aop;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -83,8 +96,22 @@ public class Aggregate extends Operator {
     }
 
     public void open() throws NoSuchElementException, DbException,
-	    TransactionAbortedException {
-	// some code goes here
+            TransactionAbortedException, IOException {
+        child.open();
+        super.open();
+
+        Type gtype = (gfield == Aggregator.NO_GROUPING) ? null
+                : child.getTupleDesc().getFieldType(gfield);
+        Aggregator agg = (child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE)
+                ? new IntegerAggregator(gfield, gtype, afield, aop)
+                : new StringAggregator(gfield, gtype, afield, aop);
+        // the child is read a batch at a time, see Aggregator#mergeBatch
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            agg.mergeBatch(batch);
+        }
+        results = agg.iterator();
+        results.open();
     }
 
     /**
@@ -94,13 +121,21 @@ public class Aggregate extends Operator {
      * the result tuple should contain one field representing the result of the
      * aggregate. Should return null if there are no more tuples.
      */
-    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-	// some code goes here
-	return null;
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException,
+            NoSuchElementException, IOException {
+        return fetchNextFromBatch();
+    }
+
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException,
+            DbException, NoSuchElementException, IOException {
+        return results.nextBatch();
     }
 
-    public void rewind() throws DbException, TransactionAbortedException {
-	// some code goes here
+    public void rewind() throws DbException, TransactionAbortedException,
+            NoSuchElementException, IOException {
+        // the groups are kept, no need to read the child again
+        results.rewind();
+        discardFetched();
     }
 
     /**
@@ -115,23 +150,34 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-	// some code goes here
-	return null;
+        TupleDesc childTd = child.getTupleDesc();
+        String aname = nameOfAggregatorOp(aop) + " (" + childTd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING) {
+            return new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aname });
+        }
+        return new TupleDesc(new Type[] { childTd.getFieldType(gfield), Type.INT_TYPE },
+                new String[] { childTd.getFieldName(gfield), aname });
     }
 
     public void close() {
-	// some code goes here
+        super.close();
+        child.close();
+        if (results != null) {
+            results.close();
+            results = null;
+        }
     }
 
     @Override
     public DbIterator[] getChildren() {
-	// some code goes here
-	return null;
+        return new DbIterator[] { child };
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
-	// some code goes here
+        if (child != children[0]) {
+            child = children[0];
+        }
     }
     
 }
@@ -57,6 +57,18 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge the tuples of a batch into their groups, as mergeTupleIntoGroup
+     * would one at a time.
+     *
+     * @param batch the Tuples to merge
+     */
+    public default void mergeBatch(TupleBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            mergeTupleIntoGroup(batch.get(i));
+        }
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -2,6 +2,7 @@ package deerBase;
 
 import java.io.*;
 import java.util.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 import deerBase.Predicate.Op;
@@ -45,65 +46,90 @@ public class BTreeFile extends DbFile {
 	@Override
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(getFile()));
-			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BTreeRootPtrPage.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-				}
-				//Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
-				return p;
+			ByteBuffer slice = mappedPage(id);
+			if (slice != null) {
+				return createPage(id, slice);
 			}
-			else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) != 
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BufferPool.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BufferPool.getPageSize() + " bytes from BTreeFile");
-				}
-				//Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				}
-				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				}
-				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
-				}
+			// one positional read at the page's offset, see ChannelPool
+			byte pageBuf[] = new byte[getPageLength(id)];
+			int retval = readData(getPageOffset(id), pageBuf);
+			if (retval == 0) {
+				throw new IllegalArgumentException("Read past end of table");
+			}
+			if (retval < pageBuf.length) {
+				throw new IllegalArgumentException("Unable to read "
+						+ pageBuf.length + " bytes from BTreeFile");
 			}
+			//Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
+			return createPage(id, pageBuf);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-			}
 		}
 	}
 
+	/**
+	 * The root pointer page comes first, followed by the other pages numbered from 1
+	 */
+	@Override
+	public long getPageOffset(PageId pid) {
+		BTreePageId id = (BTreePageId) pid;
+		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return 0;
+		}
+		return BTreeRootPtrPage.getPageSize() + (long) (id.pageNumber()-1) * BufferPool.getPageSize();
+	}
+
+	@Override
+	public int getPageLength(PageId pid) {
+		if(((BTreePageId) pid).pgcateg() == BTreePageId.ROOT_PTR) {
+			return BTreeRootPtrPage.getPageSize();
+		}
+		return BufferPool.getPageSize();
+	}
+
+	/**
+	 * Construct a B+ tree page of the category given by its id from its image
+	 * 
+	 * @param pid - the id of the page
+	 * @param data - the page image, as returned by getPageData()
+	 */
+	@Override
+	public Page createPage(PageId pid, byte[] data) throws IOException {
+		BTreePageId id = (BTreePageId) pid;
+		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return new BTreeRootPtrPage(id, data);
+		}
+		else if(id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, data, keyField);
+		}
+		else if(id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, data, keyField);
+		}
+		else { // id.pgcateg() == BTreePageId.HEADER
+			return new BTreeHeaderPage(id, data);
+		}
+	}
+
+	/**
+	 * Construct a B+ tree page from a slice of the mapped file; leaf and
+	 * internal pages are decoded without copying the slice first
+	 */
+	@Override
+	public Page createPage(PageId pid, ByteBuffer data) throws IOException {
+		BTreePageId id = (BTreePageId) pid;
+		if(id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, data, keyField);
+		}
+		else if(id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, data, keyField);
+		}
+		byte[] copy = new byte[data.remaining()];
+		data.duplicate().get(copy);
+		return createPage(id, copy);
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -112,19 +138,8 @@ public class BTreeFile extends DbFile {
 	 */
 	@Override
 	public void writePage(Page page) throws IOException {
-		BTreePageId id = (BTreePageId) page.getId();
-		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(getFile(), "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
-		}
+		writeData(getPageOffset(page.getId()), page.getPageData());
+		batchWritten();
 	}
 	
 	/**
@@ -132,7 +147,21 @@ public class BTreeFile extends DbFile {
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((getFile().length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return (int) ((getLength() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+	}
+
+	/**
+	 * The root pointer page, then the other pages; the category of the ids
+	 * other than the root pointer is not known without reading the pages
+	 */
+	@Override
+	protected List<PageId> getPageIds() {
+		List<PageId> pids = new ArrayList<PageId>();
+		pids.add(BTreeRootPtrPage.getId(getTableId()));
+		for (int i = 1; i <= numPages(); i++) {
+			pids.add(new BTreePageId(getTableId(), i, BTreePageId.LEAF));
+		}
+		return pids;
 	}
 
 	/**
@@ -533,6 +562,10 @@ public class BTreeFile extends DbFile {
 		}
 		else {
 			Page p = Database.getBufferPool().getPage(tid, pid, perm);
+			// a split or merge may touch more pages than the buffer pool holds; pages
+			// kept in dirtypages are put back into the buffer pool with the result,
+			// so they do not have to stay pinned
+			Database.getBufferPool().unpinPage(tid, pid);
 			if(perm == Permissions.READ_WRITE) {
 				dirtypages.put(pid, p);
 			}
@@ -1172,15 +1205,11 @@ public class BTreeFile extends DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(getFile().length() == 0) {
+			if(getLength() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(getFile(), true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				writeData(0, new byte[][] { emptyRootPtrData, emptyLeafData });
 			}
 		}
 
@@ -1235,12 +1264,9 @@ public class BTreeFile extends DbFile {
 		// or there are no free slots
 		if(headerId == null) {		
 			synchronized(this) {
-				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(getFile(), true));
+				// create the new page at the end of the file
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				writeData(getLength(), emptyData);
 				emptyPageNo = numPages(); // Note by mygao, numPages()-1
 			}
 		}
@@ -1271,10 +1297,7 @@ public class BTreeFile extends DbFile {
 		BTreePageId newPageId = new BTreePageId(getTableId(), emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(getFile(), "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		writeData(getPageOffset(newPageId), BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1425,11 +1448,26 @@ class BTreeFileItr implements DbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
+		int pinCount = Database.getBufferPool().getPinCount(tid);
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getFileId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+		curp = pinLeafOnly(tid, curp, pinCount);
 		it = curp.iterator();
+		Database.getBufferPool().readAhead(curp);
+	}
+
+	/**
+	 * Release the pins taken while descending to a leaf, except the one on
+	 * the leaf itself which stays pinned while its tuples are returned.
+	 * @param pinCount the pins tid held before the descent
+	 * @return the pinned leaf
+	 */
+	static BTreeLeafPage pinLeafOnly(TransactionId tid, BTreeLeafPage leaf, int pinCount)
+			throws DbException, TransactionAbortedException {
+		Database.getBufferPool().unpinPages(tid, pinCount);
+		return (BTreeLeafPage) Database.getBufferPool().getPage(tid, leaf.getId(), Permissions.READ_ONLY);
 	}
 
 	/**
@@ -1444,12 +1482,14 @@ class BTreeFileItr implements DbFileIterator {
 
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
+			Database.getBufferPool().unpinPage(tid, curp.getId());
 			if(nextp == null) {
 				curp = null;
 			}
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				Database.getBufferPool().readAhead(curp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1477,6 +1517,9 @@ class BTreeFileItr implements DbFileIterator {
         // Ensures that a future call to next() will fail
         next = null;
 		it = null;
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+		}
 		curp = null;
 	}
 
@@ -1534,6 +1577,7 @@ class BTreeSearchItr implements DbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
+		int pinCount = Database.getBufferPool().getPinCount(tid);
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getFileId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
@@ -1544,7 +1588,12 @@ class BTreeSearchItr implements DbFileIterator {
 		else {
 			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
 		}
+		curp = BTreeFileItr.pinLeafOnly(tid, curp, pinCount);
 		it = curp.iterator();
+		// an equality search rarely leaves its first leaf
+		if (ipred.getOp() != Op.EQUALS) {
+			Database.getBufferPool().readAhead(curp, ipred);
+		}
 	}
 
 	/**
@@ -1581,8 +1630,12 @@ class BTreeSearchItr implements DbFileIterator {
 				return null;
 			}
 			else {
+				Database.getBufferPool().unpinPage(tid, curp.getId());
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				if (ipred.getOp() != Op.EQUALS) {
+					Database.getBufferPool().readAhead(curp, ipred);
+				}
 				it = curp.iterator();
 			}
 		}
@@ -1606,6 +1659,9 @@ class BTreeSearchItr implements DbFileIterator {
         // Ensures that a future call to next() will fail
         next = null;
 		it = null;
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+		}
 		curp = null;
 	}
 
@@ -181,7 +181,9 @@ public class BTreeFileEncoder {
 	}
 
 	/** 
-	 * Faster method to encode the B+ tree file
+	 * Faster method to encode the B+ tree file: the tuples are sorted on the
+	 * key with an ExternalSort, and the pages are built bottom-up from the
+	 * sorted stream, so the input does not have to fit in memory.
 	 * 
 	 * @param inFile - the file containing the raw data
 	 * @param hFile - the data file for the HeapFile to be used as an intermediate conversion step
@@ -203,17 +205,17 @@ public class BTreeFileEncoder {
 		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields);
 		HeapFile heapf = Utility.openHeapFile(numFields, hFile);
 
-		// read all the tuples from the heap file and sort them on the keyField
-		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		// sort the tuples of the heap file on the keyField, in runs merged as
+		// the leaf pages are built, so the table does not have to fit in memory
 		TransactionId tid = new TransactionId();
 		DbFileIterator it = Database.getCatalog().getDbFile(heapf.getId()).iterator(tid);
 		it.open();
-		while (it.hasNext()) {
-			Tuple tup = it.next();
-			tuples.add(tup);
+		ExternalSort.Sorted tuples;
+		try {
+			tuples = ExternalSort.sort(it, heapf.getTupleDesc(), new TupleComparator(keyField));
+		} finally {
+			it.close();
 		}
-		it.close();
-		Collections.sort(tuples, new TupleComparator(keyField));
 
 		// add the tuples to B+ tree file
 		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
@@ -247,7 +249,8 @@ public class BTreeFileEncoder {
 		ArrayList<Tuple> page1 = new ArrayList<Tuple>();
 		ArrayList<Tuple> page2 = new ArrayList<Tuple>();
 		BTreePageId leftSiblingId = null;
-		for(Tuple tup : tuples) {
+		while(tuples.hasNext()) {
+			Tuple tup = tuples.next();
 			if(page1.size() < nrecords) {
 				page1.add(tup);
 			}
@@ -273,6 +276,7 @@ public class BTreeFileEncoder {
 				page2.add(tup);
 			}
 		}
+		tuples.close();
 
 		// now we need to deal with the end cases. There are two options:
 		// 1. We have less than or equal to a full page of records. Because of the way the code
@@ -346,12 +350,13 @@ public class BTreeFileEncoder {
 	 */
 	private static void setRightSiblingPtrs(BTreeFile bf, BTreePageId pid, BTreePageId rightSiblingId) 
 			throws IOException, DbException {
-		BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
-		page.setRightSiblingId(rightSiblingId);
-		BTreePageId leftSiblingId = page.getLeftSiblingId();
-		bf.writePage(page);
-		if(leftSiblingId != null) {
-			setRightSiblingPtrs(bf, leftSiblingId, page.getId());
+		// a loop rather than a recursion: there is a page per leaf
+		while(pid != null) {
+			BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
+			page.setRightSiblingId(rightSiblingId);
+			bf.writePage(page);
+			rightSiblingId = pid;
+			pid = page.getLeftSiblingId();
 		}
 	}
 
@@ -24,7 +24,7 @@ public class BTreeHeaderPage implements Page {
 	private int nextPage; // next header page or 0
 	private int prevPage; // previous header page or 0
 
-	byte[] oldData;
+	byte[] oldData; // null when the current contents are the before-image
 	private final Byte oldDataLock = 0;
 
 	/**
@@ -98,7 +98,7 @@ public class BTreeHeaderPage implements Page {
 			byte[] oldDataRef = null;
 			synchronized(oldDataLock)
 			{
-				oldDataRef = oldData;
+				oldDataRef = oldData != null ? oldData : getPageData();
 			}
 			return new BTreeHeaderPage(pid,oldDataRef);
 		} catch (IOException e) {
@@ -112,7 +112,16 @@ public class BTreeHeaderPage implements Page {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = null;
+		}
+	}
+
+	public void captureBeforeImage() {
+		synchronized(oldDataLock)
+		{
+			if (oldData == null) {
+				oldData = getPageData();
+			}
 		}
 	}
 
@@ -2,6 +2,7 @@ package deerBase;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
@@ -62,9 +63,17 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
+		this(id, ByteBuffer.wrap(data), key);
+	}
+
+	/**
+	 * Create a BTreeLeafPage from the bytes between the position and the limit
+	 * of data, e.g. a slice of a mapped file, without copying them first.
+	 */
+	public BTreeLeafPage(BTreePageId id, ByteBuffer data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		DataInputStream dis = new DataInputStream(new ByteBufferInputStream(data.duplicate()));
 
 		// Read the parent and sibling pointers
 		try {
@@ -132,12 +141,7 @@ public class BTreeLeafPage extends BTreePage {
         -- used by recovery */
 	public BTreeLeafPage getBeforeImage(){
 		try {
-			byte[] oldDataRef = null;
-			synchronized(oldDataLock)
-			{
-				oldDataRef = oldData;
-			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			return new BTreeLeafPage(pid,getBeforeImageData(),keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -146,13 +150,6 @@ public class BTreeLeafPage extends BTreePage {
 		return null;
 	}
 
-	public void setBeforeImage() {
-		synchronized(oldDataLock)
-		{
-			oldData = getPageData().clone();
-		}
-	}
-
 	/**
 	 * Read tuples from the source file.
 	 */
@@ -491,6 +488,21 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageReverseIterator(this);
 	}
 
+	/**
+	 * Whether a range scan with the given predicate goes on to the right sibling
+	 * of this page, i.e. the predicate has no upper bound or the last key on this
+	 * page is still within it. Used to stop reading ahead past the end of a scan.
+	 * @param ipred the predicate of the scan, null for a full scan
+	 */
+	boolean scanContinuesRight(IndexPredicate ipred) {
+		if (ipred == null
+				|| (ipred.getOp() != Predicate.Op.LESS_THAN && ipred.getOp() != Predicate.Op.LESS_THAN_OR_EQ)) {
+			return true;
+		}
+		Iterator<Tuple> it = reverseIterator();
+		return !it.hasNext() || it.next().getField(keyField).compare(ipred.getOp(), ipred.getField());
+	}
+
 	/**
 	 * protected method used by the iterator to get the ith tuple out of this page
 	 * @param i - the index of the tuple
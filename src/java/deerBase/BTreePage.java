@@ -24,7 +24,7 @@ public abstract class BTreePage implements Page {
 	protected final int keyField;
 
 	protected int parent; // parent is always internal node or 0 for root node
-	protected byte[] oldData;
+	protected byte[] oldData; // null when the current contents are the before-image
 	protected final Byte oldDataLock= 0;
 
 	/**
@@ -64,6 +64,33 @@ public abstract class BTreePage implements Page {
 		return pid;
 	}
 
+	public void setBeforeImage() {
+		synchronized(oldDataLock)
+		{
+			oldData = null;
+		}
+	}
+
+	public void captureBeforeImage() {
+		synchronized(oldDataLock)
+		{
+			if (oldData == null) {
+				oldData = getPageData();
+			}
+		}
+	}
+
+	/**
+	 * @return the data of the before-image: the captured copy, or the current
+	 * contents if no transaction modified this page since setBeforeImage
+	 */
+	protected byte[] getBeforeImageData() {
+		synchronized(oldDataLock)
+		{
+			return oldData != null ? oldData : getPageData();
+		}
+	}
+
 	/**
 	 * Static method to generate a byte array corresponding to an empty
 	 * BTreePage.
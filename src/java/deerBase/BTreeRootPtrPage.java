@@ -22,7 +22,7 @@ public class BTreeRootPtrPage implements Page {
 	private int rootCategory;
 	private int header;
 
-	private byte[] oldData;
+	private byte[] oldData; // null when the current contents are the before-image
 
 	/**
 	 * Constructor.
@@ -48,7 +48,13 @@ public class BTreeRootPtrPage implements Page {
 	}
 
 	public void setBeforeImage() {
-		oldData = getPageData().clone();
+		oldData = null;
+	}
+
+	public void captureBeforeImage() {
+		if (oldData == null) {
+			oldData = getPageData();
+		}
 	}
 
 	/**
@@ -156,7 +162,8 @@ public class BTreeRootPtrPage implements Page {
         -- used by recovery */
 	public BTreeRootPtrPage getBeforeImage(){
 		try {
-			return new BTreeRootPtrPage(pid,oldData);
+			byte[] oldDataRef = oldData;
+			return new BTreeRootPtrPage(pid,oldDataRef != null ? oldDataRef : getPageData());
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -3,11 +3,20 @@ package deerBase;
 import java.io.*;
 import java.time.chrono.MinguoChronology;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.Set;
 import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -51,10 +60,47 @@ public class BufferPool {
     
     private static double loadTableRatio = DEFUALT_LOAD_TABLE_RATIO;
     
+    /** Default ratio of table.numPages() / BufferPool.numPages() above which
+     * a sequential scan reads through a private ScanRing */
+    public static final double DEFAULT_SCAN_RING_THRESHOLD = 0.25;
+    
+    private static double scanRingThreshold = DEFAULT_SCAN_RING_THRESHOLD;
+    private static int scanRingPages = ScanRing.DEFAULT_RING_PAGES;
+    
+    /** Pages kept off-heap by buffer pools created from now on, 0 for none */
+    private static int offHeapPages = Integer.getInteger("deerBase.OffHeapPages", 0);
+    
+    /** Where buffer pools save the ids of their pages when shut down, null for nowhere */
+    private static File snapshotFile = snapshotFileProperty();
+    
+    /** Table quotas of buffer pools created from now on, by table name */
+    private static HashMap<String, TableQuota> tableQuotas = new HashMap<>(TableQuota.fromProperty());
+    
+    /** Eviction policy of buffer pools created from now on, see EvictionPolicy */
+    private static EvictionPolicy.Kind evictionPolicy = EvictionPolicy.Kind.fromProperty();
+    
     private int numPages;
-    private int numUsedPages;
-    private LRUCache cache;
-    private LRUCache fixedMap;
+    private PageTable cache;
+    private final Metrics metrics;
+    
+    private final HashMap<String, TableQuota> quotas;
+    /** partitions of the tables with a RESERVE quota, by table name */
+    private final HashMap<String, PageTable> reserved = new HashMap<>();
+    /** partitions in use by reserved and pinned tables */
+    private final CopyOnWriteArrayList<PageTable> partitions = new CopyOnWriteArrayList<>();
+    /** ids of the pinned tables whose partition is not loaded yet */
+    private final Set<Integer> unloaded = ConcurrentHashMap.newKeySet();
+    /** page table of each table id looked up, cache unless it has a partition */
+    private final ConcurrentHashMap<Integer, PageTable> tables = new ConcurrentHashMap<>();
+    /** maximum resident pages of the tables with a CAP quota, by table id */
+    private final ConcurrentHashMap<Integer, Integer> caps = new ConcurrentHashMap<>();
+    private PageCleaner[] cleaners = new PageCleaner[0];
+    private Timer snapshotTimer = null;
+    private final Prefetcher prefetcher;
+    private final OffHeapArena arena;
+    
+    /** frames pinned by getPage, per transaction in pin order */
+    private final ConcurrentHashMap<TransactionId, ArrayList<Frame>> pins = new ConcurrentHashMap<>();
     
     //private Database.getLockManager() Database.getLockManager();
     
@@ -65,9 +111,35 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
     	this.numPages = numPages;
-    	this.numUsedPages = 0;
-    	this.cache = new LRUCache(numPages);
-    	this.fixedMap = new LRUCache(numPages);
+    	this.quotas = new HashMap<>(tableQuotas);
+    	// reserved frames are taken from the shared table, which keeps at least one
+    	int shared = numPages;
+    	for (Map.Entry<String, TableQuota> quota : quotas.entrySet()) {
+    		if (quota.getValue().getKind() == TableQuota.Kind.RESERVE) {
+    			int pages = Math.min(quota.getValue().getPages(numPages), shared - 1);
+    			if (pages > 0) {
+    				reserved.put(quota.getKey(), new PageTable(pages, evictionPolicy, this));
+    				shared -= pages;
+    			}
+    		}
+    	}
+    	this.cache = new PageTable(shared, evictionPolicy, this);
+    	this.prefetcher = new Prefetcher(this, numPages);
+    	this.arena = offHeapPages > 0 ? new OffHeapArena(offHeapPages, pageSize) : null;
+    	this.metrics = new Metrics(this);
+    	metrics.register();
+    	
+    	String snapshotInterval = System.getProperty("deerBase.SnapshotInterval");
+    	if (snapshotFile != null && snapshotInterval != null && !snapshotInterval.isEmpty()) {
+    		startSnapshots(snapshotFile, Long.parseLong(snapshotInterval));
+    	}
+    	
+    	String numCleaners = System.getProperty("deerBase.PageCleaners");
+    	if (numCleaners != null && !numCleaners.isEmpty()) {
+    		String interval = System.getProperty("deerBase.PageCleanerInterval");
+    		startPageCleaners(Integer.parseInt(numCleaners), interval == null || interval.isEmpty()
+    				? PageCleaner.DEFAULT_INTERVAL_MS : Long.parseLong(interval));
+    	}
     }
 
     public BufferPool(int numPages, float loadTableRatio) {
@@ -89,6 +161,458 @@ public class BufferPool {
     	BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
     
+    /** Set the number of off-heap page slots of buffer pools created
+     * afterwards, 0 to keep all pages on the heap */
+    public static void setOffHeapPages(int pages) {
+    	BufferPool.offHeapPages = pages;
+    }
+    
+    // Only used for testing
+    public static void resetOffHeapPages() {
+    	BufferPool.offHeapPages = Integer.getInteger("deerBase.OffHeapPages", 0);
+    }
+    
+    /** @return the off-heap arena of this pool, null if it has none */
+    public OffHeapArena getOffHeapArena() {
+    	return arena;
+    }
+    
+    /**
+     * Called by the PageTable when it evicts a clean page: keep its image
+     * off-heap so that the next miss does not have to read the disk.
+     */
+    void pageEvicted(Page page) {
+    	metrics.evicted(page.getId().getTableId());
+    	if (arena != null) {
+    		arena.store(page);
+    	}
+    }
+    
+    /** @return the page re-materialized from the off-heap arena, or null */
+    private Page loadOffHeap(PageId pid, DbFile dbFile) {
+    	byte[] data = arena == null ? null : arena.load(pid);
+    	if (data == null) {
+    		return null;
+    	}
+    	try {
+    		return dbFile.createPage(pid, data);
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    		arena.remove(pid);
+    		return null;
+    	}
+    }
+    
+    /**
+     * Set the quota of a table for buffer pools created afterwards, e.g. by
+     * Database.resetBufferPool, see TableQuota.
+     * @param quota the quota, null to remove the table's quota
+     */
+    public static void setTableQuota(String tableName, TableQuota quota) {
+    	if (quota == null) {
+    		tableQuotas.remove(tableName);
+    	} else {
+    		tableQuotas.put(tableName, quota);
+    	}
+    }
+    
+    public static TableQuota getTableQuota(String tableName) {
+    	return tableQuotas.get(tableName);
+    }
+    
+    // Only used for testing
+    public static void resetTableQuotas() {
+    	BufferPool.tableQuotas = new HashMap<>(TableQuota.fromProperty());
+    }
+    
+    /** @return the page table caching pid, the shared one unless its table has a partition */
+    private PageTable tableFor(PageId pid) {
+    	if (quotas.isEmpty()) {
+    		return cache;
+    	}
+    	PageTable table = tables.get(pid.getTableId());
+    	if (table != null) {
+    		return table;
+    	}
+    	table = resolveTable(pid.getTableId());
+    	// the thread that made the partition reads the table, outside the monitor
+    	if (unloaded.remove(pid.getTableId())) {
+    		loadTable(Database.getCatalog().getDbFile(pid.getTableId()), table);
+    	}
+    	return table;
+    }
+    
+    /**
+     * Apply the quota of a table the first time one of its pages is used;
+     * a pinned table gets a partition of its own here, with frames taken
+     * from the shared table. It is loaded by tableFor.
+     */
+    private synchronized PageTable resolveTable(int tableId) {
+    	PageTable table = tables.get(tableId);
+    	if (table != null) {
+    		return table;
+    	}
+    	String tableName;
+    	DbFile dbFile;
+    	try {
+    		tableName = Database.getCatalog().getTableName(tableId);
+    		dbFile = Database.getCatalog().getDbFile(tableId);
+    	} catch (NoSuchElementException e) {
+    		return cache;
+    	}
+    	table = cache;
+    	TableQuota quota = quotas.get(tableName);
+    	if (quota != null) {
+    		switch (quota.getKind()) {
+    		case RESERVE:
+    			if (reserved.containsKey(tableName)) {
+    				table = reserved.get(tableName);
+    				partitions.add(table);
+    			}
+    			break;
+    		case CAP:
+    			caps.put(tableId, quota.getPages(cache.getCapacity()));
+    			break;
+    		case PIN:
+    			PageTable partition = dbFile.getNumPages() <= loadTableRatio * numPages
+    					? pinTable(dbFile) : null;
+    			if (partition != null) {
+    				table = partition;
+    				partitions.add(table);
+    				unloaded.add(tableId);
+    			} else {
+    				Debug.log("table %s is too large to be pinned", tableName);
+    			}
+    			break;
+    		}
+    	}
+    	tables.put(tableId, table);
+    	return table;
+    }
+    
+    /**
+     * Make a partition for a whole table, with room to grow by a quarter,
+     * out of frames of the shared table, so that pinned tables do not make
+     * the pool larger than numPages. Pages of the table cached in the
+     * shared table are moved over.
+     * @return the partition, or null if the shared table can't spare the frames
+     */
+    private PageTable pinTable(DbFile dbFile) {
+    	int tableId = dbFile.getTableId();
+    	int n = dbFile.getNumPages();
+    	ArrayList<Page> resident = new ArrayList<>();
+    	Iterator<PageId> pidItr = cache.keyIterator();
+    	while (pidItr.hasNext()) {
+    		PageId pid = pidItr.next();
+    		if (pid.getTableId() == tableId) {
+    			Page page = cache.remove(pid);
+    			if (page != null) {
+    				resident.add(page);
+    			}
+    		}
+    	}
+    	PageTable partition = null;
+    	try {
+    		int frames = cache.shrink(Math.max(n + n / 4, 1));
+    		if (frames >= n && frames > 0) {
+    			partition = new PageTable(frames, evictionPolicy, this);
+    		} else if (frames > 0) {
+    			// too few frames are free of pins, give them back
+    			cache.grow(frames);
+    		}
+    		PageTable target = partition != null ? partition : cache;
+    		for (Page page : resident) {
+    			target.putIfAbsent(page.getId(), page);
+    		}
+    	} catch (DbException e) {
+    		e.printStackTrace();
+    	}
+    	return partition;
+    }
+    
+    /**
+     * Read the pages of a pinned table missing from its partition.
+     */
+    private void loadTable(DbFile dbFile, PageTable partition) {
+    	// page ids of other files are not numbered 0..n-1, they are loaded on demand
+    	if (!(dbFile instanceof HeapFile)) {
+    		return;
+    	}
+    	int tableId = dbFile.getTableId();
+    	try {
+    		for (int pageNo = 0; pageNo < dbFile.getNumPages(); pageNo++) {
+    			PageId heapPid = new HeapPageId(tableId, pageNo);
+    			if (!partition.containsKey(heapPid)) {
+    				Page page = loadOffHeap(heapPid, dbFile);
+    				partition.putIfAbsent(heapPid, page != null ? page : readPage(dbFile, heapPid));
+    			}
+    		}
+    	} catch (DbException e) {
+    		e.printStackTrace();
+    	}
+    }
+    
+    /** Evict pages of a table with a CAP quota until there is room for one more */
+    private void enforceCap(PageTable table, int tableId) throws DbException {
+    	Integer cap = caps.isEmpty() ? null : caps.get(tableId);
+    	while (cap != null && table.getNumPages(tableId) >= cap) {
+    		if (!table.evictOne(tableId)) {
+    			break;
+    		}
+    	}
+    }
+    
+    /** @return the number of pages of a table resident in the buffer pool */
+    public int getNumResidentPages(int tableId) {
+    	PageTable table = tables.get(tableId);
+    	return (table != null ? table : cache).getNumPages(tableId);
+    }
+    
+    public static EvictionPolicy.Kind getEvictionPolicy() {
+    	return evictionPolicy;
+    }
+    
+    /** Set the eviction policy used by buffer pools created afterwards,
+     * e.g. by Database.resetBufferPool */
+    public static void setEvictionPolicy(EvictionPolicy.Kind kind) {
+    	BufferPool.evictionPolicy = kind;
+    }
+    
+    public static void resetEvictionPolicy() {
+    	BufferPool.evictionPolicy = EvictionPolicy.Kind.fromProperty();
+    }
+    
+    /**
+     * Start background threads writing back dirty pages that are not in use,
+     * see PageCleaner. Stops the cleaners already running, if any.
+     * @param numCleaners the number of threads, 0 to turn cleaning off
+     * @param intervalMs the pause between two sweeps of a cleaner
+     */
+    public synchronized void startPageCleaners(int numCleaners, long intervalMs) {
+    	stopPageCleaners();
+    	PageCleaner[] started = new PageCleaner[numCleaners];
+    	for (int i = 0; i < numCleaners; i++) {
+    		started[i] = new PageCleaner(this, i, numCleaners, intervalMs);
+    		started[i].start();
+    	}
+    	this.cleaners = started;
+    }
+    
+    /**
+     * Stop the background threads, called when the buffer pool is replaced.
+     * Forces the table files the SyncPolicy left unforced, and saves a
+     * snapshot of the resident pages if a snapshot file is set.
+     */
+    public void shutdown() {
+    	stopSnapshots();
+    	stopPageCleaners();
+    	prefetcher.shutdown();
+    	try {
+    		// table files the SyncPolicy left to a checkpoint
+    		SyncPolicy.syncDataFiles();
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    	}
+    	if (snapshotFile != null) {
+    		try {
+    			saveSnapshot(snapshotFile);
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    		}
+    	}
+    }
+    
+    private static File snapshotFileProperty() {
+    	String name = System.getProperty("deerBase.SnapshotFile");
+    	return name == null || name.isEmpty() ? null : new File(name);
+    }
+    
+    public static File getSnapshotFile() {
+    	return snapshotFile;
+    }
+    
+    /**
+     * Set the file buffer pools save a snapshot of their resident pages to
+     * when they are shut down, and load it from in {@link #warmStart()}.
+     * @param file the snapshot file, null to turn snapshots off
+     */
+    public static void setSnapshotFile(File file) {
+    	BufferPool.snapshotFile = file;
+    }
+    
+    // Only used for testing
+    public static void resetSnapshotFile() {
+    	BufferPool.snapshotFile = snapshotFileProperty();
+    }
+    
+    /**
+     * Write the ids of the resident pages to file, hottest first, see PoolSnapshot.
+     */
+    public void saveSnapshot(File file) throws IOException {
+    	List<PageId> pids = new ArrayList<>(cache.residentByHotness());
+    	for (PageTable partition : partitions) {
+    		pids.addAll(partition.residentByHotness());
+    	}
+    	PoolSnapshot.write(file, pids);
+    }
+    
+    /**
+     * Read the pages saved by {@link #saveSnapshot(File)} into this buffer
+     * pool, up to its size. Pages are read in file order, adjacent pages in
+     * large reads. Pages resident already are kept.
+     * @return the number of pages read
+     */
+    public int loadSnapshot(File file) throws IOException {
+    	List<PageId> pids = PoolSnapshot.read(file);
+    	if (pids.size() > numPages) {
+    		// the coldest do not fit
+    		pids = pids.subList(0, numPages);
+    	}
+    	return PoolSnapshot.load(pids, page -> {
+    		synchronized (this) {
+    			try {
+    				if (!isResident(page.getId())) {
+    					installPrefetched(page);
+    				}
+    				return true;
+    			} catch (DbException e) {
+    				// every page is pinned
+    				return false;
+    			}
+    		}
+    	});
+    }
+    
+    /**
+     * Load the snapshot file, if it is set and exists, e.g. when the database starts.
+     * @return the number of pages read
+     */
+    public int warmStart() {
+    	if (snapshotFile == null || !snapshotFile.exists()) {
+    		return 0;
+    	}
+    	try {
+    		return loadSnapshot(snapshotFile);
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    		return 0;
+    	}
+    }
+    
+    /**
+     * Save a snapshot every intervalMs on a background thread, so that a
+     * crash still leaves a recent one. Stops the snapshots taken already.
+     */
+    public synchronized void startSnapshots(File file, long intervalMs) {
+    	stopSnapshots();
+    	snapshotTimer = new Timer("PoolSnapshot", true);
+    	snapshotTimer.schedule(new TimerTask() {
+    		@Override
+    		public void run() {
+    			try {
+    				saveSnapshot(file);
+    			} catch (IOException e) {
+    				e.printStackTrace();
+    			}
+    		}
+    	}, intervalMs, intervalMs);
+    }
+    
+    public synchronized void stopSnapshots() {
+    	if (snapshotTimer != null) {
+    		snapshotTimer.cancel();
+    		snapshotTimer = null;
+    	}
+    }
+    
+    /** Stop the page cleaners */
+    public void stopPageCleaners() {
+    	PageCleaner[] stopped = this.cleaners;
+    	this.cleaners = new PageCleaner[0];
+    	for (PageCleaner cleaner : stopped) {
+    		cleaner.shutdown();
+    	}
+    }
+    
+    public PageCleaner[] getPageCleaners() {
+    	return cleaners.clone();
+    }
+    
+    /** @return pages per second written by all page cleaners */
+    public double getCleanerWriteRate() {
+    	double rate = 0;
+    	for (PageCleaner cleaner : cleaners) {
+    		rate += cleaner.getWriteRate();
+    	}
+    	return rate;
+    }
+    
+    /** @return dirty pages found by the page cleaners and not written yet */
+    public int getCleanerQueueDepth() {
+    	int depth = 0;
+    	for (PageCleaner cleaner : cleaners) {
+    		depth += cleaner.getQueueDepth();
+    	}
+    	return depth;
+    }
+    
+    public int getNumPages() {
+    	return numPages;
+    }
+    
+    /** @return the shared page table, then the partitions in use */
+    List<PageTable> getPageTables() {
+    	List<PageTable> pageTables = new ArrayList<>(partitions.size() + 1);
+    	pageTables.add(cache);
+    	pageTables.addAll(partitions);
+    	return pageTables;
+    }
+    
+    /** @return the number of pages resident in the buffer pool, over all partitions */
+    public int getNumUsedPages() {
+    	int used = cache.size();
+    	for (PageTable partition : partitions) {
+    		used += partition.size();
+    	}
+    	return used;
+    }
+    
+    /** @return the number of resident pages not written back since they were modified */
+    public int getNumDirtyPages() {
+    	int dirty = cache.getNumDirty();
+    	for (PageTable partition : partitions) {
+    		dirty += partition.getNumDirty();
+    	}
+    	return dirty;
+    }
+    
+    /** @return the hit, eviction and I/O counters of this pool, globally and per table */
+    public Metrics getMetrics() {
+    	return metrics;
+    }
+    
+    /** @return the ratio of getPage calls served from the buffer pool */
+    public double getHitRatio() {
+    	long hits = getHits(), total = hits + getMisses();
+    	return total == 0 ? 0 : (double) hits / total;
+    }
+    
+    public long getHits() {
+    	long hits = cache.getHits();
+    	for (PageTable partition : partitions) {
+    		hits += partition.getHits();
+    	}
+    	return hits;
+    }
+    
+    public long getMisses() {
+    	long misses = cache.getMisses();
+    	for (PageTable partition : partitions) {
+    		misses += partition.getMisses();
+    	}
+    	return misses;
+    }
+    
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -99,6 +623,13 @@ public class BufferPool {
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, an page should be evicted and the new page
      * should be added in its place.
+     * <p>
+     * The page is pinned for tid and is not evicted until it is unpinned with
+     * {@link #unpinPage(TransactionId, PageId)} or the transaction completes.
+     * <p>
+     * A page asked for with write permission captures its before-image first,
+     * so it is copied once per transaction that may modify it rather than
+     * each time it is read, see {@link Page#captureBeforeImage()}.
      *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
@@ -106,7 +637,119 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-    	// TODO: tid and perm
+    	acquireLock(tid, pid, perm);
+    	
+    	Page page;
+    	// hit path does not block: the page table only sets the frame's reference bit
+    	Frame cachedFrame = tableFor(pid).pin(pid);
+    	if (cachedFrame != null) {
+    		metrics.hit(pid.getTableId());
+    		recordPin(tid, cachedFrame);
+    		page = cachedFrame.page;
+    	} else {
+    		metrics.miss(pid.getTableId());
+    		
+    		// pid is not in buffer pool
+    		// get the heapFile corresponding to pid
+    		DbFile dbFile = Database.getCatalog().getDbFile(pid.getTableId());
+    		String tableName = Database.getCatalog().getTableName(dbFile.getTableId());
+    		
+    		page = loadPage(tid, pid, dbFile, tableName);
+    	}
+    	
+    	if (perm == Permissions.READ_WRITE) {
+    		page.captureBeforeImage();
+    	}
+    	return page;
+    }
+    
+    private void recordPin(TransactionId tid, Frame frame) {
+    	if (tid == null) {
+    		frame.unpin();
+    		return;
+    	}
+    	ArrayList<Frame> pinned = pins.computeIfAbsent(tid, t -> new ArrayList<Frame>());
+    	synchronized (pinned) {
+    		pinned.add(frame);
+    	}
+    }
+    
+    /**
+     * Release the latest pin tid holds on pid. Iterators call this when they
+     * move past a page; a page not pinned by tid is ignored.
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+    	ArrayList<Frame> pinned = tid == null ? null : pins.get(tid);
+    	if (pinned == null) {
+    		return;
+    	}
+    	synchronized (pinned) {
+    		for (int i = pinned.size() - 1; i >= 0; i--) {
+    			if (pinned.get(i).pid.equals(pid)) {
+    				pinned.remove(i).unpin();
+    				return;
+    			}
+    		}
+    	}
+    }
+    
+    /** @return the number of pins tid holds, a page pinned twice counts twice */
+    public int getPinCount(TransactionId tid) {
+    	ArrayList<Frame> pinned = tid == null ? null : pins.get(tid);
+    	if (pinned == null) {
+    		return 0;
+    	}
+    	synchronized (pinned) {
+    		return pinned.size();
+    	}
+    }
+    
+    /**
+     * Release the pins tid took since it held pinCount of them, e.g. the
+     * pages an insert or delete looked at.
+     * @param pinCount a value returned by {@link #getPinCount(TransactionId)}
+     */
+    public void unpinPages(TransactionId tid, int pinCount) {
+    	ArrayList<Frame> pinned = tid == null ? null : pins.get(tid);
+    	if (pinned == null) {
+    		return;
+    	}
+    	synchronized (pinned) {
+    		while (pinned.size() > pinCount) {
+    			pinned.remove(pinned.size() - 1).unpin();
+    		}
+    	}
+    }
+    
+    /** Release every pin tid still holds, when it commits or aborts */
+    private void releasePins(TransactionId tid) {
+    	ArrayList<Frame> pinned = pins.remove(tid);
+    	if (pinned == null) {
+    		return;
+    	}
+    	synchronized (pinned) {
+    		for (Frame frame : pinned) {
+    			frame.unpin();
+    		}
+    		pinned.clear();
+    	}
+    }
+    
+    /** @return the number of resident pages pinned by any transaction */
+    public int getNumPinnedPages() {
+    	int pinned = cache.getNumPinned();
+    	for (PageTable partition : partitions) {
+    		pinned += partition.getNumPinned();
+    	}
+    	return pinned;
+    }
+    
+    /**
+     * Acquire the lock on pid for tid, retrying until a random timeout in
+     * [MIN_TIMEOUT, MAX_TIMEOUT] expires (which is taken as a deadlock).
+     */
+    private void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+    	throws TransactionAbortedException {
     	Database.getLockManager().debug(tid, pid, "try getPage 0 times");
     	//Debug.log("begin to get page %s", Debug.stackTrace(0,15));
     	
@@ -140,57 +783,188 @@ public class BufferPool {
     	}
     	
     	Database.getLockManager().debug(tid, pid, "successfully getPage with try "+ counter);
+    }
+    
+    /**
+     * Retrieve a page for a large sequential scan, with READ_ONLY permission.
+     * A page resident in the buffer pool is returned from there; otherwise it
+     * is read into the scan's private ring instead of the buffer pool, so the
+     * scan does not evict the working set of other queries.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param ring the scan's ring, see {@link #newScanRing(DbFile)}
+     */
+    public Page getPageForScan(TransactionId tid, PageId pid, ScanRing ring)
+    	throws TransactionAbortedException, DbException {
+    	acquireLock(tid, pid, Permissions.READ_ONLY);
     	
-    	
-    	if (cache.containsKey(pid)) {
-    		return cache.get(pid);
+    	PageTable table = tableFor(pid);
+    	Page resPage = table.find(pid);
+    	if (resPage == null) {
+    		resPage = ring.get(pid);
+    		// counted once the ring was checked too, as in the metrics
+    		table.recordLookup(pid, resPage != null);
     	}
-    	
-    	// pid is not in buffer pool
-    	// get the heapFile corresponding to pid
+    	if (resPage != null) {
+    		metrics.hit(pid.getTableId());
+    		return resPage;
+    	}
+    	metrics.miss(pid.getTableId());
     	DbFile dbFile = Database.getCatalog().getDbFile(pid.getTableId());
-    	String tableName = Database.getCatalog().getTableName(dbFile.getTableId());
-    	
-//    	if (dbFile instanceof HeapFile) {
-//    		//System.out.println("dbFile is HeapFile");
-//    		//System.out.println((double) dbFile.getNumPages() + " / " 
-//    		//		+ (double) this.numPages + " <= " + loadTableRatio);
-//    	}
-    	
-    	
-//    	if (tableName.equals("paperauths")) {
-//    		//System.out.println("authors");
-//    		if (fixedMap.containsKey(pid)) {
-//    			return fixedMap.get(pid);
-//    		}
-//    		
-//    		Page resPage = dbFile.readPage(pid);
-//    		fixedMap.put(pid, resPage);
-//    		return resPage;
-//    	}
-    	
-    	// load full table
-//    	if (dbFile instanceof HeapFile && 
-//    			(double) dbFile.getNumPages() / (double) this.numPages <= loadTableRatio) {
-//    		//System.out.println("load full table for " + tableName);
-//    		for (int pageNo = 0; pageNo < dbFile.getNumPages(); pageNo++) {
-//    			PageId heapPid = new HeapPageId(dbFile.getTableId(), pageNo);
-//    			if (!pageMap.containsKey(heapPid)) {
-//    				Page page = dbFile.readPage(heapPid);
-//    				pageMap.put(heapPid, page);
-//    				numUsedPages++;
-//    			}
-//    		}
-//    	}
-    	
-    	Page resPage = dbFile.readPage(pid);
+    	resPage = loadOffHeap(pid, dbFile);
+    	if (resPage == null) {
+    		resPage = prefetcher.take(pid);
+    	}
+    	if (resPage == null) {
+    		resPage = readPage(dbFile, pid);
+    	}
+    	ring.add(resPage);
+    	return resPage;
+    }
+    
+    /**
+     * Read the pages after pgNo of a sequential heap file scan ahead of time.
+     * @param ring the scan's ring, null if the scan reads through the buffer pool
+     * @param prefetchedUpTo the last page number this scan already asked for
+     * @return the new last page number asked for
+     */
+    public int readAhead(HeapFile file, int pgNo, ScanRing ring, int prefetchedUpTo) {
+    	int distance = readAheadDistance();
+    	int last = Math.min(pgNo + distance, file.getNumPages() - 1);
+    	// refill once half of the window was consumed, so pages are read in runs
+    	if (prefetchedUpTo > pgNo && last - prefetchedUpTo < Math.max(1, distance / 2)) {
+    		return prefetchedUpTo;
+    	}
+    	List<PageId> pids = new ArrayList<>();
+    	for (int p = Math.max(pgNo + 1, prefetchedUpTo + 1); p <= last; p++) {
+    		PageId pid = new HeapPageId(file.getId(), p);
+    		// a rewound scan finds its ring's pages there, a staged read would never be taken
+    		if (ring == null || ring.get(pid) == null) {
+    			pids.add(pid);
+    		}
+    	}
+    	if (!pids.isEmpty()) {
+    		prefetcher.prefetch(pids, ring == null);
+    	}
+    	return Math.max(last, prefetchedUpTo);
+    }
+    
+    /** Read the right siblings of a B+ tree leaf ahead of a full scan */
+    public void readAhead(BTreeLeafPage leaf) {
+    	readAhead(leaf, null);
+    }
+    
+    /**
+     * Read the right siblings of a B+ tree leaf ahead of a range scan, but not
+     * past the leaf where a scan with predicate ipred stops.
+     */
+    public void readAhead(BTreeLeafPage leaf, IndexPredicate ipred) {
+    	int distance = readAheadDistance();
+    	if (distance > 0 && leaf.getRightSiblingId() != null && leaf.scanContinuesRight(ipred)) {
+    		prefetcher.prefetch(leaf.getRightSiblingId(), true, distance - 1, ipred);
+    	}
+    }
+    
+    /** read-ahead never takes more than a quarter of the pool */
+    private int readAheadDistance() {
+    	return Math.min(Prefetcher.getDistance(), numPages / 4);
+    }
+    
+    /** Forget the pages a closed scan read ahead into the staging area */
+    public void cancelReadAhead(HeapFile file, int fromPgNo, int toPgNo) {
+    	for (int p = fromPgNo; p <= toPgNo; p++) {
+    		prefetcher.invalidate(new HeapPageId(file.getId(), p));
+    	}
+    }
+    
+    public Prefetcher getPrefetcher() {
+    	return prefetcher;
+    }
+    
+    /** @return true if pid is cached on or off the heap, so no read is needed */
+    boolean isResident(PageId pid) {
+    	return tableFor(pid).containsKey(pid) || (arena != null && arena.contains(pid));
+    }
+    
+    /**
+     * Install a page read by the Prefetcher or from a snapshot, called under
+     * the BufferPool monitor so that it cannot race with discardPage.
+     * @return true if the page was installed, false if pid is resident already
+     */
+    boolean installPrefetched(Page page) throws DbException {
+    	PageTable table = tableFor(page.getId());
+    	enforceCap(table, page.getId().getTableId());
+    	return table.putIfAbsent(page.getId(), page) == page;
+    }
+    
+    /**
+     * @return a ScanRing for a sequential scan over table, or null if the
+     *         table is small enough to be scanned through the buffer pool
+     */
+    public ScanRing newScanRing(DbFile table) {
+    	if (table.getNumPages() <= scanRingThreshold * numPages) {
+    		return null;
+    	}
+    	return new ScanRing(Math.min(scanRingPages, table.getNumPages()));
+    }
+    
+    public static void setScanRingThreshold(double threshold) {
+    	BufferPool.scanRingThreshold = threshold;
+    }
+    
+    public static void setScanRingPages(int pages) {
+    	BufferPool.scanRingPages = pages;
+    }
+    
+    // Only used for testing
+    public static void resetScanRing() {
+    	BufferPool.scanRingThreshold = DEFAULT_SCAN_RING_THRESHOLD;
+    	BufferPool.scanRingPages = ScanRing.DEFAULT_RING_PAGES;
+    }
+    
+    /** the remaining part of getPage: load pid into the buffer pool and pin it */
+    private Page loadPage(TransactionId tid, PageId pid, DbFile dbFile, String tableName)
+    		throws DbException {
+
+    	// an off-heap image or a read issued by the prefetcher saves the synchronous read
+    	Page resPage = loadOffHeap(pid, dbFile);
+    	if (resPage == null) {
+    		resPage = prefetcher.take(pid);
+    	}
+    	if (resPage == null) {
+    		resPage = readPage(dbFile, pid);
+    	}
     	//System.out.println("load page for " + tableName + " page #" + pid.pageNumber());
 
-    	// when readPage, new Page() will setBeforeImage automatically
-    	// resPage.setBeforeImage();
-    	cache.put(pid, resPage);
-    	numUsedPages++;
-        return resPage;
+    	// a page just read is its own before-image, getPage captures a copy
+    	// if it is asked for with write permission
+    	// another transaction holding a shared lock may have read the same page
+    	// concurrently, keep whichever copy reached the page table first
+    	PageTable table = tableFor(pid);
+    	enforceCap(table, pid.getTableId());
+    	Frame frame = table.putIfAbsentAndPin(pid, resPage);
+    	recordPin(tid, frame);
+        return frame.page;
+    }
+    
+    /** Read a page from its file, recording the read's latency */
+    Page readPage(DbFile dbFile, PageId pid) {
+    	long start = System.nanoTime();
+    	Page page = dbFile.readPage(pid);
+    	metrics.read(pid.getTableId(), System.nanoTime() - start);
+    	return page;
+    }
+    
+    /** Read several pages of one file with DbFile.readPages, recording each page's share of the latency */
+    List<Page> readPages(DbFile dbFile, List<PageId> pids) throws IOException {
+    	long start = System.nanoTime();
+    	List<Page> pages = dbFile.readPages(pids);
+    	long perPage = (System.nanoTime() - start) / Math.max(1, pids.size());
+    	for (PageId pid : pids) {
+    		metrics.read(pid.getTableId(), perPage);
+    	}
+    	return pages;
     }
     
     
@@ -250,56 +1024,52 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj1
     	Database.getLockManager().debug(tid + (commit ? " commits" : "aborts"));
+    	// unpin first, rolling back may have to evict
+    	releasePins(tid);
     	
     	if (commit) {
     		// flush
     		List<PageId> pids = Database.getLockManager().getPageIdsOnTransactionId(tid);
-        	
-        	pids.stream()
-    	    	.forEach(pid -> {
-    				try {
-    					if (pid == null) return;
-    					
-    					// must store dirtier, flush will mark the page as not dirty
-    					Page page = getPageWithoutLock(pid, false);
-    					TransactionId dirtier = page.getDirtier();
-    					
-    					Debug.log("commit txn%d, page%d dirtier: %s", tid.getId(), pid.pageNumber(), dirtier);
-    					// if a page is not in cache, it is already flushed before commit
-    					if (cache.containsKey(pid)) {
-    						flushPage(pid);
-    						Debug.log("commit txn%d, contains page%d, flush", tid.getId(), pid.pageNumber());
-    					}	
-    					
-    					// check dirtier to set before image	
-    					// Even clean, should setBeforeImage
-    					// because have to keep beforeImage the image this page first read in during current txn
-    					// we can't setBeforeImage when flush page
-    					// can only update beforeImage after commit a txn
-    					// which is for the next txn if this page is not flushed before next txn use
-    					// if the page is flushed before next txn use, the next txn will read again, and so setBeforeImage
-    					
-						// if (dirtier != null && dirtier.equals(tid)) {
-							//Debug.log("in txnComplete, dirtier=%d, tid=%d", dirtier.getId(), tid.getId());
-				    	/**
-				     	* Ref: https://courses.cs.washington.edu/courses/cse444/15sp/labs/lab5/lab5.html
-				   	  	* UW CSE444 Lab5 1.Started
-				        * Add UW's supplement codes for log and recovery
-				        */
-				    	// use current page contents as the before-image
-				        // for the next transaction that modifies this page.
-				        page.setBeforeImage();
-					   	 /**
-				        * UW's supplement codes for log and recovery end
-				        */
-				        
-						Debug.log("set before image %d for page%s, dirtier: txn%d", 
-								((HeapPage)page).oldData.hashCode(), pid, page.getDirtier());
-						// }
-    				} catch (IOException e) {
-    					e.printStackTrace();
-    				}
-    			});
+    		List<Page> pages = new ArrayList<>();
+    		List<PageId> resident = new ArrayList<>();
+    		for (PageId pid : pids) {
+    			if (pid == null) continue;
+    			
+    			// if a page is not in cache, it is already flushed before commit,
+    			// and it is read again with its current contents as before-image
+    			Page page = tableFor(pid).peek(pid);
+    			if (page != null) {
+    				pages.add(page);
+    				resident.add(pid);
+    			}
+    		}
+    		// one batch, so adjacent pages are written together and forced once
+    		flushPages(resident, Metrics.FlushReason.COMMIT);
+    		Debug.log("commit txn%d, flushed %d pages", tid.getId(), resident.size());
+    		
+    		for (Page page : pages) {
+    			// Even clean, should setBeforeImage
+    			// because have to keep beforeImage the image this page first read in during current txn
+    			// we can't setBeforeImage when flush page
+    			// can only update beforeImage after commit a txn
+    			// which is for the next txn if this page is not flushed before next txn use
+    			// setBeforeImage only releases the captured copy, the next txn
+    			// asking for the page with write permission captures a new one
+    			
+		    	/**
+		     	* Ref: https://courses.cs.washington.edu/courses/cse444/15sp/labs/lab5/lab5.html
+		   	  	* UW CSE444 Lab5 1.Started
+		        * Add UW's supplement codes for log and recovery
+		        */
+		    	// use current page contents as the before-image
+		        // for the next transaction that modifies this page.
+		        page.setBeforeImage();
+			   	 /**
+		        * UW's supplement codes for log and recovery end
+		        */
+		        
+				Debug.log("set before image for page%s, dirtier: %s", page.getId(), page.getDirtier());
+    		}
         	
     	} else {
     		// re-read
@@ -316,22 +1086,20 @@ public class BufferPool {
     }
     
     private Page getPageWithoutLock(PageId pid, boolean putInCache) {
-    	if (cache.containsKey(pid)) {
-    		return cache.get(pid);
+    	Page cachedPage = tableFor(pid).peek(pid);
+    	if (cachedPage != null) {
+    		return cachedPage;
     	}
     	
     	DbFile dbFile = Database.getCatalog().getDbFile(pid.getTableId());
-    	Page resPage = dbFile.readPage(pid);
+    	Page resPage = readPage(dbFile, pid);
     	
     	if (putInCache) {
         	try {
-    			cache.put(pid, resPage);
-    	    	// when readPage, new Page() will setBeforeImage automatically
-    	    	// resPage.setBeforeImage();
+    			tableFor(pid).put(pid, resPage);
     		} catch (DbException e) {
     			e.printStackTrace();
     		}
-        	numUsedPages++;
     	}
     	
         return resPage;
@@ -355,13 +1123,19 @@ public class BufferPool {
         throws DbException, TransactionAbortedException, IOException {
     	DbFile table = Database.getCatalog().getDbFile(tableId);
     	
-    	ArrayList<Page> ditryPages = table.insertTuple(tid, t);
+    	// the pages looked at are in the cache or dirty, none has to stay pinned
+    	int pinCount = getPinCount(tid);
+    	ArrayList<Page> ditryPages;
+    	try {
+    		ditryPages = table.insertTuple(tid, t);
+    	} finally {
+    		unpinPages(tid, pinCount);
+    	}
     	for (Page page : ditryPages) {
     		Debug.log("insert in bufferPool, page%d, dirtier txn%d", page.getId().pageNumber(), tid.getId());
     		page.markDirty(true, tid);
 			// update to the new version of dirty pages, put in BufferPool
-	    	cache.put(page.getId(), page);
-	    	numUsedPages++;
+	    	tableFor(page.getId()).put(page.getId(), page);
     	}
     }
 
@@ -384,12 +1158,17 @@ public class BufferPool {
     	int tableId = t.getRecordId().getPageId().getTableId();
     	DbFile table = Database.getCatalog().getDbFile(tableId);
     	
-    	ArrayList<Page> ditryPages = table.deleteTuple(tid, t);
+    	int pinCount = getPinCount(tid);
+    	ArrayList<Page> ditryPages;
+    	try {
+    		ditryPages = table.deleteTuple(tid, t);
+    	} finally {
+    		unpinPages(tid, pinCount);
+    	}
     	for (Page page : ditryPages) {
     		page.markDirty(true, tid);
 			// update to the new version of dirty pages, put in BufferPool
-	    	cache.put(page.getId(), page);
-	    	numUsedPages++;
+	    	tableFor(page.getId()).put(page.getId(), page);
     	}
     }
     
@@ -400,36 +1179,76 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj1
     	
-    	List<PageId> pIds = Database.getLockManager().getPageIdsOnTransactionId(tid);
-    	
-    	pIds.stream()
-	    	.forEach(pId -> {
-				try {
-					if (pId != null && cache.containsKey(pId)) {
-						flushPage(pId);
-					}
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			});
+    	flushPages(Database.getLockManager().getPageIdsOnTransactionId(tid), Metrics.FlushReason.COMMIT);
+    }
+    
+    /**
+     * Flushes the dirty pages among pids to disk in one batch, see writeBack(List, FlushReason)
+     * @param reason why the pages are flushed, counted in the metrics
+     */
+    private synchronized void flushPages(Collection<PageId> pids, Metrics.FlushReason reason) throws IOException {
+    	List<Page> dirty = new ArrayList<>();
+    	for (PageId pid : pids) {
+    		Page page = pid == null ? null : tableFor(pid).peek(pid);
+    		if (page != null && page.isDirty()) {
+    			dirty.add(page);
+    		}
+    	}
+    	writeBack(dirty, reason);
     }
     
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
+     * @param reason why the page is flushed, counted in the metrics
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-    	if (pid == null || !cache.containsKey(pid)) {
+    private synchronized void flushPage(PageId pid, Metrics.FlushReason reason) throws IOException {
+    	Page flushedPage = pid == null ? null : tableFor(pid).peek(pid);
+    	if (flushedPage == null) {
     		String containsOrNot = pid == null ? "contains" : "does not contain";
     		Debug.log("cache" + containsOrNot + " (PageId:"+pid+")");
     		return;
     	}
-    	
-    	DbFile tableFile = Database.getCatalog().getDbFile(pid.getTableId());
-    	Page flushedPage = cache.get(pid);
+    	if (!flushedPage.isDirty()) {
+    		// its file already holds this image
+    		return;
+    	}
     	
     	//Debug.log("flush Page in BufferPool %s %s\n", pid.toString(), Debug.stackTrace());
-    	
+    	writeBack(flushedPage, reason);
+    }
+    
+    /**
+     * Writes a page back to its file, logging it first (WAL).
+     * Unlike flushPage, this does not synchronize on the BufferPool, so the
+     * PageTable can write back dirty victims without blocking other threads.
+     * @param flushedPage the page to write, must not be null
+     * @param reason why the page is written, counted in the metrics
+     */
+    void writeBack(Page flushedPage, Metrics.FlushReason reason) throws IOException {
+    	writeBack(Collections.singletonList(flushedPage), reason);
+    }
+    
+    /**
+     * Writes pages back to their files: every page is logged first, with a
+     * single log force, then the pages of each file are written with
+     * DbFile.writePages, which coalesces adjacent pages. The log is always
+     * forced before the pages are written; when the files are forced is up
+     * to the SyncPolicy. In PER_WRITE mode each page is logged, forced and
+     * written on its own.
+     * @param pages the pages to write
+     * @param reason why the pages are written, counted in the metrics
+     */
+    void writeBack(List<Page> pages, Metrics.FlushReason reason) throws IOException {
+    	if (pages.isEmpty()) {
+    		return;
+    	}
+    	if (pages.size() > 1 && SyncPolicy.getMode() == SyncPolicy.Mode.PER_WRITE) {
+    		for (Page flushedPage : pages) {
+    			writeBack(flushedPage, reason);
+    		}
+    		return;
+    	}
     	/**
     	 * Ref: https://courses.cs.washington.edu/courses/cse444/15sp/labs/lab5/lab5.html
     	 * UW CSE444 Lab5 1.Started
@@ -437,19 +1256,50 @@ public class BufferPool {
          */
     	// append an update record to the log, with
     	// a before-image and after-image.
-    	TransactionId dirtier = flushedPage.getDirtier();
-    	if (dirtier != null){ // what if ditier is not tid ???
-	    	Database.getLogFile().logWrite(dirtier, flushedPage.getBeforeImage(), flushedPage);
-	    	Database.getLogFile().force();
+    	boolean logged = false;
+    	for (Page flushedPage : pages) {
+    		TransactionId dirtier = flushedPage.getDirtier();
+    		if (dirtier != null){ // what if ditier is not tid ???
+    			Database.getLogFile().logWrite(dirtier, flushedPage.getBeforeImage(), flushedPage);
+    			logged = true;
+    		}
+    	}
+    	// WAL: in every SyncPolicy mode, a page a transaction may still undo
+    	// must not reach its file before its update record is on disk
+    	if (logged) {
+    		Database.getLogFile().force();
     	}
     	/**
          * UW's supplement codes for log and recovery end
          */
     	
+    	Map<Integer, List<Page>> byTable = new LinkedHashMap<>();
+    	for (Page flushedPage : pages) {
+    		byTable.computeIfAbsent(flushedPage.getId().getTableId(), id -> new ArrayList<>()).add(flushedPage);
+    	}
+    	for (Map.Entry<Integer, List<Page>> table : byTable.entrySet()) {
+    		DbFile tableFile = Database.getCatalog().getDbFile(table.getKey());
+    		List<Page> tablePages = table.getValue();
+    		long start = System.nanoTime();
+    		if (tablePages.size() == 1) {
+    			tableFile.writePage(tablePages.get(0));
+    		} else {
+    			tableFile.writePages(tablePages);
+    		}
+    		long perPage = (System.nanoTime() - start) / tablePages.size();
+    		for (Page flushedPage : tablePages) {
+    			metrics.written(table.getKey(), perPage, reason);
+    		}
+    	}
     	
-    	// flushedPage may be null when pid is not in pageMap (i.e. LRU cache)
-    	tableFile.writePage(flushedPage);
-    	flushedPage.markDirty(false, null);
+    	for (Page flushedPage : pages) {
+    		flushedPage.markDirty(false, null);
+    		// a read staged or an image kept off-heap before this write would be stale
+    		prefetcher.invalidate(flushedPage.getId());
+    		if (arena != null) {
+    			arena.remove(flushedPage.getId());
+    		}
+    	}
     }
     
     /**
@@ -458,10 +1308,18 @@ public class BufferPool {
      *     break deerBase if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
+    	List<PageId> pids = new ArrayList<>();
     	Iterator<PageId> pidItr = cache.keyIterator();
     	while (pidItr.hasNext()) {
-			flushPage(pidItr.next());
+    		pids.add(pidItr.next());
 		}
+    	for (PageTable partition : partitions) {
+    		pidItr = partition.keyIterator();
+    		while (pidItr.hasNext()) {
+    			pids.add(pidItr.next());
+    		}
+    	}
+    	flushPages(pids, Metrics.FlushReason.FLUSH_ALL);
     }
     
     
@@ -471,17 +1329,22 @@ public class BufferPool {
         cache.
     */
     public synchronized void discardPage(PageId pid) {
-    	if (cache.remove(pid) != null) {
-    		numUsedPages--;
+    	prefetcher.invalidate(pid);
+    	if (arena != null) {
+    		arena.remove(pid);
     	}
+    	tableFor(pid).remove(pid);
     }
     
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Pinned pages are never chosen.
+     * @throws DbException if all pages in the buffer pool are pinned
      */
-    private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for proj1
+    synchronized void evictPage() throws DbException {
+    	if (!cache.evictOne()) {
+    		throw new DbException("all pages in buffer are pinned");
+    	}
     }
 }
@@ -187,7 +187,31 @@ public class Catalog {
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
                 String fileName = baseFolder == null ? name + ".dat" : baseFolder+"/"+name + ".dat";
-                HeapFile tabHf = new HeapFile(new File(fileName), t);
+                // table options follow the field list, e.g. "paperauths (...) mmap",
+                // "papers (...) compressed", "authors (...) slotted" or
+                // "venues (...) pax"; slotted and pax choose the page layout
+                String[] options = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
+                String layout = null;
+                for (String option : options)
+                    if (option.equalsIgnoreCase("slotted") || option.equalsIgnoreCase("pax"))
+                        layout = option.toLowerCase();
+                HeapFile tabHf;
+                if ("slotted".equals(layout))
+                    tabHf = new SlottedHeapFile(new File(fileName), t);
+                else if ("pax".equals(layout))
+                    tabHf = new PaxHeapFile(new File(fileName), t);
+                else
+                    tabHf = new HeapFile(new File(fileName), t);
+                for (String option : options) {
+                    if (option.equalsIgnoreCase("mmap"))
+                        tabHf.setMapped(true);
+                    else if (option.equalsIgnoreCase("compressed"))
+                        tabHf.setCompressed(true);
+                    else if (!option.isEmpty() && !option.equalsIgnoreCase(layout)) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
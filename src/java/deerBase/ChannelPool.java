@@ -0,0 +1,267 @@
+package deerBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ChannelPool is the I/O layer under DbFile: it keeps one long-lived
+ * FileChannel per table file and reads and writes pages with positional
+ * I/O (pread/pwrite), so a page access opens no file and never seeks.
+ * Positional calls do not move a shared file position, so any number of
+ * threads use the same channel without locking.
+ * <p>
+ * Data goes through a direct buffer reused by each thread, so the kernel
+ * copies straight into it instead of into a temporary native buffer.
+ * <p>
+ * At most {@link #getMaxOpen()} channels are kept, set with
+ * -DdeerBase.MaxOpenFiles; beyond that the least recently used one is
+ * closed. A call that finds its channel closed, by the pool or by an
+ * interrupt of another thread, reopens it and retries.
+ */
+public class ChannelPool {
+
+	private final static int ChannelPoolDebugLevel = Debug.CLOSE;
+
+	public static final int DEFAULT_MAX_OPEN = 256;
+
+	private static int maxOpen = Integer.getInteger("deerBase.MaxOpenFiles", DEFAULT_MAX_OPEN);
+
+	private static class Entry {
+		final FileChannel channel;
+		volatile long lastUse;
+
+		Entry(FileChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	private static final ConcurrentHashMap<File, Entry> channels = new ConcurrentHashMap<>();
+
+	/** logical clock stamped on entries, a cheap LRU order */
+	private static volatile long clock = 0;
+
+	private static final ThreadLocal<ByteBuffer> buffers =
+			ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BufferPool.getPageSize()));
+
+	private ChannelPool() {
+	}
+
+	public static int getMaxOpen() {
+		return maxOpen;
+	}
+
+	/** Set the maximum number of channels kept open, closing the extra ones */
+	public static void setMaxOpen(int maxOpen) {
+		if (maxOpen <= 0) {
+			throw new IllegalArgumentException("at least one channel must be kept open");
+		}
+		ChannelPool.maxOpen = maxOpen;
+		synchronized (channels) {
+			while (channels.size() > maxOpen) {
+				closeLeastRecentlyUsed(null);
+			}
+		}
+	}
+
+	// Only used for testing
+	public static void resetMaxOpen() {
+		setMaxOpen(Integer.getInteger("deerBase.MaxOpenFiles", DEFAULT_MAX_OPEN));
+	}
+
+	/** @return the number of channels open */
+	public static int getNumOpen() {
+		return channels.size();
+	}
+
+	private static FileChannel channel(File f) throws IOException {
+		Entry entry = channels.get(f);
+		if (entry == null || !entry.channel.isOpen()) {
+			entry = open(f);
+		}
+		entry.lastUse = ++clock;
+		return entry.channel;
+	}
+
+	private static Entry open(File f) throws IOException {
+		synchronized (channels) {
+			Entry entry = channels.get(f);
+			if (entry != null && entry.channel.isOpen()) {
+				return entry;
+			}
+			if (entry == null && channels.size() >= maxOpen) {
+				closeLeastRecentlyUsed(f);
+			}
+			Debug.log(ChannelPoolDebugLevel, "open channel of %s", f);
+			entry = new Entry(FileChannel.open(f.toPath(), StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.CREATE));
+			channels.put(f, entry);
+			return entry;
+		}
+	}
+
+	/** called holding the channels monitor */
+	private static void closeLeastRecentlyUsed(File except) {
+		Map.Entry<File, Entry> lru = null;
+		for (Map.Entry<File, Entry> e : channels.entrySet()) {
+			if (!e.getKey().equals(except) && (lru == null || e.getValue().lastUse < lru.getValue().lastUse)) {
+				lru = e;
+			}
+		}
+		if (lru != null) {
+			channels.remove(lru.getKey());
+			closeQuietly(lru.getValue().channel);
+		}
+	}
+
+	private static void closeQuietly(FileChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static ByteBuffer buffer(int length) {
+		ByteBuffer buf = buffers.get();
+		if (buf.capacity() < length) {
+			buf = ByteBuffer.allocateDirect(length);
+			buffers.set(buf);
+		}
+		buf.clear().limit(length);
+		return buf;
+	}
+
+	/** an operation on the channel of a file, retried once if it finds the channel closed */
+	private interface ChannelOp<T> {
+		T apply(FileChannel channel) throws IOException;
+	}
+
+	private static <T> T withChannel(File f, ChannelOp<T> op) throws IOException {
+		File key = f.getAbsoluteFile();
+		for (int attempt = 0;; attempt++) {
+			try {
+				return op.apply(channel(key));
+			} catch (ClosedChannelException e) {
+				if (e instanceof ClosedByInterruptException || attempt > 0) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	private static int totalLength(byte[][] bufs) {
+		long length = 0;
+		for (byte[] b : bufs) {
+			length += b.length;
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("run of " + length + " bytes is too large");
+		}
+		return (int) length;
+	}
+
+	/**
+	 * Read dst.length bytes of f at position, or up to the end of f.
+	 * @return the number of bytes read, less than dst.length at the end of f
+	 */
+	public static int read(File f, long position, byte[] dst) throws IOException {
+		return read(f, position, new byte[][] { dst });
+	}
+
+	/**
+	 * Read a run of adjacent buffers with one positional read: dsts[0] at
+	 * position, dsts[1] right after it, and so on. Buffers past the end of f
+	 * are left as they are.
+	 * @return the number of bytes read, less than the length of the run at the end of f
+	 */
+	public static int read(File f, long position, byte[][] dsts) throws IOException {
+		int length = totalLength(dsts);
+		ByteBuffer buf = buffer(length);
+		withChannel(f, channel -> {
+			buf.clear().limit(length);
+			while (buf.hasRemaining()) {
+				if (channel.read(buf, position + buf.position()) < 0) {
+					break;
+				}
+			}
+			return null;
+		});
+		int n = buf.position();
+		buf.flip();
+		for (byte[] dst : dsts) {
+			if (!buf.hasRemaining()) {
+				break;
+			}
+			buf.get(dst, 0, Math.min(dst.length, buf.remaining()));
+		}
+		return n;
+	}
+
+	/**
+	 * Write src to f at position.
+	 * @param force if set, the data is on disk when this returns
+	 */
+	public static void write(File f, long position, byte[] src, boolean force) throws IOException {
+		write(f, position, new byte[][] { src }, force);
+	}
+
+	/**
+	 * Write a run of adjacent buffers with one positional write: srcs[0] at
+	 * position, srcs[1] right after it, and so on.
+	 * @param force if set, the data is on disk when this returns
+	 */
+	public static void write(File f, long position, byte[][] srcs, boolean force) throws IOException {
+		ByteBuffer buf = buffer(totalLength(srcs));
+		for (byte[] src : srcs) {
+			buf.put(src);
+		}
+		buf.flip();
+		withChannel(f, channel -> {
+			buf.rewind();
+			while (buf.hasRemaining()) {
+				channel.write(buf, position + buf.position());
+			}
+			if (force) {
+				channel.force(true);
+			}
+			return null;
+		});
+	}
+
+	/** Force the writes made to f so far to disk, e.g. after a batch of writes */
+	public static void force(File f) throws IOException {
+		withChannel(f, channel -> {
+			channel.force(true);
+			return null;
+		});
+	}
+
+	/**
+	 * Close the channel of f, if open. Called when a table file is (re)opened,
+	 * so a file replaced on disk under the same name is not read through the
+	 * channel of the old one.
+	 */
+	public static void close(File f) {
+		Entry entry = channels.remove(f.getAbsoluteFile());
+		if (entry != null) {
+			closeQuietly(entry.channel);
+		}
+	}
+
+	/** Close every channel, e.g. at shutdown */
+	public static void closeAll() {
+		synchronized (channels) {
+			for (Entry entry : channels.values()) {
+				closeQuietly(entry.channel);
+			}
+			channels.clear();
+		}
+	}
+}
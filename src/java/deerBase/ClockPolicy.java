@@ -0,0 +1,86 @@
+package deerBase;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement. A hit only sets the frame's reference
+ * bit, so the hit path takes no lock at all; the hand clears reference bits
+ * until it finds an unreferenced frame. The clock grows if the segment takes
+ * frames over from other segments.
+ */
+public class ClockPolicy extends EvictionPolicy {
+
+	private Frame[] clock;
+	private int[] freeSlots;
+	private int numFree;
+	private int hand = 0;
+
+	public ClockPolicy(int capacity) {
+		super(capacity);
+		this.clock = new Frame[capacity];
+		this.freeSlots = new int[capacity];
+		for (int i = 0; i < capacity; i++) {
+			freeSlots[i] = capacity - 1 - i;
+		}
+		this.numFree = capacity;
+	}
+
+	@Override
+	public void onAccess(Frame frame) {
+		frame.referenced = true;
+	}
+
+	@Override
+	public void onInsert(Frame frame) {
+		if (numFree == 0) {
+			grow();
+		}
+		int slot = freeSlots[--numFree];
+		frame.slot = slot;
+		frame.referenced = true;
+		clock[slot] = frame;
+	}
+
+	@Override
+	public void onRemove(Frame frame, boolean evicted) {
+		clock[frame.slot] = null;
+		freeSlots[numFree++] = frame.slot;
+		frame.slot = -1;
+	}
+
+	/**
+	 * The hand stays on the victim, so a victim that had to be written back
+	 * is found first when the segment retries.
+	 */
+	@Override
+	public Frame chooseVictim(Predicate<Frame> evictable) {
+		for (int step = 0; step < 2 * clock.length; step++) {
+			Frame frame = clock[hand];
+			if (frame != null && evictable.test(frame)) {
+				if (!frame.referenced) {
+					return frame;
+				}
+				frame.referenced = false;
+			}
+			hand = (hand + 1) % clock.length;
+		}
+		return null;
+	}
+
+	/** Double the clock, the new slots are free */
+	private void grow() {
+		int size = clock.length;
+		int newSize = Math.max(1, size * 2);
+		clock = Arrays.copyOf(clock, newSize);
+		freeSlots = Arrays.copyOf(freeSlots, newSize);
+		for (int i = newSize - 1; i >= size; i--) {
+			freeSlots[numFree++] = i;
+		}
+	}
+
+	@Override
+	public Kind getKind() {
+		return Kind.CLOCK;
+	}
+}
@@ -0,0 +1,285 @@
+package deerBase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
+
+/**
+ * CompressedPages is the on-disk format of a compressed table file: each
+ * page is deflated with jzlib and stored in an extent of a few
+ * {@link #SECTOR}s, so a page of padded strings or small integers takes a
+ * fraction of its size on disk and in the OS cache. A page that does not
+ * compress is stored as is.
+ * <p>
+ * The file starts with a header sector holding {@link #MAGIC} and the page
+ * size. An extent is a 4 byte length followed by the deflated page, and its
+ * capacity is a power of two of sectors: a page rewritten in place while
+ * it fits, and moved to a larger extent at the end of the file otherwise, so
+ * it moves a few times at most. Where each page lives is kept in a page
+ * translation table, keyed by the offset the page would have in the
+ * uncompressed file, i.e. DbFile.getPageOffset. Each move appends a record to
+ * the table file next to the data file (the data file name with ".ptt"),
+ * which is replayed when the file is opened.
+ * <p>
+ * An extent is never reused once a page moved out of it, so a table file
+ * forced before the data file still points to valid, older, images; the log
+ * redoes the pages written since the last checkpoint, which forces both
+ * files, see SyncPolicy#syncDataFiles.
+ *
+ * @see DbFile#setCompressed(boolean)
+ */
+public class CompressedPages {
+
+	private final static int CompressedPagesDebugLevel = Debug.CLOSE;
+
+	/** first bytes of a compressed table file */
+	public static final byte[] MAGIC = { 'D', 'B', 'Z', '1' };
+
+	/** unit of allocation in the data file; the first one is the header */
+	public static final int SECTOR = 512;
+
+	/** bytes before the page in an extent: the length of the deflated page */
+	private static final int EXTENT_HEADER = 4;
+
+	/** a record of the table: logical offset, extent offset, extent capacity, page length */
+	private static final int RECORD_BYTES = 24;
+
+	private static final int LEVEL = JZlib.Z_BEST_SPEED;
+
+	private static class Extent {
+		final long offset;
+		final int capacity;
+		final int length; // of the uncompressed page
+
+		Extent(long offset, int capacity, int length) {
+			this.offset = offset;
+			this.capacity = capacity;
+			this.length = length;
+		}
+	}
+
+	private final File file;
+	private final File tableFile;
+	/** extents by the logical offset of their page */
+	private final Map<Long, Extent> extents = new HashMap<>();
+	/** first byte of the data file not allocated yet */
+	private long end;
+	private long tableEnd;
+	private long length;
+
+	/**
+	 * Open a compressed table file, reading its page translation table.
+	 * @throws IOException if the file is not compressed or was written with
+	 *         another page size
+	 */
+	public CompressedPages(File file) throws IOException {
+		this.file = file;
+		this.tableFile = tableFileOf(file);
+		byte[] header = new byte[MAGIC.length + 4];
+		if (!isCompressed(file)) {
+			throw new IOException(file + " is not a compressed table file");
+		}
+		ChannelPool.read(file, 0, header);
+		int pageSize = ByteBuffer.wrap(header, MAGIC.length, 4).getInt();
+		if (pageSize != BufferPool.getPageSize()) {
+			throw new IOException(file + " was written with pages of " + pageSize + " bytes");
+		}
+		// extents written after the last record are left allocated
+		this.end = roundUp(Math.max(file.length(), SECTOR));
+
+		// a torn record at the end of the table is ignored
+		ChannelPool.close(tableFile);
+		long records = tableFile.length() / RECORD_BYTES;
+		if (records > 0) {
+			byte[] table = new byte[(int) (records * RECORD_BYTES)];
+			ChannelPool.read(tableFile, 0, table);
+			ByteBuffer buf = ByteBuffer.wrap(table);
+			while (buf.hasRemaining()) {
+				long offset = buf.getLong();
+				long at = buf.getLong();
+				int capacity = buf.getInt();
+				put(offset, new Extent(at, capacity, buf.getInt()));
+			}
+		}
+		this.tableEnd = records * RECORD_BYTES;
+		Debug.log(CompressedPagesDebugLevel, "open %s: %d pages, %d bytes", file, extents.size(), end);
+	}
+
+	/** Create an empty compressed table file, replacing f and its table */
+	public static CompressedPages create(File f) throws IOException {
+		ChannelPool.close(f);
+		ChannelPool.close(tableFileOf(f));
+		f.delete();
+		tableFileOf(f).delete();
+		byte[] header = new byte[SECTOR];
+		ByteBuffer.wrap(header).put(MAGIC).putInt(BufferPool.getPageSize());
+		ChannelPool.write(f, 0, header, false);
+		return new CompressedPages(f);
+	}
+
+	/** @return true if f starts with the header of a compressed table file */
+	public static boolean isCompressed(File f) throws IOException {
+		if (f.length() < SECTOR) {
+			return false;
+		}
+		byte[] magic = new byte[MAGIC.length];
+		try (FileInputStream in = new FileInputStream(f)) {
+			return in.read(magic) == magic.length && Arrays.equals(magic, MAGIC);
+		}
+	}
+
+	/** @return the page translation table of the data file f */
+	public static File tableFileOf(File f) {
+		return new File(f.getPath() + ".ptt");
+	}
+
+	public File getTableFile() {
+		return tableFile;
+	}
+
+	/** @return the length the file would have uncompressed */
+	public synchronized long getLength() {
+		return length;
+	}
+
+	/** @return the bytes of the data file allocated to extents and the header */
+	public synchronized long getAllocatedBytes() {
+		return end;
+	}
+
+	/** @return the number of pages stored */
+	public synchronized int getNumPages() {
+		return extents.size();
+	}
+
+	private void put(long offset, Extent e) {
+		extents.put(offset, e);
+		end = Math.max(end, e.offset + e.capacity);
+		length = Math.max(length, offset + e.length);
+	}
+
+	private static long roundUp(long bytes) {
+		return (bytes + SECTOR - 1) / SECTOR * SECTOR;
+	}
+
+	/**
+	 * @return the capacity of an extent for extentBytes bytes: a power of
+	 *         two of sectors, no more than a page stored as is needs
+	 */
+	private static int capacityFor(int extentBytes, int pageLength) {
+		int sectors = (extentBytes + SECTOR - 1) / SECTOR;
+		int capacity = Integer.highestOneBit(sectors) == sectors ? sectors : Integer.highestOneBit(sectors) << 1;
+		return (int) Math.min((long) capacity * SECTOR, roundUp(EXTENT_HEADER + pageLength));
+	}
+
+	/**
+	 * Read the page at the logical offset into dst, whose length is the
+	 * length of the page.
+	 * @return dst.length, or 0 if the page was never written; dst is then
+	 *         left as it is, like a read past the end of a plain file
+	 */
+	public int read(long offset, byte[] dst) throws IOException {
+		Extent e;
+		synchronized (this) {
+			e = extents.get(offset);
+		}
+		if (e == null) {
+			return 0;
+		}
+		byte[] extent = new byte[Math.min(e.capacity, EXTENT_HEADER + dst.length)];
+		ChannelPool.read(file, e.offset, extent);
+		int stored = ByteBuffer.wrap(extent).getInt();
+		if (stored == dst.length) {
+			System.arraycopy(extent, EXTENT_HEADER, dst, 0, stored);
+		} else if (stored > 0 && stored < dst.length) {
+			inflate(extent, EXTENT_HEADER, stored, dst);
+		} else {
+			throw new IOException("bad extent of " + stored + " bytes at " + e.offset + " in " + file);
+		}
+		return dst.length;
+	}
+
+	/**
+	 * Write the page at the logical offset, in place if it fits in its
+	 * extent, otherwise in a new extent recorded in the table.
+	 */
+	public void write(long offset, byte[] data) throws IOException {
+		byte[] payload = deflate(data);
+		if (payload == null) {
+			payload = data;
+		}
+		byte[] extent = new byte[EXTENT_HEADER + payload.length];
+		ByteBuffer.wrap(extent).putInt(payload.length).put(payload);
+
+		synchronized (this) {
+			Extent e = extents.get(offset);
+			if (e != null && e.capacity >= extent.length && e.length == data.length) {
+				ChannelPool.write(file, e.offset, extent, false);
+				SyncPolicy.written(file);
+				return;
+			}
+			// the old extent stays as it is, the table may still point to it on disk
+			e = new Extent(end, capacityFor(extent.length, data.length), data.length);
+			Debug.log(CompressedPagesDebugLevel, "page at %d to extent %d of %d bytes", offset, e.offset, e.capacity);
+			ChannelPool.write(file, e.offset, extent, false);
+			SyncPolicy.written(file);
+
+			ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+			record.putLong(offset).putLong(e.offset).putInt(e.capacity).putInt(e.length);
+			ChannelPool.write(tableFile, tableEnd, record.array(), false);
+			tableEnd += RECORD_BYTES;
+			SyncPolicy.written(tableFile);
+			put(offset, e);
+		}
+	}
+
+	/** window of the deflate stream: the smallest that holds a page */
+	private static int windowBits() {
+		int bits = 32 - Integer.numberOfLeadingZeros(BufferPool.getPageSize() - 1);
+		return Math.max(9, Math.min(15, bits));
+	}
+
+	/** @return data deflated, or null if that is not shorter than data */
+	static byte[] deflate(byte[] data) {
+		ZStream z = new ZStream();
+		z.deflateInit(LEVEL, windowBits());
+		byte[] out = new byte[data.length];
+		z.next_in = data;
+		z.next_in_index = 0;
+		z.avail_in = data.length;
+		z.next_out = out;
+		z.next_out_index = 0;
+		z.avail_out = out.length;
+		// runs out of room, and does not end the stream, unless it is shorter
+		int err = z.deflate(JZlib.Z_FINISH);
+		int n = (int) z.total_out;
+		z.deflateEnd();
+		return err == JZlib.Z_STREAM_END && n < data.length ? Arrays.copyOf(out, n) : null;
+	}
+
+	/** Inflate length bytes of src at offset into the whole of dst */
+	static void inflate(byte[] src, int offset, int length, byte[] dst) throws IOException {
+		ZStream z = new ZStream();
+		z.inflateInit(windowBits());
+		z.next_in = src;
+		z.next_in_index = offset;
+		z.avail_in = length;
+		z.next_out = dst;
+		z.next_out_index = 0;
+		z.avail_out = dst.length;
+		int err = z.inflate(JZlib.Z_FINISH);
+		long n = z.total_out;
+		String msg = z.msg;
+		z.inflateEnd();
+		if (err != JZlib.Z_STREAM_END || n != dst.length) {
+			throw new IOException("corrupt compressed page (" + err + ", " + msg + ")");
+		}
+	}
+}
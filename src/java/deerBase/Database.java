@@ -57,12 +57,14 @@ public class Database {
         buffer pool and return it
     */
     public static BufferPool resetBufferPool(int pages) {
+        _instance._bufferpool.shutdown();
         _instance._bufferpool = new BufferPool(pages);
         return _instance._bufferpool;
     }
 
     // reset the database, used for unit tests only.
     public static void reset() {
+    	_instance._bufferpool.shutdown();
     	_instance = new Database();
     }
 
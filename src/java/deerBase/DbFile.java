@@ -3,6 +3,9 @@ package deerBase;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 /**
  * The abstract class for database files on disk. Each table is represented by
@@ -15,11 +18,19 @@ public abstract class DbFile implements Serializable {
 	
 	private static final long serialVersionUID = 1L;
 	
+	/** readPages and writePages move adjacent pages in calls of at most this many bytes */
+	public static final int MAX_RUN_BYTES = 1 << 20;
+	
 	private File f;
 	private final TupleDesc td;
 	private volatile int numPages;
 	private final int fileId;
-	private volatile Vector<Byte> notFullPages;
+	/** room on each page, for inserts into a HeapFile */
+	private transient volatile FreeSpaceMap freeSpace;
+	/** read-only mapping of f when reads are memory-mapped, see setMapped */
+	private transient volatile MappedPages mapped;
+	/** the page translation table of f when it is compressed, see setCompressed */
+	private transient volatile CompressedPages compressed;
 	
     /**
      * Constructs a database file backed by the specified file.
@@ -31,16 +42,25 @@ public abstract class DbFile implements Serializable {
     public DbFile(File f, TupleDesc td) {
     	this.td = td;
 		this.f = f;
-    	this.numPages = (int) (f.length() / BufferPool.getPageSize());
+    	// a pooled channel may still point to an older file of the same name
+    	ChannelPool.close(f);
+    	try {
+    		if (CompressedPages.isCompressed(f)) {
+    			this.compressed = new CompressedPages(f);
+    		}
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    	}
+    	this.numPages = (int) (getLength() / BufferPool.getPageSize());
     	this.fileId = f.getAbsoluteFile().hashCode();
-    	this.notFullPages = new Vector<Byte>(Collections.nCopies(numPages/8 + 1, (byte) 0));
+    	this.freeSpace = new FreeSpaceMap(f, numPages, getLength());
     } 
 	
     // only used for unit test, SkeletonFile
     public DbFile (int tableId) {
     	this.td = null;
 		this.fileId = tableId;
-    	this.notFullPages = new Vector<Byte>(Arrays.asList((byte) 0));
+    	this.freeSpace = new FreeSpaceMap(null, 0, 0);
 	}
     
     /**
@@ -55,21 +75,305 @@ public abstract class DbFile implements Serializable {
     	
     	Page resPage = null;
     	try {
-    		RandomAccessFile adFile = new RandomAccessFile(f, "r");
-    		byte[] buf = new byte[BufferPool.getPageSize()];
-    		int pos = pid.pageNumber() * BufferPool.getPageSize();
-    		
-    		adFile.seek(pos);
-    		adFile.read(buf);
-    		adFile.close();
+    		ByteBuffer slice = mappedPage(pid);
+    		if (slice != null) {
+    			return createPage(pid, slice);
+    		}
+    		// past the end of the file, the page is read as zeros, i.e. empty
+    		byte[] buf = new byte[getPageLength(pid)];
+    		readData(getPageOffset(pid), buf);
     		
-    		resPage = new HeapPage((HeapPageId)pid, buf);
+    		resPage = createPage(pid, buf);
     	} catch (Exception e) {
 			e.printStackTrace();
 		}
     	
         return resPage;
     }
+    
+    /**
+     * Read several pages of this file. The pages are read in offset order,
+     * and each run of adjacent pages with a single positional read of up to
+     * {@link #MAX_RUN_BYTES}; pages past the end of the file are read as
+     * zeros, like readPage does. Mapped pages are sliced from the mapping,
+     * and compressed pages are read one extent at a time.
+     *
+     * @return the pages, in the order of pids
+     */
+    public List<Page> readPages(List<PageId> pids) throws IOException {
+    	Page[] pages = new Page[pids.size()];
+    	if (compressed != null) {
+    		for (int i = 0; i < pages.length; i++) {
+    			PageId pid = pids.get(i);
+    			byte[] buf = new byte[getPageLength(pid)];
+    			readData(getPageOffset(pid), buf);
+    			pages[i] = createPage(pid, buf);
+    		}
+    		return Arrays.asList(pages);
+    	}
+    	Integer[] order = byOffset(pids);
+    	int i = 0;
+    	while (i < order.length) {
+    		PageId first = pids.get(order[i]);
+    		ByteBuffer slice = mappedPage(first);
+    		if (slice != null) {
+    			pages[order[i++]] = createPage(first, slice);
+    			continue;
+    		}
+    		int end = runEnd(pids, order, i);
+    		byte[][] run = new byte[end - i][];
+    		for (int k = i; k < end; k++) {
+    			run[k - i] = new byte[getPageLength(pids.get(order[k]))];
+    		}
+    		ChannelPool.read(f, getPageOffset(first), run);
+    		for (int k = i; k < end; k++) {
+    			pages[order[k]] = createPage(pids.get(order[k]), run[k - i]);
+    		}
+    		i = end;
+    	}
+    	return Arrays.asList(pages);
+    }
+    
+    /**
+     * Write several pages of this file, each run of adjacent pages with a
+     * single positional write. The file is forced as the SyncPolicy says,
+     * at most once at the end in PER_BATCH mode instead of once per page.
+     */
+    public void writePages(List<Page> pages) throws IOException {
+    	if (pages.isEmpty()) {
+    		return;
+    	}
+    	List<PageId> pids = new ArrayList<PageId>(pages.size());
+    	for (Page p : pages) {
+    		pids.add(p.getId());
+    	}
+    	Integer[] order = byOffset(pids);
+    	int i = 0;
+    	while (i < order.length) {
+    		int end = runEnd(pids, order, i);
+    		byte[][] run = new byte[end - i][];
+    		for (int k = i; k < end; k++) {
+    			run[k - i] = pages.get(order[k]).getPageData();
+    		}
+    		writeData(getPageOffset(pids.get(order[i])), run);
+    		i = end;
+    	}
+    	batchWritten();
+    }
+    
+    /** @return the indexes of pids, sorted by the offset of their page */
+    private Integer[] byOffset(List<PageId> pids) {
+    	Integer[] order = new Integer[pids.size()];
+    	for (int i = 0; i < order.length; i++) {
+    		order[i] = i;
+    	}
+    	Arrays.sort(order, Comparator.comparingLong(i -> getPageOffset(pids.get(i))));
+    	return order;
+    }
+    
+    /**
+     * @return the end of the run of adjacent pages that starts at order[start]:
+     *         each page begins where the previous one ends
+     */
+    private int runEnd(List<PageId> pids, Integer[] order, int start) {
+    	long first = getPageOffset(pids.get(order[start]));
+    	long next = first + getPageLength(pids.get(order[start]));
+    	int end = start + 1;
+    	while (end < order.length) {
+    		PageId pid = pids.get(order[end]);
+    		if (getPageOffset(pid) != next || next + getPageLength(pid) - first > MAX_RUN_BYTES) {
+    			break;
+    		}
+    		next += getPageLength(pid);
+    		end++;
+    	}
+    	return end;
+    }
+    
+    /**
+     * @return the offset in the file of the first byte of page pid, used to
+     *         read runs of adjacent pages at once
+     */
+    public long getPageOffset(PageId pid) {
+    	return (long) pid.pageNumber() * BufferPool.getPageSize();
+    }
+    
+    /** @return the size of page pid on disk */
+    public int getPageLength(PageId pid) {
+    	return BufferPool.getPageSize();
+    }
+    
+    /**
+     * Construct the page pid from its on-disk image, without any I/O.
+     * Used by readPage, and by the BufferPool to re-materialize a page whose
+     * image it kept in its off-heap arena.
+     *
+     * @param pid the id of the page
+     * @param data the page image, as returned by Page.getPageData()
+     */
+    public Page createPage(PageId pid, byte[] data) throws IOException {
+    	return new HeapPage((HeapPageId) pid, data);
+    }
+    
+    /**
+     * Construct the page pid from the bytes between the position and the
+     * limit of data, a slice of the mapped file. A HeapPage copies the bytes
+     * once, see {@link HeapPage#HeapPage(HeapPageId, ByteBuffer)}.
+     */
+    public Page createPage(PageId pid, ByteBuffer data) throws IOException {
+    	return new HeapPage((HeapPageId) pid, data);
+    }
+    
+    /**
+     * Turn memory-mapped reads on or off. When on, readPage decodes pages
+     * straight from a read-only mapping of the file instead of reading them
+     * into a fresh buffer, see MappedPages; meant for read-mostly tables.
+     * Reads of a compressed file are not mapped.
+     */
+    public void setMapped(boolean mapped) {
+    	this.mapped = mapped ? new MappedPages(f) : null;
+    }
+    
+    public boolean isMapped() {
+    	return mapped != null;
+    }
+    
+    /**
+     * @return a read-only view of page pid in the mapping of this file, or
+     *         null if reads are not mapped or the page is not in the file
+     */
+    protected ByteBuffer mappedPage(PageId pid) throws IOException {
+    	MappedPages m = mapped;
+    	if (m == null || compressed != null) {
+    		return null;
+    	}
+    	return m.slice(getPageOffset(pid), getPageLength(pid));
+    }
+    
+    /**
+     * Turn compression on or off. The file is rewritten in the other
+     * format, see CompressedPages: each page is deflated into an extent
+     * found through a page translation table, which takes less disk and
+     * less of the OS cache for pages of padded strings. Whether a file is
+     * compressed is read from the file when it is opened; this is meant
+     * for a table that is not in use, e.g. when the catalog is loaded.
+     */
+    public synchronized void setCompressed(boolean compress) throws IOException {
+    	if (compress == isCompressed()) {
+    		return;
+    	}
+    	File tmp = new File(f.getPath() + ".tmp");
+    	CompressedPages target = null;
+    	if (compress) {
+    		target = CompressedPages.create(tmp);
+    	} else {
+    		tmp.delete();
+    	}
+    	long length = getLength();
+    	for (PageId pid : getPageIds()) {
+    		if (getPageOffset(pid) + getPageLength(pid) > length) {
+    			// e.g. the root pointer of an empty B+ tree file
+    			continue;
+    		}
+    		byte[] data = new byte[getPageLength(pid)];
+    		readData(getPageOffset(pid), data);
+    		if (target != null) {
+    			target.write(getPageOffset(pid), data);
+    		} else {
+    			ChannelPool.write(tmp, getPageOffset(pid), data, false);
+    		}
+    	}
+    	ChannelPool.force(tmp);
+    	ChannelPool.close(tmp);
+    	ChannelPool.close(f);
+    	Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    	File table = CompressedPages.tableFileOf(f);
+    	ChannelPool.close(table);
+    	if (target != null) {
+    		File tmpTable = target.getTableFile();
+    		ChannelPool.force(tmpTable);
+    		ChannelPool.close(tmpTable);
+    		Files.move(tmpTable.toPath(), table.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    		this.compressed = new CompressedPages(f);
+    	} else {
+    		table.delete();
+    		this.compressed = null;
+    	}
+    	// the mapping is of the file that was replaced
+    	setMapped(isMapped());
+    }
+    
+    public boolean isCompressed() {
+    	return compressed != null;
+    }
+    
+    /** @return the CompressedPages of the file, or null if it is not compressed */
+    public CompressedPages getCompressedPages() {
+    	return compressed;
+    }
+    
+    /**
+     * @return the ids of the pages of the file, in order, e.g. to rewrite it
+     *         in another format
+     */
+    protected List<PageId> getPageIds() {
+    	List<PageId> pids = new ArrayList<PageId>();
+    	for (int i = 0; i < getNumPages(); i++) {
+    		pids.add(new HeapPageId(getTableId(), i));
+    	}
+    	return pids;
+    }
+    
+    /**
+     * @return the length of the file, or of its pages uncompressed if it is
+     *         compressed: page offsets and lengths are always those of the
+     *         plain file
+     */
+    public long getLength() {
+    	CompressedPages c = compressed;
+    	return c != null ? c.getLength() : f.length();
+    }
+    
+    /**
+     * Read dst.length bytes of the file at offset, from its pages
+     * uncompressed if it is compressed, see ChannelPool#read.
+     * @return the number of bytes read, less than dst.length at the end of the file
+     */
+    protected int readData(long offset, byte[] dst) throws IOException {
+    	CompressedPages c = compressed;
+    	return c != null ? c.read(offset, dst) : ChannelPool.read(f, offset, dst);
+    }
+    
+    /**
+     * Write data at offset through the ChannelPool, force it if the
+     * SyncPolicy says so, and extend the mapping if the write made the file
+     * longer. Each array is a page, compressed on its own if the file is.
+     */
+    protected void writeData(long offset, byte[] data) throws IOException {
+    	writeData(offset, new byte[][] { data });
+    }
+    
+    /** Write a run of adjacent page images at offset, see writeData(long, byte[]) */
+    protected void writeData(long offset, byte[][] run) throws IOException {
+    	CompressedPages c = compressed;
+    	if (c != null) {
+    		for (byte[] data : run) {
+    			c.write(offset, data);
+    			offset += data.length;
+    		}
+    		return;
+    	}
+    	ChannelPool.write(f, offset, run, false);
+    	SyncPolicy.written(f);
+    	MappedPages m = mapped;
+    	if (m != null) {
+    		long length = 0;
+    		for (byte[] data : run) {
+    			length += data.length;
+    		}
+    		m.grow(offset + length);
+    	}
+    }
 
     /**
      * Push the specified page to disk.
@@ -84,18 +388,26 @@ public abstract class DbFile implements Serializable {
     	}
     	
     	try {
-    		RandomAccessFile raf = new RandomAccessFile(f, "rw");
-    		byte[] buf = p.getPageData();
-    		int pos = p.getId().pageNumber() * BufferPool.getPageSize();
-    		
-    		raf.seek(pos);
-    		raf.write(buf);
-    		force(raf);
-    		raf.close();
+    		writeData(getPageOffset(p.getId()), p.getPageData());
+    		batchWritten();
     	} catch (Exception e) {
 			e.printStackTrace();
 		}
     }
+    
+    /**
+     * Called after a batch of pages was written: force the file, and its
+     * page translation table, if the SyncPolicy says so, and write the
+     * classes of the FreeSpaceMap that changed.
+     */
+    protected void batchWritten() throws IOException {
+    	SyncPolicy.batchWritten(f);
+    	freeSpace.write(getLength());
+    	CompressedPages c = compressed;
+    	if (c != null) {
+    		SyncPolicy.batchWritten(c.getTableFile());
+    	}
+    }
 
     
     /**
@@ -133,39 +445,31 @@ public abstract class DbFile implements Serializable {
     	return this.fileId;
     }
     
-    public Vector<Byte> getNotFullPagesList() {
-		return this.notFullPages;
-	}
+    /** @return the room on each page of this file, see FreeSpaceMap */
+    public FreeSpaceMap getFreeSpaceMap() {
+    	return this.freeSpace;
+    }
     
-    public synchronized void setNotFullPagesList(int pageIdx, boolean isFull) {
-    	int slotIdx = pageIdx/8;
-    	byte mask = (byte) (1 << (pageIdx%8));
-    	
-    	if (slotIdx > notFullPages.size()) {
-    		notFullPages.add((byte) 0);
-    	}
-    	
-    	if (isFull == true) {
-    		notFullPages.set(slotIdx, (byte) (notFullPages.get(slotIdx) | mask));
-    	} else {
-    		notFullPages.set(slotIdx, (byte) (notFullPages.get(slotIdx) & ~mask));
+    /**
+     * Called by pages when they fill up or get room again. HeapFile records
+     * the exact room of the page in the FreeSpaceMap after each change.
+     */
+    public void setNotFullPagesList(int pageIdx, boolean isFull) {
+    	FreeSpaceMap fsm = freeSpace;
+    	synchronized (fsm) {
+    		if (isFull) {
+    			fsm.setClass(pageIdx, 0);
+    		} else if (fsm.getClass(pageIdx) == 0) {
+    			fsm.setClass(pageIdx, 1);
+    		}
     	}
-	}
+    }
     
     /**
      * Returns true if associated page on this file is full.
      */
     public boolean isFullPage (int pageIdx) {
-    	// if the first 18 pages are used, notFullPages looks like [11111111, 11111111, 00000011, ...]
-    	
-    	
-    	int slotIdx = pageIdx/8;
-
-    	if (((notFullPages.get(slotIdx) >>> (pageIdx%8)) & 0x01) == 1) {
-    		return true;
-    	} else {
-    		return false;
-    	}
+    	return freeSpace.getClass(pageIdx) == 0;
     }
     
 
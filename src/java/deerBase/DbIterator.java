@@ -40,6 +40,28 @@ public interface DbIterator extends Serializable{
    */
   public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException, IOException;
 
+  /**
+   * Returns the next tuples from the operator, at most
+   * {@link TupleBatch#MAX_ROWS} of them, so a parent can work on many at a
+   * time. The default reads them one at a time with hasNext and next, which
+   * lets an operator that works a batch at a time read from any child;
+   * operators that can fill a batch directly override it. Calls to next and
+   * nextBatch can be mixed. The caller owns the batch returned.
+   *
+   * @return the next tuples, at least one, or null if there are no more.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  public default TupleBatch nextBatch() throws DbException, TransactionAbortedException, NoSuchElementException, IOException {
+      TupleBatch batch = null;
+      while ((batch == null || !batch.isFull()) && hasNext()) {
+          if (batch == null) {
+              batch = new TupleBatch(getTupleDesc());
+          }
+          batch.add(next());
+      }
+      return batch;
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
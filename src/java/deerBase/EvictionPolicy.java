@@ -0,0 +1,126 @@
+package deerBase;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * EvictionPolicy decides which frame of a {@link PageTable} segment is
+ * replaced when the segment is full. Every segment owns its own policy
+ * instance, so a policy only ever sees the frames of one segment.
+ * <p>
+ * Threading contract: onInsert, onRemove and chooseVictim are called while
+ * the segment is locked; onAccess is called on the hit path without any
+ * segment lock, so a policy that keeps ordered lists must synchronize itself.
+ * <p>
+ * The policy of the BufferPool is chosen with the system property
+ * deerBase.EvictionPolicy, e.g. -DdeerBase.EvictionPolicy=ARC, or with
+ * {@link BufferPool#setEvictionPolicy(Kind)}. CLOCK is the default.
+ */
+public abstract class EvictionPolicy {
+
+	public enum Kind {
+		LRU("LRU"), CLOCK("CLOCK"), TWO_Q("2Q"), ARC("ARC"), LRU_K("LRU-K");
+
+		private final String label;
+
+		Kind(String label) {
+			this.label = label;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		/** Parse a policy name, either its label ("2Q") or enum name ("TWO_Q") */
+		public static Kind parse(String name) {
+			for (Kind kind : values()) {
+				if (kind.label.equalsIgnoreCase(name) || kind.name().equalsIgnoreCase(name)) {
+					return kind;
+				}
+			}
+			throw new IllegalArgumentException("unknown eviction policy " + name);
+		}
+
+		/** @return the kind set by -DdeerBase.EvictionPolicy, or CLOCK */
+		public static Kind fromProperty() {
+			String name = System.getProperty("deerBase.EvictionPolicy");
+			return name == null || name.isEmpty() ? CLOCK : parse(name);
+		}
+	}
+
+	/** Create a policy for a segment of capacity frames */
+	public static EvictionPolicy create(Kind kind, int capacity) {
+		switch (kind) {
+		case LRU:
+			return new LRUPolicy(capacity);
+		case TWO_Q:
+			return new TwoQPolicy(capacity);
+		case ARC:
+			return new ARCPolicy(capacity);
+		case LRU_K:
+			return new LRUKPolicy(capacity, LRUKPolicy.DEFAULT_K);
+		case CLOCK:
+		default:
+			return new ClockPolicy(capacity);
+		}
+	}
+
+	protected final int capacity;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	protected EvictionPolicy(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/** A resident frame was looked up (a buffer pool hit) */
+	public abstract void onAccess(Frame frame);
+
+	/** A new frame became resident after a miss */
+	public abstract void onInsert(Frame frame);
+
+	/**
+	 * A frame left the segment.
+	 * @param evicted true if the policy chose it as a victim, false if it was
+	 *        discarded explicitly (e.g. by BufferPool.discardPage)
+	 */
+	public abstract void onRemove(Frame frame, boolean evicted);
+
+	/**
+	 * Pick the frame to replace. The frame stays resident until the segment
+	 * calls onRemove, so a dirty victim can be written back first.
+	 *
+	 * @param evictable frames for which it returns false must not be chosen
+	 * @return the victim, or null if no resident frame is evictable
+	 */
+	public abstract Frame chooseVictim(Predicate<Frame> evictable);
+
+	public abstract Kind getKind();
+
+	public void recordHit() {
+		hits.increment();
+	}
+
+	public void recordMiss() {
+		misses.increment();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/** @return hits / (hits + misses), or 0 if there was no lookup yet */
+	public double getHitRatio() {
+		long h = getHits(), total = h + getMisses();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	public String toString() {
+		return String.format("%s(hits=%d, misses=%d, ratio=%.3f)",
+				getKind().getLabel(), getHits(), getMisses(), getHitRatio());
+	}
+}
@@ -0,0 +1,45 @@
+package deerBase;
+
+import java.util.Random;
+
+/**
+ * EvictionPolicyBenchmark replays the same synthetic page trace against a
+ * PageTable with each {@link EvictionPolicy} and prints the hit ratios. The
+ * trace mixes lookups of a hot set (e.g. the inner table of a join) with
+ * large sequential scans (e.g. a SeqScan over paperauths), the pattern that
+ * flushes the working set out of a plain LRU buffer pool.
+ * <p>
+ * Usage: java deerBase.EvictionPolicyBenchmark [capacity] [hotPages] [scanPages] [rounds]
+ */
+public class EvictionPolicyBenchmark {
+
+	public static void main(String[] args) throws DbException {
+		int capacity = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		int hotPages = args.length > 1 ? Integer.parseInt(args[1]) : capacity / 2;
+		int scanPages = args.length > 2 ? Integer.parseInt(args[2]) : capacity * 4;
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+		System.out.printf("capacity=%d hot=%d scan=%d rounds=%d%n", capacity, hotPages, scanPages, rounds);
+		for (EvictionPolicy.Kind kind : EvictionPolicy.Kind.values()) {
+			PageTable table = new PageTable(capacity, kind, null);
+			Random random = new Random(0);
+			for (int round = 0; round < rounds; round++) {
+				for (int i = 0; i < hotPages * 4; i++) {
+					access(table, new HeapPageId(1, random.nextInt(hotPages)));
+				}
+				for (int i = 0; i < scanPages; i++) {
+					access(table, new HeapPageId(2, round * scanPages + i));
+				}
+			}
+			System.out.printf("%-6s hit ratio %.3f (hits=%d, misses=%d)%n", kind.getLabel(),
+					table.getHitRatio(), table.getHits(), table.getMisses());
+		}
+	}
+
+	/** what BufferPool.getPage does with the page table */
+	private static void access(PageTable table, PageId pid) throws DbException {
+		if (table.get(pid) == null) {
+			table.putIfAbsent(pid, new PageTableBenchmark.BenchPage(pid));
+		}
+	}
+}
@@ -0,0 +1,350 @@
+package deerBase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * ExternalSort sorts more tuples than fit in memory: the input is cut into
+ * runs of a fixed number of tuples, each run is sorted and written to a
+ * temporary file by a task of the common ForkJoinPool, and the runs are
+ * merged as the result is read. At most a few runs per worker are in memory
+ * at once. At most MAX_FAN_IN runs are open at once: while there are more,
+ * groups of them are merged into longer runs first. Input that fits in a
+ * single run is sorted in memory.
+ *
+ * @see BTreeFileEncoder
+ */
+public class ExternalSort {
+
+	private final static int ExternalSortDebugLevel = Debug.CLOSE;
+
+	/** default number of tuples sorted in memory at a time */
+	public static final int RUN_TUPLES = 1 << 16;
+
+	/** default number of runs merged at once */
+	public static final int MAX_FAN_IN = 64;
+
+	/**
+	 * Sort the tuples of it, which must be open, in runs of RUN_TUPLES.
+	 * @see #sort(DbFileIterator, TupleDesc, Comparator, int)
+	 */
+	public static Sorted sort(DbFileIterator it, TupleDesc td, Comparator<Tuple> cmp)
+			throws DbException, TransactionAbortedException, IOException {
+		return sort(it, td, cmp, RUN_TUPLES);
+	}
+
+	/**
+	 * Sort the tuples of it, which must be open. Tuples that compare equal
+	 * keep their input order.
+	 *
+	 * @param it the tuples to sort
+	 * @param td the TupleDesc of the tuples, to read them back from the runs
+	 * @param cmp the order of the result
+	 * @param runTuples the number of tuples sorted in memory at a time
+	 * @return the sorted tuples, to close once read
+	 */
+	public static Sorted sort(DbFileIterator it, TupleDesc td, Comparator<Tuple> cmp, int runTuples)
+			throws DbException, TransactionAbortedException, IOException {
+		return sort(it, td, cmp, runTuples, MAX_FAN_IN);
+	}
+
+	/**
+	 * Sort the tuples of it, which must be open. Tuples that compare equal
+	 * keep their input order.
+	 *
+	 * @param it the tuples to sort
+	 * @param td the TupleDesc of the tuples, to read them back from the runs
+	 * @param cmp the order of the result
+	 * @param runTuples the number of tuples sorted in memory at a time
+	 * @param fanIn the most runs merged at once, at least 2
+	 * @return the sorted tuples, to close once read
+	 */
+	public static Sorted sort(DbFileIterator it, TupleDesc td, Comparator<Tuple> cmp, int runTuples, int fanIn)
+			throws DbException, TransactionAbortedException, IOException {
+		if (fanIn < 2) {
+			throw new IllegalArgumentException("can't merge " + fanIn + " runs at a time");
+		}
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		int maxPending = pool.getParallelism() + 1;
+		ArrayDeque<ForkJoinTask<File>> pending = new ArrayDeque<ForkJoinTask<File>>();
+		List<File> runs = new ArrayList<File>();
+		try {
+			List<Tuple> run = new ArrayList<Tuple>();
+			while (it.hasNext()) {
+				run.add(it.next());
+				if (run.size() == runTuples) {
+					if (pending.size() == maxPending) {
+						runs.add(join(pending.poll()));
+					}
+					List<Tuple> full = run;
+					pending.add(pool.submit(() -> writeRun(full, cmp)));
+					run = new ArrayList<Tuple>();
+				}
+			}
+			if (pending.isEmpty() && runs.isEmpty()) {
+				// fits in memory
+				run.sort(cmp);
+				return new Sorted(run.iterator(), runs, 0);
+			}
+			if (!run.isEmpty()) {
+				List<Tuple> last = run;
+				pending.add(pool.submit(() -> writeRun(last, cmp)));
+			}
+			while (!pending.isEmpty()) {
+				runs.add(join(pending.poll()));
+			}
+			int numRuns = runs.size();
+			mergePasses(runs, td, cmp, fanIn);
+			Debug.log(ExternalSortDebugLevel, "merge %d runs of %d", runs.size(), numRuns);
+			return new Sorted(new Merge(runs, td, cmp), runs, numRuns);
+		} catch (DbException | TransactionAbortedException | IOException | RuntimeException e) {
+			for (ForkJoinTask<File> task : pending) {
+				// not cancelled: a task cancelled while it runs still writes its run
+				try {
+					join(task).delete();
+				} catch (IOException | RuntimeException ignored) {
+				}
+			}
+			for (File f : runs) {
+				f.delete();
+			}
+			throw e;
+		}
+	}
+
+	/** Sort run, stable, and write it to a temporary file */
+	private static File writeRun(List<Tuple> run, Comparator<Tuple> cmp) throws IOException {
+		run.sort(cmp);
+		return writeRun(run.size(), run.iterator());
+	}
+
+	/** Write the numTuples tuples of it to a temporary file, deleted if that fails */
+	private static File writeRun(int numTuples, Iterator<Tuple> it) throws IOException {
+		File f = File.createTempFile("run", ".tmp");
+		f.deleteOnExit();
+		try (DataOutputStream dos = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(f), 1 << 16))) {
+			dos.writeInt(numTuples);
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+					t.getField(j).serialize(dos);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			f.delete();
+			throw e;
+		}
+		return f;
+	}
+
+	/**
+	 * Merge runs, in order, in groups of fanIn into longer runs until no more
+	 * than fanIn are left. The runs of a pass keep the order of their groups,
+	 * so ties still go to the earlier run. runs always holds the runs left,
+	 * for the caller to delete on failure.
+	 */
+	private static void mergePasses(List<File> runs, TupleDesc td, Comparator<Tuple> cmp, int fanIn)
+			throws IOException {
+		while (runs.size() > fanIn) {
+			List<File> next = new ArrayList<File>();
+			try {
+				for (int i = 0; i < runs.size(); i += fanIn) {
+					List<File> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+					next.add((group.size() == 1) ? group.get(0) : mergeRuns(group, td, cmp));
+				}
+			} catch (IOException | RuntimeException e) {
+				for (File f : next) {
+					if (!runs.contains(f)) {
+						f.delete();
+					}
+				}
+				throw e;
+			}
+			for (File f : runs) {
+				if (!next.contains(f)) {
+					f.delete();
+				}
+			}
+			runs.clear();
+			runs.addAll(next);
+			Debug.log(ExternalSortDebugLevel, "merge pass left %d runs", runs.size());
+		}
+	}
+
+	/** @return a new run with the tuples of group merged */
+	private static File mergeRuns(List<File> group, TupleDesc td, Comparator<Tuple> cmp) throws IOException {
+		Merge merge = new Merge(group, td, cmp);
+		try {
+			return writeRun(merge.numTuples, merge);
+		} finally {
+			merge.close();
+		}
+	}
+
+	/** @return the run written by task, with the IOException it threw rethrown */
+	private static File join(ForkJoinTask<File> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("interrupted while sorting a run");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("can't sort a run", e.getCause());
+		}
+	}
+
+	/** The result of a sort: its tuples in order, and the runs they are read from */
+	public static class Sorted implements Iterator<Tuple>, Closeable {
+		private final Iterator<Tuple> tuples;
+		private final List<File> runs;
+		private final int numRuns;
+
+		private Sorted(Iterator<Tuple> tuples, List<File> runs, int numRuns) {
+			this.tuples = tuples;
+			this.runs = runs;
+			this.numRuns = numRuns;
+		}
+
+		/** @return the number of runs the input was sorted in, 0 if it was sorted in memory */
+		public int getNumRuns() {
+			return numRuns;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return tuples.hasNext();
+		}
+
+		@Override
+		public Tuple next() {
+			return tuples.next();
+		}
+
+		/** close and delete the runs */
+		@Override
+		public void close() throws IOException {
+			if (tuples instanceof Merge) {
+				((Merge) tuples).close();
+			}
+			for (File f : runs) {
+				f.delete();
+			}
+		}
+	}
+
+	/** one run being merged, and its next tuple */
+	private static class RunReader {
+		final int index;
+		final DataInputStream dis;
+		final TupleDesc td;
+		int remaining;
+		Tuple head;
+
+		RunReader(int index, File f, TupleDesc td) throws IOException {
+			this.index = index;
+			this.dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+			this.td = td;
+			this.remaining = dis.readInt();
+		}
+
+		/** @return false at the end of the run */
+		boolean advance() throws IOException {
+			if (remaining == 0) {
+				head = null;
+				return false;
+			}
+			remaining--;
+			Tuple t = new Tuple(td);
+			try {
+				for (int j = 0; j < td.numFields(); j++) {
+					t.setField(j, td.getFieldType(j).parse(dis));
+				}
+			} catch (ParseException e) {
+				throw new IOException("corrupt run: " + e.getMessage());
+			}
+			head = t;
+			return true;
+		}
+	}
+
+	/** k-way merge of sorted runs; ties go to the earlier run, so the sort is stable */
+	private static class Merge implements Iterator<Tuple> {
+		private final PriorityQueue<RunReader> heads;
+		private final List<RunReader> readers = new ArrayList<RunReader>();
+		/** the number of tuples in the runs */
+		int numTuples;
+
+		Merge(List<File> runs, TupleDesc td, Comparator<Tuple> cmp) throws IOException {
+			Comparator<RunReader> byHead = (a, b) -> cmp.compare(a.head, b.head);
+			this.heads = new PriorityQueue<RunReader>(Math.max(1, runs.size()),
+					byHead.thenComparingInt(r -> r.index));
+			try {
+				for (int i = 0; i < runs.size(); i++) {
+					RunReader r = new RunReader(i, runs.get(i), td);
+					readers.add(r);
+					numTuples += r.remaining;
+					if (r.advance()) {
+						heads.add(r);
+					}
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !heads.isEmpty();
+		}
+
+		@Override
+		public Tuple next() {
+			RunReader r = heads.poll();
+			if (r == null) {
+				throw new NoSuchElementException();
+			}
+			Tuple t = r.head;
+			try {
+				if (r.advance()) {
+					heads.add(r);
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("can't read run " + r.index, e);
+			}
+			return t;
+		}
+
+		void close() {
+			for (RunReader r : readers) {
+				try {
+					r.dis.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+}
@@ -13,6 +13,7 @@ public class Filter extends Operator {
     private Predicate predicate;
     private DbIterator child;
     private TupleDesc td;
+    private transient PlanCompiler.TupleFilter compiled;
     
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -40,6 +41,7 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException, IOException {
         child.open();
+        compiled = PlanCompiler.compile(td, predicate);
         super.open();
     }
 
@@ -50,6 +52,7 @@ public class Filter extends Operator {
 
     public void rewind() throws DbException, TransactionAbortedException, NoSuchElementException, IOException {
         child.rewind();
+        discardFetched();
     }
 
     /**
@@ -63,10 +66,25 @@ public class Filter extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException, IOException {
-    	while (child.hasNext()) {
-    		Tuple t = child.next();
-    		if (predicate.filter(t)) {
-    			return t;
+    	return fetchNextFromBatch();
+    }
+
+    /**
+     * Operator.fetchNextBatch implementation. Reads a batch of the child at a
+     * time and drops the tuples that don't pass the predicate from its
+     * selection. The predicate is compiled when the filter is opened, see
+     * {@link PlanCompiler}.
+     * 
+     * @return the next batch with a tuple that passes the filter, or null if
+     *         there are no more tuples
+     */
+    protected TupleBatch fetchNextBatch() throws NoSuchElementException,
+            TransactionAbortedException, DbException, IOException {
+    	TupleBatch batch;
+    	while ((batch = child.nextBatch()) != null) {
+    		batch.select(compiled);
+    		if (batch.size() > 0) {
+    			return batch;
     		}
     	}
     	return null;
@@ -0,0 +1,117 @@
+package deerBase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Frame is one slot of the buffer pool's {@link PageTable}. It binds a
+ * cached Page to the bookkeeping the page table needs to pick an eviction
+ * victim without holding a global lock.
+ *
+ * @see PageTable
+ */
+public class Frame {
+
+    final PageId pid;
+    volatile Page page;
+
+    /** Reference bit, set on every hit without taking any lock (CLOCK). */
+    volatile boolean referenced;
+
+    /** Set while the frame's dirty page is being written back, by an
+     *  eviction or a {@link PageCleaner}; lookups wait until it is cleared. */
+    volatile boolean writingBack;
+
+    /** Cleaner epoch of the last lookup, see {@link PageTable#advanceEpoch()}. */
+    volatile int accessEpoch;
+
+    /** Lookups since the page was loaded. Counted without synchronization,
+     *  so only approximate; used to rank pages for a warm-start snapshot. */
+    int hits;
+
+    /** Position of this frame in its segment's clock, -1 if not resident. */
+    int slot = -1;
+
+    /** Number of users of the page, see {@link #tryPin()}. A pinned frame is
+     *  never evicted; -1 once the frame has been chosen as a clean victim. */
+    final AtomicInteger pins = new AtomicInteger();
+
+    Frame(PageId pid, Page page, int epoch) {
+        this.pid = pid;
+        this.page = page;
+        this.referenced = true;
+        this.accessEpoch = epoch;
+    }
+
+    /** Block until the frame is no longer being written back. */
+    void awaitWriteBack() {
+        synchronized (this) {
+            while (writingBack) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Clear writingBack and wake up the lookups waiting for it. */
+    void endWriteBack() {
+        synchronized (this) {
+            writingBack = false;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Pin the frame unless it is being evicted.
+     * @return false if the frame was chosen as a victim, the page must be
+     *         looked up again
+     */
+    boolean tryPin() {
+        for (;;) {
+            int n = pins.get();
+            if (n < 0) {
+                return false;
+            }
+            if (pins.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void unpin() {
+        for (;;) {
+            int n = pins.get();
+            if (n <= 0 || pins.compareAndSet(n, n - 1)) {
+                return;
+            }
+        }
+    }
+
+    /** Claim an unpinned frame for eviction, so that it cannot be pinned any more. */
+    boolean tryEvict() {
+        return pins.compareAndSet(0, -1);
+    }
+
+    public boolean isPinned() {
+        return pins.get() > 0;
+    }
+
+    public int getPinCount() {
+        return Math.max(0, pins.get());
+    }
+
+    public PageId getPageId() {
+        return pid;
+    }
+
+    public Page getPage() {
+        return page;
+    }
+
+    public String toString() {
+        return "Frame" + pid + (referenced ? "*" : "") + (isPinned() ? "^" + pins.get() : "");
+    }
+}
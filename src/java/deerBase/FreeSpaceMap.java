@@ -0,0 +1,257 @@
+package deerBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap records how much room each page of a HeapFile has, so an
+ * insert goes straight to a page that can take its tuple instead of
+ * locking and reading the file from page 0.
+ * <p>
+ * The free bytes of a page are kept as a space class of one byte, 0 for a
+ * page with no room and {@link #MAX_CLASS} for an empty one, rounded up: a
+ * page whose class is lower than the class of a tuple has no room for it,
+ * and a page whose class is not may still turn out not to have room. The
+ * classes are the leaves of a binary tree whose nodes hold the largest
+ * class below them, so the first page with enough room is found, and a
+ * class is updated, in O(log pages), under a short lock.
+ * <p>
+ * The map is a hint. It is written next to the data file (the data file
+ * name with ".fsm") after pages of the file are written, and is not
+ * forced or logged. Its header is rewritten after every write of the data
+ * file, even one that changed no class, so a map older than its data file,
+ * or written for another length of it, was not written by this code after
+ * the last write: it is ignored when the file is opened, and every page is
+ * then assumed to have room until it is visited.
+ *
+ * @see HeapFile#insertTuple(TransactionId, Tuple)
+ */
+public class FreeSpaceMap {
+
+	private final static int FreeSpaceMapDebugLevel = Debug.CLOSE;
+
+	/** space class of an empty page */
+	public static final int MAX_CLASS = 255;
+
+	/** first bytes of a map file */
+	private static final byte[] MAGIC = { 'D', 'F', 'S', 'M' };
+
+	/** magic, page size and length of the data file, before the classes */
+	private static final int HEADER_SIZE = MAGIC.length + 4 + 8;
+
+	/** where the map is written, null for a map kept in memory only */
+	private final File file;
+	/** leaves at [capacity, 2 * capacity), the root at 1 */
+	private byte[] tree;
+	private int capacity;
+	private int numPages;
+	/** pages whose class changed since the map was written */
+	private int dirtyFrom = Integer.MAX_VALUE;
+	private int dirtyTo = -1;
+	/** true until the whole map is written, when it was not loaded */
+	private boolean writeAll;
+	/** true once the map was loaded or written, so its file exists */
+	private boolean onDisk;
+
+	/**
+	 * Open the map of the data file dataFile, which has numPages pages and
+	 * is dataLength bytes long.
+	 * @param dataFile the data file, or null for a map kept in memory only
+	 */
+	public FreeSpaceMap(File dataFile, int numPages, long dataLength) {
+		this.file = dataFile == null ? null : fileOf(dataFile);
+		this.capacity = 1;
+		while (capacity < numPages) {
+			capacity <<= 1;
+		}
+		this.tree = new byte[2 * capacity];
+		this.numPages = numPages;
+		onDisk = load(dataFile, dataLength);
+		if (!onDisk) {
+			// unknown: every page is visited once before it is skipped
+			Arrays.fill(tree, capacity, capacity + numPages, (byte) MAX_CLASS);
+			writeAll = true;
+		}
+		for (int i = capacity - 1; i > 0; i--) {
+			tree[i] = max(tree[2 * i], tree[2 * i + 1]);
+		}
+	}
+
+	/** @return the map file of the data file f */
+	public static File fileOf(File f) {
+		return new File(f.getPath() + ".fsm");
+	}
+
+	/** Read the classes of the pages from the map file, if it is up to date */
+	private boolean load(File dataFile, long dataLength) {
+		if (file == null || !file.exists() || file.lastModified() < dataFile.lastModified()) {
+			return false;
+		}
+		try {
+			ChannelPool.close(file);
+			byte[] header = new byte[HEADER_SIZE];
+			if (ChannelPool.read(file, 0, header) < HEADER_SIZE
+					|| !Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC)) {
+				return false;
+			}
+			ByteBuffer buf = ByteBuffer.wrap(header, MAGIC.length, 12);
+			if (buf.getInt() != BufferPool.getPageSize() || buf.getLong() != dataLength) {
+				return false;
+			}
+			byte[] classes = new byte[numPages];
+			if (ChannelPool.read(file, HEADER_SIZE, classes) < numPages) {
+				return false;
+			}
+			System.arraycopy(classes, 0, tree, capacity, numPages);
+			Debug.log(FreeSpaceMapDebugLevel, "loaded %s: %d pages", file, numPages);
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	private static byte max(byte a, byte b) {
+		return (a & 0xFF) >= (b & 0xFF) ? a : b;
+	}
+
+	/**
+	 * @return the space class of bytes free, or needed by a tuple: 0 for
+	 *         none, rounded up otherwise
+	 */
+	public static int classOf(int bytes) {
+		if (bytes <= 0) {
+			return 0;
+		}
+		long pageSize = BufferPool.getPageSize();
+		return (int) Math.min(MAX_CLASS, (bytes * (long) MAX_CLASS + pageSize - 1) / pageSize);
+	}
+
+	public synchronized int getNumPages() {
+		return numPages;
+	}
+
+	/** @return the space class of page pageNo, MAX_CLASS for a page past the end */
+	public synchronized int getClass(int pageNo) {
+		return pageNo < numPages ? tree[capacity + pageNo] & 0xFF : MAX_CLASS;
+	}
+
+	/** Record that page pageNo has bytes free */
+	public void setFreeSpace(int pageNo, int bytes) {
+		setClass(pageNo, classOf(bytes));
+	}
+
+	/**
+	 * Record that page pageNo has no room for a tuple of bytes, although its
+	 * class said it might; it has bytes free at most
+	 */
+	public synchronized void setNoRoomFor(int pageNo, int bytes, int free) {
+		setClass(pageNo, Math.min(classOf(free), classOf(bytes) - 1));
+	}
+
+	/** Set the space class of page pageNo, adding pages up to it if needed */
+	public synchronized void setClass(int pageNo, int spaceClass) {
+		if (pageNo < 0) {
+			// pages of the unit tests' SkeletonFiles
+			return;
+		}
+		if (pageNo >= numPages) {
+			grow(pageNo + 1);
+		}
+		int i = capacity + pageNo;
+		if ((tree[i] & 0xFF) == spaceClass) {
+			return;
+		}
+		tree[i] = (byte) spaceClass;
+		for (i >>= 1; i > 0; i >>= 1) {
+			byte m = max(tree[2 * i], tree[2 * i + 1]);
+			if (tree[i] == m) {
+				break;
+			}
+			tree[i] = m;
+		}
+		dirty(pageNo, pageNo + 1);
+	}
+
+	/** Add empty pages up to numPages */
+	private void grow(int pages) {
+		if (pages > capacity) {
+			int newCapacity = capacity;
+			while (newCapacity < pages) {
+				newCapacity <<= 1;
+			}
+			byte[] newTree = new byte[2 * newCapacity];
+			System.arraycopy(tree, capacity, newTree, newCapacity, numPages);
+			tree = newTree;
+			capacity = newCapacity;
+		}
+		Arrays.fill(tree, capacity + numPages, capacity + pages, (byte) MAX_CLASS);
+		dirty(numPages, pages);
+		numPages = pages;
+		for (int i = capacity - 1; i > 0; i--) {
+			tree[i] = max(tree[2 * i], tree[2 * i + 1]);
+		}
+	}
+
+	private void dirty(int from, int to) {
+		dirtyFrom = Math.min(dirtyFrom, from);
+		dirtyTo = Math.max(dirtyTo, to);
+	}
+
+	/**
+	 * @return the first page whose class is at least the class of bytes, or
+	 *         -1 if no page may have room for them
+	 */
+	public synchronized int findPage(int bytes) {
+		int spaceClass = Math.max(1, classOf(bytes));
+		if ((tree[1] & 0xFF) < spaceClass || numPages == 0) {
+			return -1;
+		}
+		int i = 1;
+		while (i < capacity) {
+			i = (tree[2 * i] & 0xFF) >= spaceClass ? 2 * i : 2 * i + 1;
+		}
+		return i - capacity;
+	}
+
+	/**
+	 * Write the classes changed since the last write to the map file, and
+	 * the header with the length the data file has now, after pages of the
+	 * data file were written. The header is written even if no class
+	 * changed, so the map stays newer than the data file. A map that never
+	 * changed is not written, e.g. the one of a BTreeFile.
+	 */
+	public void write(long dataLength) throws IOException {
+		if (file == null) {
+			return;
+		}
+		byte[] header = new byte[HEADER_SIZE];
+		byte[] classes = null;
+		int from = 0;
+		synchronized (this) {
+			if (dirtyTo < 0) {
+				if (!onDisk) {
+					return;
+				}
+			} else {
+				if (writeAll) {
+					dirtyFrom = 0;
+					dirtyTo = numPages;
+					writeAll = false;
+				}
+				from = dirtyFrom;
+				classes = Arrays.copyOfRange(tree, capacity + dirtyFrom, capacity + dirtyTo);
+				dirtyFrom = Integer.MAX_VALUE;
+				dirtyTo = -1;
+			}
+			onDisk = true;
+		}
+		ByteBuffer.wrap(header).put(MAGIC).putInt(BufferPool.getPageSize()).putLong(dataLength);
+		if (classes != null) {
+			ChannelPool.write(file, HEADER_SIZE + from, classes, false);
+		}
+		ChannelPool.write(file, 0, header, false);
+	}
+}
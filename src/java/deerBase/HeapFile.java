@@ -64,7 +64,9 @@ public class HeapFile extends DbFile {
     }
 
     /**
-     * Thread-Safe: Maybe do a research? lock on notFullList || scan page with RLock
+     * Thread-Safe: the FreeSpaceMap picks the page, under its own short lock.
+     * A page it picks is probed READ_ONLY, and only the page the tuple goes
+     * to is locked READ_WRITE, for the insert
      * 
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -82,76 +84,66 @@ public class HeapFile extends DbFile {
     		throws TransactionAbortedException, DbException {
     	
     	ArrayList<Page> resPages = new ArrayList<Page>();
+    	FreeSpaceMap fsm = getFreeSpaceMap();
+    	int needed = getSpaceNeeded(t);
     	
     	int pageNo;
-    	HeapPage heapPage = null;
-    	// multi thread version: have to fetch page first to check not full
-		for (pageNo = 0; pageNo < getNumPages(); pageNo++) {
-			// check not full, but this page can be inserted this time
-			PageId checkedPid = new HeapPageId(tableId, pageNo);
-			heapPage = 
-					(HeapPage) Database.getBufferPool()
-					.getPage(tid, checkedPid, Permissions.READ_ONLY);
-			
-			Debug.log(HeapFileDebugLevel, "insert find page%d: isFull?%b", pageNo, heapPage.isFull());
-			if (!heapPage.isFull()) {
-				// find a not-full page, XLock for insert
-				heapPage = 
-						(HeapPage) Database.getBufferPool()
-						.getPage(tid, checkedPid, Permissions.READ_WRITE);
-				break;
-			} else {
-				// optimization: break strict 2PL
-				Database.getBufferPool().releasePage(checkedPid);
-				
-				// if all pages full, require a new page
-				// file level lock
-				if (pageNo == getNumPages()-1) {
-					synchronized (this) {
-						if (pageNo == getNumPages()-1) {
-							// the tuples of last page cannot be deleted by other txns
-							// if we hold RLock, but hold RLock and get file lock may 
-							// increase the frequency of deadlock
-							
-							// choose to release before getting file lock
-//							if (!heapPage.isFull()) {
-							// give up: here may become full
-//								heapPage = 
-//										(HeapPage) Database.getBufferPool()
-//										.getPage(tid, checkedPid, Permissions.READ_WRITE);
-//							}
-							// 27,15,40.5,6-1,12,6,3y,8-1,10106,20%
-				    		setNumPages(getNumPages() + 1);
-				    		setNotFullPagesList(pageNo, false);
-				    		heapPage = 
-									(HeapPage) Database.getBufferPool()
-									.getPage(tid, checkedPid, Permissions.READ_WRITE);
-						}
-					}
-				}
-			}	
+    	TuplePage heapPage;
+    	while (true) {
+    		pageNo = fsm.findPage(needed);
+    		if (pageNo < 0) {
+    			// no page has room, add one unless another insert just did
+    			// file level lock
+    			synchronized (this) {
+    				pageNo = fsm.findPage(needed);
+    				if (pageNo < 0) {
+    					pageNo = getNumPages();
+    					setNumPages(pageNo + 1);
+    					fsm.setClass(pageNo, FreeSpaceMap.MAX_CLASS);
+    				}
+    			}
+    		}
+    		PageId pid = new HeapPageId(tableId, pageNo);
+    		heapPage = 
+    				(TuplePage) Database.getBufferPool()
+    				.getPage(tid, pid, Permissions.READ_ONLY);
+    		
+    		Debug.log(HeapFileDebugLevel, "insert find page%d: free %d", pageNo, heapPage.getFreeSpace());
+    		if (heapPage.hasRoomFor(t)) {
+    			// upgrade the lock; the page cannot change while tid shares it
+    			heapPage = (TuplePage) Database.getBufferPool()
+    					.getPage(tid, pid, Permissions.READ_WRITE);
+    			// one pin is enough
+    			Database.getBufferPool().unpinPage(tid, pid);
+    			break;
+    		}
+    		// the map was out of date, e.g. read from an older file
+    		fsm.setNoRoomFor(pageNo, needed, heapPage.getFreeSpace());
+    		// optimization: break strict 2PL, but not on a page this txn
+    		// modified: commit flushes the pages the txn holds locks on
+    		if (heapPage.getDirtier() == null || !heapPage.getDirtier().equals(tid)) {
+    			Database.getBufferPool().releasePage(pid);
+    		}
+    		Database.getBufferPool().unpinPage(tid, pid);
     	}
 		
-		if (getNumPages() == 0) {
-			synchronized (this) {
-				if (getNumPages() == 0) {
-					setNumPages(getNumPages() + 1);
-		    		setNotFullPagesList(0, false);
-				}
-				heapPage  = 
-						(HeapPage) Database.getBufferPool()
-						.getPage(tid, new HeapPageId(tableId, 0), Permissions.READ_WRITE);
-			}
-		}
-		
 		Debug.log(HeapFileDebugLevel, "page%d insert", pageNo);
 		heapPage.insertTuple(t);
 		heapPage.markDirty(true, tid);
+		fsm.setFreeSpace(pageNo, heapPage.getFreeSpace());
 		resPages.add(heapPage);
 		
     	return resPages;
     }
     
+    /**
+     * @return the bytes t takes on a page of this file, to find a page with
+     *         room for it in the FreeSpaceMap
+     */
+    protected int getSpaceNeeded(Tuple t) {
+    	return td.getSize();
+    }
+    
     /**
     * Only used when SINGLE Thread
     * Inserts the specified tuple to the file on behalf of transaction.
@@ -173,29 +165,96 @@ public class HeapFile extends DbFile {
     	int pageNo;
     	// single thread version: can be faster, 
     	// no need to get page when finding empty slots
-		for (pageNo = 0; pageNo < getNumPages(); pageNo++) {
-			// check not full, only locked on file level
-			// but this page can be inserted this time (require page level lock)
-    		if (!isFullPage(pageNo)) {		
-    			break;
-    		}
-    	}
-		if (pageNo == getNumPages()) {
-    		setNumPages(getNumPages() + 1);
-    		setNotFullPagesList(pageNo, false);
+		FreeSpaceMap fsm = getFreeSpaceMap();
+		pageNo = fsm.findPage(getSpaceNeeded(t));
+		if (pageNo < 0) {
+			pageNo = getNumPages();
+    		setNumPages(pageNo + 1);
+    		fsm.setClass(pageNo, FreeSpaceMap.MAX_CLASS);
 		}
-		HeapPage heapPage  = 
-				(HeapPage) Database.getBufferPool()
+		TuplePage heapPage  = 
+				(TuplePage) Database.getBufferPool()
 				.getPage(tid, new HeapPageId(tableId, pageNo), Permissions.READ_WRITE);
 		// but here check full
 		heapPage.insertTuple(t);
 		heapPage.markDirty(true, tid);
+		fsm.setFreeSpace(pageNo, heapPage.getFreeSpace());
 		resPages.add(heapPage);
 		
 		
     	return resPages;
     }
 
+    /**
+     * Append tuples to fresh pages at the end of the file, without going
+     * through the BufferPool: each page is locked READ_WRITE for tid when it
+     * is added, filled in memory, and written when MAX_RUN_BYTES of pages are
+     * ready, see BufferPool#writeBack. Each page is logged as a whole-page
+     * image with an empty before-image, so an abort empties it again, and the
+     * batch is written with one sequential write.
+     *
+     * Pages that were not full before are not used, so this is meant for
+     * loading a new table, e.g. by Insert.
+     *
+     * @param tid The transaction performing the load
+     * @param tuples The tuples to add, each updated with its record id
+     * @return the number of tuples added
+     * @throws DbException if a tuple does not fit this file
+     * @throws IOException if the pages can't be logged or written
+     */
+    public int bulkAppend(TransactionId tid, Iterator<Tuple> tuples)
+    		throws DbException, IOException {
+    	int batchPages = Math.max(1, MAX_RUN_BYTES / BufferPool.getPageSize());
+    	List<Page> batch = new ArrayList<Page>(batchPages);
+    	TuplePage page = null;
+    	int count = 0;
+    	while (tuples.hasNext()) {
+    		Tuple t = tuples.next();
+    		if (page == null || !page.hasRoomFor(t)) {
+    			if (batch.size() == batchPages) {
+    				writeAppended(batch);
+    				batch.clear();
+    			}
+    			page = appendPage(tid);
+    			batch.add(page);
+    		}
+    		page.insertTuple(t);
+    		count++;
+    	}
+    	writeAppended(batch);
+    	Debug.log(HeapFileDebugLevel, "bulk append %d tuples, %d pages", count, getNumPages());
+    	return count;
+    }
+
+    /** @return a new empty page at the end of the file, locked for tid */
+    private TuplePage appendPage(TransactionId tid) throws DbException, IOException {
+    	int pageNo;
+    	PageId pid;
+    	// locked before the file grows, so no scan reads it before it is written
+    	synchronized (this) {
+    		pageNo = getNumPages();
+    		pid = new HeapPageId(tableId, pageNo);
+    		if (!Database.getLockManager().tryAcquireLock(tid, pid, Permissions.READ_WRITE)) {
+    			throw new DbException("new page " + pageNo + " is already locked");
+    		}
+    		setNumPages(pageNo + 1);
+    		// not offered to inserts until it is filled
+    		getFreeSpaceMap().setClass(pageNo, 0);
+    	}
+    	TuplePage page = (TuplePage) createPage(pid, new byte[getPageLength(pid)]);
+    	page.captureBeforeImage();
+    	page.markDirty(true, tid);
+    	return page;
+    }
+
+    /** Log and write pages filled by bulkAppend, and record their room */
+    private void writeAppended(List<Page> batch) throws IOException {
+    	for (Page page : batch) {
+    		getFreeSpaceMap().setFreeSpace(page.getId().pageNumber(), ((TuplePage) page).getFreeSpace());
+    	}
+    	Database.getBufferPool().writeBack(batch, Metrics.FlushReason.APPEND);
+    }
+
     /**
     * Removes the specified tuple from the file on behalf of the specified
     * transaction.
@@ -209,14 +268,13 @@ public class HeapFile extends DbFile {
             TransactionAbortedException {
     	ArrayList<Page> resPages = new ArrayList<Page>();
     	PageId pageId = t.getRecordId().getPageId();
-    	HeapPage heapPage = 
-    			(HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+    	TuplePage heapPage = 
+    			(TuplePage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
     	heapPage.deleteTuple(t);
     	heapPage.markDirty(true, tid);
     	resPages.add(heapPage);
     	
-    	
-    	setNotFullPagesList(pageId.pageNumber(), false);
+    	getFreeSpaceMap().setFreeSpace(pageId.pageNumber(), heapPage.getFreeSpace());
     	
     	return resPages;
     }
@@ -230,26 +288,68 @@ public class HeapFile extends DbFile {
      */
     @Override
     public DbFileIterator iterator(TransactionId tid) {
-        return new HeapFileItr(tid);
+        return new HeapFileItr(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that reads at least
+     * the fields in columns, see TuplePage#iterator(int[]): pages stored
+     * column by column skip the other fields.
+     *
+     * @param columns the indexes of the fields the caller reads, null for all
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new HeapFileItr(tid, columns);
     }
     
     private class HeapFileItr implements DbFileIterator {
 		private static final long serialVersionUID = 1L;
 
 		private TransactionId tid;
+		// fields read from each tuple, null for all
+		private int[] columns;
     	
     	private int curPgNo;
     	private Iterator<Tuple> pageItr = null;
+    	// private frames of a scan over a large table, null for small tables
+    	private ScanRing ring = null;
+    	// last page number handed to the prefetcher
+    	private int prefetchedUpTo = 0;
+    	// page pinned by getPage for the tuples being returned, null if none
+    	private PageId pinned = null;
     	
-    	public HeapFileItr(TransactionId tid) {
+    	public HeapFileItr(TransactionId tid, int[] columns) {
 			this.tid = tid;
+			this.columns = columns;
 		}
     	
     	@Override
         public void open() throws DbException, TransactionAbortedException {
+    		if (this.ring == null) {
+    			this.ring = Database.getBufferPool().newScanRing(HeapFile.this);
+    		}
+    		// a rewind starts a new pass, which reads ahead from its first page
+    		this.stopReadAhead();
     		this.curPgNo = 0;
     		this.setCurPageItr(this.curPgNo);
     	}
+    	
+    	// drop what was read ahead of the current page and unpin it
+    	private void stopReadAhead() {
+    		if (this.ring != null && this.prefetchedUpTo > this.curPgNo) {
+    			// pages read ahead for the ring are never installed, drop them
+    			Database.getBufferPool().cancelReadAhead(HeapFile.this, this.curPgNo + 1, this.prefetchedUpTo);
+    		}
+    		this.unpin();
+    		this.prefetchedUpTo = 0;
+    	}
+    	
+    	private void unpin() {
+    		if (this.pinned != null) {
+    			Database.getBufferPool().unpinPage(tid, this.pinned);
+    			this.pinned = null;
+    		}
+    	}
                     	
     	@Override
     	public boolean hasNext() throws DbException, TransactionAbortedException {
@@ -286,9 +386,16 @@ public class HeapFile extends DbFile {
     	private void setCurPageItr(int pgNo) 
     			throws DbException, TransactionAbortedException {
     		PageId pId = (PageId) new HeapPageId(tableId, pgNo);
-    		HeapPage curPage = 
-    				(HeapPage) Database.getBufferPool().getPage(tid, pId, Permissions.READ_ONLY);
-    		this.pageItr = curPage.iterator();
+    		// the previous page is done, let it be evicted before reading this one
+    		this.unpin();
+    		TuplePage curPage = (TuplePage) (ring == null
+    				? Database.getBufferPool().getPage(tid, pId, Permissions.READ_ONLY)
+    				: Database.getBufferPool().getPageForScan(tid, pId, ring));
+    		if (ring == null) {
+    			this.pinned = pId;
+    		}
+    		this.pageItr = columns == null ? curPage.iterator() : curPage.iterator(columns);
+    		this.prefetchedUpTo = Database.getBufferPool().readAhead(HeapFile.this, pgNo, ring, prefetchedUpTo);
     	}
     	
     	@Override
@@ -298,8 +405,10 @@ public class HeapFile extends DbFile {
     	
     	@Override
     	public void close() {
+    		this.stopReadAhead();
     		this.curPgNo = 0;
     		this.pageItr = null;
+    		this.ring = null;
     	}
     }
 
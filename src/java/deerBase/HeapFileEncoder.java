@@ -1,7 +1,13 @@
 package deerBase;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -77,6 +83,12 @@ public class HeapFileEncoder {
     * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
+    * <p>
+    * The input is streamed: it is read in chunks of CHUNK_PAGES pages of
+    * lines, each chunk is parsed and encoded by a task of the common
+    * ForkJoinPool, and the encoded chunks are written in input order by the
+    * calling thread. At most a few chunks per worker are in memory at once,
+    * so the input can be larger than the heap.
     *
     * @see HeapPage
     * @see HeapFile
@@ -96,131 +108,129 @@ public class HeapFileEncoder {
           nrecbytes += typeAr[i].getLen();
       }
       int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
-
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+      int chunkLines = CHUNK_PAGES * nrecords;
+
+      ForkJoinPool pool = ForkJoinPool.commonPool();
+      int maxPending = 2 * pool.getParallelism() + 1;
+      ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<ForkJoinTask<byte[]>>();
+
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+           FileOutputStream os = new FileOutputStream(outFile)) {
+          ArrayList<String> chunk = new ArrayList<String>(chunkLines);
+          boolean submitted = false;
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.isEmpty()) {
+                  continue;
+              }
+              chunk.add(line);
+              if (chunk.size() == chunkLines) {
+                  if (pending.size() == maxPending) {
+                      os.write(join(pending.poll()));
+                  }
+                  pending.add(submit(pool, chunk, npagebytes, nrecords, numFields, typeAr, fieldSeparator));
+                  submitted = true;
+                  chunk = new ArrayList<String>(chunkLines);
+              }
+          }
+          // the rest of the lines; an empty file still gets an empty page
+          if (!chunk.isEmpty() || !submitted) {
+              pending.add(submit(pool, chunk, npagebytes, nrecords, numFields, typeAr, fieldSeparator));
+          }
+          while (!pending.isEmpty()) {
+              os.write(join(pending.poll()));
+          }
+      } finally {
+          for (ForkJoinTask<byte[]> task : pending) {
+              task.cancel(false);
+          }
+      }
+  }
+
+  /** lines of input parsed and encoded by one task of convert, in pages */
+  public static final int CHUNK_PAGES = 16;
+
+  private static ForkJoinTask<byte[]> submit(ForkJoinPool pool, List<String> lines,
+                 int npagebytes, int nrecords, int numFields, Type[] typeAr, char fieldSeparator) {
+      return pool.submit(() -> encodePages(lines, npagebytes, nrecords, numFields, typeAr, fieldSeparator));
+  }
+
+  /** @return the result of task, with the IOException it threw rethrown */
+  private static byte[] join(ForkJoinTask<byte[]> task) throws IOException {
+      try {
+          return task.get();
+      } catch (InterruptedException e) {
+          throw new InterruptedIOException("interrupted while encoding pages");
+      } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+              throw (IOException) e.getCause();
+          }
+          throw new IOException("can't encode pages", e.getCause());
+      }
+  }
+
+  /**
+   * Encode lines as consecutive heap pages of nrecords records each, the
+   * last one padded; no lines give one empty page.
+   */
+  static byte[] encodePages(List<String> lines, int npagebytes, int nrecords,
+                 int numFields, Type[] typeAr, char fieldSeparator) throws IOException {
+      //  per record, we need one bit; there are nrecords per page, so we need
+      // nrecords bits, i.e., ((nrecords/8)+1) bytes.
+      int nheaderbytes = (nrecords + 7) / 8;
+      int npages = Math.max(1, (lines.size() + nrecords - 1) / nrecords);
+      ByteBuffer page = ByteBuffer.allocate(npages * npagebytes);
+      for (int p = 0; p < npages; p++) {
+          int base = p * npagebytes;
+          int first = p * nrecords;
+          int recordcount = Math.min(nrecords, lines.size() - first);
+
+          // in the header, write a 1 for bits that correspond to records we've
+          // written and 0 for empty slots.
+          for (int i = 0; i < recordcount; i++) {
+              page.put(base + i / 8, (byte) (page.get(base + i / 8) | (1 << (i % 8))));
+          }
+          // the rest of the page stays zero
+          page.position(base + nheaderbytes);
+          for (int i = 0; i < recordcount; i++) {
+              encodeRecord(lines.get(first + i), page, numFields, typeAr, fieldSeparator);
+          }
+      }
+      return page.array();
+  }
+
+  private static void encodeRecord(String line, ByteBuffer page, int numFields,
+                 Type[] typeAr, char fieldSeparator) throws IOException {
+      int start = 0;
+      for (int fieldNo = 0; fieldNo < numFields; fieldNo++) {
+          int end = line.indexOf(fieldSeparator, start);
+          if (fieldNo == numFields - 1 ? end >= 0 : end < 0) {
+              throw new IOException("BAD LINE, not " + numFields + " fields : " + line);
+          }
+          if (end < 0) {
+              end = line.length();
+          }
+          String s = line.substring(start, end).trim();
+          start = end + 1;
+
+          if (typeAr[fieldNo] == Type.INT_TYPE) {
+              try {
+                  page.putInt(Integer.parseInt(s));
+              } catch (NumberFormatException e) {
+                  throw new IOException("BAD LINE : " + line);
+              }
+          }
+          else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
+              if (s.length() > Type.STRING_LEN) {
+                  s = s.substring(0, Type.STRING_LEN);
+              }
+              page.putInt(s.length());
+              for (int i = 0; i < s.length(); i++) {
+                  page.put((byte) s.charAt(i));
+              }
+              // zero padding
+              page.position(page.position() + Type.STRING_LEN - s.length());
+          }
+      }
   }
 }
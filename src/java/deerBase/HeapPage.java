@@ -3,6 +3,9 @@ package deerBase;
 import java.util.*;
 
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -12,17 +15,24 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
+
+    private static final VarHandle TUPLES = MethodHandles.arrayElementVarHandle(Tuple[].class);
 
     HeapPageId pid;
     TupleDesc td;
     byte header[];
-    Tuple tuples[];
+    Tuple tuples[];	// decoded on demand, null for a used slot not decoded yet
     int numSlots;
 
     boolean isDirty;
     TransactionId dirtier;
-    public byte[] oldData;	// data of the page before a modify transaction, used for recovery
+    // data of the page before a modify transaction, used for recovery; null
+    // when the current contents are the before-image
+    public byte[] oldData;
+    // image the undecoded tuples are read from. Never modified, so a used slot
+    // that was not decoded yet still has its bytes here
+    private byte[] raw;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -39,33 +49,38 @@ public class HeapPage implements Page {
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#PAGE_SIZE
+     * <p>
+     * Only the header is read here; a tuple is decoded when getTuple or the
+     * iterator first reaches it. data is kept, and serves as the before-image
+     * instead of being copied, so the caller must not modify it afterwards.
      */
     public HeapPage(HeapPageId pid, byte[] data) throws IOException {
         this.pid = pid;
         this.td = Database.getCatalog().getTupleDesc(pid.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
-        // allocate and read the header slots of this page
-        this.header = new byte[getHeaderSize()];
-        for (int i=0; i<this.header.length; i++) {
-            this.header[i] = dis.readByte();
-        }
-        
-        try{
-            // allocate and read the actual records of this page
-            this.tuples = new Tuple[this.numSlots];
-            for (int i=0; i<this.tuples.length; i++) {
-                this.tuples[i] = readNextTuple(dis,i);
-            }
-        }catch(NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
+        // read the header slots of this page, the records are read lazily
+        this.header = Arrays.copyOf(data, getHeaderSize());
+        this.tuples = new Tuple[this.numSlots];
 
         this.isDirty = false;        
-        //setBeforeImage();
-        this.oldData = data.clone();
+        this.raw = data;
+        this.oldData = data;
+    }
+
+    /**
+     * Create a HeapPage from the bytes between the position and the limit of
+     * data, e.g. a slice of a mapped file. The bytes are copied once: the
+     * mapping changes when the page is written back.
+     */
+    public HeapPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        this(pid, copyOf(data));
+    }
+
+    private static byte[] copyOf(ByteBuffer data) {
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        return copy;
     }
     
     public HeapPage (HeapPageId pid) {
@@ -101,7 +116,9 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(this.pid, this.oldData);
+            // oldData is never modified, the before-image can share it
+            byte[] before = this.oldData;
+            return new HeapPage(this.pid, before != null ? before : getPageData());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -111,7 +128,16 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
-        this.oldData = getPageData().clone();
+        this.oldData = null;
+    }
+
+    public void captureBeforeImage() {
+        if (this.oldData == null) {
+            // getPageData returns a new array; decoding from it rather than
+            // from raw lets the older image be collected
+            this.oldData = getPageData();
+            this.raw = this.oldData;
+        }
     }
 
     /**
@@ -122,37 +148,36 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * The tuple in slot slotId, a view of the image the page was read from:
+     * raw is never modified, so its fields are read from it when asked for.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                	// useless reading, just adjust the pos of dis from where we read next time
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
+        Tuple t = new Tuple(td, raw, header.length + slotId * td.getSize());
+        t.setRecordId(new RecordId(pid, slotId));
+        return t;
+    }
+
+    /**
+     * Get the ith tuple of this page, decoding it the first time. Readers
+     * holding a shared lock may decode the same slot concurrently and keep
+     * equal tuples; acquire/release accesses publish a decoded tuple
+     * safely without a lock.
+     * @param i - the index of the tuple
+     * @return the ith tuple in the page, or null if the slot is empty
+     * @throws NoSuchElementException
+     */
+    Tuple getTuple(int i) throws NoSuchElementException {
+        if (i < 0 || i >= numSlots) {
+            throw new NoSuchElementException();
+        }
+        if (!isSlotUsed(i)) {
             return null;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        Tuple t = (Tuple) TUPLES.getAcquire(tuples, i);
+        if (t == null) {
+            t = readTuple(i);
+            TUPLES.setRelease(tuples, i, t);
         }
-
         return t;
     }
 
@@ -198,15 +223,22 @@ public class HeapPage implements Page {
                 continue;
             }
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+            // never decoded, so unchanged since the page was read
+            Tuple t = tuples[i];
+            if (t == null) {
                 try {
-                    f.serialize(dos);
-                
+                    dos.write(raw, header.length + i * td.getSize(), td.getSize());
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
+                continue;
+            }
+
+            // non-empty slot
+            try {
+                t.serialize(dos);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
 
@@ -344,6 +376,14 @@ public class HeapPage implements Page {
     public boolean isFull() {
     	return getNumEmptySlots() == 0;
     }
+
+    public int getFreeSpace() {
+        return getNumEmptySlots() * td.getSize();
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+    	return !isFull();
+    }
     
     /**
      * Returns true if associated slot on this page is filled.
@@ -393,7 +433,7 @@ public class HeapPage implements Page {
             }
             
             // non-empty slot
-            sb.append(tuples[i]);
+            sb.append(getTuple(i));
         }
 
         return sb.toString();
@@ -418,7 +458,7 @@ public class HeapPage implements Page {
             }
             
             // non-empty slot
-            sb.append(tuples[i]);
+            sb.append(getTuple(i));
         }
 
         return sb.toString();
@@ -450,7 +490,7 @@ public class HeapPage implements Page {
 					slotIdx++;
 				}
 				numIteratedTuples++;
-				return tuples[slotIdx++];
+				return getTuple(slotIdx++);
 			} catch (IndexOutOfBoundsException e) {
 				throw new NoSuchElementException();
 			}
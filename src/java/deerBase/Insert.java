@@ -1,6 +1,7 @@
 package deerBase;
 
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
@@ -65,7 +66,8 @@ public class Insert extends Operator {
      * constructor. It returns a one field tuple containing the number of
      * inserted records. Inserts should be passed through BufferPool. 
      * Note that insert DOES NOT need check to see if a particular tuple is
-     * a duplicate before inserting it.
+     * a duplicate before inserting it. Into an empty HeapFile, the tuples
+     * are appended to fresh pages by HeapFile#bulkAppend instead.
      * 
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
@@ -73,6 +75,7 @@ public class Insert extends Operator {
      * @throws NoSuchElementException 
      * @see Database#getBufferPool
      * @see BufferPool#insertTuple
+     * @see HeapFile#bulkAppend
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException, NoSuchElementException, IOException {
     	if (hasCalledFectchNxt) {
@@ -81,10 +84,18 @@ public class Insert extends Operator {
     	hasCalledFectchNxt = true;
     	
     	int count = 0;
-    	while (child.hasNext()) {
-    		Database.getBufferPool().insertTuple(tid, tableId, child.next());
-    		
-    		count++;
+    	DbFile table = Database.getCatalog().getDbFile(tableId);
+    	if (table instanceof HeapFile && table.getNumPages() == 0) {
+    		// loading a new table: fill fresh pages instead of one insert per tuple
+    		ChildItr tuples = new ChildItr();
+    		count = ((HeapFile) table).bulkAppend(tid, tuples);
+    		tuples.rethrow();
+    	} else {
+    		while (child.hasNext()) {
+    			Database.getBufferPool().insertTuple(tid, tableId, child.next());
+    			
+    			count++;
+    		}
     	}
     	
         Tuple resTuple = new Tuple(td);
@@ -92,6 +103,51 @@ public class Insert extends Operator {
     	return resTuple;
     }
 
+    /**
+     * The child as an Iterator, for HeapFile.bulkAppend. An exception of the
+     * child ends the iteration, and is thrown again by rethrow.
+     */
+    private class ChildItr implements Iterator<Tuple> {
+    	private Tuple next = null;
+    	private Exception failure = null;
+
+    	@Override
+    	public boolean hasNext() {
+    		if (next == null && failure == null) {
+    			try {
+    				if (child.hasNext()) {
+    					next = child.next();
+    				}
+    			} catch (DbException | TransactionAbortedException | IOException e) {
+    				failure = e;
+    			}
+    		}
+    		return next != null;
+    	}
+
+    	@Override
+    	public Tuple next() {
+    		if (!hasNext()) {
+    			throw new NoSuchElementException();
+    		}
+    		Tuple t = next;
+    		next = null;
+    		return t;
+    	}
+
+    	void rethrow() throws DbException, TransactionAbortedException, IOException {
+    		if (failure instanceof DbException) {
+    			throw (DbException) failure;
+    		}
+    		if (failure instanceof TransactionAbortedException) {
+    			throw (TransactionAbortedException) failure;
+    		}
+    		if (failure instanceof IOException) {
+    			throw (IOException) failure;
+    		}
+    	}
+    }
+
     @Override
     public DbIterator[] getChildren() {
     	return new DbIterator[] { this.child };
@@ -0,0 +1,141 @@
+package deerBase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Knows how to compute some aggregate over a set of IntFields.
+ */
+public class IntegerAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private int gbfield;
+    private Type gbfieldtype;
+    private int afield;
+    private Op what;
+    /** the running value and the count of each group, in the order first seen */
+    private LinkedHashMap<Field, long[]> groups = new LinkedHashMap<Field, long[]>();
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param what
+     *            the aggregation operator
+     */
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.what = what;
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field key = (gbfield == NO_GROUPING) ? null : tup.getField(gbfield);
+        merge(group(key), tup.getInt(afield));
+    }
+
+    /**
+     * Reads the aggregate field, and an int group-by field, as columns of the
+     * batch; runs of tuples in the same group are merged with one lookup.
+     */
+    @Override
+    public void mergeBatch(TupleBatch batch) {
+        if (gbfield != NO_GROUPING && gbfieldtype != Type.INT_TYPE) {
+            Aggregator.super.mergeBatch(batch);
+            return;
+        }
+        int[] values = batch.getInts(afield);
+        int[] keys = (gbfield == NO_GROUPING) ? null : batch.getInts(gbfield);
+        long[] state = (keys == null) ? group(null) : null;
+        int key = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            int r = batch.getRow(i);
+            if (keys != null && (state == null || keys[r] != key)) {
+                key = keys[r];
+                state = group(new IntField(key));
+            }
+            merge(state, values[r]);
+        }
+    }
+
+    private long[] group(Field key) {
+        long[] state = groups.get(key);
+        if (state == null) {
+            state = new long[2];
+            groups.put(key, state);
+        }
+        return state;
+    }
+
+    private void merge(long[] state, int value) {
+        switch (what) {
+        case MIN:
+            state[0] = (state[1] == 0) ? value : Math.min(state[0], value);
+            break;
+        case MAX:
+            state[0] = (state[1] == 0) ? value : Math.max(state[0], value);
+            break;
+        case SUM:
+        case AVG:
+            state[0] += value;
+            break;
+        case COUNT:
+            break;
+        }
+        state[1]++;
+    }
+
+    private int result(long[] state) {
+        switch (what) {
+        case COUNT:
+            return (int) state[1];
+        case AVG:
+            return (int) (state[0] / state[1]);
+        default:
+            return (int) state[0];
+        }
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public DbIterator iterator() {
+        TupleDesc td = (gbfield == NO_GROUPING)
+                ? new TupleDesc(new Type[] { Type.INT_TYPE })
+                : new TupleDesc(new Type[] { gbfieldtype, Type.INT_TYPE });
+        ArrayList<Tuple> results = new ArrayList<Tuple>(groups.size());
+        for (Map.Entry<Field, long[]> e : groups.entrySet()) {
+            Tuple t = new Tuple(td);
+            int i = 0;
+            if (gbfield != NO_GROUPING) {
+                t.setField(i++, e.getKey());
+            }
+            t.setField(i, new IntField(result(e.getValue())));
+            results.add(t);
+        }
+        return new TupleIterator(td, results);
+    }
+
+}
@@ -27,6 +27,8 @@ public class Join extends Operator {
     private Tuple[] rightBuffer;
     private ArrayList<Tuple> tempTps;
     private Predicate.Op op;
+    // p and p with GREATER_THAN, compiled when the join is opened
+    private transient PlanCompiler.JoinFilter pf, greaterThan;
     private File f1, f2;
 
     //131072 is the default buffer of mysql join operation
@@ -88,6 +90,11 @@ public class Join extends Operator {
         super.open();
         child1.open();
         child2.open();
+        TupleDesc td1 = child1.getTupleDesc();
+        TupleDesc td2 = child2.getTupleDesc();
+        pf = PlanCompiler.compile(td1, td2, p);
+        greaterThan = PlanCompiler.compile(td1, td2,
+                new JoinPredicate(p.getFieldIdx1(), Predicate.Op.GREATER_THAN, p.getFieldIdx2()));
      
 //        try {
 //			tpIter = new tupleItr();
@@ -107,6 +114,7 @@ public class Join extends Operator {
     public void rewind() throws DbException, TransactionAbortedException, NoSuchElementException, IOException {
         child1.rewind();
         child2.rewind();
+        discardFetched();
 //        try {
 //			tpIter = new tupleItr();
 //		} catch (IOException e) {
@@ -138,20 +146,28 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException, NoSuchElementException, IOException {    	
-        if (tpIter == null) {
-				//tpIter = new tupleItr();
-        		tpIter = getAllFetchNext();
+        return fetchNextFromBatch();
+    }
 
-        	if (tpIter == null) {
-             	return null;
-        	}
+    /**
+     * Operator.fetchNextBatch implementation: the next joined tuples, read
+     * from the children a batch at a time.
+     * 
+     * @return the next matching tuples, or null if there are no more
+     * @see #fetchNext
+     */
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException, NoSuchElementException, IOException {
+        if (tpIter == null) {
+        	tpIter = getAllFetchNext();
         }
-        
-        Tuple tp = null;
-        if (tpIter.hasNext()){
-            tp = tpIter.next();
+        if (!tpIter.hasNext()) {
+        	return null;
         }
-        return tp;
+        TupleBatch batch = new TupleBatch(getTupleDesc());
+        do {
+        	batch.add(tpIter.next());
+        } while (!batch.isFull() && tpIter.hasNext());
+        return batch;
     }
     
     private class tupleItr implements Iterator<Tuple> {
@@ -481,59 +497,68 @@ public class Join extends Operator {
         int leftIndex = 0;
         int rightIndex = 0;
 
-        while (child1.hasNext()){
-            Tuple tp1 = child1.next();
-            leftBuffer[leftIndex++] = tp1;
+        TupleBatch batch1, batch2;
+        while ((batch1 = child1.nextBatch()) != null) {
+            for (int b1 = 0; b1 < batch1.size(); b1++) {
+                Tuple tp1 = batch1.get(b1);
+                leftBuffer[leftIndex++] = tp1;
 
-            // buffer is full
-            if (leftIndex == leftBufferSize) {
-            	sort(leftBuffer, leftBufferSize, p.getFieldIdx1(), false);
+                // buffer is full
+                if (leftIndex == leftBufferSize) {
+                	sort(leftBuffer, leftBufferSize, p.getFieldIdx1(), false);
             	
-            	leftIndex = 0;
+                	leftIndex = 0;
+                }
             }
         }
         
         
-        while (child1.hasNext()){
-            Tuple tp1 = child1.next();
-            leftBuffer[leftIndex++] = tp1;
+        while ((batch1 = child1.nextBatch()) != null) {
+            for (int b1 = 0; b1 < batch1.size(); b1++) {
+                Tuple tp1 = batch1.get(b1);
+                leftBuffer[leftIndex++] = tp1;
 
-            if (leftIndex < leftBufferSize) continue;
+                if (leftIndex < leftBufferSize) continue;
             
-            while (child2.hasNext()){
-                Tuple tp2 = child2.next();
-                rightBuffer[rightIndex++] = tp2;
+                while ((batch2 = child2.nextBatch()) != null) {
+                    for (int b2 = 0; b2 < batch2.size(); b2++) {
+                        Tuple tp2 = batch2.get(b2);
+                        rightBuffer[rightIndex++] = tp2;
                 
-                if (rightIndex < rightBufferSize) continue; 
+                        if (rightIndex < rightBufferSize) continue; 
                 
-                sortMerge(leftIndex, rightIndex);
+                        sortMerge(leftIndex, rightIndex);
 
-                rightIndex = 0;
-            }
+                        rightIndex = 0;
+                    }
+                }
 
-            if (rightIndex < rightBufferSize) {
+                if (rightIndex < rightBufferSize) {
                 
-                sortMerge(leftIndex, rightIndex);
+                    sortMerge(leftIndex, rightIndex);
                 
-                rightIndex = 0;
-            }
+                    rightIndex = 0;
+                }
 
-            //reset buffer
-            leftIndex = 0;
-            child2.rewind();
+                //reset buffer
+                leftIndex = 0;
+                child2.rewind();
+            }
         }
 
         if (leftIndex != 0) {
 
-            while (child2.hasNext()){
-                Tuple tp2 = child2.next();
-                rightBuffer[rightIndex++] = tp2;
+            while ((batch2 = child2.nextBatch()) != null) {
+                for (int b2 = 0; b2 < batch2.size(); b2++) {
+                    Tuple tp2 = batch2.get(b2);
+                    rightBuffer[rightIndex++] = tp2;
                 
-                if (rightIndex < rightBufferSize) continue; 
+                    if (rightIndex < rightBufferSize) continue; 
                 
-                sortMerge(leftIndex, rightIndex);
+                    sortMerge(leftIndex, rightIndex);
 
-                rightIndex = 0;
+                    rightIndex = 0;
+                }
             }
 
             if (rightIndex < rightBufferSize) {
@@ -577,7 +602,7 @@ public class Join extends Operator {
             Tuple ltp = leftBuffer[left];
             Tuple rtp = rightBuffer[right];
 
-            if (p.filter(ltp, rtp)){
+            if (pf.filter(ltp, rtp)){
                 for (int i = right; i < rightSize; i++) {
                     Tuple rtpTemp = rightBuffer[i];
                     Tuple tp = mergeTuple(ltp, rtpTemp);    
@@ -601,7 +626,7 @@ public class Join extends Operator {
             Tuple ltp = leftBuffer[left];
             Tuple rtp = rightBuffer[right];
 
-            if (p.filter(ltp, rtp)){
+            if (pf.filter(ltp, rtp)){
 
                 for (int i = right; i < rightSize; i++) {
                     Tuple rtpTemp = rightBuffer[i];
@@ -622,7 +647,6 @@ public class Join extends Operator {
         int left = 0;
         int right = 0;
 
-        JoinPredicate greatThan = new JoinPredicate(p.getFieldIdx1(), Predicate.Op.GREATER_THAN, p.getFieldIdx2());
         
         boolean equalFlag = true;
         int leftFlag = 0;
@@ -631,7 +655,7 @@ public class Join extends Operator {
             Tuple ltp = leftBuffer[left];
             Tuple rtp = rightBuffer[right];
 
-            if (p.filter(ltp, rtp)){
+            if (pf.filter(ltp, rtp)){
                 if (equalFlag) {
                     leftFlag = left;
                     equalFlag = !equalFlag;
@@ -646,7 +670,7 @@ public class Join extends Operator {
                     equalFlag = !equalFlag;    
                 }
                 
-            } else if (greatThan.filter(ltp, rtp)){
+            } else if (greaterThan.filter(ltp, rtp)){
                 right++;
                 left = leftFlag;
                 equalFlag = !equalFlag;
@@ -659,7 +683,8 @@ public class Join extends Operator {
 
     private void sort(Tuple[] buffer, int length, int field, boolean reverse) {
 
-        CompareTp co = new CompareTp(reverse, field);
+        if (length == 0) return;
+        CompareTp co = new CompareTp(reverse, field, buffer[0].getTupleDesc());
         Arrays.sort(buffer, 0, length, co);
         //stupid ð������
         // for (int i = 1; i < length; i++) {
@@ -684,14 +709,14 @@ public class Join extends Operator {
 
     class CompareTp implements Comparator<Tuple>{
         
-        private JoinPredicate cop;
+        private PlanCompiler.JoinFilter cop;
 
-        public CompareTp(boolean reverse, int field){
+        public CompareTp(boolean reverse, int field, TupleDesc td){
             super();
             if (reverse) {
-                cop = new JoinPredicate(field, Predicate.Op.LESS_THAN, field);
+                cop = PlanCompiler.compile(td, td, new JoinPredicate(field, Predicate.Op.LESS_THAN, field));
             } else {
-                cop = new JoinPredicate(field, Predicate.Op.GREATER_THAN, field);
+                cop = PlanCompiler.compile(td, td, new JoinPredicate(field, Predicate.Op.GREATER_THAN, field));
             }
         }
 
@@ -709,20 +734,8 @@ public class Join extends Operator {
     }
 
     private Tuple mergeTuple(Tuple tp1, Tuple tp2) {
-        int tpSize1 = tp1.getTupleDesc().numFields();
-        int tpSize2 = tp2.getTupleDesc().numFields();
-
-        Tuple tempTp = new Tuple(getTupleDesc());
-        int i = 0;
-        for (; i < tpSize1; i++){
-            tempTp.setField(i, tp1.getField(i));
-        }
-
-        for (; i < tpSize2 + tpSize1 ; i++){
-            tempTp.setField(i, tp2.getField(i-tpSize1));
-        }
-
-        return tempTp;
+        // tuples read from pages are concatenated as bytes, without decoding
+        return Tuple.concat(getTupleDesc(), tp1, tp2);
     }
 
     @Override
@@ -8,7 +8,7 @@ import deerBase.Predicate.Op;
  * JoinPredicate compares fields of two tuples using a predicate. JoinPredicate
  * is most likely used by the Join operator.
  */
-public class JoinPredicate implements Serializable {
+public class JoinPredicate implements Serializable, PlanCompiler.JoinFilter {
 
     private static final long serialVersionUID = 1L;
     
@@ -43,6 +43,10 @@ public class JoinPredicate implements Serializable {
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
+    	if (t1.getTupleDesc().getFieldType(fieldIdx1) == Type.INT_TYPE
+    			&& t2.getTupleDesc().getFieldType(fieldIdx2) == Type.INT_TYPE) {
+    		return IntField.compare(t1.getInt(fieldIdx1), op, t2.getInt(fieldIdx2));
+    	}
     	return t1.getField(fieldIdx1).compare(op, t2.getField(fieldIdx2));
     }
     
@@ -0,0 +1,93 @@
+package deerBase;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). The victim is the frame
+ * whose K-th most recent reference is the oldest; frames referenced fewer
+ * than K times have an infinite backward distance and go first, in LRU
+ * order. The reference history of evicted pages is retained for a while, so
+ * a page that comes back is not mistaken for a one-time scan page.
+ */
+public class LRUKPolicy extends EvictionPolicy {
+
+	public static final int DEFAULT_K = 2;
+
+	private final int k;
+	/** logical clock, incremented on every reference */
+	private long now = 0;
+	private final Map<PageId, Frame> resident = new HashMap<>();
+	/** last k reference times of each page, newest first; eldest entry first */
+	private final LinkedHashMap<PageId, long[]> history;
+
+	public LRUKPolicy(int capacity, int k) {
+		super(capacity);
+		this.k = k;
+		this.history = new LinkedHashMap<>(capacity * 2, 0.75f, true);
+	}
+
+	private void reference(PageId pid) {
+		long[] times = history.get(pid);
+		if (times == null) {
+			times = new long[k];
+			history.put(pid, times);
+		}
+		System.arraycopy(times, 0, times, 1, k - 1);
+		times[0] = ++now;
+	}
+
+	@Override
+	public synchronized void onAccess(Frame frame) {
+		reference(frame.pid);
+	}
+
+	@Override
+	public synchronized void onInsert(Frame frame) {
+		resident.put(frame.pid, frame);
+		reference(frame.pid);
+		// retain history of up to capacity non-resident pages
+		Iterator<Map.Entry<PageId, long[]>> eldest = history.entrySet().iterator();
+		while (history.size() > 2 * capacity && eldest.hasNext()) {
+			if (!resident.containsKey(eldest.next().getKey())) {
+				eldest.remove();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void onRemove(Frame frame, boolean evicted) {
+		resident.remove(frame.pid);
+		if (!evicted) {
+			history.remove(frame.pid);
+		}
+	}
+
+	@Override
+	public synchronized Frame chooseVictim(Predicate<Frame> evictable) {
+		Frame victim = null;
+		long oldestKth = Long.MAX_VALUE, oldestLast = Long.MAX_VALUE;
+		for (Frame frame : resident.values()) {
+			if (!evictable.test(frame)) {
+				continue;
+			}
+			long[] times = history.get(frame.pid);
+			// 0 means fewer than k references, i.e. infinite distance
+			long kth = times[k - 1], last = times[0];
+			if (kth < oldestKth || (kth == oldestKth && last < oldestLast)) {
+				victim = frame;
+				oldestKth = kth;
+				oldestLast = last;
+			}
+		}
+		return victim;
+	}
+
+	@Override
+	public Kind getKind() {
+		return Kind.LRU_K;
+	}
+}
@@ -0,0 +1,54 @@
+package deerBase;
+
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Strict LRU replacement, the policy of the old {@link LRUCache}. Every hit
+ * reorders the list, so hits synchronize on the policy.
+ */
+public class LRUPolicy extends EvictionPolicy {
+
+	/** access ordered: the eldest entry is the least recently used */
+	private final LinkedHashMap<PageId, Frame> frames;
+
+	public LRUPolicy(int capacity) {
+		super(capacity);
+		this.frames = new LinkedHashMap<>(capacity * 4 / 3 + 1, 0.75f, true);
+	}
+
+	@Override
+	public synchronized void onAccess(Frame frame) {
+		frames.get(frame.pid);
+	}
+
+	@Override
+	public synchronized void onInsert(Frame frame) {
+		frames.put(frame.pid, frame);
+	}
+
+	@Override
+	public synchronized void onRemove(Frame frame, boolean evicted) {
+		frames.remove(frame.pid);
+	}
+
+	@Override
+	public synchronized Frame chooseVictim(Predicate<Frame> evictable) {
+		return firstEvictable(frames, evictable);
+	}
+
+	@Override
+	public Kind getKind() {
+		return Kind.LRU;
+	}
+
+	/** @return the eldest evictable frame of the list, or null */
+	static Frame firstEvictable(LinkedHashMap<PageId, Frame> list, Predicate<Frame> evictable) {
+		for (Frame frame : list.values()) {
+			if (evictable.test(frame)) {
+				return frame;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,78 @@
+package deerBase;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts latencies in power-of-two buckets of nanoseconds,
+ * so recording one is two uncontended adds and needs no lock. Percentiles
+ * are approximate: they report the upper bound of the bucket they fall in,
+ * which is at most twice the exact value.
+ */
+public class LatencyHistogram {
+
+	/** bucket i counts latencies in [2^(i-1), 2^i) ns, bucket 0 counts 0 ns */
+	private static final int NUM_BUCKETS = 64;
+
+	private final LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+	private final LongAdder totalNanos = new LongAdder();
+
+	public LatencyHistogram() {
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets[NUM_BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+		totalNanos.add(nanos);
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	/** @return the mean latency in nanoseconds, 0 if nothing was recorded */
+	public double getMeanNanos() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) totalNanos.sum() / count;
+	}
+
+	/**
+	 * @param p the percentile, in [0, 100]
+	 * @return an upper bound of the p-th percentile latency in nanoseconds,
+	 *         0 if nothing was recorded
+	 */
+	public long getPercentileNanos(double p) {
+		long[] counts = new long[NUM_BUCKETS];
+		long count = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			count += counts[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				// 2^63 - 1 for the last bucket
+				return (1L << i) - 1;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	public String toString() {
+		return String.format("n=%d mean=%.1fus p50=%.1fus p99=%.1fus", getCount(),
+				getMeanNanos() / 1000, getPercentileNanos(50) / 1000.0, getPercentileNanos(99) / 1000.0);
+	}
+}
@@ -81,6 +81,7 @@ public class LogFile {
     File logFile;
     RandomAccessFile raf;
     Boolean recoveryUndecided; // no call to recover() and no append to log
+    boolean unforced = false; // records appended since the log was last forced
 
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
@@ -143,6 +144,7 @@ public class LogFile {
     // the log.
     void preAppend() throws IOException {
         totalRecords++;
+        unforced = true;
         if(recoveryUndecided){
             recoveryUndecided = false;
             raf.seek(0);
@@ -204,7 +206,9 @@ public class LogFile {
         raf.writeLong(tid.getId());
         raf.writeLong(currentOffset);
         currentOffset = raf.getFilePointer();
-        force(raf);
+        if (SyncPolicy.forcesLogAtCommit()) {
+            force(raf);
+        }
         tidToFirstLogRecord.remove(tid.getId());
         
         // print log
@@ -243,7 +247,7 @@ public class LogFile {
         
         
         Debug.log(LogFileDebugLevel, "UPDATE: txn%d, before:%d [%s] dirtied by txn%d, after:%d \n", 
-        		tid.getId(), before.hashCode(), ((HeapPage)after).oldData.toString(), tid.getId() , after.hashCode());
+        		tid.getId(), before.hashCode(), after.getId(), tid.getId() , after.hashCode());
         
 //        if (tid.getId() == 1) {
 //        	Debug.log(LogFileDebugLevel, "BeforeImage:\n %s \n", ((HeapPage)before).toString(20));
@@ -305,7 +309,6 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -315,7 +318,15 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            // pages may also have a ByteBuffer constructor; the log stores a byte[]
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class) {
+                    pageConst = c;
+                }
+            }
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log(LogFileDebugLevel, "READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -369,6 +380,9 @@ public class LogFile {
                 Iterator<Long> els = keys.iterator();
                 force(raf);
                 Database.getBufferPool().flushAllPages();
+                // the log before the checkpoint may be truncated, the pages
+                // it describes must be on disk
+                SyncPolicy.syncDataFiles();
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -593,8 +607,8 @@ public class LogFile {
 						long tmpOffset = raf.readLong();
 						
 						Debug.log(LogFileDebugLevel, "Rollback: \n");
-						Debug.log(LogFileDebugLevel, "Before image:\n%s\n", ((HeapPage) beforeImage).toString(5));
-						Debug.log(LogFileDebugLevel, "After image:\n%s\n", ((HeapPage) afterImage).toString(5));
+						Debug.log(LogFileDebugLevel, "Before image:\n%s\n", imageString(beforeImage, 5));
+						Debug.log(LogFileDebugLevel, "After image:\n%s\n", imageString(afterImage, 5));
 						
 						PageId pid = beforeImage.getId();
 						// only rollback the affected page when ecounter at the first time
@@ -671,6 +685,16 @@ public class LogFile {
         }
     }
     
+    /** @return the first numTuples tuples of a heap page image, or its id for other pages */
+    private static String imageString(Page p, int numTuples) {
+    	if (p instanceof HeapPage) {
+    		return ((HeapPage) p).toString(numTuples);
+    	} else if (p instanceof SlottedHeapPage) {
+    		return ((SlottedHeapPage) p).toString(numTuples);
+    	}
+    	return p.getId().toString();
+    }
+
     // return the size of image in Update record
     private long skipImage(RandomAccessFile raf) throws IOException {
     	// UPDATE: before image, after image
@@ -854,8 +878,8 @@ public class LogFile {
 						dbFile.writePage(afterImage);
 
 						Debug.log(LogFileDebugLevel, "Recover: \n");
-						Debug.log(LogFileDebugLevel, "Before image:\n%s\n", ((HeapPage) beforeImage).toString(5));
-						Debug.log(LogFileDebugLevel, "After image:\n%s\n", ((HeapPage) afterImage).toString(5));
+						Debug.log(LogFileDebugLevel, "Before image:\n%s\n", imageString(beforeImage, 5));
+						Debug.log(LogFileDebugLevel, "After image:\n%s\n", imageString(afterImage, 5));
 						
 						bytesSkipped = raf.skipBytes(RECORD_END_SIZE);
 						if (bytesSkipped != RECORD_END_SIZE) {
@@ -1054,8 +1078,8 @@ public class LogFile {
 							dbFile.writePage(afterImage);
 	
 							Debug.log(LogFileDebugLevel, "Recover: \n");
-							Debug.log(LogFileDebugLevel, "Before image:\n%s\n", ((HeapPage) beforeImage).toString(5));
-							Debug.log(LogFileDebugLevel, "After image:\n%s\n", ((HeapPage) afterImage).toString(5));
+							Debug.log(LogFileDebugLevel, "Before image:\n%s\n", imageString(beforeImage, 5));
+							Debug.log(LogFileDebugLevel, "After image:\n%s\n", imageString(afterImage, 5));
 							// done redo
 							
 							// back to commit record, and skip record end
@@ -1225,6 +1249,11 @@ public class LogFile {
     public void print(int imageLen) throws IOException {
         // some code goes here
     	
+    	// called on every commit and abort, do not read the whole log for nothing
+    	if (!Debug.isEnabled(LogFileDebugLevel)) {
+    		return;
+    	}
+    	
     	long originOffset = raf.getFilePointer();
     	raf.seek(0);
     	
@@ -1267,8 +1296,8 @@ public class LogFile {
 				recordPos = raf.readLong();
 				Debug.log(LogFileDebugLevel, "Offset %d: UPDATE [tid%d]\n", recordPos, tidLong);
 				
-				Debug.log(LogFileDebugLevel, "Before image\n%s", ((HeapPage) before).toString(imageLen));
-				Debug.log(LogFileDebugLevel, "After image\n%s", ((HeapPage) after).toString(imageLen));
+				Debug.log(LogFileDebugLevel, "Before image\n%s", imageString(before, imageLen));
+				Debug.log(LogFileDebugLevel, "After image\n%s", imageString(after, imageLen));
 				
 				break;
 			case CHECKPOINT_RECORD:
@@ -1298,12 +1327,17 @@ public class LogFile {
         Debug.log(LogFileDebugLevel, "=====LOG END=====\n\n");
     }
     
+    /** Force the log to disk, unless nothing was appended since it was last forced */
     public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        if (unforced) {
+            force(raf);
+        }
     }
     
     public synchronized void force(RandomAccessFile raf) throws IOException {
         raf.getChannel().force(true);
+        unforced = false;
+        SyncPolicy.logForced();
     }
 
 }
@@ -2,6 +2,7 @@ package deerBase;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -297,6 +298,7 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
+            ss.setColumns(neededColumns(table));
             
             subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
@@ -483,6 +485,49 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /** Return the fields of a scanned table that the plan reads, so a table
+     *  stored column by column decodes only those; see {@link SeqScan#setColumns}.
+     *  @param table the scan node of the table
+     *  @return the indexes of the fields of table read by a filter, a join,
+     *    the select list, the aggregate or the ORDER BY, or null if all of them are
+     */
+    private int[] neededColumns(LogicalScanNode table) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.tableAlias + "." + lf.fieldPureName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.t1Alias + "." + lj.f1PureName);
+            names.add(lj.t2Alias + "." + lj.f2PureName);
+        }
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        if (hasAgg) {
+            names.add(aggField);
+            names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+        names.remove(null);
+        for (String name : names) {
+            // SELECT * and COUNT(*) read every field
+            if (name.equals("*") || name.startsWith("null."))
+                return null;
+        }
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains(table.alias + "." + td.getFieldName(i)))
+                columns.add(i);
+        }
+        if (columns.size() == td.numFields())
+            return null;
+        int[] res = new int[columns.size()];
+        for (int i = 0; i < res.length; i++)
+            res[i] = columns.get(i);
+        return res;
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
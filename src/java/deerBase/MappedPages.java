@@ -0,0 +1,122 @@
+package deerBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MappedPages maps a table file read-only with MappedByteBuffer segments of
+ * {@link #SEGMENT_BYTES}, so that reading a page is a slice of the mapping
+ * rather than a system call. B+ tree pages decode straight from the slice;
+ * a HeapPage, which decodes its tuples lazily, copies it once into its own
+ * byte[], since the mapping changes when the page is written back.
+ * Segments are mapped on first use and remapped when the file has grown
+ * past them, e.g. after HeapFile.insertTuple added a page that was written
+ * back.
+ * <p>
+ * Writes still go through {@link ChannelPool}; the mapping is shared with
+ * the OS page cache, so it sees them. A page that straddles two segments or
+ * lies past the end of the file is not mapped, and the caller falls back to
+ * a positional read.
+ *
+ * @see DbFile#setMapped(boolean)
+ */
+public class MappedPages {
+
+	private final static int MappedPagesDebugLevel = Debug.CLOSE;
+
+	/** bytes per mapped segment, a multiple of any page size */
+	public static final long SEGMENT_BYTES = 1L << 26;
+
+	private final File file;
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+	public MappedPages(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return a read-only view of length bytes of the file at offset, or null
+	 *         if they are not within one segment of the file
+	 */
+	public ByteBuffer slice(long offset, int length) throws IOException {
+		int seg = (int) (offset / SEGMENT_BYTES);
+		long segStart = seg * SEGMENT_BYTES;
+		if (offset + length > segStart + SEGMENT_BYTES) {
+			return null;
+		}
+		MappedByteBuffer[] mapped = segments;
+		MappedByteBuffer segment = seg < mapped.length ? mapped[seg] : null;
+		if (segment == null || offset + length > segStart + segment.capacity()) {
+			segment = remap(seg, offset + length);
+			if (segment == null) {
+				return null;
+			}
+		}
+		int pos = (int) (offset - segStart);
+		return segment.duplicate().position(pos).limit(pos + length).slice();
+	}
+
+	/**
+	 * Map segment seg again, up to the current end of the file.
+	 * @return the segment, or null if the file does not reach end
+	 */
+	private synchronized MappedByteBuffer remap(int seg, long end) throws IOException {
+		MappedByteBuffer[] mapped = segments;
+		long segStart = seg * SEGMENT_BYTES;
+		if (seg < mapped.length && mapped[seg] != null && end <= segStart + mapped[seg].capacity()) {
+			return mapped[seg];
+		}
+		MappedByteBuffer segment;
+		// the mapping stays valid once the channel is closed
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < end) {
+				return null;
+			}
+			segment = channel.map(FileChannel.MapMode.READ_ONLY, segStart, Math.min(SEGMENT_BYTES, size - segStart));
+		}
+		Debug.log(MappedPagesDebugLevel, "map %s segment %d, %d bytes", file, seg, segment.capacity());
+		MappedByteBuffer[] grown = mapped;
+		if (seg >= mapped.length) {
+			grown = new MappedByteBuffer[seg + 1];
+			System.arraycopy(mapped, 0, grown, 0, mapped.length);
+		} else {
+			grown = mapped.clone();
+		}
+		grown[seg] = segment;
+		segments = grown;
+		return segment;
+	}
+
+	/**
+	 * Extend a mapped segment to the first length bytes of the file, called
+	 * after a write that may have made the file longer. Segments not mapped
+	 * yet are left to be mapped on first use.
+	 */
+	public void grow(long length) throws IOException {
+		if (length <= 0) {
+			return;
+		}
+		int seg = (int) ((length - 1) / SEGMENT_BYTES);
+		MappedByteBuffer[] mapped = segments;
+		if (seg < mapped.length && mapped[seg] != null
+				&& length > seg * SEGMENT_BYTES + mapped[seg].capacity()) {
+			remap(seg, length);
+		}
+	}
+
+	/** @return the number of bytes mapped */
+	public long getMappedBytes() {
+		long bytes = 0;
+		for (MappedByteBuffer segment : segments) {
+			if (segment != null) {
+				bytes += segment.capacity();
+			}
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,302 @@
+package deerBase;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics is the registry of the counters of a BufferPool: hits, misses,
+ * evictions, page reads and writes with their latencies, and writes by the
+ * reason the page was flushed. Every event is counted globally and for its
+ * table; counters are LongAdders, so recording never takes a lock.
+ * <p>
+ * The metrics of the current buffer pool are exposed over JMX as
+ * {@value #OBJECT_NAME} and printed by SHOW STATS in the Parser.
+ */
+public class Metrics implements MetricsMBean {
+
+	private final static int MetricsDebugLevel = Debug.CLOSE;
+
+	public static final String OBJECT_NAME = "deerBase:type=BufferPool";
+
+	/** why a dirty page was written back */
+	public enum FlushReason {
+		/** by a committing transaction */
+		COMMIT,
+		/** to make room for another page */
+		EVICTION,
+		/** by a background page cleaner */
+		CLEANER,
+		/** by flushAllPages, e.g. at a checkpoint */
+		FLUSH_ALL,
+		/** filled outside the cache by HeapFile#bulkAppend */
+		APPEND
+	}
+
+	/** the counters of one table, or of the whole pool */
+	public static class Counters {
+		final LongAdder hits = new LongAdder();
+		final LongAdder misses = new LongAdder();
+		final LongAdder evictions = new LongAdder();
+		final LatencyHistogram reads = new LatencyHistogram();
+		final LatencyHistogram writes = new LatencyHistogram();
+		final LongAdder[] flushes = new LongAdder[FlushReason.values().length];
+
+		Counters() {
+			for (int i = 0; i < flushes.length; i++) {
+				flushes[i] = new LongAdder();
+			}
+		}
+
+		public long getHits() {
+			return hits.sum();
+		}
+
+		public long getMisses() {
+			return misses.sum();
+		}
+
+		public double getHitRatio() {
+			long h = getHits(), total = h + getMisses();
+			return total == 0 ? 0 : (double) h / total;
+		}
+
+		public long getEvictions() {
+			return evictions.sum();
+		}
+
+		public LatencyHistogram getReads() {
+			return reads;
+		}
+
+		public LatencyHistogram getWrites() {
+			return writes;
+		}
+
+		public long getFlushes(FlushReason reason) {
+			return flushes[reason.ordinal()].sum();
+		}
+	}
+
+	private final BufferPool bufferPool;
+	private volatile Counters global = new Counters();
+	private final ConcurrentHashMap<Integer, Counters> tables = new ConcurrentHashMap<>();
+
+	Metrics(BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	private Counters table(int tableId) {
+		Counters counters = tables.get(tableId);
+		return counters != null ? counters : tables.computeIfAbsent(tableId, id -> new Counters());
+	}
+
+	void hit(int tableId) {
+		global.hits.increment();
+		table(tableId).hits.increment();
+	}
+
+	void miss(int tableId) {
+		global.misses.increment();
+		table(tableId).misses.increment();
+	}
+
+	void evicted(int tableId) {
+		global.evictions.increment();
+		table(tableId).evictions.increment();
+	}
+
+	void read(int tableId, long nanos) {
+		global.reads.record(nanos);
+		table(tableId).reads.record(nanos);
+	}
+
+	void written(int tableId, long nanos, FlushReason reason) {
+		global.writes.record(nanos);
+		global.flushes[reason.ordinal()].increment();
+		Counters counters = table(tableId);
+		counters.writes.record(nanos);
+		counters.flushes[reason.ordinal()].increment();
+	}
+
+	/** @return the counters of the whole buffer pool */
+	public Counters getGlobal() {
+		return global;
+	}
+
+	/** @return the counters of a table, empty if it was never used */
+	public Counters getTable(int tableId) {
+		return table(tableId);
+	}
+
+	/**
+	 * Register as the JMX bean of the buffer pool, replacing the one of the
+	 * previous buffer pool.
+	 */
+	void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			// metrics stay available through BufferPool.getMetrics()
+			Debug.log(MetricsDebugLevel, "cannot register %s: %s", OBJECT_NAME, e);
+		}
+	}
+
+	@Override
+	public long getHits() {
+		return global.getHits();
+	}
+
+	@Override
+	public long getMisses() {
+		return global.getMisses();
+	}
+
+	@Override
+	public double getHitRatio() {
+		return global.getHitRatio();
+	}
+
+	@Override
+	public long getEvictions() {
+		return global.getEvictions();
+	}
+
+	@Override
+	public int getResidentPages() {
+		return bufferPool.getNumUsedPages();
+	}
+
+	@Override
+	public int getDirtyPages() {
+		return bufferPool.getNumDirtyPages();
+	}
+
+	@Override
+	public long getPageReads() {
+		return global.reads.getCount();
+	}
+
+	@Override
+	public long getPageWrites() {
+		return global.writes.getCount();
+	}
+
+	@Override
+	public double getMeanReadMicros() {
+		return global.reads.getMeanNanos() / 1000;
+	}
+
+	@Override
+	public double getP99ReadMicros() {
+		return global.reads.getPercentileNanos(99) / 1000.0;
+	}
+
+	@Override
+	public double getMeanWriteMicros() {
+		return global.writes.getMeanNanos() / 1000;
+	}
+
+	@Override
+	public double getP99WriteMicros() {
+		return global.writes.getPercentileNanos(99) / 1000.0;
+	}
+
+	@Override
+	public long getCommitFlushes() {
+		return global.getFlushes(FlushReason.COMMIT);
+	}
+
+	@Override
+	public long getEvictionFlushes() {
+		return global.getFlushes(FlushReason.EVICTION);
+	}
+
+	@Override
+	public long getCleanerFlushes() {
+		return global.getFlushes(FlushReason.CLEANER);
+	}
+
+	@Override
+	public long getFlushAllFlushes() {
+		return global.getFlushes(FlushReason.FLUSH_ALL);
+	}
+
+	@Override
+	public long getAppendFlushes() {
+		return global.getFlushes(FlushReason.APPEND);
+	}
+
+	private static String tableName(int tableId) {
+		try {
+			return Database.getCatalog().getTableName(tableId);
+		} catch (NoSuchElementException e) {
+			return "table " + tableId;
+		}
+	}
+
+	@Override
+	public String[] getTableNames() {
+		List<String> names = new ArrayList<>();
+		for (Integer tableId : tables.keySet()) {
+			names.add(tableName(tableId));
+		}
+		return names.toArray(new String[0]);
+	}
+
+	@Override
+	public String tableStats(String tableName) {
+		for (Map.Entry<Integer, Counters> table : tables.entrySet()) {
+			if (tableName(table.getKey()).equals(tableName)) {
+				return format(tableName, table.getValue());
+			}
+		}
+		return tableName + ": no activity";
+	}
+
+	private static String format(String name, Counters c) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(name).append(":\n");
+		sb.append(String.format("  hits %d, misses %d, hit ratio %.3f, evictions %d%n",
+				c.getHits(), c.getMisses(), c.getHitRatio(), c.getEvictions()));
+		sb.append("  reads  ").append(c.reads).append('\n');
+		sb.append("  writes ").append(c.writes).append('\n');
+		sb.append("  flushes");
+		for (FlushReason reason : FlushReason.values()) {
+			sb.append(' ').append(reason.name().toLowerCase()).append(' ').append(c.getFlushes(reason));
+		}
+		return sb.append('\n').toString();
+	}
+
+	@Override
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("buffer pool: %d of %d pages resident, %d dirty, %d pinned%n",
+				bufferPool.getNumUsedPages(), bufferPool.getNumPages(),
+				bufferPool.getNumDirtyPages(), bufferPool.getNumPinnedPages()));
+		sb.append(format("all tables", global));
+		for (Map.Entry<Integer, Counters> table : tables.entrySet()) {
+			sb.append(format(tableName(table.getKey()), table.getValue()));
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void reset() {
+		global = new Counters();
+		tables.clear();
+	}
+}
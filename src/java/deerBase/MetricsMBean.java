@@ -0,0 +1,53 @@
+package deerBase;
+
+/**
+ * JMX view of the {@link Metrics} of the current BufferPool, registered as
+ * deerBase:type=BufferPool.
+ */
+public interface MetricsMBean {
+
+	long getHits();
+
+	long getMisses();
+
+	double getHitRatio();
+
+	long getEvictions();
+
+	int getResidentPages();
+
+	int getDirtyPages();
+
+	long getPageReads();
+
+	long getPageWrites();
+
+	double getMeanReadMicros();
+
+	double getP99ReadMicros();
+
+	double getMeanWriteMicros();
+
+	double getP99WriteMicros();
+
+	long getCommitFlushes();
+
+	long getEvictionFlushes();
+
+	long getCleanerFlushes();
+
+	long getFlushAllFlushes();
+
+	long getAppendFlushes();
+
+	/** @return the names of the tables with recorded activity */
+	String[] getTableNames();
+
+	/** @return the counters of one table, one per line */
+	String tableStats(String tableName);
+
+	/** @return the global and per-table counters, as printed by SHOW STATS */
+	String report();
+
+	void reset();
+}
@@ -0,0 +1,154 @@
+package deerBase;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OffHeapArena is a second tier of the BufferPool that keeps the images of
+ * clean pages in preallocated direct ByteBuffers, outside of the Java heap.
+ * A page evicted from the on-heap {@link PageTable} is copied into the arena;
+ * a later miss re-materializes it from the arena with
+ * {@link DbFile#createPage(PageId, byte[])} instead of reading the disk.
+ * <p>
+ * The arena holds no objects per page besides one map entry, so the on-heap
+ * table can stay small (and GC pauses short) while several GB of pages are
+ * cached. It only ever holds images equal to the disk contents: the
+ * BufferPool removes a page from the arena when it writes or discards it.
+ * Slots are replaced with CLOCK.
+ * <p>
+ * Off by default; enable with -DdeerBase.OffHeapPages=n or
+ * {@link BufferPool#setOffHeapPages(int)}.
+ */
+public class OffHeapArena {
+
+	/** Direct buffers are allocated in chunks of at most this many bytes */
+	public static final int MAX_CHUNK_BYTES = 1 << 30;
+
+	private final int slotSize;
+	private final int numSlots;
+	private final int slotsPerChunk;
+	private final ByteBuffer[] chunks;
+
+	private final HashMap<PageId, Integer> slotOf;
+	private final PageId[] owners;
+	private final int[] lengths;
+	private final boolean[] referenced;
+	private int hand = 0;
+	private int numUsed = 0;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public OffHeapArena(int numSlots, int slotSize) {
+		this.slotSize = slotSize;
+		this.numSlots = numSlots;
+		this.slotsPerChunk = Math.max(1, MAX_CHUNK_BYTES / slotSize);
+		int numChunks = (numSlots + slotsPerChunk - 1) / slotsPerChunk;
+		this.chunks = new ByteBuffer[numChunks];
+		for (int i = 0; i < numChunks; i++) {
+			int slots = Math.min(slotsPerChunk, numSlots - i * slotsPerChunk);
+			chunks[i] = ByteBuffer.allocateDirect(slots * slotSize);
+		}
+		this.slotOf = new HashMap<>(numSlots * 4 / 3 + 1);
+		this.owners = new PageId[numSlots];
+		this.lengths = new int[numSlots];
+		this.referenced = new boolean[numSlots];
+	}
+
+	/** @return a buffer positioned on the slot, independent of other threads */
+	private ByteBuffer slot(int slot) {
+		ByteBuffer buf = chunks[slot / slotsPerChunk].duplicate();
+		buf.position((slot % slotsPerChunk) * slotSize);
+		return buf;
+	}
+
+	/**
+	 * Copy the image of a clean page into the arena, replacing an older
+	 * image of the same page or the victim of the clock.
+	 */
+	public synchronized void store(Page page) {
+		byte[] data = page.getPageData();
+		if (data.length > slotSize) {
+			return;
+		}
+		PageId pid = page.getId();
+		Integer slot = slotOf.get(pid);
+		if (slot == null) {
+			slot = numUsed < numSlots ? numUsed++ : victim();
+			if (owners[slot] != null) {
+				slotOf.remove(owners[slot]);
+			}
+			owners[slot] = pid;
+			slotOf.put(pid, slot);
+		}
+		slot(slot).put(data);
+		lengths[slot] = data.length;
+		// a page just evicted from the heap is not hot, give it one round
+		referenced[slot] = false;
+	}
+
+	private int victim() {
+		while (referenced[hand]) {
+			referenced[hand] = false;
+			hand = (hand + 1) % numSlots;
+		}
+		int victim = hand;
+		hand = (hand + 1) % numSlots;
+		return victim;
+	}
+
+	/**
+	 * Copy the image of pid out of the arena. The image stays valid until the
+	 * BufferPool writes or discards the page, so a clean page evicted again
+	 * only overwrites its own slot.
+	 *
+	 * @return a copy of the image, or null if pid is not in the arena
+	 */
+	public synchronized byte[] load(PageId pid) {
+		Integer slot = slotOf.get(pid);
+		if (slot == null) {
+			misses.increment();
+			return null;
+		}
+		byte[] data = new byte[lengths[slot]];
+		slot(slot).get(data);
+		referenced[slot] = true;
+		hits.increment();
+		return data;
+	}
+
+	public synchronized boolean contains(PageId pid) {
+		return slotOf.containsKey(pid);
+	}
+
+	/** Drop the image of pid, e.g. because the page on disk changed */
+	public synchronized void remove(PageId pid) {
+		Integer slot = slotOf.remove(pid);
+		if (slot != null) {
+			owners[slot] = null;
+			referenced[slot] = false;
+		}
+	}
+
+	public synchronized int size() {
+		return slotOf.size();
+	}
+
+	public int getNumSlots() {
+		return numSlots;
+	}
+
+	/** @return bytes of direct memory reserved by the arena */
+	public long getCapacityBytes() {
+		return (long) numSlots * slotSize;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+}
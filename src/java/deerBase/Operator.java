@@ -32,6 +32,61 @@ public abstract class Operator implements DbIterator {
         return result;
     }
 
+    /**
+     * Returns the tuple fetched ahead by hasNext, if any, and the rest of
+     * the batch fetchNext is handing out, before the next batch of
+     * {@link #fetchNextBatch()}.
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException,
+            NoSuchElementException, IOException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+
+        if (next == null && (batch == null || batchPos == batch.size())) {
+            batch = null;
+            return fetchNextBatch();
+        }
+        return DbIterator.super.nextBatch();
+    }
+
+    /**
+     * Returns the next batch of tuples, or null if the iteration is finished.
+     * Operator uses this method to implement nextBatch. The default collects
+     * the tuples of fetchNext; operators that work a batch at a time
+     * override it, and implement fetchNext with {@link #fetchNextFromBatch()}.
+     * 
+     * @return the next tuples, at least one, or null if there are no more.
+     */
+    protected TupleBatch fetchNextBatch() throws DbException,
+            TransactionAbortedException, NoSuchElementException, IOException {
+        return DbIterator.super.nextBatch();
+    }
+
+    /**
+     * fetchNext for operators that override fetchNextBatch: returns the rows
+     * of its batches one at a time.
+     */
+    protected Tuple fetchNextFromBatch() throws DbException,
+            TransactionAbortedException, NoSuchElementException, IOException {
+        while (batch == null || batchPos == batch.size()) {
+            batch = fetchNextBatch();
+            batchPos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.get(batchPos++);
+    }
+
+    /**
+     * Drops the tuples fetched ahead of the caller. Operators that rewind
+     * should call it, so no tuple from before the rewind is returned.
+     */
+    protected void discardFetched() {
+        next = null;
+        batch = null;
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both next
@@ -52,10 +107,13 @@ public abstract class Operator implements DbIterator {
     public void close() {
         // Ensures that a future call to next() will fail
         next = null;
+        batch = null;
         this.open = false;
     }
 
     private Tuple next = null;
+    private TupleBatch batch = null;
+    private int batchPos = 0;
     private boolean open = false;
     private int estimatedCardinality = 0;
 
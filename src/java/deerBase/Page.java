@@ -33,11 +33,28 @@ public interface Page {
     public byte[] getPageData();
 
 
+    /**
+     * Return a view of this page before the transaction modifying it
+     * started, as captured by captureBeforeImage; the current contents if no
+     * transaction modified it since the last setBeforeImage.
+     */
     public Page getBeforeImage();
 
-
+    /**
+     * Make the current contents the before-image, e.g. at commit. The old
+     * before-image is released and no copy is made; the next transaction to
+     * modify the page captures one, see captureBeforeImage.
+     */
     public void setBeforeImage();
 
+    /**
+     * Copy the current contents into the before-image, unless a transaction
+     * already did since the last setBeforeImage. Called by the BufferPool when
+     * a transaction asks for the page with write permission, before it can
+     * modify it (copy-on-write).
+     */
+    public void captureBeforeImage();
+
 //	/**
 //	 * Return a String in the format {el}\n{el}\n...{el}\n
 //	 * containing the first {numElements} elements in this page
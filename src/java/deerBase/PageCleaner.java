@@ -0,0 +1,158 @@
+package deerBase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PageCleaner is a background writer thread of the BufferPool. Every
+ * interval it collects the dirty frames of its share of the segments of
+ * every page table of the pool, the shared one and the partitions of
+ * reserved and pinned tables, that have not been looked up since the
+ * previous sweep, and
+ * writes them back ahead of time (log record, log force, page write, as
+ * BufferPool.flushPage does). A later eviction of such a page is then a
+ * clean drop, so foreground getPage calls rarely pay for a write.
+ * <p>
+ * Cleaners are off by default. Start them with -DdeerBase.PageCleaners=n
+ * (and optionally -DdeerBase.PageCleanerInterval=ms), or with
+ * {@link BufferPool#startPageCleaners(int, long)}.
+ */
+public class PageCleaner implements Runnable {
+
+	private final static int PageCleanerDebugLevel = Debug.CLOSE;
+
+	public static final long DEFAULT_INTERVAL_MS = 200;
+
+	/** Maximum number of pages a cleaner writes per sweep */
+	public static final int MAX_PAGES_PER_SWEEP = 64;
+
+	private final BufferPool bufferPool;
+	private final int stripe;
+	private final int numStripes;
+	private final long intervalMs;
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	private final LongAdder pagesWritten = new LongAdder();
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	private final long startNanos = System.nanoTime();
+
+	PageCleaner(BufferPool bufferPool, int stripe, int numStripes, long intervalMs) {
+		this.bufferPool = bufferPool;
+		this.stripe = stripe;
+		this.numStripes = numStripes;
+		this.intervalMs = intervalMs;
+		this.thread = new Thread(this, "PageCleaner-" + stripe);
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stop the cleaner and wait for the page it is writing, if any. The thread
+	 * is not interrupted: an interrupt would close the log's FileChannel.
+	 */
+	void shutdown() {
+		synchronized (this) {
+			running = false;
+			notifyAll();
+		}
+		try {
+			thread.join(intervalMs * 10);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				// one cleaner keeps the clock, so "idle for a sweep" means one interval
+				if (stripe == 0) {
+					for (PageTable table : bufferPool.getPageTables()) {
+						table.advanceEpoch();
+					}
+				}
+				sweep();
+				synchronized (this) {
+					if (running) {
+						wait(intervalMs);
+					}
+				}
+			} catch (InterruptedException e) {
+				running = false;
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/** @return the number of pages written in this sweep */
+	int sweep() {
+		List<PageTable> tables = new ArrayList<>();
+		List<Frame> dirty = new ArrayList<>();
+		for (PageTable table : bufferPool.getPageTables()) {
+			if (dirty.size() >= MAX_PAGES_PER_SWEEP) {
+				break;
+			}
+			for (Frame frame : table.collectDirty(stripe, numStripes, MAX_PAGES_PER_SWEEP - dirty.size())) {
+				tables.add(table);
+				dirty.add(frame);
+			}
+		}
+		queueDepth.set(dirty.size());
+		int written = 0;
+		for (int i = 0; i < dirty.size(); i++) {
+			Frame frame = dirty.get(i);
+			PageTable table = tables.get(i);
+			if (!running) {
+				break;
+			}
+			if (table.claimWriteBack(frame)) {
+				try {
+					// same lock order as flushPage: BufferPool, then LogFile
+					synchronized (bufferPool) {
+						if (frame.page.isDirty()) {
+							bufferPool.writeBack(frame.page, Metrics.FlushReason.CLEANER);
+							written++;
+						}
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				} finally {
+					table.endWriteBack(frame);
+				}
+			}
+			queueDepth.decrementAndGet();
+		}
+		queueDepth.set(0);
+		pagesWritten.add(written);
+		Debug.log(PageCleanerDebugLevel, "cleaner %d wrote %d of %d dirty pages", stripe, written, dirty.size());
+		return written;
+	}
+
+	public long getPagesWritten() {
+		return pagesWritten.sum();
+	}
+
+	/** @return average pages written per second since the cleaner started */
+	public double getWriteRate() {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		return seconds == 0 ? 0 : getPagesWritten() / seconds;
+	}
+
+	/** @return dirty pages collected by the current sweep and not written yet */
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	public boolean isRunning() {
+		return running && thread.isAlive();
+	}
+}
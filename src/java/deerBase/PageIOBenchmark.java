@@ -0,0 +1,140 @@
+package deerBase;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageIOBenchmark compares the page reads DbFile and BTreeFile used to do,
+ * opening a RandomAccessFile per page or a stream skipped from offset 0 per
+ * page, with the positional reads of {@link ChannelPool}, on a cold-read
+ * workload: every page of the file is read once, in random order, as by a
+ * buffer pool that misses on every page.
+ * <p>
+ * The OS page cache is dropped before each pass when the benchmark may write
+ * /proc/sys/vm/drop_caches (i.e. runs as root on Linux); otherwise the file
+ * is served from the page cache and only the per-call overhead is measured.
+ * <p>
+ * Usage: java deerBase.PageIOBenchmark [threads] [pages] [file]
+ */
+public class PageIOBenchmark {
+
+	interface PageReader {
+		void read(File f, long offset, byte[] buf) throws IOException;
+	}
+
+	/** the read of DbFile.readPage before ChannelPool */
+	static void randomAccessRead(File f, long offset, byte[] buf) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		raf.seek(offset);
+		raf.read(buf);
+		raf.close();
+	}
+
+	/** the read of BTreeFile.readPage before ChannelPool */
+	static void streamSkipRead(File f, long offset, byte[] buf) throws IOException {
+		BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f));
+		try {
+			if (bis.skip(offset) != offset) {
+				throw new IOException("unable to seek to " + offset);
+			}
+			bis.read(buf, 0, buf.length);
+		} finally {
+			bis.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		int pages = args.length > 1 ? Integer.parseInt(args[1]) : 8192;
+		File f = args.length > 2 ? new File(args[2]) : File.createTempFile("pageio", ".dat");
+		f.deleteOnExit();
+		int pageSize = BufferPool.getPageSize();
+
+		byte[] page = new byte[pageSize];
+		Random random = new Random(0);
+		try (FileOutputStream out = new FileOutputStream(f)) {
+			for (int i = 0; i < pages; i++) {
+				random.nextBytes(page);
+				out.write(page);
+			}
+		}
+
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < pages; i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, random);
+
+		boolean cold = dropCaches();
+		System.out.printf("threads=%d pages=%d pageSize=%d cold=%b%n", threads, pages, pageSize, cold);
+		// first round warms up the JIT
+		for (int round = 0; round < 2; round++) {
+			dropCaches();
+			long raf = run(threads, f, order, pageSize, PageIOBenchmark::randomAccessRead);
+			dropCaches();
+			long skip = run(threads, f, order, pageSize, PageIOBenchmark::streamSkipRead);
+			dropCaches();
+			long pooled = run(threads, f, order, pageSize, ChannelPool::read);
+			System.out.printf("round %d: RandomAccessFile %.1f us/page, stream+skip %.1f us/page, "
+					+ "ChannelPool %.1f us/page%n", round, usPerPage(raf, pages),
+					usPerPage(skip, pages), usPerPage(pooled, pages));
+		}
+		ChannelPool.close(f);
+	}
+
+	/** @return true if the OS page cache was dropped */
+	private static boolean dropCaches() {
+		File drop = new File("/proc/sys/vm/drop_caches");
+		if (!drop.canWrite()) {
+			return false;
+		}
+		try (FileWriter w = new FileWriter(drop)) {
+			new ProcessBuilder("sync").inheritIO().start().waitFor();
+			w.write("3");
+			return true;
+		} catch (IOException | InterruptedException e) {
+			return false;
+		}
+	}
+
+	private static double usPerPage(long nanos, int pages) {
+		return nanos / 1000.0 / pages;
+	}
+
+	private static long run(int threads, File f, List<Integer> order, int pageSize, PageReader reader)
+			throws InterruptedException {
+		AtomicInteger next = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread(() -> {
+				byte[] buf = new byte[pageSize];
+				try {
+					start.await();
+					for (int i = next.getAndIncrement(); i < order.size(); i = next.getAndIncrement()) {
+						reader.read(f, (long) order.get(i) * pageSize, buf);
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+				} finally {
+					done.countDown();
+				}
+			}).start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		return System.nanoTime() - begin;
+	}
+}
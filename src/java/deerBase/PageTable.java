@@ -0,0 +1,707 @@
+package deerBase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * PageTable is the concurrent replacement of {@link LRUCache} used by the
+ * BufferPool. The table is hash-partitioned into segments, each owning a
+ * share of the frames:
+ * <ul>
+ * <li> a hit is a lock-free lookup in the segment's ConcurrentHashMap that
+ *      only sets the frame's reference bit, so readers of hot pages never
+ *      serialize on a monitor.
+ * <li> inserts, removals and victim selection lock a single segment. Victims
+ *      are chosen by the segment's {@link EvictionPolicy}, CLOCK by default,
+ *      among the frames that are not pinned.
+ * <li> a dirty victim is written back (STEAL) outside of the segment lock,
+ *      so a slow disk write never blocks hits or inserts on other pages.
+ * <li> a full segment whose frames are all pinned takes a frame over from
+ *      another segment, evicting a page there if needed, so the table only
+ *      fails when every frame of every segment is pinned.
+ * </ul>
+ * Small tables (capacity below {@link #MIN_SEGMENT_CAPACITY} * 2) use a single
+ * segment, so the capacity limit stays exact for small buffer pools.
+ */
+public class PageTable {
+
+	private final static int PageTableDebugLevel = Debug.CLOSE;
+
+	/** Segments are never made smaller than this many frames. */
+	public static final int MIN_SEGMENT_CAPACITY = 16;
+
+	/** Number of segments used by default, before the capacity cap. */
+	public static final int DEFAULT_CONCURRENCY =
+			Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4);
+
+	private final Segment[] segments;
+	private final int segmentMask;
+	private volatile int capacity;
+	private final BufferPool owner;
+	private final EvictionPolicy.Kind policyKind;
+
+	/** pinned frames and frames being written back cannot be chosen */
+	private static final Predicate<Frame> EVICTABLE = frame -> !frame.writingBack && frame.pins.get() == 0;
+
+	/** advanced by the page cleaners on every sweep, stamped on frames by lookups */
+	private volatile int epoch = 0;
+
+	/** segment evictOne() starts from, only a hint */
+	private volatile int nextEvictSegment = 0;
+
+	/** resident pages per table id, see {@link #getNumPages(int)} */
+	private final ConcurrentHashMap<Integer, AtomicInteger> tablePages = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a page table with room for capacity pages, using CLOCK.
+	 *
+	 * @param capacity the maximum number of resident pages
+	 * @param owner the BufferPool used to write back dirty victims, may be null
+	 *        if the table only ever holds clean pages (e.g. benchmarks)
+	 */
+	public PageTable(int capacity, BufferPool owner) {
+		this(capacity, DEFAULT_CONCURRENCY, owner);
+	}
+
+	public PageTable(int capacity, int concurrency, BufferPool owner) {
+		this(capacity, concurrency, EvictionPolicy.Kind.CLOCK, owner);
+	}
+
+	public PageTable(int capacity, EvictionPolicy.Kind policyKind, BufferPool owner) {
+		this(capacity, DEFAULT_CONCURRENCY, policyKind, owner);
+	}
+
+	public PageTable(int capacity, int concurrency, EvictionPolicy.Kind policyKind, BufferPool owner) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.owner = owner;
+		this.policyKind = policyKind;
+
+		// power of two segments, each with at least MIN_SEGMENT_CAPACITY frames
+		int numSegments = Integer.highestOneBit(Math.max(1,
+				Math.min(concurrency, capacity / MIN_SEGMENT_CAPACITY)));
+		this.segmentMask = numSegments - 1;
+		this.segments = new Segment[numSegments];
+		for (int i = 0; i < numSegments; i++) {
+			int segCapacity = capacity / numSegments + (i < capacity % numSegments ? 1 : 0);
+			segments[i] = new Segment(segCapacity, EvictionPolicy.create(policyKind, segCapacity));
+		}
+	}
+
+	private Segment segmentFor(PageId pid) {
+		int h = pid.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & segmentMask];
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Give frames up, e.g. for the BufferPool to make a partition of them,
+	 * evicting pages if not enough frames are free. The table keeps at least
+	 * one frame.
+	 *
+	 * @return the number of frames given up, fewer than asked if the others
+	 *         are pinned
+	 */
+	public synchronized int shrink(int frames) throws DbException {
+		int taken = 0;
+		// take one frame of each segment in turn, until a whole round fails
+		for (int i = 0, failed = 0; taken < frames && capacity > 1 && failed < segments.length; i++) {
+			if (segments[i & segmentMask].lendFrame()) {
+				taken++;
+				capacity--;
+				failed = 0;
+			} else {
+				failed++;
+			}
+		}
+		Debug.log(PageTableDebugLevel, "gave up %d of %d frames", taken, frames);
+		return taken;
+	}
+
+	/** Take back frames given up with {@link #shrink(int)} */
+	public synchronized void grow(int frames) {
+		for (int i = 0; i < frames; i++) {
+			Segment seg = segments[i & segmentMask];
+			synchronized (seg) {
+				seg.capacity++;
+			}
+		}
+		capacity += frames;
+	}
+
+	public int getNumSegments() {
+		return segments.length;
+	}
+
+	public EvictionPolicy.Kind getPolicyKind() {
+		return policyKind;
+	}
+
+	/** @return the number of lookups that found their page, over all segments */
+	public long getHits() {
+		long hits = 0;
+		for (Segment seg : segments) {
+			hits += seg.policy.getHits();
+		}
+		return hits;
+	}
+
+	public long getMisses() {
+		long misses = 0;
+		for (Segment seg : segments) {
+			misses += seg.policy.getMisses();
+		}
+		return misses;
+	}
+
+	/** @return hit ratio of {@link #get(PageId)} over all segments */
+	public double getHitRatio() {
+		long hits = getHits(), total = hits + getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/** @return the number of resident pages, summed over all segments */
+	public int size() {
+		int size = 0;
+		for (Segment seg : segments) {
+			size += seg.frames.size();
+		}
+		return size;
+	}
+
+	/** @return the number of resident pages of one table */
+	public int getNumPages(int tableId) {
+		AtomicInteger n = tablePages.get(tableId);
+		return n == null ? 0 : n.get();
+	}
+
+	public boolean containsKey(PageId pid) {
+		return segmentFor(pid).frames.containsKey(pid);
+	}
+
+	/**
+	 * Hit path: look up the page and tell the eviction policy it was used.
+	 * Never blocks on the segment; counts towards the hit ratio.
+	 *
+	 * @return the cached page, or null if pid is not resident
+	 */
+	public Page get(PageId pid) {
+		Page page = find(pid);
+		if (page == null) {
+			segmentFor(pid).policy.recordMiss();
+		}
+		return page;
+	}
+
+	/**
+	 * Like {@link #get(PageId)}, but a miss is not counted: the caller looks
+	 * for the page elsewhere first, e.g. in a ScanRing, and counts the lookup
+	 * with {@link #recordLookup(PageId, boolean)}.
+	 *
+	 * @return the cached page, or null if pid is not resident
+	 */
+	public Page find(PageId pid) {
+		Segment seg = segmentFor(pid);
+		Frame frame = seg.frames.get(pid);
+		if (frame == null || seg.frames.get(pid) != frame) {
+			// not resident, or evicted or replaced after the lookup: do not
+			// touch a stale frame
+			return null;
+		}
+		seg.policy.recordHit();
+		seg.policy.onAccess(frame);
+		frame.hits++;
+		// stamp before checking writingBack, a cleaner claims in the opposite order
+		frame.accessEpoch = epoch;
+		if (frame.writingBack) {
+			frame.awaitWriteBack();
+		}
+		return frame.page;
+	}
+
+	/** Count a lookup of pid served, or not, outside of this table */
+	public void recordLookup(PageId pid, boolean hit) {
+		EvictionPolicy policy = segmentFor(pid).policy;
+		if (hit) {
+			policy.recordHit();
+		} else {
+			policy.recordMiss();
+		}
+	}
+
+	/**
+	 * Hit path of a pinning lookup: like {@link #get(PageId)}, but the frame
+	 * is pinned before it is returned, so it is not evicted until it is
+	 * unpinned.
+	 *
+	 * @return the pinned frame, or null if pid is not resident
+	 */
+	public Frame pin(PageId pid) {
+		Segment seg = segmentFor(pid);
+		Frame frame = seg.frames.get(pid);
+		// a frame chosen as a victim concurrently cannot be pinned, read it again
+		if (frame == null || !frame.tryPin()) {
+			seg.policy.recordMiss();
+			return null;
+		}
+		if (seg.frames.get(pid) != frame) {
+			// removed (discarded) after the lookup
+			frame.unpin();
+			seg.policy.recordMiss();
+			return null;
+		}
+		seg.policy.recordHit();
+		seg.policy.onAccess(frame);
+		frame.hits++;
+		frame.accessEpoch = epoch;
+		if (frame.writingBack) {
+			frame.awaitWriteBack();
+		}
+		return frame;
+	}
+
+	/**
+	 * Look up the page without affecting its recency, used by flushes and
+	 * commit processing so that they do not make pages look hot.
+	 */
+	public Page peek(PageId pid) {
+		Frame frame = segmentFor(pid).frames.get(pid);
+		return frame == null ? null : frame.page;
+	}
+
+	/**
+	 * Insert or replace the page cached under pid, evicting a victim from the
+	 * same segment if it is full, or from another one if every frame of the
+	 * segment is pinned.
+	 *
+	 * @throws DbException if no frame of the table can be evicted
+	 */
+	public void put(PageId pid, Page page) throws DbException {
+		if (pid == null || page == null) {
+			Debug.log(PageTableDebugLevel, "put null pid/page in page table %s", Debug.stackTrace());
+			return;
+		}
+		segmentFor(pid).put(pid, page, true, false);
+	}
+
+	/**
+	 * Insert the page unless another thread cached pid first.
+	 *
+	 * @return the page now cached under pid, which is the argument page
+	 *         unless it lost the race
+	 * @throws DbException if no frame of the table can be evicted
+	 */
+	public Page putIfAbsent(PageId pid, Page page) throws DbException {
+		return segmentFor(pid).put(pid, page, false, false).page;
+	}
+
+	/**
+	 * Like {@link #putIfAbsent(PageId, Page)}, but pin the frame of pid.
+	 *
+	 * @return the pinned frame now caching pid
+	 * @throws DbException if every frame of the table is pinned
+	 */
+	public Frame putIfAbsentAndPin(PageId pid, Page page) throws DbException {
+		return segmentFor(pid).put(pid, page, false, true);
+	}
+
+	/**
+	 * Remove the page cached under pid, without writing it to disk
+	 *
+	 * @return the removed page, or null if pid was not resident
+	 */
+	public Page remove(PageId pid) {
+		return segmentFor(pid).remove(pid);
+	}
+
+	/**
+	 * Evict one unpinned page, writing it back first if it is dirty.
+	 * Segments are tried round robin, starting after the last one evicted from.
+	 *
+	 * @return false if every resident page is pinned or being written back
+	 */
+	public boolean evictOne() throws DbException {
+		return evictOne(EVICTABLE);
+	}
+
+	/**
+	 * Evict one unpinned page of a table, e.g. one over its quota
+	 *
+	 * @return false if every resident page of the table is pinned or being written back
+	 */
+	public boolean evictOne(int tableId) throws DbException {
+		return evictOne(EVICTABLE.and(frame -> frame.pid.getTableId() == tableId));
+	}
+
+	private boolean evictOne(Predicate<Frame> evictable) throws DbException {
+		for (int i = 0; i < segments.length; i++) {
+			Segment seg = segments[(nextEvictSegment + i) & segmentMask];
+			if (seg.evictOne(evictable)) {
+				nextEvictSegment = (nextEvictSegment + i + 1) & segmentMask;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Take a frame of another segment over for seg, whose frames are all
+	 * pinned. Segments are tried round robin, like {@link #evictOne()}.
+	 *
+	 * @return false if every frame of the other segments is pinned as well
+	 */
+	private boolean borrowFrame(Segment seg) throws DbException {
+		for (int i = 0; i < segments.length; i++) {
+			Segment lender = segments[(nextEvictSegment + i) & segmentMask];
+			if (lender != seg && lender.lendFrame()) {
+				nextEvictSegment = (nextEvictSegment + i + 1) & segmentMask;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** @return the number of resident frames that are pinned */
+	public int getNumPinned() {
+		int pinned = 0;
+		for (Segment seg : segments) {
+			for (Frame frame : seg.frames.values()) {
+				if (frame.isPinned()) {
+					pinned++;
+				}
+			}
+		}
+		return pinned;
+	}
+
+	/** @return the number of resident pages modified since they were last written */
+	public int getNumDirty() {
+		int dirty = 0;
+		for (Segment seg : segments) {
+			for (Frame frame : seg.frames.values()) {
+				if (frame.page.isDirty()) {
+					dirty++;
+				}
+			}
+		}
+		return dirty;
+	}
+
+	/**
+	 * Start a new cleaner sweep. Frames looked up in the current or the
+	 * previous epoch are considered in use and are not cleaned.
+	 *
+	 * @return the new epoch
+	 */
+	int advanceEpoch() {
+		return ++epoch;
+	}
+
+	/**
+	 * Collect dirty frames that were not looked up since the previous sweep
+	 * from the segments assigned to one cleaner.
+	 *
+	 * @param stripe this cleaner's index, segments i with i % numStripes == stripe are scanned
+	 * @param max the maximum number of frames to return
+	 */
+	List<Frame> collectDirty(int stripe, int numStripes, int max) {
+		List<Frame> dirty = new ArrayList<>();
+		int idleBefore = epoch - 1;
+		for (int i = stripe; i < segments.length && dirty.size() < max; i += numStripes) {
+			for (Frame frame : segments[i].frames.values()) {
+				if (frame.accessEpoch < idleBefore && !frame.writingBack && !frame.isPinned()
+						&& frame.page.isDirty()) {
+					dirty.add(frame);
+					if (dirty.size() >= max) {
+						break;
+					}
+				}
+			}
+		}
+		return dirty;
+	}
+
+	/**
+	 * Claim a frame for a background write-back. A claimed frame is not
+	 * evicted, and lookups of it wait until {@link #endWriteBack(Frame)}.
+	 *
+	 * @return false if the frame left the table, is being written back
+	 *         already, is pinned, or was looked up since it was collected
+	 */
+	boolean claimWriteBack(Frame frame) {
+		Segment seg = segmentFor(frame.pid);
+		synchronized (seg) {
+			if (seg.frames.get(frame.pid) != frame || frame.writingBack || frame.isPinned()) {
+				return false;
+			}
+			frame.writingBack = true;
+		}
+		if (frame.accessEpoch >= epoch - 1) {
+			frame.endWriteBack();
+			return false;
+		}
+		return true;
+	}
+
+	void endWriteBack(Frame frame) {
+		frame.endWriteBack();
+	}
+
+	/**
+	 * @return the ids of the resident pages, hottest first, e.g. to warm up
+	 *         the next buffer pool with the pages worth keeping
+	 */
+	public List<PageId> residentByHotness() {
+		List<Ranked> resident = new ArrayList<>(size());
+		for (Segment seg : segments) {
+			for (Frame frame : seg.frames.values()) {
+				resident.add(new Ranked(frame));
+			}
+		}
+		resident.sort(Ranked.HOTTEST_FIRST);
+		List<PageId> pids = new ArrayList<>(resident.size());
+		for (Ranked ranked : resident) {
+			pids.add(ranked.pid);
+		}
+		return pids;
+	}
+
+	/** the hotness of a frame, copied so that it does not change while sorting */
+	private static final class Ranked {
+		/** pinned, then looked up in a later cleaner epoch, referenced, more hits */
+		static final Comparator<Ranked> HOTTEST_FIRST = Comparator
+				.comparing((Ranked r) -> !r.pinned)
+				.thenComparing(r -> -r.accessEpoch)
+				.thenComparing(r -> !r.referenced)
+				.thenComparing(r -> -r.hits);
+
+		final PageId pid;
+		final boolean pinned;
+		final int accessEpoch;
+		final boolean referenced;
+		final int hits;
+
+		Ranked(Frame frame) {
+			this.pid = frame.pid;
+			this.pinned = frame.isPinned();
+			this.accessEpoch = frame.accessEpoch;
+			this.referenced = frame.referenced;
+			this.hits = frame.hits;
+		}
+	}
+
+	/** @return a weakly consistent iterator over all resident page ids */
+	public Iterator<PageId> keyIterator() {
+		return new KeyIterator();
+	}
+
+	private class KeyIterator implements Iterator<PageId> {
+		private int segIdx = 0;
+		private Iterator<PageId> cur = segments[0].frames.keySet().iterator();
+
+		@Override
+		public boolean hasNext() {
+			while (!cur.hasNext() && segIdx < segments.length - 1) {
+				cur = segments[++segIdx].frames.keySet().iterator();
+			}
+			return cur.hasNext();
+		}
+
+		@Override
+		public PageId next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return cur.next();
+		}
+	}
+
+	/**
+	 * One hash partition of the table. Structural changes (insert, remove,
+	 * victim selection) synchronize on the segment; lookups do not.
+	 */
+	private final class Segment {
+		final ConcurrentHashMap<PageId, Frame> frames;
+		final EvictionPolicy policy;
+		/** frames this segment may hold, changed under its lock when frames are lent */
+		int capacity;
+
+		Segment(int capacity, EvictionPolicy policy) {
+			this.capacity = capacity;
+			this.policy = policy;
+			this.frames = new ConcurrentHashMap<>(capacity * 4 / 3 + 1);
+		}
+
+		/** @return the frame now caching pid, pinned if pin is set */
+		Frame put(PageId pid, Page page, boolean replace, boolean pin) throws DbException {
+			for (;;) {
+				Frame victim;
+				synchronized (this) {
+					Frame frame = frames.get(pid);
+					if (frame != null) {
+						policy.onAccess(frame);
+						frame.accessEpoch = epoch;
+						if (replace) {
+							frame.page = page;
+						}
+						if (pin) {
+							// resident frames are only claimed as victims under this lock
+							frame.tryPin();
+						}
+						return frame;
+					}
+
+					if (frames.size() < capacity) {
+						return insert(new Frame(pid, page, epoch), pin);
+					}
+
+					victim = policy.chooseVictim(EVICTABLE);
+					if (victim != null) {
+						if (!victim.page.isDirty()) {
+							if (!victim.tryEvict()) {
+								// pinned by a lookup since it was chosen
+								continue;
+							}
+							Debug.log(PageTableDebugLevel, "evict clean %s for %s", victim.pid, pid);
+							evict(victim);
+							return insert(new Frame(pid, page, epoch), pin);
+						}
+						victim.writingBack = true;
+					}
+				}
+
+				if (victim == null) {
+					// every frame here is pinned: take one over from another segment
+					if (!borrowFrame(this)) {
+						throw new DbException("all pages in buffer are pinned or being written back");
+					}
+					synchronized (this) {
+						capacity++;
+					}
+					continue;
+				}
+				// STEAL: write the dirty victim back without holding the segment,
+				// then retry; the victim is picked again unless it was re-used
+				writeBack(victim, pid);
+			}
+		}
+
+		/**
+		 * Give up one frame, evicting a page if none is free, for another
+		 * segment to take over.
+		 *
+		 * @return false if every frame of the segment is pinned or being written back
+		 */
+		boolean lendFrame() throws DbException {
+			for (;;) {
+				Frame victim;
+				synchronized (this) {
+					if (frames.size() < capacity) {
+						capacity--;
+						return true;
+					}
+					victim = policy.chooseVictim(EVICTABLE);
+					if (victim == null) {
+						return false;
+					}
+					if (!victim.page.isDirty()) {
+						if (!victim.tryEvict()) {
+							continue;
+						}
+						Debug.log(PageTableDebugLevel, "evict clean %s to lend its frame", victim.pid);
+						evict(victim);
+						capacity--;
+						return true;
+					}
+					victim.writingBack = true;
+				}
+				writeBack(victim, null);
+			}
+		}
+
+		/** evict the victim chosen by the policy, see {@link PageTable#evictOne()} */
+		boolean evictOne(Predicate<Frame> evictable) throws DbException {
+			for (;;) {
+				Frame victim;
+				synchronized (this) {
+					victim = policy.chooseVictim(evictable);
+					if (victim == null) {
+						return false;
+					}
+					if (!victim.page.isDirty()) {
+						if (!victim.tryEvict()) {
+							continue;
+						}
+						Debug.log(PageTableDebugLevel, "evict clean %s", victim.pid);
+						evict(victim);
+						return true;
+					}
+					victim.writingBack = true;
+				}
+				writeBack(victim, null);
+			}
+		}
+
+		private void writeBack(Frame victim, PageId forPid) throws DbException {
+			Debug.log(PageTableDebugLevel, "write back dirty %s for %s", victim.pid, forPid);
+			try {
+				if (owner == null) {
+					throw new DbException("page table without buffer pool cannot evict dirty pages");
+				}
+				owner.writeBack(victim.page, Metrics.FlushReason.EVICTION);
+			} catch (IOException e) {
+				e.printStackTrace();
+				throw new DbException("failed to write back " + victim.pid);
+			} finally {
+				victim.endWriteBack();
+			}
+		}
+
+		/** called with the segment lock held, on a clean victim claimed with tryEvict */
+		private void evict(Frame victim) {
+			if (owner != null) {
+				// under the segment lock, so it cannot overtake a later write of the page
+				owner.pageEvicted(victim.page);
+			}
+			unlink(victim, true);
+		}
+
+		synchronized Page remove(PageId pid) {
+			Frame frame = frames.get(pid);
+			if (frame == null) {
+				return null;
+			}
+			unlink(frame, false);
+			return frame.page;
+		}
+
+		private Frame insert(Frame frame, boolean pin) {
+			if (pin) {
+				frame.tryPin();
+			}
+			frames.put(frame.pid, frame);
+			policy.onInsert(frame);
+			tablePages.computeIfAbsent(frame.pid.getTableId(), id -> new AtomicInteger()).incrementAndGet();
+			return frame;
+		}
+
+		private void unlink(Frame frame, boolean evicted) {
+			frames.remove(frame.pid);
+			policy.onRemove(frame, evicted);
+			tablePages.get(frame.pid.getTableId()).decrementAndGet();
+		}
+	}
+}
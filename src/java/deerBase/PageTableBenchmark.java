@@ -0,0 +1,92 @@
+package deerBase;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * PageTableBenchmark compares the lookup throughput of the old synchronized
+ * {@link LRUCache} with the striped {@link PageTable} when several threads
+ * read a hot set of pages, which is the common case of a buffer pool hit.
+ * <p>
+ * Usage: java deerBase.PageTableBenchmark [threads] [capacity] [opsPerThread]
+ */
+public class PageTableBenchmark {
+
+	/** Minimal clean page, so the benchmark needs no catalog or files. */
+	static class BenchPage implements Page {
+		private final PageId pid;
+
+		BenchPage(PageId pid) {
+			this.pid = pid;
+		}
+
+		public PageId getId() { return pid; }
+		public TransactionId getDirtier() { return null; }
+		public void markDirty(boolean dirty, TransactionId tid) {}
+		public boolean isDirty() { return false; }
+		public byte[] getPageData() { return new byte[0]; }
+		public Page getBeforeImage() { return this; }
+		public void setBeforeImage() {}
+		public void captureBeforeImage() {}
+	}
+
+	interface Lookup {
+		Page get(PageId pid) throws DbException;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int capacity = args.length > 1 ? Integer.parseInt(args[1]) : BufferPool.DEFAULT_PAGES;
+		int ops = args.length > 2 ? Integer.parseInt(args[2]) : 2_000_000;
+
+		PageId[] pids = new PageId[capacity];
+		LRUCache lru = new LRUCache(capacity);
+		PageTable table = new PageTable(capacity, null);
+		for (int i = 0; i < capacity; i++) {
+			pids[i] = new HeapPageId(0, i);
+			lru.put(pids[i], new BenchPage(pids[i]));
+			table.put(pids[i], new BenchPage(pids[i]));
+		}
+
+		System.out.printf("threads=%d capacity=%d ops/thread=%d segments=%d%n",
+				threads, capacity, ops, table.getNumSegments());
+		// first round warms up the JIT
+		for (int round = 0; round < 2; round++) {
+			long lruNanos = run(threads, ops, pids, lru::get);
+			long tableNanos = run(threads, ops, pids, table::get);
+			System.out.printf("round %d: LRUCache %.1f Mops/s, PageTable %.1f Mops/s%n", round,
+					mops(threads, ops, lruNanos), mops(threads, ops, tableNanos));
+		}
+	}
+
+	private static double mops(int threads, int ops, long nanos) {
+		return (double) threads * ops / nanos * 1000;
+	}
+
+	private static long run(int threads, int ops, PageId[] pids, Lookup lookup) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			final long seed = t;
+			new Thread(() -> {
+				Random random = new Random(seed);
+				try {
+					start.await();
+					for (int i = 0; i < ops; i++) {
+						if (lookup.get(pids[random.nextInt(pids.length)]) == null) {
+							throw new IllegalStateException("miss on a resident page");
+						}
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+				} finally {
+					done.countDown();
+				}
+			}).start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		return System.nanoTime() - begin;
+	}
+}
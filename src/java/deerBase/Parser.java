@@ -492,7 +492,24 @@ public class Parser {
         return curtrans;
     }
 
+    /**
+     * SHOW STATS is not SQL, so it is handled before the statement reaches
+     * ZQL: print the buffer pool metrics, see {@link Metrics#report()}.
+     * @return true if s was SHOW STATS
+     */
+    protected boolean processShowStats(String s) {
+        if (!s.trim().replaceAll("\\s+", " ").replaceAll(" ?;$", "")
+                .equalsIgnoreCase("show stats")) {
+            return false;
+        }
+        System.out.print(Database.getBufferPool().getMetrics().report());
+        return true;
+    }
+
     public void processNextStatement(String s) {
+        if (processShowStats(s)) {
+            return;
+        }
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
         } catch (UnsupportedEncodingException e) {
@@ -582,7 +599,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "show stats" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -599,6 +616,9 @@ public class Parser {
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
 
     protected void shutdown() {
+        // saves the resident pages for the next warm start
+        Database.getBufferPool().shutdown();
+        ChannelPool.closeAll();
         System.out.println("Bye");
     }
 
@@ -608,6 +628,11 @@ public class Parser {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
         TableStats.computeStatistics();
+        // read the pages resident at the last shutdown before the first query
+        int warmPages = Database.getBufferPool().warmStart();
+        if (warmPages > 0) {
+            System.out.println("Warmed up the buffer pool with " + warmPages + " pages.");
+        }
 
         String queryFile = null;
 
@@ -676,12 +701,14 @@ public class Parser {
                         break;
                     }
 
-                    long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
-                    long time = System.currentTimeMillis() - startTime;
-                    System.out.printf("----------------\n%.2f seconds\n\n",
-                            ((double) time / 1000.0));
+                    if (!processShowStats(cmd)) {
+                        long startTime = System.currentTimeMillis();
+                        processNextStatement(new ByteArrayInputStream(
+                                statementBytes));
+                        long time = System.currentTimeMillis() - startTime;
+                        System.out.printf("----------------\n%.2f seconds\n\n",
+                                ((double) time / 1000.0));
+                    }
 
                     // Grab the remainder of the line
                     line = line.substring(split + 1);
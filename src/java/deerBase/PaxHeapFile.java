@@ -0,0 +1,32 @@
+package deerBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages are PaxHeapPages, stored column by
+ * column: a scan that asks for a few fields, see
+ * {@link HeapFile#iterator(TransactionId, int[])}, decodes only those. Use
+ * the "pax" option of a catalog entry to create one.
+ *
+ * @see PaxHeapPage
+ */
+public class PaxHeapFile extends HeapFile {
+
+	private static final long serialVersionUID = 1L;
+
+	public PaxHeapFile(File f, TupleDesc td) {
+		super(f, td);
+	}
+
+	@Override
+	public Page createPage(PageId pid, byte[] data) throws IOException {
+		return new PaxHeapPage((HeapPageId) pid, data);
+	}
+
+	@Override
+	public Page createPage(PageId pid, ByteBuffer data) throws IOException {
+		return new PaxHeapPage((HeapPageId) pid, data);
+	}
+}
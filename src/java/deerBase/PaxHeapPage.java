@@ -0,0 +1,301 @@
+package deerBase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * PaxHeapPage holds the same tuples as a HeapPage, in the same number of
+ * slots, but stores them column by column: the header bitmap of used slots
+ * is followed by one minipage per field, holding that field of every slot,
+ * <pre>
+ *   header | field 0 of slots 0..n-1 | field 1 of slots 0..n-1 | ...
+ * </pre>
+ * Fields are serialized as Field.serialize does. A scan that needs a few
+ * fields of a wide table, see {@link #iterator(int[])}, reads only their
+ * minipages instead of every byte of every tuple.
+ * <p>
+ * The page image is modified in place, and tuples are decoded from it each
+ * time they are read.
+ *
+ * @see PaxHeapFile
+ */
+public class PaxHeapPage implements TuplePage {
+
+	/** value of the fields a scan did not ask for, see #iterator(int[]) */
+	private static final Field UNREAD_INT = new IntField(0);
+	private static final Field UNREAD_STRING = new StringField("", Type.STRING_LEN);
+
+	private final HeapPageId pid;
+	private final TupleDesc td;
+	private final int numSlots;
+	private final int headerSize;
+	/** offset of the minipage of each field */
+	private final int[] columnOffsets;
+	/** the page image, kept up to date by inserts and deletes */
+	private final byte[] data;
+
+	private boolean isDirty;
+	private TransactionId dirtier;
+	// image of the page before a modify transaction, used for recovery; null
+	// when the current contents are the before-image
+	private byte[] oldData;
+
+	/**
+	 * Create a PaxHeapPage from its image, e.g. read from disk. data is kept
+	 * as the image of the page and modified in place, so the caller must not
+	 * use it afterwards.
+	 */
+	public PaxHeapPage(HeapPageId pid, byte[] data) throws IOException {
+		this.pid = pid;
+		this.td = Database.getCatalog().getTupleDesc(pid.getTableId());
+		if (data.length != BufferPool.getPageSize()) {
+			throw new IOException("page of " + data.length + " bytes, not " + BufferPool.getPageSize());
+		}
+		this.data = data;
+		// as many slots as a HeapPage, see HeapPage#getNumTuples
+		this.numSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+		this.headerSize = (numSlots + 7) / 8;
+		this.columnOffsets = new int[td.numFields()];
+		int offset = headerSize;
+		for (int j = 0; j < td.numFields(); j++) {
+			columnOffsets[j] = offset;
+			offset += numSlots * td.getFieldType(j).getLen();
+		}
+	}
+
+	/**
+	 * Create a PaxHeapPage from the bytes between the position and the limit
+	 * of data, e.g. a slice of a mapped file. The bytes are copied: the page
+	 * is modified in place.
+	 */
+	public PaxHeapPage(HeapPageId pid, ByteBuffer data) throws IOException {
+		this(pid, copyOf(data));
+	}
+
+	private static byte[] copyOf(ByteBuffer data) {
+		byte[] copy = new byte[data.remaining()];
+		data.duplicate().get(copy);
+		return copy;
+	}
+
+	/** @return the image of an empty page */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()];
+	}
+
+	public HeapPageId getId() {
+		return pid;
+	}
+
+	/** @return the number of slots of this page, used or not */
+	public int getNumSlots() {
+		return numSlots;
+	}
+
+	public boolean isSlotUsed(int i) {
+		return i >= 0 && i < numSlots && (data[i / 8] & (1 << (i % 8))) != 0;
+	}
+
+	private void markSlotUsed(int i, boolean used) {
+		if (used) {
+			data[i / 8] |= (byte) (1 << (i % 8));
+		} else {
+			data[i / 8] &= (byte) ~(1 << (i % 8));
+		}
+	}
+
+	/** @return the number of empty slots on this page */
+	public int getNumEmptySlots() {
+		int empty = 0;
+		for (int i = 0; i < numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				empty++;
+			}
+		}
+		return empty;
+	}
+
+	public int getFreeSpace() {
+		return getNumEmptySlots() * td.getSize();
+	}
+
+	public boolean hasRoomFor(Tuple t) {
+		return !isFull();
+	}
+
+	public boolean isFull() {
+		for (int i = 0; i < headerSize; i++) {
+			int bits = i == headerSize - 1 && numSlots % 8 != 0 ? (1 << (numSlots % 8)) - 1 : 0xFF;
+			if ((data[i] & bits) != bits) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void insertTuple(Tuple t) throws DbException {
+		if (!td.equals(t.getTupleDesc())) {
+			throw new DbException("tupleDsec is not matched");
+		}
+		int slot = 0;
+		while (slot < numSlots && isSlotUsed(slot)) {
+			slot++;
+		}
+		if (slot == numSlots) {
+			throw new DbException("this page is full");
+		}
+		for (int j = 0; j < td.numFields(); j++) {
+			int len = td.getFieldType(j).getLen();
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+			try {
+				t.getField(j).serialize(new DataOutputStream(baos));
+			} catch (IOException e) {
+				throw new DbException("can't serialize field " + j + ": " + e);
+			}
+			System.arraycopy(baos.toByteArray(), 0, data, columnOffsets[j] + slot * len, len);
+		}
+		markSlotUsed(slot, true);
+		t.setRecordId(new RecordId(pid, slot));
+
+		if (isFull()) {
+			Database.getCatalog().getDbFile(pid.getTableId())
+				.setNotFullPagesList(pid.pageNumber(), true);
+		}
+	}
+
+	public void deleteTuple(Tuple t) throws DbException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || !pid.equals(rid.getPageId())) {
+			throw new DbException("requested tuple is not on the page");
+		}
+		if (!isSlotUsed(rid.getTupleNo())) {
+			throw new DbException("tuple slot is already empty");
+		}
+		markSlotUsed(rid.getTupleNo(), false);
+		Database.getCatalog().getDbFile(pid.getTableId())
+			.setNotFullPagesList(pid.pageNumber(), false);
+	}
+
+	private Field readField(int slot, int j) {
+		Type type = td.getFieldType(j);
+		try {
+			return type.parse(data, columnOffsets[j] + slot * type.getLen());
+		} catch (ParseException e) {
+			throw new IllegalStateException("corrupt field " + j + " of slot " + slot + " on " + pid, e);
+		}
+	}
+
+	/** @return the tuple in slot, with the fields in columns read, and the others unread */
+	private Tuple readTuple(int slot, int[] columns) {
+		Tuple t = new Tuple(td);
+		t.setRecordId(new RecordId(pid, slot));
+		if (columns == null) {
+			for (int j = 0; j < td.numFields(); j++) {
+				t.setField(j, readField(slot, j));
+			}
+			return t;
+		}
+		for (int j = 0; j < td.numFields(); j++) {
+			t.setField(j, td.getFieldType(j) == Type.INT_TYPE ? UNREAD_INT : UNREAD_STRING);
+		}
+		for (int j : columns) {
+			t.setField(j, readField(slot, j));
+		}
+		return t;
+	}
+
+	public Iterator<Tuple> iterator() {
+		return iterator(null);
+	}
+
+	/**
+	 * Iterate over the tuples of this page reading only the fields in
+	 * columns; the other fields hold 0 or the empty string.
+	 * @param columns the indexes of the fields to read, null for all of them
+	 */
+	public Iterator<Tuple> iterator(int[] columns) {
+		return new Iterator<Tuple>() {
+			private int slot = nextUsed(0);
+
+			private int nextUsed(int from) {
+				while (from < numSlots && !isSlotUsed(from)) {
+					from++;
+				}
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return slot < numSlots;
+			}
+
+			@Override
+			public Tuple next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Tuple t = readTuple(slot, columns);
+				slot = nextUsed(slot + 1);
+				return t;
+			}
+		};
+	}
+
+	public byte[] getPageData() {
+		return data.clone();
+	}
+
+	public PaxHeapPage getBeforeImage() {
+		try {
+			byte[] before = oldData;
+			return new PaxHeapPage(pid, before != null ? before.clone() : getPageData());
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public void setBeforeImage() {
+		oldData = null;
+	}
+
+	public void captureBeforeImage() {
+		if (oldData == null) {
+			oldData = getPageData();
+		}
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		dirtier = tid;
+		isDirty = dirty;
+	}
+
+	public boolean isDirty() {
+		return isDirty;
+	}
+
+	public TransactionId getDirtier() {
+		return isDirty ? dirtier : null;
+	}
+
+	// return a string with first {numTuples} tuples in this page
+	public String toString(int numTuples) {
+		StringBuilder sb = new StringBuilder();
+		Iterator<Tuple> it = iterator();
+		for (int i = 0; i < numTuples && it.hasNext(); i++) {
+			sb.append(it.next());
+		}
+		return sb.toString();
+	}
+
+	public String toString() {
+		return toString(numSlots);
+	}
+}
@@ -0,0 +1,512 @@
+package deerBase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.FieldInfo;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+
+/**
+ * PlanCompiler turns the predicates of Filter and Join and the field list of
+ * Project into classes generated at run time with javassist, specialized for
+ * the types and offsets of the fields they read: an int field of a tuple
+ * read from a page is compared where it lies in the page, and projected
+ * fields are copied byte for byte, with no Field made and no switch on the
+ * operator. The classes are cached by plan shape, so plans that differ only
+ * in their constants share one; the constants are given to the constructor.
+ * A shape that can't be compiled is interpreted as before, by Predicate,
+ * JoinPredicate or a plain projection.
+ *
+ * The generated classes are defined in this package, so they can read the
+ * buffer of a tuple view; see {@link Tuple#viewData()}.
+ */
+public class PlanCompiler {
+
+	private final static int PlanCompilerDebugLevel = Debug.CLOSE;
+
+	/** A predicate over one tuple; Predicate interprets one */
+	public interface TupleFilter {
+		boolean filter(Tuple t);
+	}
+
+	/** A predicate over a pair of tuples; JoinPredicate interprets one */
+	public interface JoinFilter {
+		boolean filter(Tuple t1, Tuple t2);
+	}
+
+	/** Makes the tuple a projection returns for a tuple of its child */
+	public interface Projector {
+		Tuple project(Tuple t);
+	}
+
+	private static volatile boolean enabled = true;
+	/** the constructor of the class generated for each shape, empty if it can't be compiled */
+	private static final ConcurrentHashMap<String, Optional<Constructor<?>>> classes =
+			new ConcurrentHashMap<String, Optional<Constructor<?>>>();
+	private static final AtomicInteger numClasses = new AtomicInteger();
+
+	private static final String TUPLE = "deerBase.Tuple";
+	private static final String TUPLE_DESC = "LdeerBase/TupleDesc;";
+	private static final String CTOR_DESC = "([I[Ljava/lang/String;" + TUPLE_DESC + ")V";
+
+	/**
+	 * Turn compilation on or off; while it is off, compile returns the
+	 * interpreted form. Classes already generated are kept.
+	 */
+	public static void setEnabled(boolean on) {
+		enabled = on;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/** @return the number of plan shapes compiled so far, including any that failed */
+	public static int getNumClasses() {
+		return numClasses.get();
+	}
+
+	/**
+	 * @param td the TupleDesc of the tuples to filter
+	 * @param preds the predicates a tuple must all pass
+	 * @return a filter for the conjunction of preds
+	 */
+	public static TupleFilter compile(TupleDesc td, Predicate... preds) {
+		TupleFilter interpreted = (preds.length == 1) ? preds[0] : t -> {
+			for (Predicate p : preds) {
+				if (!p.filter(t)) {
+					return false;
+				}
+			}
+			return true;
+		};
+		if (!enabled) {
+			return interpreted;
+		}
+		StringBuilder shape = new StringBuilder("filter");
+		List<Integer> ints = new ArrayList<Integer>();
+		List<String> strs = new ArrayList<String>();
+		for (Predicate p : preds) {
+			int f = p.getNumFields();
+			Type type = td.getFieldType(f);
+			if (type == Type.INT_TYPE && p.getOperand() instanceof IntField) {
+				ints.add(((IntField) p.getOperand()).getValue());
+			} else if (type == Type.STRING_TYPE && p.getOperand() instanceof StringField) {
+				strs.add(((StringField) p.getOperand()).getValue());
+			} else {
+				return interpreted;
+			}
+			shape.append(' ').append(type.name()).append(f).append('@')
+					.append(td.getOffset(f)).append(p.getOp().name());
+		}
+		Object compiled = instantiate(shape.toString(), name -> filterClass(name, td, preds),
+				ints.stream().mapToInt(Integer::intValue).toArray(), strs.toArray(new String[0]), td);
+		return (compiled == null) ? interpreted : (TupleFilter) compiled;
+	}
+
+	/**
+	 * @param td1 the TupleDesc of the left tuples
+	 * @param td2 the TupleDesc of the right tuples
+	 * @return a filter for p
+	 */
+	public static JoinFilter compile(TupleDesc td1, TupleDesc td2, JoinPredicate p) {
+		int f1 = p.getFieldIdx1();
+		int f2 = p.getFieldIdx2();
+		Type type = td1.getFieldType(f1);
+		if (!enabled || td2.getFieldType(f2) != type) {
+			return p;
+		}
+		String shape = "join " + type.name() + f1 + "@" + td1.getOffset(f1) + p.getOperator().name()
+				+ f2 + "@" + td2.getOffset(f2);
+		Object compiled = instantiate(shape, name -> joinClass(name, td1, td2, p),
+				new int[0], new String[0], null);
+		return (compiled == null) ? p : (JoinFilter) compiled;
+	}
+
+	/**
+	 * @param in the TupleDesc of the tuples to project
+	 * @param out the TupleDesc of the projected tuples
+	 * @param fields the index in in of each field of out
+	 * @return a projection of the fields, which keeps the RecordId
+	 */
+	public static Projector compile(TupleDesc in, TupleDesc out, int[] fields) {
+		Projector interpreted = t -> {
+			Tuple r = new Tuple(out);
+			for (int i = 0; i < fields.length; i++) {
+				r.setField(i, t.getField(fields[i]));
+			}
+			r.setRecordId(t.getRecordId());
+			return r;
+		};
+		if (!enabled) {
+			return interpreted;
+		}
+		StringBuilder shape = new StringBuilder("project");
+		for (int i = 0; i < fields.length; i++) {
+			if (in.getFieldType(fields[i]) != out.getFieldType(i)) {
+				return interpreted;
+			}
+			shape.append(' ').append(fields[i]).append('@').append(in.getOffset(fields[i]))
+					.append(':').append(out.getFieldType(i).getLen());
+		}
+		Object compiled = instantiate(shape.toString(), name -> projectClass(name, in, out, fields),
+				new int[0], new String[0], out);
+		return (compiled == null) ? interpreted : (Projector) compiled;
+	}
+
+	/** @return an instance of the class of shape, generated on first use, or null if it can't be */
+	private static Object instantiate(String shape, Function<String, byte[]> generate,
+			int[] ints, String[] strs, TupleDesc td) {
+		Optional<Constructor<?>> ctor = classes.computeIfAbsent(shape, s -> define(s, generate));
+		if (!ctor.isPresent()) {
+			return null;
+		}
+		try {
+			return ctor.get().newInstance(ints, strs, td);
+		} catch (ReflectiveOperationException e) {
+			Debug.log(PlanCompilerDebugLevel, "can't instantiate %s: %s", shape, e);
+			return null;
+		}
+	}
+
+	private static Optional<Constructor<?>> define(String shape, Function<String, byte[]> generate) {
+		String name = "deerBase.CompiledPlan" + numClasses.incrementAndGet();
+		try {
+			Class<?> c = MethodHandles.lookup().defineClass(generate.apply(name));
+			// verify it now, so bad code is interpreted rather than failing a query
+			Class.forName(name, true, c.getClassLoader());
+			Debug.log(PlanCompilerDebugLevel, "compiled %s as %s", shape, name);
+			return Optional.of(c.getConstructor(int[].class, String[].class, TupleDesc.class));
+		} catch (RuntimeException | ReflectiveOperationException | LinkageError e) {
+			Debug.log(PlanCompilerDebugLevel, "can't compile %s, interpreting it: %s", shape, e);
+			return Optional.empty();
+		}
+	}
+
+	private static byte[] filterClass(String name, TupleDesc td, Predicate[] preds) {
+		int numInts = 0;
+		int numStrs = 0;
+		for (Predicate p : preds) {
+			if (td.getFieldType(p.getNumFields()) == Type.INT_TYPE) {
+				numInts++;
+			} else {
+				numStrs++;
+			}
+		}
+		Gen gen = new Gen(name, TupleFilter.class, numInts, numStrs);
+		// locals: this, t, the view buffer of t and its offset
+		Bytecode code = gen.code(4);
+		gen.loadView(code, 1, 2, 3);
+		List<Integer> fail = new ArrayList<Integer>();
+		int nextInt = 0;
+		int nextStr = 0;
+		for (Predicate p : preds) {
+			int f = p.getNumFields();
+			if (td.getFieldType(f) == Type.INT_TYPE) {
+				gen.loadInt(code, 1, 2, 3, f, td.getOffset(f));
+				code.addAload(0);
+				code.addGetfield(name, "c" + nextInt++, "I");
+				fail.add(branch(code, intFails(p.getOp())));
+			} else {
+				gen.loadString(code, 1, f);
+				code.addAload(0);
+				code.addGetfield(name, "s" + nextStr++, "Ljava/lang/String;");
+				fail.add(stringFails(code, p.getOp()));
+			}
+		}
+		returnBoolean(code, fail);
+		gen.addMethod("filter", "(LdeerBase/Tuple;)Z", code);
+		return gen.toBytes();
+	}
+
+	private static byte[] joinClass(String name, TupleDesc td1, TupleDesc td2, JoinPredicate p) {
+		int f1 = p.getFieldIdx1();
+		int f2 = p.getFieldIdx2();
+		Gen gen = new Gen(name, JoinFilter.class, 0, 0);
+		// locals: this, t1, t2, then the view buffer and offset of each
+		Bytecode code = gen.code(7);
+		gen.loadView(code, 1, 3, 4);
+		gen.loadView(code, 2, 5, 6);
+		List<Integer> fail = new ArrayList<Integer>();
+		if (td1.getFieldType(f1) == Type.INT_TYPE) {
+			gen.loadInt(code, 1, 3, 4, f1, td1.getOffset(f1));
+			gen.loadInt(code, 2, 5, 6, f2, td2.getOffset(f2));
+			fail.add(branch(code, intFails(p.getOperator())));
+		} else {
+			gen.loadString(code, 1, f1);
+			gen.loadString(code, 2, f2);
+			fail.add(stringFails(code, p.getOperator()));
+		}
+		returnBoolean(code, fail);
+		gen.addMethod("filter", "(LdeerBase/Tuple;LdeerBase/Tuple;)Z", code);
+		return gen.toBytes();
+	}
+
+	private static byte[] projectClass(String name, TupleDesc in, TupleDesc out, int[] fields) {
+		Gen gen = new Gen(name, Projector.class, 0, 0);
+		// locals: this, t, the view buffer of t and its offset, the new buffer, the result
+		Bytecode code = gen.code(6);
+		gen.loadView(code, 1, 2, 3);
+		code.addAload(2);
+		int notView = branch(code, Opcode.IFNULL);
+
+		// a view: copy the bytes of the fields, adjacent ones at once, into a new view
+		code.addNewarray(Opcode.T_BYTE, out.getSize());
+		code.addAstore(4);
+		int i = 0;
+		while (i < fields.length) {
+			int from = in.getOffset(fields[i]);
+			int to = out.getOffset(i);
+			int len = 0;
+			do {
+				len += out.getFieldType(i).getLen();
+				i++;
+			} while (i < fields.length && in.getOffset(fields[i]) == from + len);
+			code.addAload(2);
+			code.addIload(3);
+			code.addIconst(from);
+			code.addOpcode(Opcode.IADD);
+			code.addAload(4);
+			code.addIconst(to);
+			code.addIconst(len);
+			code.addInvokestatic("java.lang.System", "arraycopy",
+					"(Ljava/lang/Object;ILjava/lang/Object;II)V");
+		}
+		code.addNew(TUPLE);
+		code.addOpcode(Opcode.DUP);
+		gen.loadTupleDesc(code);
+		code.addAload(4);
+		code.addIconst(0);
+		code.addInvokespecial(TUPLE, "<init>", "(" + TUPLE_DESC + "[BI)V");
+		code.addAstore(5);
+		int done = branch(code, Opcode.GOTO);
+
+		// otherwise set the fields one by one
+		land(code, notView);
+		code.addNew(TUPLE);
+		code.addOpcode(Opcode.DUP);
+		gen.loadTupleDesc(code);
+		code.addInvokespecial(TUPLE, "<init>", "(" + TUPLE_DESC + ")V");
+		code.addAstore(5);
+		for (int j = 0; j < fields.length; j++) {
+			code.addAload(5);
+			code.addIconst(j);
+			code.addAload(1);
+			code.addIconst(fields[j]);
+			code.addInvokevirtual(TUPLE, "getField", "(I)LdeerBase/Field;");
+			code.addInvokevirtual(TUPLE, "setField", "(ILdeerBase/Field;)V");
+		}
+
+		land(code, done);
+		code.addAload(5);
+		code.addAload(1);
+		code.addInvokevirtual(TUPLE, "getRecordId", "()LdeerBase/RecordId;");
+		code.addInvokevirtual(TUPLE, "setRecordId", "(LdeerBase/RecordId;)V");
+		code.addAload(5);
+		code.addOpcode(Opcode.ARETURN);
+		gen.addMethod("project", "(LdeerBase/Tuple;)LdeerBase/Tuple;", code);
+		return gen.toBytes();
+	}
+
+	/** @return the branch taken when two ints on the stack don't compare by op */
+	private static int intFails(Predicate.Op op) {
+		switch (op) {
+		case EQUALS:
+		case LIKE:
+			return Opcode.IF_ICMPNE;
+		case NOT_EQUALS:
+			return Opcode.IF_ICMPEQ;
+		case GREATER_THAN:
+			return Opcode.IF_ICMPLE;
+		case GREATER_THAN_OR_EQ:
+			return Opcode.IF_ICMPLT;
+		case LESS_THAN:
+			return Opcode.IF_ICMPGE;
+		case LESS_THAN_OR_EQ:
+			return Opcode.IF_ICMPGT;
+		}
+		throw new IllegalArgumentException("unknown op " + op);
+	}
+
+	/**
+	 * Compare the two strings on the stack as StringField#compare does.
+	 * @return the branch to patch, taken when they don't compare by op
+	 */
+	private static int stringFails(Bytecode code, Predicate.Op op) {
+		switch (op) {
+		case EQUALS:
+			code.addInvokevirtual("java.lang.String", "equals", "(Ljava/lang/Object;)Z");
+			return branch(code, Opcode.IFEQ);
+		case NOT_EQUALS:
+			code.addInvokevirtual("java.lang.String", "equals", "(Ljava/lang/Object;)Z");
+			return branch(code, Opcode.IFNE);
+		case LIKE:
+			code.addInvokevirtual("java.lang.String", "indexOf", "(Ljava/lang/String;)I");
+			return branch(code, Opcode.IFLT);
+		default:
+			code.addInvokevirtual("java.lang.String", "compareTo", "(Ljava/lang/String;)I");
+			switch (op) {
+			case GREATER_THAN:
+				return branch(code, Opcode.IFLE);
+			case GREATER_THAN_OR_EQ:
+				return branch(code, Opcode.IFLT);
+			case LESS_THAN:
+				return branch(code, Opcode.IFGE);
+			default:
+				return branch(code, Opcode.IFGT);
+			}
+		}
+	}
+
+	/** return true, or false from each of the branches in fail */
+	private static void returnBoolean(Bytecode code, List<Integer> fail) {
+		code.addIconst(1);
+		code.addOpcode(Opcode.IRETURN);
+		for (int at : fail) {
+			land(code, at);
+		}
+		code.addIconst(0);
+		code.addOpcode(Opcode.IRETURN);
+	}
+
+	/** @return the position of the offset of a new branch, to patch with land */
+	private static int branch(Bytecode code, int opcode) {
+		code.addOpcode(opcode);
+		int at = code.currentPc();
+		code.addIndex(0);
+		return at;
+	}
+
+	/** make the branch whose offset is at jump to the next instruction */
+	private static void land(Bytecode code, int at) {
+		code.write16bit(at, code.currentPc() - (at - 1));
+	}
+
+	/**
+	 * A class being generated: public, implementing one of the interfaces
+	 * above, with a constructor (int[], String[], TupleDesc) that keeps the
+	 * constants in fields c0.., s0.. and td.
+	 */
+	private static class Gen {
+		private final String name;
+		private final ClassFile cf;
+		private final ConstPool cp;
+
+		Gen(String name, Class<?> iface, int numInts, int numStrs) {
+			this.name = name;
+			this.cf = new ClassFile(false, name, "java.lang.Object");
+			// no stack maps to write for this version
+			cf.setMajorVersion(ClassFile.JAVA_5);
+			cf.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.FINAL | AccessFlag.SUPER);
+			cf.setInterfaces(new String[] { iface.getName() });
+			this.cp = cf.getConstPool();
+
+			Bytecode code = code(4);
+			code.addAload(0);
+			code.addInvokespecial("java.lang.Object", "<init>", "()V");
+			for (int i = 0; i < numInts; i++) {
+				addField("c" + i, "I");
+				code.addAload(0);
+				code.addAload(1);
+				code.addIconst(i);
+				code.addOpcode(Opcode.IALOAD);
+				code.addPutfield(name, "c" + i, "I");
+			}
+			for (int i = 0; i < numStrs; i++) {
+				addField("s" + i, "Ljava/lang/String;");
+				code.addAload(0);
+				code.addAload(2);
+				code.addIconst(i);
+				code.addOpcode(Opcode.AALOAD);
+				code.addPutfield(name, "s" + i, "Ljava/lang/String;");
+			}
+			addField("td", TUPLE_DESC);
+			code.addAload(0);
+			code.addAload(3);
+			code.addPutfield(name, "td", TUPLE_DESC);
+			code.addOpcode(Opcode.RETURN);
+			addMethod("<init>", CTOR_DESC, code);
+		}
+
+		private void addField(String field, String desc) {
+			FieldInfo fi = new FieldInfo(cp, field, desc);
+			fi.setAccessFlags(AccessFlag.PRIVATE | AccessFlag.FINAL);
+			cf.addField2(fi);
+		}
+
+		Bytecode code(int maxLocals) {
+			return new Bytecode(cp, 0, maxLocals);
+		}
+
+		void addMethod(String method, String desc, Bytecode code) {
+			MethodInfo mi = new MethodInfo(cp, method, desc);
+			mi.setAccessFlags(AccessFlag.PUBLIC);
+			mi.setCodeAttribute(code.toCodeAttribute());
+			cf.addMethod2(mi);
+		}
+
+		/** store the view buffer of the tuple in local t into local d, and its offset into o */
+		void loadView(Bytecode code, int t, int d, int o) {
+			code.addAload(t);
+			code.addInvokevirtual(TUPLE, "viewData", "()[B");
+			code.addAstore(d);
+			code.addAload(t);
+			code.addInvokevirtual(TUPLE, "viewOffset", "()I");
+			code.addIstore(o);
+		}
+
+		/** push the int field f of the tuple in local t, read at offset in its view buffer if it has one */
+		void loadInt(Bytecode code, int t, int d, int o, int f, int offset) {
+			code.addAload(d);
+			int field = branch(code, Opcode.IFNULL);
+			code.addAload(d);
+			code.addIload(o);
+			code.addIconst(offset);
+			code.addOpcode(Opcode.IADD);
+			code.addInvokestatic("deerBase.Type", "readInt", "([BI)I");
+			int done = branch(code, Opcode.GOTO);
+			code.growStack(-1);
+			land(code, field);
+			code.addAload(t);
+			code.addIconst(f);
+			code.addInvokevirtual(TUPLE, "getInt", "(I)I");
+			land(code, done);
+		}
+
+		/** push the string field f of the tuple in local t */
+		void loadString(Bytecode code, int t, int f) {
+			code.addAload(t);
+			code.addIconst(f);
+			code.addInvokevirtual(TUPLE, "getString", "(I)Ljava/lang/String;");
+		}
+
+		void loadTupleDesc(Bytecode code) {
+			code.addAload(0);
+			code.addGetfield(name, "td", TUPLE_DESC);
+		}
+
+		byte[] toBytes() {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream dos = new DataOutputStream(bytes)) {
+				cf.write(dos);
+			} catch (IOException e) {
+				throw new IllegalStateException("can't write " + name, e);
+			}
+			return bytes.toByteArray();
+		}
+	}
+}
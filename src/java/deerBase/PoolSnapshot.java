@@ -0,0 +1,174 @@
+package deerBase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * PoolSnapshot saves the ids of the pages resident in a BufferPool, hottest
+ * first, so that the next BufferPool can be warmed up before queries arrive
+ * instead of refilling page by page.
+ * <p>
+ * A snapshot only holds page ids, never page contents: on load, the pages are
+ * read from their files grouped by file with {@link DbFile#readPages}, so
+ * runs of adjacent pages are read with a single large read. Pages of dropped
+ * tables or beyond the end of a file are skipped.
+ *
+ * @see BufferPool#saveSnapshot(File)
+ * @see BufferPool#loadSnapshot(File)
+ */
+public class PoolSnapshot {
+
+	private final static int PoolSnapshotDebugLevel = Debug.CLOSE;
+
+	private static final int MAGIC = 0x44425053;
+
+	/**
+	 * Write the page ids to file, replacing it atomically so that a crash
+	 * while writing leaves the previous snapshot intact.
+	 */
+	public static void write(File file, List<PageId> pids) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(pids.size());
+			for (PageId pid : pids) {
+				int[] data = pid.serialize();
+				out.writeUTF(pid.getClass().getName());
+				out.writeByte(data.length);
+				for (int i : data) {
+					out.writeInt(i);
+				}
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the page ids saved in file, in the order they were written
+	 * @throws IOException if file is not a snapshot
+	 */
+	public static List<PageId> read(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a buffer pool snapshot");
+			}
+			int n = in.readInt();
+			List<PageId> pids = new ArrayList<>(n);
+			Map<String, Constructor<?>> constructors = new HashMap<>();
+			for (int i = 0; i < n; i++) {
+				String className = in.readUTF();
+				Object[] args = new Object[in.readByte()];
+				for (int j = 0; j < args.length; j++) {
+					args[j] = in.readInt();
+				}
+				Constructor<?> constructor = constructors.get(className);
+				if (constructor == null) {
+					constructor = idConstructor(className, args.length);
+					constructors.put(className, constructor);
+				}
+				try {
+					pids.add((PageId) constructor.newInstance(args));
+				} catch (ReflectiveOperationException e) {
+					throw new IOException("cannot create " + className, e);
+				}
+			}
+			return pids;
+		}
+	}
+
+	/** a PageId has a constructor taking the ints returned by serialize() */
+	private static Constructor<?> idConstructor(String className, int numArgs) throws IOException {
+		try {
+			for (Constructor<?> constructor : Class.forName(className).getDeclaredConstructors()) {
+				Class<?>[] params = constructor.getParameterTypes();
+				boolean allInts = params.length == numArgs;
+				for (int i = 0; allInts && i < params.length; i++) {
+					allInts = params[i] == int.class;
+				}
+				if (allInts) {
+					constructor.setAccessible(true);
+					return constructor;
+				}
+			}
+		} catch (ClassNotFoundException e) {
+			throw new IOException("unknown page id class " + className, e);
+		}
+		throw new IOException(className + " has no constructor taking " + numArgs + " ints");
+	}
+
+	/**
+	 * Read pages from their files, grouped by file and sorted by offset, and
+	 * hand each one to install.
+	 *
+	 * @param install takes a page read, returns false to stop loading, e.g.
+	 *        because the buffer pool is full
+	 * @return the number of pages read
+	 */
+	static int load(List<PageId> pids, Predicate<Page> install) {
+		Map<Integer, List<PageId>> byTable = new HashMap<>();
+		for (PageId pid : pids) {
+			byTable.computeIfAbsent(pid.getTableId(), id -> new ArrayList<>()).add(pid);
+		}
+		int loaded = 0;
+		for (Map.Entry<Integer, List<PageId>> table : byTable.entrySet()) {
+			DbFile dbFile;
+			try {
+				dbFile = Database.getCatalog().getDbFile(table.getKey());
+			} catch (NoSuchElementException e) {
+				Debug.log(PoolSnapshotDebugLevel, "table %d was dropped, skip its pages", table.getKey());
+				continue;
+			}
+			List<PageId> tablePids = table.getValue();
+			try {
+				int n = loadFile(dbFile, tablePids, install);
+				if (n < 0) {
+					return loaded - n - 1;
+				}
+				loaded += n;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return loaded;
+	}
+
+	/** @return pages read, or -(read + 1) if install asked to stop */
+	private static int loadFile(DbFile dbFile, List<PageId> pids, Predicate<Page> install)
+			throws IOException {
+		// beyond the end of the file, it shrank since the snapshot
+		long fileLength = dbFile.getLength();
+		List<PageId> inFile = new ArrayList<>(pids.size());
+		for (PageId pid : pids) {
+			if (dbFile.getPageOffset(pid) + dbFile.getPageLength(pid) <= fileLength) {
+				inFile.add(pid);
+			}
+		}
+		Debug.log(PoolSnapshotDebugLevel, "read %d pages of table %d", inFile.size(), dbFile.getTableId());
+		int loaded = 0;
+		for (Page page : dbFile.readPages(inFile)) {
+			if (!install.test(page)) {
+				return -(loaded + 1);
+			}
+			loaded++;
+		}
+		return loaded;
+	}
+}
@@ -7,7 +7,7 @@ import java.io.Serializable;
  * 
  * A predicate is like 'tuple.getField(fieldIdx) Predicate.Op operand'
  */
-public class Predicate implements Serializable {
+public class Predicate implements Serializable, PlanCompiler.TupleFilter {
 
     private static final long serialVersionUID = 1L;
     
@@ -108,6 +108,10 @@ public class Predicate implements Serializable {
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
+    	if (operand instanceof IntField) {
+    		// read the int in place, no Field for tuples read from pages
+    		return IntField.compare(t.getInt(fieldIdx), op, ((IntField) operand).getValue());
+    	}
     	return t.getField(fieldIdx).compare(op, operand);
     }
 
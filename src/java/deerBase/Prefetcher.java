@@ -0,0 +1,283 @@
+package deerBase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prefetcher reads pages ahead of a sequential scan on a small pool of I/O
+ * threads. A read in flight is "staged": getPage on a miss waits for the
+ * staged read instead of issuing its own, and a finished read is installed
+ * into the BufferPool before the scan asks for it.
+ * <p>
+ * Reads are issued without page locks, so a staged image may be stale.
+ * The BufferPool invalidates the staged entry of a page whenever it writes
+ * the page back or discards it; an invalidated read is dropped when it
+ * completes. Installing happens under the BufferPool monitor, which also
+ * guards discardPage, so a rolled back page is never re-installed.
+ * <p>
+ * Configure with -DdeerBase.PrefetchThreads=n (default 2) and
+ * -DdeerBase.PrefetchDistance=pages (default 8, 0 turns read-ahead off).
+ */
+public class Prefetcher {
+
+	private final static int PrefetcherDebugLevel = Debug.CLOSE;
+
+	public static final int DEFAULT_THREADS = 2;
+	public static final int DEFAULT_DISTANCE = 8;
+
+	private static int distance = intProperty("deerBase.PrefetchDistance", DEFAULT_DISTANCE);
+
+	private final BufferPool bufferPool;
+	private final int maxStaged;
+	private final ExecutorService ioThreads;
+	private final ConcurrentHashMap<PageId, StagedRead> staged = new ConcurrentHashMap<>();
+
+	private final LongAdder issued = new LongAdder();
+	private final LongAdder used = new LongAdder();
+	private final LongAdder installed = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	private static int intProperty(String name, int defaultValue) {
+		String value = System.getProperty(name);
+		return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+	}
+
+	/** @return the number of pages a scan reads ahead, 0 if read-ahead is off */
+	public static int getDistance() {
+		return distance;
+	}
+
+	public static void setDistance(int pages) {
+		Prefetcher.distance = pages;
+	}
+
+	// Only used for testing
+	public static void resetDistance() {
+		Prefetcher.distance = intProperty("deerBase.PrefetchDistance", DEFAULT_DISTANCE);
+	}
+
+	Prefetcher(BufferPool bufferPool, int numPages) {
+		this.bufferPool = bufferPool;
+		this.maxStaged = Math.max(1, numPages / 4);
+		this.ioThreads = Executors.newFixedThreadPool(
+				intProperty("deerBase.PrefetchThreads", DEFAULT_THREADS), r -> {
+					Thread t = new Thread(r, "Prefetcher");
+					t.setDaemon(true);
+					return t;
+				});
+	}
+
+	/** A read of one page issued by the prefetcher */
+	private class StagedRead extends FutureTask<Page> {
+		final PageId pid;
+		final boolean install;
+
+		StagedRead(PageId pid, boolean install, int siblings, IndexPredicate bound) {
+			super(() -> {
+				Page page = bufferPool.readPage(Database.getCatalog().getDbFile(pid.getTableId()), pid);
+				// follow the leaf chain of a B+ tree range scan, up to its last leaf
+				if (siblings > 0 && page instanceof BTreeLeafPage
+						&& ((BTreeLeafPage) page).scanContinuesRight(bound)) {
+					BTreePageId right = ((BTreeLeafPage) page).getRightSiblingId();
+					if (right != null) {
+						prefetch(right, install, siblings - 1, bound);
+					}
+				}
+				return page;
+			});
+			this.pid = pid;
+			this.install = install;
+		}
+
+		/** A read of pid that is part of a batch, completed by readBatch and never run */
+		StagedRead(PageId pid, boolean install) {
+			super(() -> null);
+			this.pid = pid;
+			this.install = install;
+		}
+
+		void complete(Page page) {
+			set(page);
+		}
+
+		void fail(Throwable t) {
+			setException(t);
+		}
+
+		@Override
+		protected void done() {
+			if (!install || isCancelled()) {
+				return;
+			}
+			try {
+				Page page = get();
+				synchronized (bufferPool) {
+					if (staged.remove(pid, this) && bufferPool.installPrefetched(page)) {
+						installed.increment();
+					}
+				}
+			} catch (InterruptedException | ExecutionException | DbException e) {
+				staged.remove(pid, this);
+				dropped.increment();
+				Debug.log(PrefetcherDebugLevel, "prefetch of %s failed: %s", pid, e);
+			}
+		}
+	}
+
+	/**
+	 * Read pid in the background unless it is resident or staged already.
+	 *
+	 * @param install true to install the page into the BufferPool when read,
+	 *        false to keep it staged for a scan with a private ScanRing
+	 * @param siblings for a B+ tree leaf, how many right siblings to read too
+	 */
+	public void prefetch(PageId pid, boolean install, int siblings) {
+		prefetch(pid, install, siblings, null);
+	}
+
+	/**
+	 * Like {@link #prefetch(PageId, boolean, int)}, but stop following the
+	 * right siblings of a B+ tree leaf where a scan with predicate bound ends.
+	 */
+	public void prefetch(PageId pid, boolean install, int siblings, IndexPredicate bound) {
+		if (bufferPool.isResident(pid) || staged.containsKey(pid) || staged.size() >= maxStaged) {
+			return;
+		}
+		StagedRead read = new StagedRead(pid, install, siblings, bound);
+		if (staged.putIfAbsent(pid, read) == null) {
+			issued.increment();
+			try {
+				ioThreads.execute(read);
+			} catch (RuntimeException e) {
+				// shut down
+				staged.remove(pid, read);
+			}
+		}
+	}
+
+	/**
+	 * Read pages of one file in the background, with one readPages call so
+	 * that adjacent pages are read together; pages resident or staged already
+	 * are skipped.
+	 *
+	 * @param install true to install the pages into the BufferPool when read,
+	 *        false to keep them staged for a scan with a private ScanRing
+	 */
+	public void prefetch(List<PageId> pids, boolean install) {
+		List<StagedRead> batch = new ArrayList<>();
+		for (PageId pid : pids) {
+			if (bufferPool.isResident(pid) || staged.containsKey(pid) || staged.size() >= maxStaged) {
+				continue;
+			}
+			StagedRead read = new StagedRead(pid, install);
+			if (staged.putIfAbsent(pid, read) == null) {
+				issued.increment();
+				batch.add(read);
+			}
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			ioThreads.execute(() -> readBatch(batch));
+		} catch (RuntimeException e) {
+			// shut down
+			for (StagedRead read : batch) {
+				staged.remove(read.pid, read);
+			}
+		}
+	}
+
+	private void readBatch(List<StagedRead> batch) {
+		List<StagedRead> live = new ArrayList<>(batch.size());
+		List<PageId> pids = new ArrayList<>(batch.size());
+		for (StagedRead read : batch) {
+			// invalidated while queued
+			if (!read.isDone()) {
+				live.add(read);
+				pids.add(read.pid);
+			}
+		}
+		if (pids.isEmpty()) {
+			return;
+		}
+		try {
+			List<Page> pages = bufferPool.readPages(Database.getCatalog().getDbFile(pids.get(0).getTableId()), pids);
+			for (int i = 0; i < live.size(); i++) {
+				live.get(i).complete(pages.get(i));
+			}
+		} catch (Exception e) {
+			for (StagedRead read : live) {
+				read.fail(e);
+			}
+		}
+	}
+
+	/**
+	 * Take the staged read of pid, waiting for it if it is still in flight.
+	 * Called on a getPage miss, with the page lock held.
+	 *
+	 * @return the page, or null if pid was not staged or its read failed
+	 */
+	public Page take(PageId pid) {
+		StagedRead read = staged.remove(pid);
+		if (read == null) {
+			return null;
+		}
+		try {
+			Page page = read.get();
+			used.increment();
+			return page;
+		} catch (InterruptedException | ExecutionException e) {
+			dropped.increment();
+			return null;
+		}
+	}
+
+	/** Forget the staged read of pid, e.g. because the page was written */
+	public void invalidate(PageId pid) {
+		StagedRead read = staged.remove(pid);
+		if (read != null) {
+			read.cancel(false);
+			dropped.increment();
+		}
+	}
+
+	/**
+	 * Stop accepting reads; reads in flight finish but are not installed.
+	 * The I/O threads are not interrupted, an interrupt closes FileChannels.
+	 */
+	public void shutdown() {
+		ioThreads.shutdown();
+		staged.clear();
+	}
+
+	public int getNumStaged() {
+		return staged.size();
+	}
+
+	public long getIssued() {
+		return issued.sum();
+	}
+
+	/** @return staged reads consumed by a getPage miss */
+	public long getUsed() {
+		return used.sum();
+	}
+
+	/** @return reads installed into the BufferPool by the I/O threads */
+	public long getInstalled() {
+		return installed.sum();
+	}
+
+	/** @return staged reads invalidated, cancelled or failed */
+	public long getDropped() {
+		return dropped.sum();
+	}
+}
@@ -12,6 +12,7 @@ public class Project extends Operator {
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private transient PlanCompiler.Projector projector;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -40,6 +41,15 @@ public class Project extends Operator {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
         }
         td = new TupleDesc(types, fieldAr);
+
+        // a scan right below reads only the projected fields
+        if (child instanceof SeqScan) {
+            int[] columns = new int[fieldList.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = fieldList.get(i);
+            }
+            ((SeqScan) child).setColumns(columns);
+        }
     }
 
     public TupleDesc getTupleDesc() {
@@ -49,6 +59,11 @@ public class Project extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException, IOException {
         child.open();
+        int[] fields = new int[outFieldIds.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = outFieldIds.get(i);
+        }
+        projector = PlanCompiler.compile(child.getTupleDesc(), td, fields);
         super.open();
     }
 
@@ -59,6 +74,7 @@ public class Project extends Operator {
 
     public void rewind() throws DbException, TransactionAbortedException, NoSuchElementException, IOException {
         child.rewind();
+        discardFetched();
     }
 
     /**
@@ -70,16 +86,27 @@ public class Project extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException, IOException {
-        while (child.hasNext()) {
-            Tuple t = child.next();
-            Tuple newTuple = new Tuple(td);
-            newTuple.setRecordId(t.getRecordId());
-            for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
-            }
-            return newTuple;
+        return fetchNextFromBatch();
+    }
+
+    /**
+     * Operator.fetchNextBatch implementation. Projects the tuples of the next
+     * batch of the child, with the projection compiled when the operator is
+     * opened, see {@link PlanCompiler}.
+     * 
+     * @return the projected tuples, or null if there are no more tuples
+     */
+    protected TupleBatch fetchNextBatch() throws NoSuchElementException,
+            TransactionAbortedException, DbException, IOException {
+        TupleBatch in = child.nextBatch();
+        if (in == null) {
+            return null;
+        }
+        TupleBatch out = new TupleBatch(td);
+        for (int j = 0; j < in.size(); j++) {
+            out.add(projector.project(in.get(j)));
         }
-        return null;
+        return out;
     }
 
     @Override
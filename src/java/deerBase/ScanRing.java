@@ -0,0 +1,64 @@
+package deerBase;
+
+import java.util.HashMap;
+
+/**
+ * ScanRing is a small private ring of frames used by a large sequential
+ * scan instead of the shared {@link PageTable}. Pages the scan reads from
+ * disk go into the ring and overwrite the oldest entry, so a scan of a table
+ * much larger than the buffer pool recycles its own few frames instead of
+ * evicting the hot pages of other queries.
+ * <p>
+ * A ring is owned by one iterator and is not thread safe. It only ever holds
+ * clean pages read under the scan's READ_ONLY locks; pages that are already
+ * resident in the buffer pool are served from there.
+ *
+ * @see BufferPool#getPageForScan
+ */
+public class ScanRing {
+
+	/** Default ring size, 256KB of 4KB pages */
+	public static final int DEFAULT_RING_PAGES = 64;
+
+	private final Page[] pages;
+	private final HashMap<PageId, Integer> slots;
+	private int next = 0;
+
+	public ScanRing(int numPages) {
+		this.pages = new Page[numPages];
+		this.slots = new HashMap<>(numPages * 4 / 3 + 1);
+	}
+
+	/** @return the page cached in the ring, or null */
+	public Page get(PageId pid) {
+		Integer slot = slots.get(pid);
+		return slot == null ? null : pages[slot];
+	}
+
+	/** Put page into the ring, replacing the oldest page if the ring is full */
+	public void add(Page page) {
+		Page old = pages[next];
+		if (old != null) {
+			slots.remove(old.getId());
+		}
+		pages[next] = page;
+		slots.put(page.getId(), next);
+		next = (next + 1) % pages.length;
+	}
+
+	public int size() {
+		return slots.size();
+	}
+
+	public int capacity() {
+		return pages.length;
+	}
+
+	public void clear() {
+		for (int i = 0; i < pages.length; i++) {
+			pages[i] = null;
+		}
+		slots.clear();
+		next = 0;
+	}
+}
@@ -76,6 +76,22 @@ public class SeqScan implements DbIterator {
     	this.tableAlias = tableAlias;
     }
 
+    /**
+     * Read only the fields in columns of each tuple; the tuples returned keep
+     * the TupleDesc of the table, with the other fields possibly holding
+     * placeholder values. Tables stored column by column, see PaxHeapFile,
+     * then decode only those fields. Takes effect at the next open.
+     *
+     * @param columns
+     *            the indexes of the fields the plan reads, null for all
+     */
+    public void setColumns(int[] columns) {
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        if (file instanceof HeapFile) {
+            this.tupleItr = ((HeapFile) file).iterator(tid, columns);
+        }
+    }
+
     // in the case without tableAlias, the tableAlias is just the tableId
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
@@ -132,6 +148,22 @@ public class SeqScan implements DbIterator {
     	return tupleItr.next();
     }
 
+    /**
+     * Fills the batch straight from the tuples of the file, without going
+     * through hasNext and next for each.
+     */
+    public TupleBatch nextBatch() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!tupleItr.hasNext()) {
+            return null;
+        }
+        TupleBatch batch = new TupleBatch(getTupleDesc());
+        do {
+            batch.add(tupleItr.next());
+        } while (!batch.isFull() && tupleItr.hasNext());
+        return batch;
+    }
+
     public void close() {
         tupleItr.close();
     }
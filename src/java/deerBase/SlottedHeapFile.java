@@ -0,0 +1,37 @@
+package deerBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are SlottedHeapPages: tuples
+ * take the length of their strings rather than STRING_LEN bytes each, so a
+ * table of short strings fits in a fraction of the pages. Use the "slotted"
+ * option of a catalog entry to create one.
+ *
+ * @see SlottedHeapPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+	private static final long serialVersionUID = 1L;
+
+	public SlottedHeapFile(File f, TupleDesc td) {
+		super(f, td);
+	}
+
+	@Override
+	protected int getSpaceNeeded(Tuple t) {
+		return SlottedHeapPage.getSpaceNeeded(t);
+	}
+
+	@Override
+	public Page createPage(PageId pid, byte[] data) throws IOException {
+		return new SlottedHeapPage((HeapPageId) pid, data);
+	}
+
+	@Override
+	public Page createPage(PageId pid, ByteBuffer data) throws IOException {
+		return new SlottedHeapPage((HeapPageId) pid, data);
+	}
+}
@@ -0,0 +1,438 @@
+package deerBase;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedHeapPage stores tuples of variable length, for tables of short
+ * strings: a string takes 2 bytes plus its characters instead of the
+ * STRING_LEN + 4 bytes of a HeapPage slot. The page is
+ * <pre>
+ *   numSlots (2 bytes) | dataStart (2 bytes) | slot directory | free space | tuples
+ * </pre>
+ * Each entry of the slot directory is the offset and the length of a tuple,
+ * as unsigned shorts, with offset 0 for an empty slot; tuples are packed from
+ * the end of the page towards the directory, and dataStart is where they
+ * begin, 0 standing for the page size. A page of zeros is an empty page, and
+ * pages are at most 64KB.
+ * <p>
+ * A tuple keeps its slot, and so its RecordId, until it is deleted. Deleting
+ * leaves a hole among the tuples; an insert that does not fit in the free
+ * space between the directory and the tuples compacts the page first.
+ * <p>
+ * The page image is modified in place, and tuples are decoded from it when
+ * first read, like HeapPage does.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedHeapPage implements TuplePage {
+
+	private static final VarHandle TUPLES = MethodHandles.arrayElementVarHandle(Tuple[].class);
+
+	/** bytes of numSlots and dataStart */
+	private static final int HEADER_SIZE = 4;
+	/** bytes of an entry of the slot directory */
+	private static final int SLOT_SIZE = 4;
+
+	private final HeapPageId pid;
+	private final TupleDesc td;
+	private final int pageSize;
+	/** the page image, kept up to date by inserts and deletes */
+	private byte[] data;
+	/** tuples decoded from data, null for a slot not decoded yet or empty */
+	private Tuple[] tuples;
+	private int numSlots;
+	/** bytes of the tuples on the page, holes not included */
+	private int usedBytes;
+
+	private boolean isDirty;
+	private TransactionId dirtier;
+	// image of the page before a modify transaction, used for recovery; null
+	// when the current contents are the before-image
+	private byte[] oldData;
+
+	/**
+	 * Create a SlottedHeapPage from its image, e.g. read from disk. data is
+	 * kept as the image of the page and modified in place, so the caller
+	 * must not use it afterwards.
+	 */
+	public SlottedHeapPage(HeapPageId pid, byte[] data) throws IOException {
+		this.pid = pid;
+		this.td = Database.getCatalog().getTupleDesc(pid.getTableId());
+		this.pageSize = data.length;
+		if (pageSize > 1 << 16) {
+			throw new IOException("slotted pages are at most 64KB, not " + pageSize);
+		}
+		this.data = data;
+		this.numSlots = getShort(0);
+		if (HEADER_SIZE + numSlots * SLOT_SIZE > getDataStart()) {
+			throw new IOException("corrupt slotted page " + pid + ": " + numSlots + " slots");
+		}
+		this.tuples = new Tuple[numSlots];
+		for (int i = 0; i < numSlots; i++) {
+			usedBytes += getSlotLength(i);
+		}
+	}
+
+	/**
+	 * Create a SlottedHeapPage from the bytes between the position and the
+	 * limit of data, e.g. a slice of a mapped file. The bytes are copied: the
+	 * page is modified in place.
+	 */
+	public SlottedHeapPage(HeapPageId pid, ByteBuffer data) throws IOException {
+		this(pid, copyOf(data));
+	}
+
+	private static byte[] copyOf(ByteBuffer data) {
+		byte[] copy = new byte[data.remaining()];
+		data.duplicate().get(copy);
+		return copy;
+	}
+
+	/** @return the image of an empty page */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()];
+	}
+
+	public HeapPageId getId() {
+		return pid;
+	}
+
+	private int getShort(int offset) {
+		return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+	}
+
+	private void putShort(int offset, int value) {
+		data[offset] = (byte) (value >>> 8);
+		data[offset + 1] = (byte) value;
+	}
+
+	private int getDataStart() {
+		int start = getShort(2);
+		return start == 0 ? pageSize : start;
+	}
+
+	private void setDataStart(int start) {
+		// the page size itself is written as 0, it does not fit in a short when 64KB
+		putShort(2, start == pageSize ? 0 : start);
+	}
+
+	private int getSlotOffset(int i) {
+		return getShort(HEADER_SIZE + i * SLOT_SIZE);
+	}
+
+	private int getSlotLength(int i) {
+		return getShort(HEADER_SIZE + i * SLOT_SIZE + 2);
+	}
+
+	private void setSlot(int i, int offset, int length) {
+		putShort(HEADER_SIZE + i * SLOT_SIZE, offset);
+		putShort(HEADER_SIZE + i * SLOT_SIZE + 2, length);
+	}
+
+	/** @return the number of entries of the slot directory, used or not */
+	public int getNumSlots() {
+		return numSlots;
+	}
+
+	public boolean isSlotUsed(int i) {
+		return i >= 0 && i < numSlots && getSlotOffset(i) != 0;
+	}
+
+	/** @return the number of tuples on this page */
+	public int getNumTuples() {
+		int n = 0;
+		for (int i = 0; i < numSlots; i++) {
+			if (getSlotOffset(i) != 0) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/** @return the bytes free on this page, holes between tuples included */
+	public int getFreeSpace() {
+		return pageSize - HEADER_SIZE - numSlots * SLOT_SIZE - usedBytes;
+	}
+
+	/** @return the bytes t takes on a slotted page, with a new entry of the slot directory */
+	public static int getSpaceNeeded(Tuple t) {
+		return getEncodedLength(t) + SLOT_SIZE;
+	}
+
+	/** @return the bytes the fields of t take on a slotted page */
+	public static int getEncodedLength(Tuple t) {
+		int length = 0;
+		for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+			Field f = t.getField(j);
+			if (f instanceof StringField) {
+				length += 2 + Math.min(((StringField) f).getValue().length(), Type.STRING_LEN);
+			} else {
+				length += f.getType().getLen();
+			}
+		}
+		return length;
+	}
+
+	/** @return the bytes of the shortest tuple of td, with empty strings */
+	private static int getMinEncodedLength(TupleDesc td) {
+		int length = 0;
+		for (int j = 0; j < td.numFields(); j++) {
+			length += td.getFieldType(j) == Type.STRING_TYPE ? 2 : td.getFieldType(j).getLen();
+		}
+		return length;
+	}
+
+	/** @return the first empty slot, or numSlots if the directory has to grow */
+	private int findFreeSlot() {
+		for (int i = 0; i < numSlots; i++) {
+			if (getSlotOffset(i) == 0) {
+				return i;
+			}
+		}
+		return numSlots;
+	}
+
+	private boolean hasRoomFor(int length) {
+		int directory = findFreeSlot() == numSlots ? SLOT_SIZE : 0;
+		return length + directory <= getFreeSpace();
+	}
+
+	public boolean hasRoomFor(Tuple t) {
+		return hasRoomFor(getEncodedLength(t));
+	}
+
+	public boolean isFull() {
+		return !hasRoomFor(getMinEncodedLength(td));
+	}
+
+	public void insertTuple(Tuple t) throws DbException {
+		if (!td.equals(t.getTupleDesc())) {
+			throw new DbException("tupleDsec is not matched");
+		}
+		int length = getEncodedLength(t);
+		if (!hasRoomFor(length)) {
+			throw new DbException("this page is full");
+		}
+		int slot = findFreeSlot();
+		int directoryEnd = HEADER_SIZE + (Math.max(slot + 1, numSlots)) * SLOT_SIZE;
+		if (getDataStart() - length < directoryEnd) {
+			compact();
+		}
+		if (slot == numSlots) {
+			numSlots++;
+			putShort(0, numSlots);
+			if (numSlots > tuples.length) {
+				tuples = Arrays.copyOf(tuples, Math.max(numSlots, tuples.length * 2));
+			}
+		}
+		int offset = getDataStart() - length;
+		encode(t, offset);
+		setDataStart(offset);
+		setSlot(slot, offset, length);
+		usedBytes += length;
+		TUPLES.setRelease(tuples, slot, null);
+		t.setRecordId(new RecordId(pid, slot));
+
+		if (isFull()) {
+			Database.getCatalog().getDbFile(pid.getTableId())
+				.setNotFullPagesList(pid.pageNumber(), true);
+		}
+	}
+
+	public void deleteTuple(Tuple t) throws DbException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || !pid.equals(rid.getPageId())) {
+			throw new DbException("requested tuple is not on the page");
+		}
+		int slot = rid.getTupleNo();
+		if (!isSlotUsed(slot)) {
+			throw new DbException("tuple slot is already empty");
+		}
+		usedBytes -= getSlotLength(slot);
+		if (getSlotOffset(slot) == getDataStart()) {
+			setDataStart(getDataStart() + getSlotLength(slot));
+		}
+		setSlot(slot, 0, 0);
+		TUPLES.setRelease(tuples, slot, null);
+		// empty slots at the end of the directory give their room back
+		while (numSlots > 0 && getSlotOffset(numSlots - 1) == 0) {
+			numSlots--;
+		}
+		putShort(0, numSlots);
+		if (numSlots == 0) {
+			setDataStart(pageSize);
+		}
+		Database.getCatalog().getDbFile(pid.getTableId())
+			.setNotFullPagesList(pid.pageNumber(), false);
+	}
+
+	/**
+	 * Move the tuples to the end of the page, in place, so the holes left by
+	 * deletes join the free space. Tuples keep their slots.
+	 */
+	private void compact() {
+		Integer[] bySlotOffset = new Integer[numSlots];
+		int n = 0;
+		for (int i = 0; i < numSlots; i++) {
+			if (getSlotOffset(i) != 0) {
+				bySlotOffset[n++] = i;
+			}
+		}
+		// the last tuple of the page first, each one moves towards the end
+		Arrays.sort(bySlotOffset, 0, n, (a, b) -> getSlotOffset(b) - getSlotOffset(a));
+		int end = pageSize;
+		for (int k = 0; k < n; k++) {
+			int slot = bySlotOffset[k];
+			int length = getSlotLength(slot);
+			end -= length;
+			System.arraycopy(data, getSlotOffset(slot), data, end, length);
+			setSlot(slot, end, length);
+		}
+		setDataStart(end);
+		Arrays.fill(data, HEADER_SIZE + numSlots * SLOT_SIZE, end, (byte) 0);
+	}
+
+	/** Write the fields of t at offset: ints as 4 bytes, strings as a 2 byte length and the characters */
+	private void encode(Tuple t, int offset) {
+		for (int j = 0; j < td.numFields(); j++) {
+			Field f = t.getField(j);
+			if (f instanceof StringField) {
+				// the low byte of each char, like StringField.serialize
+				String s = ((StringField) f).getValue();
+				int len = Math.min(s.length(), Type.STRING_LEN);
+				putShort(offset, len);
+				offset += 2;
+				for (int c = 0; c < len; c++) {
+					data[offset++] = (byte) s.charAt(c);
+				}
+			} else {
+				int v = ((IntField) f).getValue();
+				ByteBuffer.wrap(data, offset, 4).putInt(v);
+				offset += 4;
+			}
+		}
+	}
+
+	private Tuple decode(int slot) {
+		int offset = getSlotOffset(slot);
+		Tuple t = new Tuple(td);
+		t.setRecordId(new RecordId(pid, slot));
+		for (int j = 0; j < td.numFields(); j++) {
+			if (td.getFieldType(j) == Type.STRING_TYPE) {
+				int len = getShort(offset);
+				t.setField(j, new StringField(new String(data, offset + 2, len), Type.STRING_LEN));
+				offset += 2 + len;
+			} else {
+				t.setField(j, new IntField(ByteBuffer.wrap(data, offset, 4).getInt()));
+				offset += 4;
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Get the tuple in slot i, decoding it the first time; see HeapPage#getTuple
+	 * @return the tuple, or null if the slot is empty
+	 */
+	Tuple getTuple(int i) throws NoSuchElementException {
+		if (i < 0 || i >= numSlots) {
+			throw new NoSuchElementException();
+		}
+		if (getSlotOffset(i) == 0) {
+			return null;
+		}
+		Tuple t = (Tuple) TUPLES.getAcquire(tuples, i);
+		if (t == null) {
+			t = decode(i);
+			TUPLES.setRelease(tuples, i, t);
+		}
+		return t;
+	}
+
+	public Iterator<Tuple> iterator() {
+		return new Iterator<Tuple>() {
+			private int slot = nextUsed(0);
+
+			private int nextUsed(int from) {
+				while (from < numSlots && getSlotOffset(from) == 0) {
+					from++;
+				}
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return slot < numSlots;
+			}
+
+			@Override
+			public Tuple next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Tuple t = getTuple(slot);
+				slot = nextUsed(slot + 1);
+				return t;
+			}
+		};
+	}
+
+	public byte[] getPageData() {
+		return data.clone();
+	}
+
+	public SlottedHeapPage getBeforeImage() {
+		try {
+			byte[] before = oldData;
+			return new SlottedHeapPage(pid, before != null ? before.clone() : getPageData());
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public void setBeforeImage() {
+		oldData = null;
+	}
+
+	public void captureBeforeImage() {
+		if (oldData == null) {
+			oldData = getPageData();
+		}
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		dirtier = tid;
+		isDirty = dirty;
+	}
+
+	public boolean isDirty() {
+		return isDirty;
+	}
+
+	public TransactionId getDirtier() {
+		return isDirty ? dirtier : null;
+	}
+
+	// return a string with first {numTuples} tuples in this page
+	public String toString(int numTuples) {
+		StringBuilder sb = new StringBuilder();
+		Iterator<Tuple> it = iterator();
+		for (int i = 0; i < numTuples && it.hasNext(); i++) {
+			sb.append(it.next());
+		}
+		return sb.toString();
+	}
+
+	public String toString() {
+		return toString(numSlots);
+	}
+}
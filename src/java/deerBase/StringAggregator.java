@@ -0,0 +1,92 @@
+package deerBase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Knows how to compute some aggregate over a set of StringFields.
+ */
+public class StringAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private int gbfield;
+    private Type gbfieldtype;
+    /** the count of each group, in the order first seen */
+    private LinkedHashMap<Field, Integer> counts = new LinkedHashMap<Field, Integer>();
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param what
+     *            aggregation operator to use -- only supports COUNT
+     * @throws IllegalArgumentException
+     *             if what != COUNT
+     */
+    public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        if (what != Op.COUNT) {
+            throw new IllegalArgumentException("can only count strings, not " + what);
+        }
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field key = (gbfield == NO_GROUPING) ? null : tup.getField(gbfield);
+        counts.merge(key, 1, Integer::sum);
+    }
+
+    /**
+     * Counts the tuples of the batch at once when there is no grouping.
+     */
+    @Override
+    public void mergeBatch(TupleBatch batch) {
+        if (gbfield == NO_GROUPING) {
+            counts.merge(null, batch.size(), Integer::sum);
+        } else {
+            Aggregator.super.mergeBatch(batch);
+        }
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public DbIterator iterator() {
+        TupleDesc td = (gbfield == NO_GROUPING)
+                ? new TupleDesc(new Type[] { Type.INT_TYPE })
+                : new TupleDesc(new Type[] { gbfieldtype, Type.INT_TYPE });
+        ArrayList<Tuple> results = new ArrayList<Tuple>(counts.size());
+        for (Map.Entry<Field, Integer> e : counts.entrySet()) {
+            Tuple t = new Tuple(td);
+            int i = 0;
+            if (gbfield != NO_GROUPING) {
+                t.setField(i++, e.getKey());
+            }
+            t.setField(i, new IntField(e.getValue()));
+            results.add(t);
+        }
+        return new TupleIterator(td, results);
+    }
+
+}
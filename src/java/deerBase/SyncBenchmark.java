@@ -0,0 +1,88 @@
+package deerBase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * SyncBenchmark runs the same write workload with each {@link SyncPolicy}
+ * mode and prints how many times the log and the table files were forced
+ * per committed transaction. Each transaction adds a tuple to a few random
+ * pages of a heap table and commits; after the last one a checkpoint forces
+ * what the mode deferred, and it is counted separately.
+ * <p>
+ * Usage: java deerBase.SyncBenchmark [transactions] [pagesPerTransaction] [tablePages]
+ */
+public class SyncBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int pagesPerTxn = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int tablePages = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+		System.out.printf("transactions=%d pagesPerTransaction=%d tablePages=%d%n",
+				transactions, pagesPerTxn, tablePages);
+		for (SyncPolicy.Mode mode : SyncPolicy.Mode.values()) {
+			SyncPolicy.setMode(mode);
+			HeapFile table = createTable(tablePages);
+			Database.resetBufferPool(Math.max(BufferPool.DEFAULT_PAGES, pagesPerTxn * 2));
+			SyncPolicy.syncDataFiles();
+			SyncPolicy.resetCounts();
+
+			Random random = new Random(0);
+			long start = System.nanoTime();
+			for (int i = 0; i < transactions; i++) {
+				update(table, pagesPerTxn, i, random);
+			}
+			long elapsed = System.nanoTime() - start;
+			long logSyncs = SyncPolicy.getLogSyncs();
+			long dataSyncs = SyncPolicy.getDataSyncs();
+
+			Database.getLogFile().logCheckpoint();
+			long checkpointSyncs = SyncPolicy.getLogSyncs() + SyncPolicy.getDataSyncs() - logSyncs - dataSyncs;
+			System.out.printf("%-10s log %.2f/txn, data %.2f/txn, checkpoint %d, %.0f txn/s%n", mode,
+					(double) logSyncs / transactions, (double) dataSyncs / transactions,
+					checkpointSyncs, transactions / (elapsed / 1e9));
+			table.getFile().delete();
+		}
+		SyncPolicy.resetMode();
+	}
+
+	private static HeapFile createTable(int pages) throws IOException {
+		File f = File.createTempFile("sync", ".dat");
+		f.deleteOnExit();
+		try (FileOutputStream out = new FileOutputStream(f)) {
+			for (int i = 0; i < pages; i++) {
+				out.write(HeapPage.createEmptyPageData());
+			}
+		}
+		HeapFile table = new HeapFile(f, Utility.getTupleDesc(2));
+		Database.getCatalog().addTable(table, f.getName());
+		return table;
+	}
+
+	/** One transaction adding a tuple to pagesPerTxn distinct random pages */
+	private static void update(HeapFile table, int pagesPerTxn, int value, Random random) throws Exception {
+		List<Integer> pgNos = new ArrayList<>();
+		for (int p = 0; p < table.getNumPages(); p++) {
+			pgNos.add(p);
+		}
+		Collections.shuffle(pgNos, random);
+
+		Transaction t = new Transaction();
+		t.start();
+		for (int pgNo : pgNos.subList(0, Math.min(pagesPerTxn, pgNos.size()))) {
+			HeapPage page = (HeapPage) Database.getBufferPool().getPage(t.getId(),
+					new HeapPageId(table.getId(), pgNo), Permissions.READ_WRITE);
+			if (page.getNumEmptySlots() > 0) {
+				page.insertTuple(Utility.getHeapTuple(new int[] { value, pgNo }));
+			}
+			page.markDirty(true, t.getId());
+		}
+		t.commit();
+	}
+}
@@ -0,0 +1,183 @@
+package deerBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SyncPolicy decides when the log and the table files are forced to disk
+ * (fsync). Because every page is logged, and the log forced, before it is
+ * written (WAL), a table file does not have to be forced when a page is
+ * written: the log can redo the page after a crash, as long as the table
+ * files are forced before a checkpoint lets the log be truncated. The log is
+ * forced before pages are written in every mode; the modes only differ in
+ * when commits and table files are forced.
+ * <p>
+ * Set with -DdeerBase.SyncPolicy, default PER_BATCH:
+ * <ul>
+ * <li>PER_WRITE: the log is forced after each page logged, and the table
+ * file after each page written.</li>
+ * <li>PER_BATCH: the log is forced once before a batch of pages is written
+ * back, and each table file once after it, see BufferPool#writeBack.</li>
+ * <li>PER_COMMIT: only the log is forced, before pages are written back and
+ * at commit; table files are forced at checkpoints.</li>
+ * <li>PERIODIC: nothing is forced at commit; the log and the table files are
+ * forced every -DdeerBase.SyncInterval ms (default 1000), and the log before
+ * pages are written back. Safe against a crash of the process, but an OS
+ * crash loses up to an interval of committed transactions.</li>
+ * </ul>
+ * Table files written and not forced yet are tracked, and forced by
+ * {@link #syncDataFiles()} at a checkpoint, at shutdown and, in PERIODIC
+ * mode, on every tick.
+ */
+public class SyncPolicy {
+
+	private final static int SyncPolicyDebugLevel = Debug.CLOSE;
+
+	public enum Mode {
+		PER_WRITE, PER_BATCH, PER_COMMIT, PERIODIC;
+
+		/** Parse a mode name, e.g. "per_commit" or "PER-COMMIT" */
+		public static Mode parse(String name) {
+			for (Mode mode : values()) {
+				if (mode.name().equalsIgnoreCase(name.replace('-', '_'))) {
+					return mode;
+				}
+			}
+			throw new IllegalArgumentException("unknown sync policy " + name);
+		}
+
+		/** @return the mode set by -DdeerBase.SyncPolicy, or PER_BATCH */
+		public static Mode fromProperty() {
+			String name = System.getProperty("deerBase.SyncPolicy");
+			return name == null || name.isEmpty() ? PER_BATCH : parse(name);
+		}
+	}
+
+	public static final long DEFAULT_INTERVAL_MS = 1000;
+
+	private static volatile Mode mode = Mode.PER_BATCH;
+	private static long interval = Long.getLong("deerBase.SyncInterval", DEFAULT_INTERVAL_MS);
+	private static Timer timer;
+
+	/** table files written since they were last forced */
+	private static final Set<File> unsynced = ConcurrentHashMap.newKeySet();
+
+	private static final LongAdder logSyncs = new LongAdder();
+	private static final LongAdder dataSyncs = new LongAdder();
+
+	static {
+		setMode(Mode.fromProperty());
+	}
+
+	private SyncPolicy() {
+	}
+
+	public static Mode getMode() {
+		return mode;
+	}
+
+	/** Set the mode, starting or stopping the timer of PERIODIC */
+	public static synchronized void setMode(Mode mode) {
+		SyncPolicy.mode = mode;
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+		if (mode == Mode.PERIODIC) {
+			timer = new Timer("SyncPolicy", true);
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						Database.getLogFile().force();
+						syncDataFiles();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}, interval, interval);
+		}
+	}
+
+	// Only used for testing
+	public static void resetMode() {
+		interval = Long.getLong("deerBase.SyncInterval", DEFAULT_INTERVAL_MS);
+		setMode(Mode.fromProperty());
+	}
+
+	/** Set the interval of PERIODIC, applied when the mode is set next */
+	public static void setInterval(long intervalMs) {
+		SyncPolicy.interval = intervalMs;
+	}
+
+	/** @return true if a commit forces the log */
+	public static boolean forcesLogAtCommit() {
+		return mode != Mode.PERIODIC;
+	}
+
+	/**
+	 * Called after pages were written to f: force f in PER_WRITE mode,
+	 * otherwise remember it for later.
+	 */
+	static void written(File f) throws IOException {
+		if (mode == Mode.PER_WRITE) {
+			force(f);
+		} else {
+			unsynced.add(f.getAbsoluteFile());
+		}
+	}
+
+	/** Called after a batch of pages was written to f: force f in PER_BATCH mode */
+	static void batchWritten(File f) throws IOException {
+		if (mode == Mode.PER_BATCH && unsynced.remove(f.getAbsoluteFile())) {
+			force(f);
+		}
+	}
+
+	/** Force every table file written since it was last forced, e.g. at a checkpoint */
+	public static void syncDataFiles() throws IOException {
+		for (File f : unsynced) {
+			// a dropped temporary table is not recreated by forcing it
+			if (unsynced.remove(f) && f.exists()) {
+				force(f);
+			}
+		}
+	}
+
+	private static void force(File f) throws IOException {
+		Debug.log(SyncPolicyDebugLevel, "force %s", f);
+		ChannelPool.force(f);
+		dataSyncs.increment();
+	}
+
+	/** Called by LogFile when it forces the log */
+	static void logForced() {
+		logSyncs.increment();
+	}
+
+	/** @return the number of times the log was forced */
+	public static long getLogSyncs() {
+		return logSyncs.sum();
+	}
+
+	/** @return the number of times a table file was forced */
+	public static long getDataSyncs() {
+		return dataSyncs.sum();
+	}
+
+	/** @return the number of table files written and not forced yet */
+	public static int getNumUnsynced() {
+		return unsynced.size();
+	}
+
+	// Only used for testing
+	public static void resetCounts() {
+		logSyncs.reset();
+		dataSyncs.reset();
+	}
+}
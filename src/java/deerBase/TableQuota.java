@@ -0,0 +1,155 @@
+package deerBase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * TableQuota says how much of the BufferPool one table may use:
+ * <ul>
+ * <li> PIN: the whole table is loaded into a partition of its own on first
+ *      access and is never evicted by other tables, e.g. a small dimension
+ *      table. Only honored for tables of at most loadTableRatio of the pool.
+ * <li> CAP: the table shares the pool but holds at most a share of its
+ *      frames; once at its cap it evicts its own pages, e.g. a huge fact table.
+ * <li> RESERVE: the table gets a partition of its own with a fixed number of
+ *      frames, taken away from the shared pool.
+ * </ul>
+ * Quotas are set by table name with {@link BufferPool#setTableQuota} or
+ * -DdeerBase.TableQuotas=venues=pin,papers=cap:20%,authors=reserve:128
+ * and apply to buffer pools created afterwards.
+ */
+public class TableQuota {
+
+	public enum Kind {
+		PIN, CAP, RESERVE
+	}
+
+	private final Kind kind;
+	/** share of the pool, or -1 if the quota is a number of pages */
+	private final double fraction;
+	private final int pages;
+
+	private TableQuota(Kind kind, double fraction, int pages) {
+		this.kind = kind;
+		this.fraction = fraction;
+		this.pages = pages;
+	}
+
+	public static TableQuota pin() {
+		return new TableQuota(Kind.PIN, -1, 0);
+	}
+
+	/** @param fraction the share of the pool's frames, in (0, 1] */
+	public static TableQuota cap(double fraction) {
+		checkFraction(fraction);
+		return new TableQuota(Kind.CAP, fraction, 0);
+	}
+
+	public static TableQuota reserve(int pages) {
+		if (pages <= 0) {
+			throw new IllegalArgumentException("a reserved partition needs at least one page");
+		}
+		return new TableQuota(Kind.RESERVE, -1, pages);
+	}
+
+	/** @param fraction the share of the pool's frames, in (0, 1] */
+	public static TableQuota reserve(double fraction) {
+		checkFraction(fraction);
+		return new TableQuota(Kind.RESERVE, fraction, 0);
+	}
+
+	private static void checkFraction(double fraction) {
+		if (fraction <= 0 || fraction > 1) {
+			throw new IllegalArgumentException("share of the buffer pool out of (0, 1]: " + fraction);
+		}
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the number of frames of a pool with poolPages frames this quota
+	 *         caps or reserves, at least 1; meaningless for PIN
+	 */
+	public int getPages(int poolPages) {
+		return fraction < 0 ? pages : Math.max(1, (int) (fraction * poolPages));
+	}
+
+	/**
+	 * Parse one quota: "pin", "cap:20%", "cap:500", "reserve:128" or "reserve:5%".
+	 * @throws IllegalArgumentException if spec is not a quota
+	 */
+	public static TableQuota parse(String spec) {
+		String s = spec.trim().toLowerCase();
+		if (s.equals("pin")) {
+			return pin();
+		}
+		int colon = s.indexOf(':');
+		if (colon < 0) {
+			throw new IllegalArgumentException("bad table quota: " + spec);
+		}
+		String kind = s.substring(0, colon), amount = s.substring(colon + 1).trim();
+		boolean percent = amount.endsWith("%");
+		try {
+			if (percent) {
+				double fraction = Double.parseDouble(amount.substring(0, amount.length() - 1)) / 100;
+				switch (kind) {
+				case "cap":
+					return cap(fraction);
+				case "reserve":
+					return reserve(fraction);
+				}
+			} else {
+				int n = Integer.parseInt(amount);
+				switch (kind) {
+				case "cap":
+					if (n <= 0) {
+						throw new IllegalArgumentException("a cap needs at least one page");
+					}
+					return new TableQuota(Kind.CAP, -1, n);
+				case "reserve":
+					return reserve(n);
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("bad table quota: " + spec);
+		}
+		throw new IllegalArgumentException("bad table quota: " + spec);
+	}
+
+	/**
+	 * Parse a list of quotas "table=quota,table=quota", see {@link #parse(String)}
+	 * @return the quotas by table name
+	 */
+	public static Map<String, TableQuota> parseAll(String specs) {
+		HashMap<String, TableQuota> quotas = new HashMap<>();
+		if (specs == null) {
+			return quotas;
+		}
+		for (String entry : specs.split(",")) {
+			if (entry.trim().isEmpty()) {
+				continue;
+			}
+			int eq = entry.indexOf('=');
+			if (eq <= 0) {
+				throw new IllegalArgumentException("bad table quota: " + entry);
+			}
+			quotas.put(entry.substring(0, eq).trim(), parse(entry.substring(eq + 1)));
+		}
+		return quotas;
+	}
+
+	/** @return the quotas of -DdeerBase.TableQuotas, none if it is not set */
+	public static Map<String, TableQuota> fromProperty() {
+		return parseAll(System.getProperty("deerBase.TableQuotas"));
+	}
+
+	public String toString() {
+		if (kind == Kind.PIN) {
+			return "pin";
+		}
+		return kind.name().toLowerCase() + ":"
+				+ (fraction < 0 ? String.valueOf(pages) : (fraction * 100) + "%");
+	}
+}
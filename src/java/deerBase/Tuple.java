@@ -1,6 +1,9 @@
 package deerBase;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -14,6 +17,12 @@ import deerBase.TupleDesc;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple can also be a view of a serialized tuple in a buffer, e.g. a page
+ * image, see {@link #Tuple(TupleDesc, byte[], int)}: its fields are read
+ * from the buffer at the offsets of the TupleDesc when first asked for and
+ * kept, and getInt and getString read them without allocating a Field.
+ * Fields set afterwards take precedence over the buffer.
  */
 public class Tuple implements Serializable {
 
@@ -21,8 +30,18 @@ public class Tuple implements Serializable {
 
     private TupleDesc tupleDesc;
     
+    // fields set by setField; null for a view that no field was set on
     private Field[] fields;
 
+    // buffer the fields of a view are read from, null for other tuples;
+    // never modified while the tuple is in use
+    private byte[] data;
+    private int offset;
+
+    // fields of a view decoded by getField, so that comparators and group
+    // keys decode each field once per tuple rather than once per call
+    private transient Field[] decoded;
+
     private RecordId recordId;
     
     /**
@@ -37,6 +56,61 @@ public class Tuple implements Serializable {
     	this.fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a view of the tuple serialized in data at offset, as on a
+     * HeapPage: td.getSize() bytes, each field at td.getOffset(i). Nothing
+     * is decoded here. data is kept, so it must not be modified while the
+     * tuple is in use.
+     */
+    public Tuple(TupleDesc td, byte[] data, int offset) {
+    	this.tupleDesc = td;
+    	this.data = data;
+    	this.offset = offset;
+    }
+
+    /**
+     * @return a tuple of td with the fields of t1 followed by those of t2.
+     *         When both are views that no field was set on, their bytes are
+     *         copied into one buffer rather than their fields decoded.
+     */
+    public static Tuple concat(TupleDesc td, Tuple t1, Tuple t2) {
+    	int n1 = t1.tupleDesc.numFields();
+    	if (t1.isView() && t2.isView()) {
+    		int size1 = t1.tupleDesc.getSize();
+    		int size2 = t2.tupleDesc.getSize();
+    		byte[] both = new byte[size1 + size2];
+    		System.arraycopy(t1.data, t1.offset, both, 0, size1);
+    		System.arraycopy(t2.data, t2.offset, both, size1, size2);
+    		return new Tuple(td, both, 0);
+    	}
+    	Tuple t = new Tuple(td);
+    	for (int i = 0; i < n1; i++) {
+    		t.setField(i, t1.getField(i));
+    	}
+    	for (int i = 0; i < t2.tupleDesc.numFields(); i++) {
+    		t.setField(n1 + i, t2.getField(i));
+    	}
+    	return t;
+    }
+
+    /** @return true if every field of this tuple is read from its buffer */
+    private boolean isView() {
+    	return this.data != null && this.fields == null;
+    }
+
+    /**
+     * @return the buffer this view reads its fields from, or null if it is
+     *         not a view or a field was set on it; see PlanCompiler
+     */
+    byte[] viewData() {
+    	return isView() ? this.data : null;
+    }
+
+    /** @return the offset of this view in its buffer */
+    int viewOffset() {
+    	return this.offset;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -71,23 +145,107 @@ public class Tuple implements Serializable {
      *            new value for the field.
      */
     public void setField(int i, Field f) {
-    	if (i < 0 || i >= this.fields.length) {
+    	if (i < 0 || i >= this.tupleDesc.numFields()) {
     		throw new IllegalArgumentException("index out of bound");
     	}
+    	if (this.fields == null) {
+    		this.fields = new Field[this.tupleDesc.numFields()];
+    	}
     	this.fields[i] = f;
     }
 
     /**
      * @return the value of the ith field, or null if it has not been set.
+     *         The field of a view is decoded on the first call.
      * 
      * @param i
      *            field index to return. Must be a valid index.
      */
     public Field getField(int fieldIdx) {
-    	if (fieldIdx < 0 || fieldIdx >= this.fields.length) {
+    	if (fieldIdx < 0 || fieldIdx >= this.tupleDesc.numFields()) {
     		throw new IllegalArgumentException("index out of bound");
     	}
-        return this.fields[fieldIdx];
+    	Field f = this.fields != null ? this.fields[fieldIdx] : null;
+    	if (f != null || this.data == null) {
+    		return f;
+    	}
+    	if (this.decoded == null) {
+    		this.decoded = new Field[this.tupleDesc.numFields()];
+    	} else if (this.decoded[fieldIdx] != null) {
+    		return this.decoded[fieldIdx];
+    	}
+    	try {
+    		f = this.tupleDesc.getFieldType(fieldIdx).parse(this.data, fieldOffset(fieldIdx));
+    		this.decoded[fieldIdx] = f;
+    		return f;
+    	} catch (ParseException e) {
+    		throw new IllegalStateException("can't parse field " + fieldIdx + " of " + this.recordId, e);
+    	}
+    }
+
+    /** @return the offset in data of field i, or -1 if it is not read from data */
+    private int fieldOffset(int i) {
+    	if (this.data == null || (this.fields != null && this.fields[i] != null)) {
+    		return -1;
+    	}
+    	return this.offset + this.tupleDesc.getOffset(i);
+    }
+
+    /**
+     * @return the value of the ith field, an INT_TYPE, read from the buffer
+     *         of a view without creating a Field
+     */
+    public int getInt(int i) {
+    	if (this.tupleDesc.getFieldType(i) != Type.INT_TYPE) {
+    		throw new IllegalArgumentException("field " + i + " is not an int");
+    	}
+    	int off = fieldOffset(i);
+    	if (off >= 0) {
+    		return Type.readInt(this.data, off);
+    	}
+    	return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * @return the value of the ith field, a STRING_TYPE, read from the buffer
+     *         of a view without creating a Field
+     */
+    public String getString(int i) {
+    	if (this.tupleDesc.getFieldType(i) != Type.STRING_TYPE) {
+    		throw new IllegalArgumentException("field " + i + " is not a string");
+    	}
+    	int off = fieldOffset(i);
+    	if (off >= 0) {
+    		return new String(this.data, off + 4, Type.readInt(this.data, off));
+    	}
+    	return ((StringField) getField(i)).getValue();
+    }
+
+    /**
+     * Write this tuple as it is stored on a HeapPage: the bytes of a view
+     * that no field was set on are copied as they are.
+     */
+    void serialize(DataOutputStream dos) throws IOException {
+    	if (isView()) {
+    		dos.write(this.data, this.offset, this.tupleDesc.getSize());
+    		return;
+    	}
+    	for (int j = 0; j < this.tupleDesc.numFields(); j++) {
+    		getField(j).serialize(dos);
+    	}
+    }
+
+    /** a view is serialized with its fields, not the buffer it reads them from */
+    private Object writeReplace() {
+    	if (this.data == null) {
+    		return this;
+    	}
+    	Tuple t = new Tuple(this.tupleDesc);
+    	for (int i = 0; i < this.tupleDesc.numFields(); i++) {
+    		t.setField(i, getField(i));
+    	}
+    	t.setRecordId(this.recordId);
+    	return t;
     }
 
     /**
@@ -97,11 +255,12 @@ public class Tuple implements Serializable {
      */
     public String toString() {
     	StringBuffer rowStr = new StringBuffer();
-    	for (int i = 0; i < this.fields.length - 1; i++) {
-    		rowStr.append(this.fields[i]);
+    	int n = this.tupleDesc.numFields();
+    	for (int i = 0; i < n - 1; i++) {
+    		rowStr.append(getField(i));
     		rowStr.append('\t');
     	}
-    	rowStr.append(this.fields[this.fields.length-1]);
+    	rowStr.append(getField(n-1));
     	rowStr.append('\n');
     	
     	return rowStr.toString();
@@ -121,17 +280,14 @@ public class Tuple implements Serializable {
     	int cur = 0;
     	
     	public boolean hasNext() {
-    		return cur < fields.length;
+    		return cur < tupleDesc.numFields();
     	}
     	
     	public Field next() {
-    		try {
-    			Field resField = fields[cur];
-    			cur++;
-    			return resField;
-    		} catch (IndexOutOfBoundsException e) {
+    		if (!hasNext()) {
     			throw new NoSuchElementException();
     		}
+    		return getField(cur++);
     	}
     }
 }
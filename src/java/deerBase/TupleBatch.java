@@ -0,0 +1,106 @@
+package deerBase;
+
+import java.util.Arrays;
+
+/**
+ * TupleBatch is a group of up to MAX_ROWS tuples that operators pass to each
+ * other at once, see {@link DbIterator#nextBatch()}. The rows are kept as
+ * they come, usually views of the pages they were read from, and a
+ * selection vector lists the ones still in the batch, so a filter drops rows
+ * without moving any. The int fields of the rows can be read as columns,
+ * decoded once per batch.
+ */
+public class TupleBatch {
+
+	/** the most rows a batch holds */
+	public static final int MAX_ROWS = 1024;
+
+	private final TupleDesc td;
+	private final Tuple[] rows = new Tuple[MAX_ROWS];
+	private int numRows;
+	/** indexes into rows of the rows selected, in order */
+	private final int[] sel = new int[MAX_ROWS];
+	private int numSelected;
+	/** int columns decoded so far, by field, over all the rows */
+	private final int[][] ints;
+
+	public TupleBatch(TupleDesc td) {
+		this.td = td;
+		this.ints = new int[td.numFields()][];
+	}
+
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * Add t at the end of the batch, selected.
+	 * @throws IllegalStateException if the batch is full
+	 */
+	public void add(Tuple t) {
+		if (isFull()) {
+			throw new IllegalStateException("batch is full");
+		}
+		if (numSelected != numRows) {
+			throw new IllegalStateException("can't add to a filtered batch");
+		}
+		sel[numSelected++] = numRows;
+		rows[numRows++] = t;
+		Arrays.fill(ints, null);
+	}
+
+	public boolean isFull() {
+		return numRows == MAX_ROWS;
+	}
+
+	/** @return the number of rows selected */
+	public int size() {
+		return numSelected;
+	}
+
+	/** @return the ith row selected */
+	public Tuple get(int i) {
+		return rows[sel[i]];
+	}
+
+	/**
+	 * @return the values of the int field over all the rows added, selected
+	 *         or not; index it with {@link #getRow(int)}. Don't modify it.
+	 */
+	public int[] getInts(int field) {
+		int[] col = ints[field];
+		if (col == null) {
+			col = new int[numRows];
+			for (int r = 0; r < numRows; r++) {
+				col[r] = rows[r].getInt(field);
+			}
+			ints[field] = col;
+		}
+		return col;
+	}
+
+	/** @return the index among all the rows added of the ith row selected */
+	public int getRow(int i) {
+		return sel[i];
+	}
+
+	/** Keep the rows p accepts, and drop the others from the selection */
+	public void select(PlanCompiler.TupleFilter p) {
+		int n = 0;
+		for (int i = 0; i < numSelected; i++) {
+			int r = sel[i];
+			if (p.filter(rows[r])) {
+				sel[n++] = r;
+			}
+		}
+		numSelected = n;
+	}
+
+	/** Empty the batch to fill it again */
+	public void clear() {
+		Arrays.fill(rows, 0, numRows, null);
+		Arrays.fill(ints, null);
+		numRows = 0;
+		numSelected = 0;
+	}
+}
@@ -12,6 +12,9 @@ public class TupleDesc implements Serializable {
     
 	private int numFields;
 	private TDItem[] TDItemAr;
+	// byte offset of each field in a serialized tuple, and the tuple size
+	private int[] offsets;
+	private int size;
 	
     /**
      * A help class to facilitate organizing the information of each field
@@ -93,6 +96,7 @@ public class TupleDesc implements Serializable {
     	for (int i = 0; i < this.numFields; i++) {
     		TDItemAr[i] = new TDItem(typeAr[i], fieldNameAr[i]);
     	}
+    	computeOffsets();
     }
 
     /**
@@ -117,6 +121,17 @@ public class TupleDesc implements Serializable {
     	}
     	this.TDItemAr = TDItemAr;
     	this.numFields = numFields;
+    	computeOffsets();
+    }
+
+    private void computeOffsets() {
+    	this.offsets = new int[numFields];
+    	int offset = 0;
+    	for (int i = 0; i < numFields; i++) {
+    		offsets[i] = offset;
+    		offset += TDItemAr[i].fieldType.getLen();
+    	}
+    	this.size = offset;
     }
 
     /**
@@ -187,12 +202,15 @@ public class TupleDesc implements Serializable {
      *         Note that tuples from a given TupleDesc are of a fixed size.
      */
     public int getSize() {
- 
-    	int totalSize = 0;
-        for (TDItem item : TDItemAr) {
-        	totalSize += item.fieldType.getLen();
-        }
-        return totalSize;
+        return this.size;
+    }
+
+    /**
+     * @return the offset in bytes of the ith field in a tuple of this
+     *         TupleDesc, serialized as on a HeapPage
+     */
+    public int getOffset(int i) {
+        return this.offsets[i];
     }
 
     /**
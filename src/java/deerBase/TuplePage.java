@@ -0,0 +1,49 @@
+package deerBase;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is a page of a HeapFile: it holds tuples in slots, addressed by
+ * the RecordId set when a tuple is inserted. HeapPage stores tuples of a
+ * fixed size; SlottedHeapPage stores variable-length ones; PaxHeapPage
+ * stores fixed-size tuples column by column.
+ *
+ * @see HeapFile
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Add t to the page and set its RecordId.
+     * @throws DbException if there is no room for t or its TupleDesc does not
+     *         match the page's
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete t from the page.
+     * @throws DbException if t is not on this page or its slot is empty
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /** @return true if t can be inserted into this page */
+    public boolean hasRoomFor(Tuple t);
+
+    /** @return true if no tuple at all fits in this page any more */
+    public boolean isFull();
+
+    /** @return the bytes free on this page, as FreeSpaceMap records them */
+    public int getFreeSpace();
+
+    /** @return an iterator over the tuples of this page, in slot order */
+    public Iterator<Tuple> iterator();
+
+    /**
+     * Iterate over the tuples of this page, reading at least the fields in
+     * columns. Pages that store tuples row by row return whole tuples; other
+     * pages may leave the remaining fields with placeholder values.
+     * @param columns the indexes of the fields the caller reads, null for all
+     */
+    public default Iterator<Tuple> iterator(int[] columns) {
+        return iterator();
+    }
+}
@@ -0,0 +1,84 @@
+package deerBase;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha). A page read for the first time
+ * goes to the FIFO A1in; only a page that is read again after it was pushed
+ * out of A1in (so its id is still remembered in the ghost FIFO A1out) enters
+ * the LRU list Am. A sequential scan therefore only cycles through A1in and
+ * cannot flush the hot pages kept in Am.
+ */
+public class TwoQPolicy extends EvictionPolicy {
+
+	/** share of the frames reserved for A1in, and of ghost ids kept in A1out */
+	public static final double KIN_RATIO = 0.25;
+	public static final double KOUT_RATIO = 0.5;
+
+	private final int kIn;
+	private final int kOut;
+	private final LinkedHashMap<PageId, Frame> a1in = new LinkedHashMap<>();
+	private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+	private final LinkedHashMap<PageId, Frame> am;
+
+	public TwoQPolicy(int capacity) {
+		super(capacity);
+		this.kIn = Math.max(1, (int) (capacity * KIN_RATIO));
+		this.kOut = Math.max(1, (int) (capacity * KOUT_RATIO));
+		this.am = new LinkedHashMap<>(capacity * 4 / 3 + 1, 0.75f, true);
+	}
+
+	@Override
+	public synchronized void onAccess(Frame frame) {
+		// a hit in A1in is a correlated reference and does not promote
+		am.get(frame.pid);
+	}
+
+	@Override
+	public synchronized void onInsert(Frame frame) {
+		if (a1out.remove(frame.pid)) {
+			am.put(frame.pid, frame);
+		} else {
+			a1in.put(frame.pid, frame);
+		}
+		// trim only after the lookup: the segment evicts before it inserts, and
+		// that eviction must not push out the ghost of the page being inserted
+		Iterator<PageId> eldest = a1out.iterator();
+		while (a1out.size() > kOut) {
+			eldest.next();
+			eldest.remove();
+		}
+	}
+
+	@Override
+	public synchronized void onRemove(Frame frame, boolean evicted) {
+		if (a1in.remove(frame.pid) != null && evicted) {
+			a1out.add(frame.pid);
+		} else {
+			am.remove(frame.pid);
+		}
+	}
+
+	@Override
+	public synchronized Frame chooseVictim(Predicate<Frame> evictable) {
+		Frame victim = null;
+		if (a1in.size() > kIn || am.isEmpty()) {
+			victim = LRUPolicy.firstEvictable(a1in, evictable);
+		}
+		if (victim == null) {
+			victim = LRUPolicy.firstEvictable(am, evictable);
+		}
+		if (victim == null) {
+			victim = LRUPolicy.firstEvictable(a1in, evictable);
+		}
+		return victim;
+	}
+
+	@Override
+	public Kind getKind() {
+		return Kind.TWO_Q;
+	}
+}
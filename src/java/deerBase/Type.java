@@ -27,6 +27,14 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) throws ParseException {
+            if (offset < 0 || offset + getLen() > data.length) {
+                throw new ParseException("couldn't parse", offset);
+            }
+            return new IntField(readInt(data, offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -50,7 +58,25 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) throws ParseException {
+            if (offset < 0 || offset + getLen() > data.length) {
+                throw new ParseException("couldn't parse", offset);
+            }
+            int strLen = readInt(data, offset);
+            if (strLen < 0 || strLen > STRING_LEN) {
+                throw new ParseException("couldn't parse", offset);
+            }
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
     };
+
+    /** read a big-endian int, as DataInputStream.readInt does */
+    static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
     
     public static final int STRING_LEN = 128;
 
@@ -68,4 +94,12 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from data at offset, without a stream around data.
+   * @throws ParseException if the bytes at offset are not of the appropriate
+   *   type, or data ends before getLen() bytes.
+   */
+    public abstract Field parse(byte[] data, int offset) throws ParseException;
+
 }
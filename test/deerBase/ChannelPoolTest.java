@@ -0,0 +1,134 @@
+package deerBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class ChannelPoolTest extends DeerBaseTestBase {
+
+    private File f;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("channels", ".dat");
+        f.deleteOnExit();
+    }
+
+    @After public void tearDown() {
+        ChannelPool.resetMaxOpen();
+        ChannelPool.close(f);
+        f.delete();
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    /**
+     * Positional writes and reads, a read at the end of the file is short
+     */
+    @Test public void readWrite() throws Exception {
+        ChannelPool.write(f, 100, filled(50, 7), false);
+        ChannelPool.write(f, 0, filled(10, 3), true);
+        assertEquals(150, f.length());
+
+        byte[] buf = new byte[50];
+        assertEquals(50, ChannelPool.read(f, 100, buf));
+        assertArrayEquals(filled(50, 7), buf);
+        assertEquals(10, ChannelPool.read(f, 140, buf));
+        assertEquals(0, ChannelPool.read(f, 150, buf));
+
+        // buffers larger than a page are fine
+        byte[] large = filled(3 * BufferPool.getPageSize(), 9);
+        ChannelPool.write(f, 0, large, false);
+        byte[] back = new byte[large.length];
+        assertEquals(large.length, ChannelPool.read(f, 0, back));
+        assertArrayEquals(large, back);
+    }
+
+    /**
+     * A run of buffers is written and read back with one call each; a run
+     * that ends past the end of the file is read short
+     */
+    @Test public void runs() throws Exception {
+        byte[][] run = new byte[][] { filled(10, 1), filled(20, 2), filled(30, 3) };
+        ChannelPool.write(f, 5, run, false);
+        ChannelPool.force(f);
+        assertEquals(65, f.length());
+
+        byte[][] back = new byte[][] { new byte[5], new byte[25], new byte[30], new byte[10] };
+        assertEquals(60, ChannelPool.read(f, 5, back));
+        assertArrayEquals(filled(5, 1), back[0]);
+        byte[] mixed = filled(25, 2);
+        Arrays.fill(mixed, 0, 5, (byte) 1);
+        assertArrayEquals(mixed, back[1]);
+        assertArrayEquals(filled(30, 3), back[2]);
+        assertArrayEquals(new byte[10], back[3]);
+    }
+
+    /**
+     * Beyond the maximum, the least recently used channel is closed and
+     * reopened when it is used again
+     */
+    @Test public void maxOpen() throws Exception {
+        ChannelPool.closeAll();
+        ChannelPool.setMaxOpen(2);
+        File[] files = new File[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = File.createTempFile("channels", ".dat");
+            files[i].deleteOnExit();
+            ChannelPool.write(files[i], 0, filled(8, i), false);
+        }
+        assertEquals(2, ChannelPool.getNumOpen());
+        byte[] buf = new byte[8];
+        for (int i = 0; i < files.length; i++) {
+            assertEquals(8, ChannelPool.read(files[i], 0, buf));
+            assertArrayEquals(filled(8, i), buf);
+        }
+        assertEquals(2, ChannelPool.getNumOpen());
+        for (File file : files) {
+            ChannelPool.close(file);
+            file.delete();
+        }
+    }
+
+    /**
+     * A table file replaced on disk is read through a new channel once it is reopened
+     */
+    @Test public void replacedFile() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        File file = table.getFile();
+        table.readPage(new HeapPageId(table.getId(), 0));
+
+        File replacement = File.createTempFile("channels", ".dat");
+        try (FileOutputStream out = new FileOutputStream(replacement)) {
+            out.write(HeapPage.createEmptyPageData());
+        }
+        assertTrue(replacement.renameTo(file));
+
+        HeapFile reopened = new HeapFile(file, table.getTupleDesc());
+        HeapPage page = (HeapPage) reopened.readPage(new HeapPageId(reopened.getId(), 0));
+        assertEquals(page.numSlots, page.getNumEmptySlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ChannelPoolTest.class);
+    }
+}
@@ -0,0 +1,149 @@
+package deerBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class CompressedPagesTest extends DeerBaseTestBase {
+
+    private HeapFile f;
+
+    @Before public void setUp() throws Exception {
+        // ~5 pages of small values
+        f = SystemTestUtil.createRandomHeapFile(2, 512 * 5, 100, null, null);
+        CompressedPages.tableFileOf(f.getFile()).deleteOnExit();
+    }
+
+    /**
+     * A compressed file reads the same pages in fewer bytes, and is
+     * recognized when it is opened again
+     */
+    @Test public void roundTrip() throws Exception {
+        long plainLength = f.getFile().length();
+        HeapPageId pid = new HeapPageId(f.getId(), 3);
+        byte[] expected = f.readPage(pid).getPageData();
+
+        f.setCompressed(true);
+        assertTrue(f.isCompressed());
+        assertTrue(f.getFile().length() < plainLength / 2);
+        assertEquals(plainLength, f.getLength());
+        assertArrayEquals(expected, f.readPage(pid).getPageData());
+
+        HeapFile reopened = Utility.openHeapFile(2, f.getFile());
+        assertTrue(reopened.isCompressed());
+        assertEquals(f.getNumPages(), reopened.getNumPages());
+        assertEquals(512 * 5, SystemTestUtil.scanTuples(reopened).size());
+
+        reopened.setCompressed(false);
+        assertEquals(plainLength, reopened.getFile().length());
+        assertTrue(!CompressedPages.tableFileOf(f.getFile()).exists());
+        assertArrayEquals(expected, reopened.readPage(pid).getPageData());
+    }
+
+    /**
+     * A page that no longer fits its extent moves to a larger one, and the
+     * move survives reopening the file
+     */
+    @Test public void pageMoves() throws Exception {
+        f.setCompressed(true);
+        CompressedPages pages = f.getCompressedPages();
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        HeapPage page = (HeapPage) f.readPage(pid);
+        long allocated = pages.getAllocatedBytes();
+
+        // random values compress worse than the small ones
+        Random random = new Random(0);
+        for (int i = 0; i < 100; i++) {
+            page.deleteTuple(page.iterator().next());
+        }
+        for (int i = 0; i < 100; i++) {
+            page.insertTuple(Utility.getHeapTuple(new int[] { random.nextInt(), random.nextInt() }));
+        }
+        f.writePage(page);
+        assertTrue(pages.getAllocatedBytes() > allocated);
+        assertEquals(f.getNumPages(), pages.getNumPages());
+
+        HeapFile reopened = Utility.openHeapFile(2, f.getFile());
+        assertArrayEquals(page.getPageData(), reopened.readPage(new HeapPageId(reopened.getId(), 0)).getPageData());
+    }
+
+    /**
+     * Inserts through the buffer pool add pages to a compressed heap file
+     */
+    @Test public void insert() throws Exception {
+        f.setCompressed(true);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        int pages = f.getNumPages();
+        TransactionId tid = new TransactionId();
+        int rows = 0;
+        while (f.getNumPages() == pages) {
+            bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { rows, rows }));
+            rows++;
+        }
+        bp.transactionComplete(tid);
+        assertEquals((long) f.getNumPages() * BufferPool.getPageSize(), f.getLength());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(512 * 5 + rows, SystemTestUtil.scanTuples(Utility.openHeapFile(2, f.getFile())).size());
+    }
+
+    /**
+     * B+ tree pages, including the root pointer, are stored compressed and
+     * new pages are added to the file
+     */
+    @Test public void btree() throws Exception {
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, 1024 * 5, null, null, 0);
+        CompressedPages.tableFileOf(btree.getFile()).deleteOnExit();
+        int pages = btree.numPages();
+        btree.setCompressed(true);
+        assertEquals(pages, btree.numPages());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(1024 * 5, SystemTestUtil.scanTuples(btree).size());
+
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1024; i++) {
+            bp.insertTuple(tid, btree.getTableId(), Utility.getHeapTuple(new int[] { i, i }));
+        }
+        bp.transactionComplete(tid);
+        assertTrue(btree.numPages() > pages);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(1024 * 6, SystemTestUtil.scanTuples(btree).size());
+    }
+
+    /**
+     * "compressed" after the field list of a catalog entry compresses the table
+     */
+    @Test public void catalogOption() throws Exception {
+        File catalog = File.createTempFile("catalog", ".txt");
+        catalog.deleteOnExit();
+        File dir = catalog.getParentFile();
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write("compressed_t (a int, b int) compressed\n");
+        }
+        new File(dir, "compressed_t.dat").deleteOnExit();
+        CompressedPages.tableFileOf(new File(dir, "compressed_t.dat")).deleteOnExit();
+        Database.getCatalog().loadSchema(catalog.getPath());
+        Catalog c = Database.getCatalog();
+        assertTrue(c.getDbFile(c.getTableId("compressed_t")).isCompressed());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPagesTest.class);
+    }
+}
@@ -0,0 +1,150 @@
+package deerBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+
+public class EvictionPolicyTest extends DeerBaseTestBase {
+
+    private static final int CAPACITY = 32;
+    private static final int HOT = 8;
+
+    private static void access(PageTable table, int tableId, int pgNo) throws DbException {
+        PageId pid = new HeapPageId(tableId, pgNo);
+        if (table.get(pid) == null) {
+            table.putIfAbsent(pid, new PageTableBenchmark.BenchPage(pid));
+        }
+    }
+
+    private static void accessHotSet(PageTable table) throws DbException {
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < HOT; i++) {
+                access(table, 1, i);
+            }
+        }
+    }
+
+    private static void scan(PageTable table, int from, int numPages) throws DbException {
+        for (int i = from; i < from + numPages; i++) {
+            access(table, 2, i);
+        }
+    }
+
+    /**
+     * Read a hot set, scan, read the hot set again, then run a long scan.
+     * @return the number of hot pages still resident after the long scan
+     */
+    private static int hotPagesAfterScan(EvictionPolicy.Kind kind) throws DbException {
+        PageTable table = new PageTable(CAPACITY, 1, kind, null);
+        accessHotSet(table);
+        scan(table, 0, 40);
+        accessHotSet(table);
+        scan(table, 40, 4 * CAPACITY);
+
+        assertEquals(CAPACITY, table.size());
+        int resident = 0;
+        for (int i = 0; i < HOT; i++) {
+            if (table.containsKey(new HeapPageId(1, i))) {
+                resident++;
+            }
+        }
+        return resident;
+    }
+
+    @After public void resetPolicy() {
+        BufferPool.resetEvictionPolicy();
+    }
+
+    /**
+     * A long scan flushes the whole working set out of LRU and CLOCK
+     */
+    @Test public void recencyPoliciesAreFlushedByScans() throws Exception {
+        assertEquals(0, hotPagesAfterScan(EvictionPolicy.Kind.LRU));
+        assertEquals(0, hotPagesAfterScan(EvictionPolicy.Kind.CLOCK));
+    }
+
+    /**
+     * 2Q, ARC and LRU-K keep the hot set through a long scan
+     */
+    @Test public void scanResistantPolicies() throws Exception {
+        assertEquals(HOT, hotPagesAfterScan(EvictionPolicy.Kind.TWO_Q));
+        assertEquals(HOT, hotPagesAfterScan(EvictionPolicy.Kind.ARC));
+        assertEquals(HOT, hotPagesAfterScan(EvictionPolicy.Kind.LRU_K));
+    }
+
+    /**
+     * Every policy counts hits and misses of PageTable.get()
+     */
+    @Test public void hitRatio() throws Exception {
+        for (EvictionPolicy.Kind kind : EvictionPolicy.Kind.values()) {
+            PageTable table = new PageTable(CAPACITY, kind, null);
+            assertEquals(0.0, table.getHitRatio(), 0.0);
+            accessHotSet(table);
+            assertEquals(HOT, table.getMisses());
+            assertEquals(2 * HOT, table.getHits());
+            assertEquals(2.0 / 3.0, table.getHitRatio(), 1e-9);
+        }
+    }
+
+    /**
+     * Pages discarded explicitly leave no trace in the policy
+     */
+    @Test public void removeFreesFrame() throws Exception {
+        for (EvictionPolicy.Kind kind : EvictionPolicy.Kind.values()) {
+            PageTable table = new PageTable(CAPACITY, 1, kind, null);
+            scan(table, 0, CAPACITY);
+            for (int i = 0; i < CAPACITY; i++) {
+                assertTrue(table.remove(new HeapPageId(2, i)) != null);
+            }
+            assertEquals(0, table.size());
+            scan(table, 0, CAPACITY);
+            assertEquals(CAPACITY, table.size());
+            assertNull(table.peek(new HeapPageId(2, CAPACITY)));
+        }
+    }
+
+    /**
+     * A lookup that raced a discard and re-insert of its page does not
+     * promote the stale frame in place of the live one
+     */
+    @Test public void arcIgnoresStaleAccess() throws Exception {
+        PageId pid = new HeapPageId(1, 0);
+        ARCPolicy policy = new ARCPolicy(CAPACITY);
+        Frame stale = new Frame(pid, new PageTableBenchmark.BenchPage(pid), 0);
+        policy.onInsert(stale);
+        policy.onRemove(stale, false);
+        Frame live = new Frame(pid, new PageTableBenchmark.BenchPage(pid), 0);
+        policy.onInsert(live);
+
+        policy.onAccess(stale);
+        assertTrue(policy.chooseVictim(f -> true) == live);
+    }
+
+    /**
+     * Policy names accepted by -DdeerBase.EvictionPolicy
+     */
+    @Test public void parseAndConfigure() throws Exception {
+        assertEquals(EvictionPolicy.Kind.TWO_Q, EvictionPolicy.Kind.parse("2q"));
+        assertEquals(EvictionPolicy.Kind.LRU_K, EvictionPolicy.Kind.parse("LRU-K"));
+        assertEquals(EvictionPolicy.Kind.ARC, EvictionPolicy.Kind.parse("arc"));
+
+        BufferPool.setEvictionPolicy(EvictionPolicy.Kind.ARC);
+        assertEquals(EvictionPolicy.Kind.ARC, BufferPool.getEvictionPolicy());
+        assertFalse(Database.resetBufferPool(CAPACITY).getHitRatio() > 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,167 @@
+package deerBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class ExternalSortTest extends DeerBaseTestBase {
+
+    /**
+     * Tuples sorted in several runs come out in key order, each tuple once,
+     * and tuples with equal keys keep their input order
+     */
+    @Test public void runs() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, 50, null, tuples);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+        expected.sort(Comparator.comparing(t -> t.get(0)));
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        ExternalSort.Sorted sorted = ExternalSort.sort(it, f.getTupleDesc(),
+                new BTreeFileEncoder.TupleComparator(0), 64);
+        it.close();
+        assertEquals(16, sorted.getNumRuns());
+        for (ArrayList<Integer> tuple : expected) {
+            assertTrue(sorted.hasNext());
+            assertEquals(tuple, SystemTestUtil.tupleToList(sorted.next()));
+        }
+        assertFalse(sorted.hasNext());
+        sorted.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * More runs than can be merged at once are merged in several passes, and
+     * still come out in key order with ties in input order
+     */
+    @Test public void passes() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, 50, null, tuples);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+        expected.sort(Comparator.comparing(t -> t.get(0)));
+        int tmpFiles = countRuns();
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        ExternalSort.Sorted sorted = ExternalSort.sort(it, f.getTupleDesc(),
+                new BTreeFileEncoder.TupleComparator(0), 64, 3);
+        it.close();
+        assertEquals(16, sorted.getNumRuns());
+        for (ArrayList<Integer> tuple : expected) {
+            assertTrue(sorted.hasNext());
+            assertEquals(tuple, SystemTestUtil.tupleToList(sorted.next()));
+        }
+        assertFalse(sorted.hasNext());
+        sorted.close();
+        assertEquals(tmpFiles, countRuns());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A sort whose input fails leaves no runs behind
+     */
+    @Test public void failure() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, 50, null, null);
+        int tmpFiles = countRuns();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = new FailingIterator(f.iterator(tid), 700);
+        it.open();
+        try {
+            ExternalSort.sort(it, f.getTupleDesc(), new BTreeFileEncoder.TupleComparator(0), 64);
+            assertTrue("sort didn't fail", false);
+        } catch (DbException expected) {
+        }
+        it.close();
+        assertEquals(tmpFiles, countRuns());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the number of run files in the temporary directory */
+    private static int countRuns() {
+        File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles(
+                (dir, name) -> name.startsWith("run") && name.endsWith(".tmp"));
+        return (files == null) ? 0 : files.length;
+    }
+
+    /** Passes on the tuples of an iterator until the limit, then fails */
+    private static class FailingIterator implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+        private final DbFileIterator it;
+        private final int limit;
+        private int count;
+
+        FailingIterator(DbFileIterator it, int limit) {
+            this.it = it;
+            this.limit = limit;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            it.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (count == limit) {
+                throw new DbException("failed after " + limit + " tuples");
+            }
+            return it.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            count++;
+            return it.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            it.rewind();
+            count = 0;
+        }
+
+        public void close() {
+            it.close();
+        }
+    }
+
+    /**
+     * A B+ tree built from more tuples than a run holds scans in key order
+     */
+    @Test public void btree() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, ExternalSort.RUN_TUPLES + 100, null, tuples, 0);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(0)).getValue();
+            assertTrue(key >= last);
+            last = key;
+            count++;
+        }
+        it.close();
+        assertEquals(tuples.size(), count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExternalSortTest.class);
+    }
+}
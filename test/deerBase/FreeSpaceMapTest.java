@@ -0,0 +1,134 @@
+package deerBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends DeerBaseTestBase {
+
+    /**
+     * findPage returns the first page whose class is high enough, and the
+     * map grows as pages are added
+     */
+    @Test public void findPage() {
+        FreeSpaceMap fsm = new FreeSpaceMap(null, 0, 0);
+        assertEquals(-1, fsm.findPage(8));
+        int half = BufferPool.getPageSize() / 2;
+        for (int i = 0; i < 100; i++) {
+            fsm.setFreeSpace(i, 0);
+        }
+        assertEquals(100, fsm.getNumPages());
+        assertEquals(-1, fsm.findPage(8));
+
+        fsm.setFreeSpace(70, half);
+        fsm.setFreeSpace(40, 8);
+        assertEquals(40, fsm.findPage(8));
+        assertEquals(70, fsm.findPage(100));
+        assertEquals(-1, fsm.findPage(half + 100));
+
+        // page 40 turned out not to have room for 8 bytes
+        fsm.setNoRoomFor(40, 8, 8);
+        assertEquals(70, fsm.findPage(8));
+
+        fsm.setFreeSpace(1000, BufferPool.getPageSize());
+        assertEquals(1001, fsm.getNumPages());
+        assertEquals(FreeSpaceMap.MAX_CLASS, fsm.getClass(1000));
+        // the pages added before it are empty too
+        assertEquals(FreeSpaceMap.MAX_CLASS, fsm.getClass(100));
+        assertEquals(100, fsm.findPage(half + 100));
+    }
+
+    /**
+     * An insert visits the pages of a file without a map once, then goes
+     * straight to the page with room, and to a page a delete made room on
+     */
+    @Test public void insertLocksOnePage() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        assertEquals(10, f.getNumPages());
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { 1, 1 }));
+        bp.transactionComplete(tid);
+        assertEquals(11, f.getNumPages());
+
+        tid = new TransactionId();
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { 2, 2 }));
+        assertEquals(1, Database.getLockManager().getPageIdsOnTransactionId(tid).size());
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), 4), Permissions.READ_ONLY);
+        bp.deleteTuple(tid, page.iterator().next());
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 3, 3 });
+        bp.insertTuple(tid, f.getId(), t);
+        assertEquals(4, t.getRecordId().getPageId().pageNumber());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * The map is written with the pages and read back when the file is
+     * opened again, unless the data file changed after it
+     */
+    @Test public void persisted() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 3 + 10, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { 1, 1 }));
+        bp.transactionComplete(tid);
+        File file = f.getFile();
+        assertEquals(0, f.getFreeSpaceMap().getClass(0));
+
+        HeapFile reopened = Utility.openHeapFile(2, file);
+        FreeSpaceMap fsm = reopened.getFreeSpaceMap();
+        assertEquals(0, fsm.getClass(0));
+        assertEquals(3, fsm.findPage(8));
+
+        // rewritten behind the map's back: every page is visited again
+        file.setLastModified(FreeSpaceMap.fileOf(file).lastModified() + 2000);
+        assertEquals(FreeSpaceMap.MAX_CLASS, Utility.openHeapFile(2, file).getFreeSpaceMap().getClass(0));
+    }
+
+    /**
+     * A map is still read back after the last write of the data file changed
+     * no class, e.g. a commit that updated a tuple in place
+     */
+    @Test public void persistedAfterUnchangedWrite() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 3 + 10, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { 1, 1 }));
+        bp.transactionComplete(tid);
+        File file = f.getFile();
+        File fsmFile = FreeSpaceMap.fileOf(file);
+        fsmFile.setLastModified(fsmFile.lastModified() - 2000);
+
+        tid = new TransactionId();
+        Page page = bp.getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_WRITE);
+        page.markDirty(true, tid);
+        bp.transactionComplete(tid);
+        assertTrue(fsmFile.lastModified() >= file.lastModified());
+
+        FreeSpaceMap fsm = Utility.openHeapFile(2, file).getFreeSpaceMap();
+        assertEquals(0, fsm.getClass(0));
+        assertEquals(3, fsm.findPage(8));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
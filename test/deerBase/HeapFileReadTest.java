@@ -129,6 +129,26 @@ public class HeapFileReadTest extends DeerBaseTestBase {
         it.close();
     }
 
+    /**
+     * A file encoded in several chunks reads back every row, in input order
+     */
+    @Test
+    public void encodedInChunks() throws Exception {
+        int rows = 504 * HeapFileEncoder.CHUNK_PAGES * 2 + 7;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, rows, null, tuples);
+        assertEquals(HeapFileEncoder.CHUNK_PAGES * 2 + 1, big.getNumPages());
+
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        for (ArrayList<Integer> tuple : tuples) {
+            assertTrue(it.hasNext());
+            assertEquals(tuple, SystemTestUtil.tupleToList(it.next()));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
     /**
      * JUnit suite target
      */
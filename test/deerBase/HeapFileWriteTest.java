@@ -1,5 +1,8 @@
 package deerBase;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -44,6 +47,86 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.getNumPages());
     }
 
+    /**
+     * Unit test for HeapFile.writePages() and readPages(): pages written in
+     * any order read back in the order asked for, holes read as empty pages
+     */
+    @Test public void writePagesReadPages() throws Exception {
+        int[] pgNos = new int[] { 2, 0, 1, 5 };
+        List<Page> pages = new ArrayList<Page>();
+        for (int pgNo : pgNos) {
+            HeapPage page = new HeapPage(new HeapPageId(empty.getId(), pgNo), HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(pgNo, 2));
+            pages.add(page);
+        }
+        empty.writePages(pages);
+        assertEquals(6 * BufferPool.getPageSize(), empty.getFile().length());
+
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int pgNo : new int[] { 5, 4, 0, 1, 2 }) {
+            pids.add(new HeapPageId(empty.getId(), pgNo));
+        }
+        List<Page> read = empty.readPages(pids);
+        assertEquals(pids.size(), read.size());
+        for (int i = 0; i < pids.size(); i++) {
+            assertEquals(pids.get(i), read.get(i).getId());
+            assertArrayEquals(empty.readPage(pids.get(i)).getPageData(), read.get(i).getPageData());
+        }
+        assertArrayEquals(pages.get(0).getPageData(), read.get(4).getPageData());
+        HeapPage hole = (HeapPage) read.get(1);
+        assertEquals(hole.numSlots, hole.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapFile.bulkAppend(): tuples fill fresh pages, locked
+     * for the transaction and written in one batch
+     */
+    @Test public void bulkAppend() throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 3 + 1; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(tuples.size(), empty.bulkAppend(tid, tuples.iterator()));
+        assertEquals(4, empty.getNumPages());
+        assertEquals(4 * BufferPool.getPageSize(), empty.getFile().length());
+        assertEquals(4, bp.getMetrics().getAppendFlushes());
+        assertEquals(0, bp.getNumUsedPages());
+        assertEquals(4, Database.getLockManager().getPageIdsOnTransactionId(tid).size());
+        assertEquals(new HeapPageId(empty.getId(), 3), tuples.get(504 * 3).getRecordId().getPageId());
+        assertEquals(3, empty.getFreeSpaceMap().findPage(8));
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        for (Tuple t : tuples) {
+            assertTrue(it.hasNext());
+            assertTrue(TestUtil.compareTuples(t, it.next()));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * Pages added by HeapFile.bulkAppend() are empty again after an abort
+     */
+    @Test public void bulkAppendAbort() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 600; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        empty.bulkAppend(t.getId(), tuples.iterator());
+        t.abort();
+
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
     /**
      * JUnit suite target
      */
@@ -19,8 +19,11 @@ import deerBase.TestUtil.SkeletonFile;
 import deerBase.systemtest.DeerBaseTestBase;
 import deerBase.systemtest.SystemTestUtil;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -129,6 +132,32 @@ public class HeapPageReadTest extends DeerBaseTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Tuples are decoded when first asked for; a page never decoded writes
+     * back the bytes it was read from
+     */
+    @Test public void lazyDecode() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+        for (int i = 0; i < page.numSlots; i++) {
+            assertNull(page.tuples[i]);
+        }
+
+        Tuple t = page.getTuple(3);
+        assertEquals(EXAMPLE_VALUES[3][0], ((IntField) t.getField(0)).getValue());
+        assertEquals(new RecordId(pid, 3), t.getRecordId());
+        assertSame(t, page.tuples[3]);
+        assertNull(page.tuples[4]);
+        assertNull(page.getTuple(20));
+
+        // a modified page mixes decoded and raw slots
+        page.deleteTuple(page.getTuple(0));
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+        assertEquals(EXAMPLE_VALUES[19][1], ((IntField) reread.getTuple(19).getField(1)).getValue());
+        assertArrayEquals(EXAMPLE_DATA, page.getBeforeImage().getPageData());
+    }
+
     /**
      * JUnit suite target
      */
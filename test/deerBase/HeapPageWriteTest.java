@@ -1,5 +1,6 @@
 package deerBase;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -126,6 +127,29 @@ public class HeapPageWriteTest extends DeerBaseTestBase {
         }
     }
 
+    /**
+     * Unit test for copy-on-write before-images: setBeforeImage releases the
+     * old image, captureBeforeImage copies the current one for the next writer
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        // committed: the current contents are the before-image, no copy is kept
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertEquals(null, page.oldData);
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+
+        page.captureBeforeImage();
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        // a second capture by the same writer keeps the first image
+        page.captureBeforeImage();
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        assertEquals(page.getNumEmptySlots() + 1, page.getBeforeImage().getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
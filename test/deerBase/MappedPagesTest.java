@@ -0,0 +1,113 @@
+package deerBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class MappedPagesTest extends DeerBaseTestBase {
+
+    private HeapFile f;
+
+    @Before public void setUp() throws Exception {
+        // ~5 pages
+        f = SystemTestUtil.createRandomHeapFile(2, 512 * 5, null, null);
+        Prefetcher.setDistance(0);
+    }
+
+    @After public void resetSettings() {
+        Prefetcher.resetDistance();
+    }
+
+    /**
+     * A mapped read decodes the same page as a positional read
+     */
+    @Test public void sameAsRead() throws Exception {
+        HeapPageId pid = new HeapPageId(f.getId(), 2);
+        byte[] expected = f.readPage(pid).getPageData();
+        f.setMapped(true);
+        assertArrayEquals(expected, f.readPage(pid).getPageData());
+        assertArrayEquals(expected, f.readPage(pid).getBeforeImage().getPageData());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(512 * 5, SystemTestUtil.scanTuples(f).size());
+    }
+
+    /**
+     * Slices come from one segment of the file; past its end there is no slice
+     */
+    @Test public void slices() throws Exception {
+        MappedPages mapped = new MappedPages(f.getFile());
+        int pageSize = BufferPool.getPageSize();
+        assertEquals(pageSize, mapped.slice(pageSize, pageSize).remaining());
+        assertEquals(f.getFile().length(), mapped.getMappedBytes());
+        assertEquals(null, mapped.slice(f.getFile().length(), pageSize));
+        assertEquals(null, mapped.slice(MappedPages.SEGMENT_BYTES - 1, pageSize));
+    }
+
+    /**
+     * The mapping grows when a page added by an insert is written back
+     */
+    @Test public void growsOnInsert() throws Exception {
+        f.setMapped(true);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        int pages = f.getNumPages();
+        SystemTestUtil.scanTuples(f);
+        TransactionId tid = new TransactionId();
+        int rows = 0;
+        while (f.getNumPages() == pages) {
+            bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { rows, rows }));
+            rows++;
+        }
+        bp.transactionComplete(tid);
+        assertEquals((long) f.getNumPages() * BufferPool.getPageSize(), f.getFile().length());
+
+        HeapPage added = (HeapPage) f.readPage(new HeapPageId(f.getId(), pages));
+        assertTrue(added.getNumEmptySlots() < added.numSlots);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(512 * 5 + rows, SystemTestUtil.scanTuples(f).size());
+    }
+
+    /**
+     * B+ tree pages, including the root pointer, are read through the mapping
+     */
+    @Test public void btree() throws Exception {
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, 1024 * 5, null, null, 0);
+        btree.setMapped(true);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(1024 * 5, SystemTestUtil.scanTuples(btree).size());
+    }
+
+    /**
+     * "mmap" after the field list of a catalog entry maps the table
+     */
+    @Test public void catalogOption() throws Exception {
+        File catalog = File.createTempFile("catalog", ".txt");
+        catalog.deleteOnExit();
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write("mapped_t (a int, b int) mmap\n");
+            w.write("plain_t (a int, b int)\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getPath());
+        Catalog c = Database.getCatalog();
+        assertTrue(c.getDbFile(c.getTableId("mapped_t")).isMapped());
+        assertTrue(!c.getDbFile(c.getTableId("plain_t")).isMapped());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedPagesTest.class);
+    }
+}
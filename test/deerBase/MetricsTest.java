@@ -0,0 +1,154 @@
+package deerBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class MetricsTest extends DeerBaseTestBase {
+
+    private static final int BUFFER_PAGES = 8;
+
+    private HeapFile f;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        // ~10 pages
+        f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        BufferPool.setScanRingThreshold(Double.MAX_VALUE);
+        Prefetcher.setDistance(0);
+        bp = Database.resetBufferPool(BUFFER_PAGES);
+    }
+
+    @After public void resetSettings() {
+        BufferPool.resetScanRing();
+        Prefetcher.resetDistance();
+    }
+
+    /**
+     * Percentiles report the upper bound of their power-of-two bucket
+     */
+    @Test public void histogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentileNanos(50));
+        for (int i = 0; i < 99; i++) {
+            h.record(100);
+        }
+        h.record(1000000);
+        assertEquals(100, h.getCount());
+        assertEquals(127, h.getPercentileNanos(50));
+        assertEquals(127, h.getPercentileNanos(99));
+        assertEquals((1 << 20) - 1, h.getPercentileNanos(100));
+        assertEquals((99 * 100 + 1000000) / 100.0, h.getMeanNanos(), 0.001);
+    }
+
+    /**
+     * Hits, misses, reads and evictions are counted globally and per table
+     */
+    @Test public void scanCounters() throws Exception {
+        SystemTestUtil.scanTuples(f);
+        Metrics.Counters table = bp.getMetrics().getTable(f.getId());
+        int pages = f.getNumPages();
+        assertEquals(pages, table.getMisses());
+        // commit also reads the evicted pages back for their before-images
+        assertTrue(table.getReads().getCount() >= pages);
+        assertEquals(pages - BUFFER_PAGES, table.getEvictions());
+        assertEquals(pages, bp.getMetrics().getMisses());
+        assertEquals(BUFFER_PAGES, bp.getNumUsedPages());
+
+        bp.getMetrics().reset();
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(f.getId(), pages - 1), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertEquals(1, bp.getMetrics().getHits());
+        assertEquals(0, bp.getMetrics().getPageReads());
+    }
+
+    /**
+     * Writes are counted by the reason the page was flushed, and inserting
+     * into a resident page does not count it as used twice
+     */
+    @Test public void flushReasons() throws Exception {
+        bp = Database.resetBufferPool(50);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        }
+        assertEquals(f.getNumPages(), bp.getNumUsedPages());
+        assertEquals(1, bp.getNumDirtyPages());
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getNumDirtyPages());
+        Metrics metrics = bp.getMetrics();
+        // only the dirty page is written, not every page the transaction locked
+        assertEquals(1, metrics.getCommitFlushes());
+        assertEquals(0, metrics.getEvictionFlushes());
+        assertEquals(1, metrics.getPageWrites());
+        assertEquals(1, metrics.getTable(f.getId()).getFlushes(Metrics.FlushReason.COMMIT));
+
+        // inserts go straight to a page with room, so read the others
+        // through a small pool to evict the dirty one
+        bp = Database.resetBufferPool(BUFFER_PAGES);
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 0, 0 });
+        bp.insertTuple(tid, f.getId(), t);
+        for (int i = 0; i < f.getNumPages(); i++) {
+            HeapPageId pid = new HeapPageId(f.getId(), i);
+            if (!pid.equals(t.getRecordId().getPageId())) {
+                bp.getPage(tid, pid, Permissions.READ_ONLY);
+                bp.releasePage(tid, pid);
+                bp.unpinPage(tid, pid);
+            }
+        }
+        assertEquals(1, bp.getMetrics().getEvictionFlushes());
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { 1, 1 }));
+        bp.flushAllPages();
+        assertEquals(1, bp.getMetrics().getFlushAllFlushes());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * The metrics of the current buffer pool are readable over JMX
+     */
+    @Test public void jmx() throws Exception {
+        SystemTestUtil.scanTuples(f);
+        ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+        assertEquals(bp.getMetrics().getMisses(),
+                ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Misses"));
+        String report = (String) ManagementFactory.getPlatformMBeanServer()
+                .invoke(name, "report", new Object[0], new String[0]);
+        assertTrue(report.contains(Database.getCatalog().getTableName(f.getId())));
+
+        // a new buffer pool replaces the bean
+        Database.resetBufferPool(BUFFER_PAGES);
+        assertEquals(0L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Misses"));
+    }
+
+    /**
+     * SHOW STATS is recognized by the Parser shell
+     */
+    @Test public void showStats() {
+        Parser parser = new Parser();
+        assertTrue(parser.processShowStats("show stats;"));
+        assertTrue(parser.processShowStats("  SHOW   Stats ;"));
+        assertFalse(parser.processShowStats("select * from t;"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MetricsTest.class);
+    }
+}
@@ -0,0 +1,133 @@
+package deerBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class OffHeapArenaTest extends DeerBaseTestBase {
+
+    private static final int HEAP_PAGES = 8;
+    private static final int OFF_HEAP_PAGES = 64;
+
+    @After public void resetSettings() {
+        BufferPool.resetOffHeapPages();
+        BufferPool.resetScanRing();
+        Prefetcher.resetDistance();
+    }
+
+    /** a page with a recognizable image */
+    private static Page page(int pgNo, final byte fill) {
+        return new PageTableBenchmark.BenchPage(new HeapPageId(1, pgNo)) {
+            public byte[] getPageData() {
+                byte[] data = new byte[BufferPool.getPageSize()];
+                java.util.Arrays.fill(data, fill);
+                return data;
+            }
+        };
+    }
+
+    /**
+     * Unit test for OffHeapArena.store(), load() and remove()
+     */
+    @Test public void storeLoadRemove() {
+        OffHeapArena arena = new OffHeapArena(4, BufferPool.getPageSize());
+        assertEquals(4L * BufferPool.getPageSize(), arena.getCapacityBytes());
+        Page p = page(0, (byte) 7);
+        arena.store(p);
+        assertTrue(arena.contains(p.getId()));
+        assertArrayEquals(p.getPageData(), arena.load(p.getId()));
+
+        arena.store(page(0, (byte) 9));
+        assertEquals(1, arena.size());
+        assertEquals(9, arena.load(p.getId())[0]);
+
+        arena.remove(p.getId());
+        assertNull(arena.load(p.getId()));
+        assertEquals(2, arena.getHits());
+        assertEquals(1, arena.getMisses());
+    }
+
+    /**
+     * A full arena replaces an image that was not loaded since it was stored
+     */
+    @Test public void clockReplacement() {
+        OffHeapArena arena = new OffHeapArena(2, BufferPool.getPageSize());
+        arena.store(page(0, (byte) 0));
+        arena.store(page(1, (byte) 1));
+        arena.load(new HeapPageId(1, 0));
+        arena.store(page(2, (byte) 2));
+        assertTrue(arena.contains(new HeapPageId(1, 0)));
+        assertFalse(arena.contains(new HeapPageId(1, 1)));
+        assertTrue(arena.contains(new HeapPageId(1, 2)));
+    }
+
+    /**
+     * Pages evicted from a small on-heap pool are re-materialized from the
+     * arena, and the scans see the same tuples as the disk
+     */
+    @Test public void heapFileThroughArena() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1024 * 10, null, expected);
+        assertTrue(f.getNumPages() > HEAP_PAGES);
+        BufferPool.setScanRingThreshold(Double.MAX_VALUE);
+        Prefetcher.setDistance(0);
+        BufferPool.setOffHeapPages(OFF_HEAP_PAGES);
+        BufferPool bp = Database.resetBufferPool(HEAP_PAGES);
+        OffHeapArena arena = bp.getOffHeapArena();
+
+        assertEquals(expected, SystemTestUtil.scanTuples(f));
+        assertEquals(0, arena.getHits());
+        assertEquals(f.getNumPages() - HEAP_PAGES, arena.size());
+
+        assertEquals(expected, SystemTestUtil.scanTuples(f));
+        assertTrue(arena.getHits() > 0);
+    }
+
+    /**
+     * B+ tree pages are re-materialized with BTreeFile.createPage
+     */
+    @Test public void btreeThroughArena() throws Exception {
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 1024 * 10, null, null, 0);
+        Prefetcher.setDistance(0);
+        BufferPool.setOffHeapPages(OFF_HEAP_PAGES);
+        BufferPool bp = Database.resetBufferPool(HEAP_PAGES);
+
+        ArrayList<ArrayList<Integer>> first = SystemTestUtil.scanTuples(f);
+        assertEquals(1024 * 10, first.size());
+        assertEquals(first, SystemTestUtil.scanTuples(f));
+        assertTrue(bp.getOffHeapArena().getHits() > 0);
+    }
+
+    /**
+     * A page written back leaves the arena, its image would be stale
+     */
+    @Test public void writeRemovesImage() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1024, null, null);
+        BufferPool.setOffHeapPages(OFF_HEAP_PAGES);
+        BufferPool bp = Database.resetBufferPool(HEAP_PAGES);
+        PageId pid = new HeapPageId(f.getId(), 0);
+        Page page = f.readPage(pid);
+        bp.getOffHeapArena().store(page);
+        bp.writeBack(page, Metrics.FlushReason.FLUSH_ALL);
+        assertFalse(bp.getOffHeapArena().contains(pid));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapArenaTest.class);
+    }
+}
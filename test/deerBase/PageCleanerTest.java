@@ -0,0 +1,124 @@
+package deerBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.EvictionTest;
+import deerBase.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends DeerBaseTestBase {
+
+    private static final long INTERVAL_MS = 20;
+
+    @After public void stopCleaners() {
+        Database.getBufferPool().stopPageCleaners();
+        BufferPool.resetTableQuotas();
+    }
+
+    /** wait until the cleaners wrote at least one page */
+    private static void awaitCleaned(BufferPool bp) throws InterruptedException {
+        for (int i = 0; i < 200 && written(bp) == 0; i++) {
+            Thread.sleep(INTERVAL_MS);
+        }
+    }
+
+    private static long written(BufferPool bp) {
+        long written = 0;
+        for (PageCleaner cleaner : bp.getPageCleaners()) {
+            written += cleaner.getPagesWritten();
+        }
+        return written;
+    }
+
+    /**
+     * A dirty page left alone for a sweep is written back by a cleaner
+     */
+    @Test public void cleansIdleDirtyPage() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.startPageCleaners(2, INTERVAL_MS);
+        assertEquals(2, bp.getPageCleaners().length);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        awaitCleaned(bp);
+
+        assertEquals(1, written(bp));
+        assertTrue(bp.getCleanerWriteRate() > 0);
+        Page page = bp.getPage(t.getId(), new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        assertFalse(page.isDirty());
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /**
+     * Dirty pages of a table with a partition of its own are cleaned too
+     */
+    @Test public void cleansPartition() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        BufferPool.setTableQuota(Database.getCatalog().getTableName(f.getId()), TableQuota.reserve(8));
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.startPageCleaners(2, INTERVAL_MS);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        awaitCleaned(bp);
+
+        assertEquals(1, written(bp));
+        assertEquals(0, bp.getNumDirtyPages());
+        t.commit();
+    }
+
+    /**
+     * An abort after the cleaner wrote an uncommitted page is rolled back
+     * through the log
+     */
+    @Test public void abortAfterClean() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.startPageCleaners(1, INTERVAL_MS);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        awaitCleaned(bp);
+        assertEquals(1, written(bp));
+        t.transactionComplete(true);
+
+        t = new Transaction();
+        t.start();
+        assertFalse(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /**
+     * Replacing the buffer pool stops its cleaners
+     */
+    @Test public void resetStopsCleaners() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.startPageCleaners(3, INTERVAL_MS);
+        PageCleaner[] cleaners = bp.getPageCleaners();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        for (PageCleaner cleaner : cleaners) {
+            assertFalse(cleaner.isRunning());
+        }
+        assertEquals(0, bp.getPageCleaners().length);
+        assertEquals(0, bp.getCleanerQueueDepth());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
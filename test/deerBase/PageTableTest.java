@@ -0,0 +1,159 @@
+package deerBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+
+public class PageTableTest extends DeerBaseTestBase {
+
+    private static Page page(int pgNo) {
+        return new PageTableBenchmark.BenchPage(new HeapPageId(1, pgNo));
+    }
+
+    /**
+     * Unit test for PageTable.get(), peek(), putIfAbsent() and remove()
+     */
+    @Test public void getPutRemove() throws Exception {
+        PageTable table = new PageTable(8, null);
+        Page p0 = page(0);
+        table.put(p0.getId(), p0);
+        assertSame(p0, table.get(new HeapPageId(1, 0)));
+        assertSame(p0, table.peek(new HeapPageId(1, 0)));
+        assertNull(table.get(new HeapPageId(1, 1)));
+
+        // putIfAbsent keeps the page that got there first
+        assertSame(p0, table.putIfAbsent(p0.getId(), page(0)));
+        // put replaces it
+        Page p0Copy = page(0);
+        table.put(p0Copy.getId(), p0Copy);
+        assertSame(p0Copy, table.get(p0.getId()));
+        assertEquals(1, table.size());
+
+        assertSame(p0Copy, table.remove(p0.getId()));
+        assertNull(table.remove(p0.getId()));
+        assertFalse(table.containsKey(p0.getId()));
+        assertEquals(0, table.size());
+    }
+
+    /**
+     * Unit test for the CLOCK replacement: a page touched since the last
+     * sweep survives, an untouched one is evicted.
+     */
+    @Test public void clockEviction() throws Exception {
+        PageTable table = new PageTable(4, null);
+        assertEquals(1, table.getNumSegments());
+        for (int i = 0; i < 4; i++) {
+            table.put(new HeapPageId(1, i), page(i));
+        }
+        // all frames referenced: the sweep clears them and evicts the first
+        table.put(new HeapPageId(1, 4), page(4));
+        assertFalse(table.containsKey(new HeapPageId(1, 0)));
+
+        table.get(new HeapPageId(1, 1));
+        table.put(new HeapPageId(1, 5), page(5));
+        assertTrue(table.containsKey(new HeapPageId(1, 1)));
+        assertFalse(table.containsKey(new HeapPageId(1, 2)));
+        assertEquals(4, table.size());
+    }
+
+    /**
+     * Dirty victims need a BufferPool to be written back
+     */
+    @Test(expected = DbException.class) public void dirtyWithoutOwner() throws Exception {
+        PageTable table = new PageTable(1, null);
+        table.put(new HeapPageId(1, 0), new PageTableBenchmark.BenchPage(new HeapPageId(1, 0)) {
+            public boolean isDirty() { return true; }
+        });
+        table.put(new HeapPageId(1, 1), page(1));
+    }
+
+    /**
+     * Unit test for PageTable.keyIterator() across several segments
+     */
+    @Test public void keyIterator() throws Exception {
+        PageTable table = new PageTable(256, 8, null);
+        assertEquals(8, table.getNumSegments());
+        for (int i = 0; i < 100; i++) {
+            table.put(new HeapPageId(1, i), page(i));
+        }
+        Set<PageId> seen = new HashSet<PageId>();
+        Iterator<PageId> it = table.keyIterator();
+        while (it.hasNext()) {
+            seen.add(it.next());
+        }
+        assertEquals(100, seen.size());
+    }
+
+    /**
+     * A segment whose frames are all pinned takes frames over from the
+     * others, so every frame of the table can be pinned, but no more
+     */
+    @Test public void pinAcrossSegments() throws Exception {
+        PageTable table = new PageTable(64, 4, EvictionPolicy.Kind.CLOCK, null);
+        assertEquals(4, table.getNumSegments());
+        for (int i = 0; i < 64; i++) {
+            table.put(new HeapPageId(1, i), page(i));
+        }
+        // pages 1000, 1004, ... all hash to the same segment
+        for (int i = 0; i < 64; i++) {
+            table.putIfAbsentAndPin(new HeapPageId(1, 1000 + 4 * i), page(1000 + 4 * i));
+        }
+        assertEquals(64, table.size());
+        assertEquals(64, table.getNumPinned());
+        try {
+            table.putIfAbsentAndPin(new HeapPageId(1, 2000), page(2000));
+            assertTrue("inserted into a table of pinned pages", false);
+        } catch (DbException expected) {
+        }
+    }
+
+    /**
+     * Concurrent hits and misses never exceed the table's capacity
+     */
+    @Test public void concurrentAccess() throws Exception {
+        final PageTable table = new PageTable(64, 4, null);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 20000; i++) {
+                        int pgNo = (i * 31 + seed) % 200;
+                        if (table.get(new HeapPageId(1, pgNo)) == null) {
+                            table.putIfAbsent(new HeapPageId(1, pgNo), page(pgNo));
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+        assertTrue(table.size() <= 64);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTableTest.class);
+    }
+}
@@ -0,0 +1,149 @@
+package deerBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import deerBase.TestUtil.SkeletonFile;
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class PaxHeapPageTest extends DeerBaseTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+            new String[] { "year", "name", "type" });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int year, String name, int type) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(year));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        t.setField(2, new IntField(type));
+        return t;
+    }
+
+    /**
+     * A page holds as many tuples as a HeapPage, and reads them back from
+     * its image
+     */
+    @Test public void insertAndReadBack() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, PaxHeapPage.createEmptyPageData());
+        HeapPage heapPage = new HeapPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(heapPage.getNumEmptySlots(), page.getNumEmptySlots());
+
+        int n = 0;
+        while (!page.isFull()) {
+            page.insertTuple(tuple(n, "venue" + n, n % 3));
+            n++;
+        }
+        assertEquals(heapPage.getNumEmptySlots(), n);
+
+        PaxHeapPage copy = new PaxHeapPage(pid, page.getPageData());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+        int i = 0;
+        for (Iterator<Tuple> it = copy.iterator(); it.hasNext(); i++) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(tuple(i, "venue" + i, i % 3), t));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertEquals(n, i);
+
+        Tuple first = copy.iterator().next();
+        copy.deleteTuple(first);
+        assertEquals(1, copy.getNumEmptySlots());
+        assertEquals(new IntField(1), copy.iterator().next().getField(0));
+        Tuple t = tuple(-1, "again", 0);
+        copy.insertTuple(t);
+        assertEquals(first.getRecordId(), t.getRecordId());
+    }
+
+    /**
+     * A scan of a few columns reads those fields, and leaves the others unread
+     */
+    @Test public void columns() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, PaxHeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++) {
+            page.insertTuple(tuple(2000 + i, "venue" + i, i % 3));
+        }
+        int i = 0;
+        for (Iterator<Tuple> it = page.iterator(new int[] { 0, 2 }); it.hasNext(); i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(2000 + i), t.getField(0));
+            assertEquals(new StringField("", Type.STRING_LEN), t.getField(1));
+            assertEquals(new IntField(i % 3), t.getField(2));
+        }
+        assertEquals(10, i);
+    }
+
+    /**
+     * A PaxHeapFile filled through the buffer pool answers a plan that reads
+     * two of its columns
+     */
+    @Test public void plan() throws Exception {
+        File file = File.createTempFile("pax", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.fileOf(file).deleteOnExit();
+        PaxHeapFile f = new PaxHeapFile(file, TD);
+        String name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(f, name);
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        int rows = 0;
+        while (f.getNumPages() < 3) {
+            bp.insertTuple(tid, f.getId(), tuple(1990 + rows % 30, "venue" + rows, rows % 3));
+            rows++;
+        }
+        bp.transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "v");
+        lp.addFilter("v.year", Predicate.Op.GREATER_THAN_OR_EQ, "2010");
+        lp.addProjectField("v.type", null);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1));
+
+        tid = new TransactionId();
+        DbIterator it = lp.physicalPlan(tid, stats, false);
+        it.open();
+        ArrayList<Integer> types = new ArrayList<Integer>();
+        while (it.hasNext()) {
+            types.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < rows; i++) {
+            if (1990 + i % 30 >= 2010) {
+                expected.add(i % 3);
+            }
+        }
+        assertEquals(expected, types);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
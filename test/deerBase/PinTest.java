@@ -0,0 +1,150 @@
+package deerBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class PinTest extends DeerBaseTestBase {
+
+    private static final int BUFFER_PAGES = 2;
+
+    private HeapFile f;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        // small tables are scanned through getPage, not a ScanRing
+        BufferPool.setScanRingThreshold(Double.MAX_VALUE);
+        Prefetcher.setDistance(0);
+        bp = Database.resetBufferPool(BUFFER_PAGES);
+        tid = new TransactionId();
+    }
+
+    @After public void resetSettings() {
+        BufferPool.resetScanRing();
+        Prefetcher.resetDistance();
+    }
+
+    private PageId pid(int pgNo) {
+        return new HeapPageId(f.getId(), pgNo);
+    }
+
+    /**
+     * A page pinned by getPage is never chosen as a victim
+     */
+    @Test public void pinnedPagesAreNotEvicted() throws Exception {
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        assertEquals(2, bp.getNumPinnedPages());
+        try {
+            bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+            fail("expected all pages to be pinned");
+        } catch (DbException e) {
+        }
+
+        bp.unpinPage(tid, pid(0));
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        assertFalse(bp.isResident(pid(0)));
+        assertTrue(bp.isResident(pid(1)));
+        assertTrue(bp.isResident(pid(2)));
+    }
+
+    /**
+     * A page pinned twice stays pinned until both pins are released
+     */
+    @Test public void pinsAreCounted() throws Exception {
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(2, bp.getPinCount(tid));
+        bp.unpinPage(tid, pid(0));
+        assertEquals(1, bp.getNumPinnedPages());
+        bp.unpinPage(tid, pid(0));
+        assertEquals(0, bp.getNumPinnedPages());
+        // releasing a pin that is not held is ignored
+        bp.unpinPage(tid, pid(0));
+        assertEquals(0, bp.getPinCount(tid));
+    }
+
+    /**
+     * A scan unpins every page it moves past, so it fits in a tiny pool
+     */
+    @Test public void scanUnpins() throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int rows = 0;
+        while (it.hasNext()) {
+            it.next();
+            rows++;
+            assertTrue(bp.getNumPinnedPages() <= 1);
+        }
+        it.close();
+        assertEquals(512 * 10, rows);
+        assertEquals(0, bp.getNumPinnedPages());
+        assertEquals(0, bp.getPinCount(tid));
+    }
+
+    /**
+     * Pins left over are released when the transaction completes
+     */
+    @Test public void transactionCompleteUnpins() throws Exception {
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getNumPinnedPages());
+        assertEquals(0, bp.getPinCount(tid));
+    }
+
+    /**
+     * evictPage picks an unpinned page and fails when every page is pinned
+     */
+    @Test public void evictPage() throws Exception {
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        try {
+            bp.evictPage();
+            fail("expected all pages to be pinned");
+        } catch (DbException e) {
+        }
+        bp.unpinPage(tid, pid(1));
+        bp.evictPage();
+        assertTrue(bp.isResident(pid(0)));
+        assertFalse(bp.isResident(pid(1)));
+    }
+
+    /**
+     * A B+ tree scan keeps only its current leaf pinned
+     */
+    @Test public void btreeScanPinsLeafOnly() throws Exception {
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, 1024 * 5, null, null, 0);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        DbFileIterator it = btree.iterator(tid);
+        it.open();
+        int rows = 0;
+        while (it.hasNext()) {
+            it.next();
+            rows++;
+            assertEquals(1, bp.getPinCount(tid));
+        }
+        it.close();
+        assertEquals(1024 * 5, rows);
+        assertEquals(0, bp.getPinCount(tid));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PinTest.class);
+    }
+}
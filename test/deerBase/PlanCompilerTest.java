@@ -0,0 +1,154 @@
+package deerBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class PlanCompilerTest extends DeerBaseTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+            new String[] { "a", "b", "c" });
+
+    /** @return the tuples of a random 3 column table, read from its pages */
+    private static ArrayList<Tuple> views() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 500, 20, null, null);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    private static Tuple tuple(int a, String b, int c) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField(b, Type.STRING_LEN));
+        t.setField(2, new IntField(c));
+        return t;
+    }
+
+    /**
+     * A compiled predicate agrees with Predicate for each operator, on
+     * tuples read from pages and on tuples built from fields
+     */
+    @Test public void intFilter() throws Exception {
+        ArrayList<Tuple> tuples = views();
+        tuples.add(Utility.getHeapTuple(new int[] { 3, 10, 7 }));
+        TupleDesc td = tuples.get(0).getTupleDesc();
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(10));
+            PlanCompiler.TupleFilter compiled = PlanCompiler.compile(td, p);
+            assertNotSame(p, compiled);
+            for (Tuple t : tuples) {
+                assertEquals(op + " " + t, p.filter(t), compiled.filter(t));
+            }
+        }
+    }
+
+    /**
+     * Strings compare as StringField does, and a conjunction holds when each
+     * of its predicates does
+     */
+    @Test public void stringFilter() {
+        String[] names = { "", "ab", "abc", "b", "zz" };
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new StringField("ab", Type.STRING_LEN));
+            Predicate q = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(3));
+            PlanCompiler.TupleFilter compiled = PlanCompiler.compile(TD, p, q);
+            for (int i = 0; i < names.length; i++) {
+                Tuple t = tuple(i, names[i], i);
+                assertEquals(op + " " + t, p.filter(t) && q.filter(t), compiled.filter(t));
+            }
+        }
+    }
+
+    /**
+     * A compiled join predicate agrees with JoinPredicate
+     */
+    @Test public void join() throws Exception {
+        ArrayList<Tuple> tuples = views();
+        TupleDesc td = tuples.get(0).getTupleDesc();
+        for (Predicate.Op op : Predicate.Op.values()) {
+            JoinPredicate p = new JoinPredicate(0, op, 2);
+            PlanCompiler.JoinFilter compiled = PlanCompiler.compile(td, td, p);
+            assertNotSame(p, compiled);
+            for (int i = 0; i < 50; i++) {
+                Tuple t1 = tuples.get(i);
+                Tuple t2 = tuples.get(tuples.size() - 1 - i);
+                assertEquals(op + " " + t1 + " " + t2, p.filter(t1, t2), compiled.filter(t1, t2));
+            }
+        }
+        JoinPredicate strings = new JoinPredicate(1, Predicate.Op.LIKE, 1);
+        PlanCompiler.JoinFilter compiled = PlanCompiler.compile(TD, TD, strings);
+        assertTrue(compiled.filter(tuple(0, "xaby", 0), tuple(0, "ab", 0)));
+        assertTrue(!compiled.filter(tuple(0, "ab", 0), tuple(0, "xaby", 0)));
+    }
+
+    /**
+     * A projection of a view copies the bytes of its fields, and one of a
+     * tuple built from fields copies the fields
+     */
+    @Test public void project() throws Exception {
+        ArrayList<Tuple> tuples = views();
+        tuples.add(Utility.getHeapTuple(new int[] { 3, 10, 7 }));
+        TupleDesc out = Utility.getTupleDesc(3);
+        int[] fields = { 2, 0, 1 };
+        PlanCompiler.Projector compiled = PlanCompiler.compile(tuples.get(0).getTupleDesc(), out, fields);
+        assertTrue(compiled.getClass().getName().startsWith("deerBase.CompiledPlan"));
+        for (Tuple t : tuples) {
+            Tuple r = compiled.project(t);
+            for (int i = 0; i < fields.length; i++) {
+                assertEquals(t.getField(fields[i]), r.getField(i));
+            }
+            assertEquals(t.getRecordId(), r.getRecordId());
+        }
+    }
+
+    /**
+     * Predicates of the same shape share a class, and keep their own
+     * constants; a predicate that can't be compiled is interpreted
+     */
+    @Test public void cacheAndFallback() {
+        PlanCompiler.TupleFilter lt5 = PlanCompiler.compile(TD, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(5)));
+        int classes = PlanCompiler.getNumClasses();
+        PlanCompiler.TupleFilter lt9 = PlanCompiler.compile(TD, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(9)));
+        assertEquals(classes, PlanCompiler.getNumClasses());
+        assertSame(lt5.getClass(), lt9.getClass());
+        assertTrue(!lt5.filter(tuple(7, "", 0)));
+        assertTrue(lt9.filter(tuple(7, "", 0)));
+
+        Predicate mistyped = new Predicate(1, Predicate.Op.EQUALS, new IntField(1));
+        assertSame(mistyped, PlanCompiler.compile(TD, mistyped));
+
+        Predicate p = new Predicate(0, Predicate.Op.EQUALS, new IntField(1));
+        PlanCompiler.setEnabled(false);
+        try {
+            assertSame(p, PlanCompiler.compile(TD, p));
+        } finally {
+            PlanCompiler.setEnabled(true);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PlanCompilerTest.class);
+    }
+}
@@ -0,0 +1,127 @@
+package deerBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class PoolSnapshotTest extends DeerBaseTestBase {
+
+    private HeapFile f;
+    private File snapshot;
+
+    @Before public void setUp() throws Exception {
+        // ~10 pages
+        f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        BufferPool.setScanRingThreshold(Double.MAX_VALUE);
+        Prefetcher.setDistance(0);
+        snapshot = File.createTempFile("pool", ".snapshot");
+        snapshot.deleteOnExit();
+    }
+
+    @After public void resetSettings() {
+        BufferPool.resetSnapshotFile();
+        BufferPool.resetScanRing();
+        Prefetcher.resetDistance();
+        snapshot.delete();
+    }
+
+    /**
+     * Page ids of every kind survive a write and read
+     */
+    @Test public void roundTrip() throws Exception {
+        List<PageId> pids = Arrays.asList(
+                new HeapPageId(7, 3),
+                new BTreePageId(8, 0, BTreePageId.ROOT_PTR),
+                new BTreePageId(8, 5, BTreePageId.LEAF));
+        PoolSnapshot.write(snapshot, pids);
+        assertEquals(pids, PoolSnapshot.read(snapshot));
+    }
+
+    /**
+     * A new buffer pool loaded from a snapshot scans without a miss
+     */
+    @Test public void warmStart() throws Exception {
+        Database.resetBufferPool(50);
+        SystemTestUtil.scanTuples(f);
+        Database.getBufferPool().saveSnapshot(snapshot);
+
+        BufferPool bp = Database.resetBufferPool(50);
+        assertEquals(f.getNumPages(), bp.loadSnapshot(snapshot));
+        long misses = bp.getMisses();
+        SystemTestUtil.scanTuples(f);
+        assertEquals(misses, bp.getMisses());
+    }
+
+    /**
+     * The snapshot file is saved on shutdown and loaded by warmStart()
+     */
+    @Test public void shutdownSaves() throws Exception {
+        BufferPool.setSnapshotFile(snapshot);
+        Database.resetBufferPool(50);
+        SystemTestUtil.scanTuples(f);
+        Database.getBufferPool().shutdown();
+
+        BufferPool bp = Database.resetBufferPool(50);
+        assertEquals(f.getNumPages(), bp.warmStart());
+        assertTrue(bp.isResident(new HeapPageId(f.getId(), 0)));
+    }
+
+    /**
+     * Pages of dropped tables and beyond the end of a file are skipped
+     */
+    @Test public void skipsMissingPages() throws Exception {
+        PoolSnapshot.write(snapshot, Arrays.asList(
+                new HeapPageId(f.getId(), 0),
+                new HeapPageId(f.getId(), f.getNumPages() + 5),
+                new HeapPageId(f.getId() ^ 0x5a5a5a5a, 0)));
+        BufferPool bp = Database.resetBufferPool(50);
+        assertEquals(1, bp.loadSnapshot(snapshot));
+        assertTrue(bp.isResident(new HeapPageId(f.getId(), 0)));
+        assertFalse(bp.isResident(new HeapPageId(f.getId(), f.getNumPages() + 5)));
+    }
+
+    /**
+     * A snapshot larger than the pool keeps its hottest pages
+     */
+    @Test public void keepsHottest() throws Exception {
+        Database.resetBufferPool(50);
+        SystemTestUtil.scanTuples(f);
+        // touch the first two pages again
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), 1), Permissions.READ_ONLY);
+        Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().saveSnapshot(snapshot);
+
+        // hit twice, ahead of the pages hit once
+        List<PageId> saved = PoolSnapshot.read(snapshot);
+        assertEquals(new HashSet<PageId>(Arrays.asList(new HeapPageId(f.getId(), 0), new HeapPageId(f.getId(), 1))),
+                new HashSet<PageId>(saved.subList(0, 2)));
+
+        BufferPool bp = Database.resetBufferPool(2);
+        assertEquals(2, bp.loadSnapshot(snapshot));
+        assertTrue(bp.isResident(new HeapPageId(f.getId(), 0)));
+        assertTrue(bp.isResident(new HeapPageId(f.getId(), 1)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PoolSnapshotTest.class);
+    }
+}
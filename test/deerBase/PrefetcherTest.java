@@ -0,0 +1,135 @@
+package deerBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class PrefetcherTest extends DeerBaseTestBase {
+
+    @After public void resetSettings() {
+        Prefetcher.resetDistance();
+        BufferPool.resetScanRing();
+    }
+
+    /**
+     * A heap file scan reads ahead; its pages are installed or taken from
+     * the staging area instead of being read synchronously
+     */
+    @Test public void heapFileReadAhead() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1024 * 10, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(1024 * 10, SystemTestUtil.scanTuples(f).size());
+
+        Prefetcher prefetcher = bp.getPrefetcher();
+        assertEquals(f.getNumPages() - 1, prefetcher.getIssued());
+        assertTrue(prefetcher.getUsed() + prefetcher.getInstalled() > 0);
+    }
+
+    /**
+     * A scan through a ScanRing takes its read-ahead from the staging area
+     * and leaves nothing staged behind
+     */
+    @Test public void ringScanReadAhead() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1024 * 20, null, null);
+        BufferPool bp = Database.resetBufferPool(32);
+        assertNotNull(bp.newScanRing(f));
+        assertEquals(1024 * 20, SystemTestUtil.scanTuples(f).size());
+
+        Prefetcher prefetcher = bp.getPrefetcher();
+        assertTrue(prefetcher.getUsed() > 0);
+        assertEquals(0, prefetcher.getInstalled());
+        assertEquals(0, prefetcher.getNumStaged());
+    }
+
+    /**
+     * A rewound scan reads ahead again on its second pass, e.g. the inner
+     * side of a nested-loop join
+     */
+    @Test public void rewindReadsAheadAgain() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1024 * 20, null, null);
+        // a ring smaller than the table, so the second pass reads it again
+        BufferPool.setScanRingPages(8);
+        BufferPool bp = Database.resetBufferPool(32);
+        assertNotNull(bp.newScanRing(f));
+        Prefetcher prefetcher = bp.getPrefetcher();
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int rows = 0;
+        while (it.hasNext()) {
+            it.next();
+            rows++;
+        }
+        assertEquals(1024 * 20, rows);
+        long issued = prefetcher.getIssued();
+        assertTrue(issued > 0);
+
+        it.rewind();
+        rows = 0;
+        while (it.hasNext()) {
+            it.next();
+            rows++;
+        }
+        assertEquals(1024 * 20, rows);
+        assertTrue(prefetcher.getIssued() - issued > 0);
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, prefetcher.getNumStaged());
+    }
+
+    /**
+     * Turning read-ahead off issues no reads
+     */
+    @Test public void distanceZero() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1024 * 10, null, null);
+        Prefetcher.setDistance(0);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(1024 * 10, SystemTestUtil.scanTuples(f).size());
+        assertEquals(0, bp.getPrefetcher().getIssued());
+    }
+
+    /**
+     * An invalidated staged read is never handed out
+     */
+    @Test public void invalidate() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1024, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Prefetcher prefetcher = bp.getPrefetcher();
+        PageId pid = new HeapPageId(f.getId(), 1);
+
+        prefetcher.prefetch(pid, false, 0);
+        prefetcher.invalidate(pid);
+        assertNull(prefetcher.take(pid));
+
+        prefetcher.prefetch(pid, false, 0);
+        assertNotNull(prefetcher.take(pid));
+        assertEquals(0, prefetcher.getNumStaged());
+    }
+
+    /**
+     * A B+ tree scan reads the right siblings of its leaves ahead
+     */
+    @Test public void btreeReadAhead() throws Exception {
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 1024 * 10, null, null, 0);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(1024 * 10, SystemTestUtil.scanTuples(f).size());
+        assertTrue(bp.getPrefetcher().getIssued() > 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetcherTest.class);
+    }
+}
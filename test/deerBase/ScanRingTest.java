@@ -0,0 +1,112 @@
+package deerBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class ScanRingTest extends DeerBaseTestBase {
+
+    private static final int BUFFER_PAGES = 16;
+    private static final int LARGE_ROWS = 1024 * 20;
+
+    @After public void resetRing() {
+        BufferPool.resetScanRing();
+    }
+
+    /**
+     * Unit test for ScanRing.add() and get(): the oldest page is recycled
+     */
+    @Test public void recycleOldest() {
+        ScanRing ring = new ScanRing(2);
+        Page p0 = new PageTableBenchmark.BenchPage(new HeapPageId(1, 0));
+        Page p1 = new PageTableBenchmark.BenchPage(new HeapPageId(1, 1));
+        Page p2 = new PageTableBenchmark.BenchPage(new HeapPageId(1, 2));
+        ring.add(p0);
+        ring.add(p1);
+        assertSame(p0, ring.get(new HeapPageId(1, 0)));
+        ring.add(p2);
+        assertNull(ring.get(new HeapPageId(1, 0)));
+        assertSame(p1, ring.get(new HeapPageId(1, 1)));
+        assertSame(p2, ring.get(new HeapPageId(1, 2)));
+        assertEquals(2, ring.size());
+        ring.clear();
+        assertEquals(0, ring.size());
+    }
+
+    /**
+     * Only tables larger than the threshold are scanned through a ring
+     */
+    @Test public void threshold() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapFile large = SystemTestUtil.createRandomHeapFile(2, LARGE_ROWS, null, null);
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        assertNull(bp.newScanRing(small));
+        ScanRing ring = bp.newScanRing(large);
+        assertNotNull(ring);
+        assertTrue(ring.capacity() <= large.getNumPages());
+    }
+
+    /**
+     * A page served from the ring counts as a hit of the page table too, so
+     * its hit ratio agrees with the metrics
+     */
+    @Test public void ringHitsCounted() throws Exception {
+        HeapFile large = SystemTestUtil.createRandomHeapFile(2, LARGE_ROWS, null, null);
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        ScanRing ring = bp.newScanRing(large);
+        TransactionId tid = new TransactionId();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < ring.capacity(); i++) {
+                bp.getPageForScan(tid, new HeapPageId(large.getId(), i), ring);
+            }
+        }
+        bp.transactionComplete(tid);
+        assertEquals(ring.capacity(), bp.getHits());
+        assertEquals(ring.capacity(), bp.getMisses());
+        assertEquals(bp.getMetrics().getHits(), bp.getHits());
+        assertEquals(bp.getMetrics().getMisses(), bp.getMisses());
+    }
+
+    /**
+     * A large scan does not evict a page of a small table from the buffer
+     * pool when it goes through a ring, and does without the ring.
+     */
+    @Test public void largeScanKeepsWorkingSet() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapFile large = SystemTestUtil.createRandomHeapFile(2, LARGE_ROWS, null, null);
+        assertTrue(large.getNumPages() > BUFFER_PAGES);
+
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        assertEquals(10, SystemTestUtil.scanTuples(small).size());
+        assertEquals(LARGE_ROWS, SystemTestUtil.scanTuples(large).size());
+        long misses = bp.getMisses();
+        assertEquals(10, SystemTestUtil.scanTuples(small).size());
+        assertEquals(misses, bp.getMisses());
+
+        // without the ring the large scan flushes the small table
+        BufferPool.setScanRingThreshold(Double.MAX_VALUE);
+        bp = Database.resetBufferPool(BUFFER_PAGES);
+        assertEquals(10, SystemTestUtil.scanTuples(small).size());
+        assertEquals(LARGE_ROWS, SystemTestUtil.scanTuples(large).size());
+        misses = bp.getMisses();
+        assertEquals(10, SystemTestUtil.scanTuples(small).size());
+        assertTrue(bp.getMisses() > misses);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
@@ -0,0 +1,186 @@
+package deerBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import deerBase.TestUtil.SkeletonFile;
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends DeerBaseTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private static List<String> names(TuplePage page) {
+        List<String> names = new ArrayList<String>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            names.add(((StringField) it.next().getField(1)).getValue());
+        }
+        return names;
+    }
+
+    /**
+     * Inserted tuples read back from the page and from its image
+     */
+    @Test public void insertAndReadBack() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        assertEquals(0, page.getNumTuples());
+        for (int i = 0; i < 10; i++) {
+            Tuple t = tuple(i, "name" + i);
+            page.insertTuple(t);
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(10, copy.getNumTuples());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+        int i = 0;
+        for (Iterator<Tuple> it = copy.iterator(); it.hasNext(); i++) {
+            assertTrue(TestUtil.compareTuples(tuple(i, "name" + i), it.next()));
+        }
+        assertEquals(10, i);
+    }
+
+    /**
+     * A page holds several times the tuples of a HeapPage when strings are short
+     */
+    @Test public void tuplesPerPage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        int n = 0;
+        while (!page.isFull()) {
+            page.insertTuple(tuple(n, "user" + (n % 1000)));
+            n++;
+        }
+        HeapPage heapPage = new HeapPage(pid, HeapPage.createEmptyPageData());
+        assertTrue(n >= 5 * heapPage.getNumEmptySlots());
+    }
+
+    /**
+     * Deleted slots are reused, and an insert that does not fit the free
+     * space between the directory and the tuples compacts the page
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        List<Tuple> inserted = new ArrayList<Tuple>();
+        String longName = "0123456789012345678901234567890123456789";
+        while (page.hasRoomFor(tuple(0, longName))) {
+            Tuple t = tuple(inserted.size(), longName);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        int numSlots = page.getNumSlots();
+        // every other tuple: holes, none of them at the start of the tuples
+        int deleted = 0;
+        for (int i = 0; i < inserted.size() - 1; i += 2) {
+            page.deleteTuple(inserted.get(i));
+            deleted++;
+        }
+        assertFalse(page.isSlotUsed(0));
+        assertEquals(numSlots, page.getNumSlots());
+
+        // longer than any hole
+        String longer = longName + longName;
+        Tuple t = tuple(-1, longer);
+        assertTrue(page.hasRoomFor(t));
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 0), t.getRecordId());
+        assertEquals(numSlots, page.getNumSlots());
+
+        List<String> names = names(new SlottedHeapPage(pid, page.getPageData()));
+        assertEquals(longer, names.get(0));
+        assertEquals(inserted.size() - deleted + 1, names.size());
+        for (int i = 1; i < names.size(); i++) {
+            assertEquals(longName, names.get(i));
+        }
+
+        // the last slot is trimmed once empty
+        page.deleteTuple(inserted.get(inserted.size() - 1));
+        assertTrue(page.getNumSlots() < numSlots);
+    }
+
+    /**
+     * The before-image is the page as it was when first written
+     */
+    @Test public void beforeImage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "a"));
+        page.setBeforeImage();
+        byte[] before = page.getPageData();
+        page.captureBeforeImage();
+        page.insertTuple(tuple(2, "b"));
+        assertArrayEquals(before, page.getBeforeImage().getPageData());
+        assertEquals(2, page.getNumTuples());
+        page.setBeforeImage();
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * A SlottedHeapFile grows through the buffer pool and reads back after
+     * its pages are flushed
+     */
+    @Test public void slottedHeapFile() throws Exception {
+        File file = File.createTempFile("slotted", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.fileOf(file).deleteOnExit();
+        SlottedHeapFile f = new SlottedHeapFile(file, TD);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        int rows = 0;
+        while (f.getNumPages() < 3) {
+            bp.insertTuple(tid, f.getId(), tuple(rows, "user" + rows));
+            rows++;
+        }
+        bp.transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(tuple(n, "user" + n), t));
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(rows, n);
+        assertTrue(f.readPage(new HeapPageId(f.getId(), 0)) instanceof SlottedHeapPage);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
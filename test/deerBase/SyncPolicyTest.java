@@ -0,0 +1,164 @@
+package deerBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class SyncPolicyTest extends DeerBaseTestBase {
+
+    private HeapFile f;
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, 512 * 8, null, null);
+        SyncPolicy.syncDataFiles();
+        SyncPolicy.resetCounts();
+    }
+
+    @After public void resetSettings() {
+        SyncPolicy.resetMode();
+    }
+
+    /** pages 0, 1, 2 and 5 of f, read from disk */
+    private List<Page> pages() {
+        List<Page> pages = new ArrayList<Page>();
+        for (int pgNo : new int[] { 0, 1, 2, 5 }) {
+            pages.add(f.readPage(new HeapPageId(f.getId(), pgNo)));
+        }
+        return pages;
+    }
+
+    /** A transaction that dirties two pages and commits */
+    private void commitTransaction() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int pgNo = 0; pgNo < 2; pgNo++) {
+            Page page = Database.getBufferPool().getPage(t.getId(),
+                    new HeapPageId(f.getId(), pgNo), Permissions.READ_WRITE);
+            page.markDirty(true, t.getId());
+        }
+        t.commit();
+    }
+
+    /**
+     * Forcing the log again without appending to it is a no-op
+     */
+    @Test public void logForceOnlyAfterAppend() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getLogFile().force();
+        Database.getLogFile().force();
+        assertEquals(1, SyncPolicy.getLogSyncs());
+        t.commit();
+    }
+
+    /**
+     * A batch forces the file once in PER_BATCH mode, once per run of
+     * adjacent pages in PER_WRITE mode
+     */
+    @Test public void perWriteAndPerBatch() throws Exception {
+        SyncPolicy.setMode(SyncPolicy.Mode.PER_BATCH);
+        f.writePages(pages());
+        assertEquals(1, SyncPolicy.getDataSyncs());
+
+        SyncPolicy.setMode(SyncPolicy.Mode.PER_WRITE);
+        f.writePages(pages());
+        assertEquals(3, SyncPolicy.getDataSyncs());
+        assertEquals(0, SyncPolicy.getNumUnsynced());
+    }
+
+    /**
+     * In PER_COMMIT mode, files are forced at a checkpoint only
+     */
+    @Test public void perCommitDefersToCheckpoint() throws Exception {
+        SyncPolicy.setMode(SyncPolicy.Mode.PER_COMMIT);
+        f.writePages(pages());
+        assertEquals(0, SyncPolicy.getDataSyncs());
+        assertEquals(1, SyncPolicy.getNumUnsynced());
+
+        Database.getLogFile().logCheckpoint();
+        assertEquals(1, SyncPolicy.getDataSyncs());
+        assertEquals(0, SyncPolicy.getNumUnsynced());
+    }
+
+    /**
+     * Syncs per committed transaction in each mode
+     */
+    @Test public void syncsPerCommit() throws Exception {
+        SyncPolicy.setMode(SyncPolicy.Mode.PER_WRITE);
+        commitTransaction();
+        // each update record, then the commit record
+        assertEquals(3, SyncPolicy.getLogSyncs());
+        assertEquals(2, SyncPolicy.getDataSyncs());
+
+        SyncPolicy.resetCounts();
+        SyncPolicy.setMode(SyncPolicy.Mode.PER_BATCH);
+        commitTransaction();
+        assertEquals(2, SyncPolicy.getLogSyncs());
+        assertEquals(1, SyncPolicy.getDataSyncs());
+
+        SyncPolicy.resetCounts();
+        SyncPolicy.setMode(SyncPolicy.Mode.PER_COMMIT);
+        commitTransaction();
+        assertEquals(2, SyncPolicy.getLogSyncs());
+        assertEquals(0, SyncPolicy.getDataSyncs());
+
+        SyncPolicy.resetCounts();
+        SyncPolicy.setInterval(60 * 1000);
+        SyncPolicy.setMode(SyncPolicy.Mode.PERIODIC);
+        commitTransaction();
+        // the update records, before the pages are written
+        assertEquals(1, SyncPolicy.getLogSyncs());
+        assertEquals(0, SyncPolicy.getDataSyncs());
+    }
+
+    /**
+     * In every mode, no page reaches its file before its update record was
+     * forced
+     */
+    @Test public void logForcedBeforeWrite() throws Exception {
+        int[] writes = new int[1];
+        HeapFile checked = new HeapFile(f.getFile(), f.getTupleDesc()) {
+            @Override
+            public void writePage(Page p) throws IOException {
+                assertFalse("page written before the log was forced", Database.getLogFile().unforced);
+                writes[0]++;
+                super.writePage(p);
+            }
+
+            @Override
+            public void writePages(List<Page> pages) throws IOException {
+                assertFalse("pages written before the log was forced", Database.getLogFile().unforced);
+                writes[0]++;
+                super.writePages(pages);
+            }
+        };
+        Database.getCatalog().addTable(checked, "checked");
+        SyncPolicy.setInterval(60 * 1000);
+        for (SyncPolicy.Mode mode : SyncPolicy.Mode.values()) {
+            SyncPolicy.setMode(mode);
+            writes[0] = 0;
+            commitTransaction();
+            assertTrue(mode.toString(), writes[0] > 0);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SyncPolicyTest.class);
+    }
+}
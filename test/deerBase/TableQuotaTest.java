@@ -0,0 +1,128 @@
+package deerBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class TableQuotaTest extends DeerBaseTestBase {
+
+    private static final int BUFFER_PAGES = 40;
+
+    private HeapFile small;
+    private HeapFile large;
+
+    @Before public void setUp() throws Exception {
+        // ~5 and ~50 pages
+        small = SystemTestUtil.createRandomHeapFile(2, 512 * 5, null, null);
+        large = SystemTestUtil.createRandomHeapFile(2, 512 * 50, null, null);
+        BufferPool.setScanRingThreshold(Double.MAX_VALUE);
+        Prefetcher.setDistance(0);
+    }
+
+    @After public void resetSettings() {
+        BufferPool.resetTableQuotas();
+        BufferPool.resetScanRing();
+        Prefetcher.resetDistance();
+    }
+
+    private static String name(DbFile f) {
+        return Database.getCatalog().getTableName(f.getTableId());
+    }
+
+    /**
+     * Unit test for TableQuota.parse() and parseAll()
+     */
+    @Test public void parse() {
+        assertEquals(TableQuota.Kind.PIN, TableQuota.parse("pin").getKind());
+        assertEquals(20, TableQuota.parse("cap:20%").getPages(100));
+        assertEquals(7, TableQuota.parse("CAP:7").getPages(100));
+        assertEquals(128, TableQuota.parse("reserve:128").getPages(100));
+        assertEquals(5, TableQuota.parse("reserve:5%").getPages(100));
+
+        Map<String, TableQuota> quotas = TableQuota.parseAll("venues=pin, papers=cap:20%");
+        assertEquals(2, quotas.size());
+        assertEquals(TableQuota.Kind.CAP, quotas.get("papers").getKind());
+
+        for (String bad : new String[] { "cap", "cap:0%", "reserve:-1", "evict:3", "cap:x%" }) {
+            try {
+                TableQuota.parse(bad);
+                fail("expected " + bad + " to be rejected");
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    /**
+     * A capped table evicts its own pages once it holds its share of the pool
+     */
+    @Test public void cap() throws Exception {
+        BufferPool.setTableQuota(name(large), TableQuota.cap(0.25));
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        assertEquals(512 * 5, SystemTestUtil.scanTuples(small).size());
+        assertEquals(512 * 50, SystemTestUtil.scanTuples(large).size());
+        assertTrue(bp.getNumResidentPages(large.getId()) <= BUFFER_PAGES / 4);
+        // the rest of the pool was left to the other table
+        assertEquals(small.getNumPages(), bp.getNumResidentPages(small.getId()));
+    }
+
+    /**
+     * A table with a reserved partition is not evicted by other tables
+     */
+    @Test public void reserve() throws Exception {
+        BufferPool.setTableQuota(name(small), TableQuota.reserve(8));
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        SystemTestUtil.scanTuples(small);
+        SystemTestUtil.scanTuples(large);
+        assertEquals(small.getNumPages(), bp.getNumResidentPages(small.getId()));
+        assertTrue(bp.getNumResidentPages(large.getId()) <= BUFFER_PAGES - 8);
+    }
+
+    /**
+     * A pinned table is loaded on first use and stays resident
+     */
+    @Test public void pin() throws Exception {
+        BufferPool.setTableQuota(name(small), TableQuota.pin());
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(small.getId(), 0), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertEquals(small.getNumPages(), bp.getNumResidentPages(small.getId()));
+
+        long misses = bp.getMisses();
+        assertEquals(512 * 50, SystemTestUtil.scanTuples(large).size());
+        assertEquals(512 * 5, SystemTestUtil.scanTuples(small).size());
+        assertEquals(small.getNumPages(), bp.getNumResidentPages(small.getId()));
+        // only the large table missed
+        assertEquals(misses + large.getNumPages(), bp.getMisses());
+        // the partition's frames came out of the shared table
+        assertTrue(bp.getNumUsedPages() <= BUFFER_PAGES);
+    }
+
+    /**
+     * A table larger than loadTableRatio of the pool is not pinned
+     */
+    @Test public void pinTooLarge() throws Exception {
+        BufferPool.setTableQuota(name(large), TableQuota.pin());
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        assertEquals(512 * 50, SystemTestUtil.scanTuples(large).size());
+        assertTrue(bp.getNumResidentPages(large.getId()) <= BUFFER_PAGES);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TableQuotaTest.class);
+    }
+}
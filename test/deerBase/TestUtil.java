@@ -408,6 +408,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            FreeSpaceMap.fileOf(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
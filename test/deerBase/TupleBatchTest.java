@@ -0,0 +1,106 @@
+package deerBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import deerBase.systemtest.DeerBaseTestBase;
+import deerBase.systemtest.SystemTestUtil;
+
+public class TupleBatchTest extends DeerBaseTestBase {
+
+    /**
+     * select narrows the selection without moving the rows
+     */
+    @Test public void select() {
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(2));
+        for (int i = 0; i < 10; i++) {
+            batch.add(Utility.getHeapTuple(new int[] { i, i % 2 }));
+        }
+        batch.select(PlanCompiler.compile(batch.getTupleDesc(),
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(5))));
+        assertEquals(4, batch.size());
+        batch.select(new Predicate(1, Predicate.Op.EQUALS, new IntField(1)));
+        assertEquals(2, batch.size());
+        assertEquals(7, batch.getRow(0));
+        assertEquals(new IntField(9), batch.get(1).getField(0));
+        assertEquals(10, batch.getInts(0).length);
+    }
+
+    /**
+     * A filter over a scan returns full batches of the scan, narrowed, and
+     * the tuple hasNext fetched ahead is not lost when switching to batches
+     */
+    @Test public void mixNextAndBatches() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, 50, null, tuples);
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < 25) {
+                expected++;
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(25)), scan);
+        filter.open();
+        assertTrue(filter.hasNext());
+        int count = 0;
+        if (filter.next() != null) {
+            count++;
+        }
+        assertTrue(filter.hasNext());
+        TupleBatch batch;
+        while ((batch = filter.nextBatch()) != null) {
+            assertTrue(batch.size() > 0 && batch.size() <= TupleBatch.MAX_ROWS);
+            count += batch.size();
+        }
+        assertEquals(expected, count);
+        assertNull(filter.nextBatch());
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An aggregate reading batches of a filter groups the tuples it passes
+     */
+    @Test public void aggregate() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, 50, null, tuples);
+        HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) >= 10) {
+                expected.merge(t.get(0), t.get(1), Integer::sum);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10)),
+                new SeqScan(tid, f.getId(), "t"));
+        Aggregate agg = new Aggregate(filter, 1, 0, Aggregator.Op.SUM);
+        agg.open();
+        HashMap<Integer, Integer> actual = new HashMap<Integer, Integer>();
+        while (agg.hasNext()) {
+            Tuple t = agg.next();
+            actual.put(t.getInt(0), t.getInt(1));
+        }
+        assertEquals(expected, actual);
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
@@ -1,6 +1,7 @@
 package deerBase;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -63,6 +64,41 @@ public class TupleTest extends DeerBaseTestBase {
 	}
     }
 
+    /**
+     * A view reads its fields from the buffer, serialized as Field.serialize
+     * does, and a field set on it takes precedence
+     */
+    @Test public void view() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Tuple tup = new Tuple(td);
+        tup.setField(0, new IntField(7));
+        tup.setField(1, new StringField("deer", Type.STRING_LEN));
+        tup.setField(2, new IntField(-3));
+        java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
+        baos.write(new byte[5]);
+        tup.serialize(new java.io.DataOutputStream(baos));
+        byte[] data = baos.toByteArray();
+        assertEquals(5 + td.getSize(), data.length);
+        assertEquals(4, td.getOffset(1));
+
+        Tuple view = new Tuple(td, data, 5);
+        assertEquals(7, view.getInt(0));
+        assertEquals("deer", view.getString(1));
+        assertEquals(new IntField(-3), view.getField(2));
+        assertEquals(tup.toString(), view.toString());
+        // decoded once, then kept
+        assertSame(view.getField(1), view.getField(1));
+
+        view.setField(2, new IntField(4));
+        assertEquals(4, view.getInt(2));
+        assertEquals(new IntField(4), view.getField(2));
+        assertEquals(7, view.getInt(0));
+
+        Tuple both = Tuple.concat(TupleDesc.merge(td, td), new Tuple(td, data, 5), tup);
+        assertEquals(-3, both.getInt(5));
+        assertEquals("deer", both.getString(1));
+    }
+
     /**
      * JUnit suite target
      */
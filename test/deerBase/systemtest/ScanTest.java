@@ -5,6 +5,7 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -83,6 +84,12 @@ public class ScanTest extends DeerBaseTestBase {
                 return super.readPage(pid);
             }
 
+            @Override
+            public List<Page> readPages(List<PageId> pids) throws IOException {
+                readCount += pids.size();
+                return super.readPages(pids);
+            }
+
             public int readCount = 0;
         }
 
@@ -81,6 +81,7 @@ public class SystemTestUtil {
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        FreeSpaceMap.fileOf(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }
@@ -146,6 +147,25 @@ public class SystemTestUtil {
         }
     }
 
+    /**
+     * Read every tuple of f, through its iterator, in a transaction of its
+     * own that is committed once the scan is done.
+     * @return the tuples of f in the order read, as lists of ints
+     */
+    public static ArrayList<ArrayList<Integer>> scanTuples(DbFile f)
+            throws DbException, TransactionAbortedException, IOException {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext()) {
+            tuples.add(tupleToList(it.next()));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
     /**
      * Returns number of bytes of RAM used by JVM after calling System.gc many times.
      * @return amount of RAM (in bytes) used by JVM